@@ -2,6 +2,7 @@ module pl.smallapps.spritesheetgluer {
   requires java.desktop;
   requires javafx.controls;
   requires javafx.fxml;
+  requires static jdk.incubator.vector;
 
   requires org.controlsfx.controls;
   requires com.dlsc.formsfx;
@@ -13,6 +14,7 @@ module pl.smallapps.spritesheetgluer {
   exports pl.spritesheetgluer;
   exports pl.spritesheetgluer.definition;
   opens pl.spritesheetgluer.definition to javafx.fxml;
+  exports pl.spritesheetgluer.image;
   exports pl.spritesheetgluer.ui;
   opens pl.spritesheetgluer.ui to javafx.fxml;
   exports pl.spritesheetgluer.sprite;
@@ -0,0 +1,12 @@
+package pl.spritesheetgluer.image;
+
+import java.io.IOException;
+
+/**
+ * Random-access source of non-premultiplied ARGB rows; must be safe to read from
+ * several threads at once.
+ */
+@FunctionalInterface
+interface ArgbRowSource {
+  void readRow(int y, int[] target) throws IOException;
+}
@@ -0,0 +1,71 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Writable ARGB pixel area an atlas is composed on. Surfaces start fully transparent.
+ * Drawing happens from one thread; once drawing is done, rows may be read from several
+ * threads at once. Off-heap surfaces hold native memory until they are closed.
+ */
+public interface AtlasSurface extends AutoCloseable {
+  static AtlasSurface create(Kind kind, int width, int height) throws IOException {
+    return switch (kind) {
+      case HEAP -> new BufferedImageSurface(width, height);
+      case TILED -> new TiledAtlasSurface(width, height);
+      case OFF_HEAP -> OffHeapAtlasSurface.allocate(width, height);
+      case MAPPED -> OffHeapAtlasSurface.mapped(width, height);
+    };
+  }
+
+  int width();
+
+  int height();
+
+  /**
+   * Draws {@code source} with its top-left corner at ({@code x}, {@code y}) using
+   * source-over compositing, with exactly the result of {@code Graphics2D.drawImage}
+   * on a {@code TYPE_INT_ARGB} image of the same size.
+   */
+  void draw(BufferedImage source, int x, int y);
+
+  /**
+   * Copies the {@code width * height} pixels at ({@code x}, {@code y}) as non-premultiplied
+   * ARGB into {@code target}, starting at {@code offset} with {@code stride} ints per row.
+   */
+  void readRows(int x, int y, int width, int height, int[] target, int offset, int stride);
+
+  /**
+   * Bytes of pixel memory currently held, on or off the heap.
+   */
+  long pixelBytes();
+
+  /**
+   * Returns the surface as a single image. Heap surfaces return their backing image;
+   * the others copy, so this is meant for small atlases and tests.
+   */
+  BufferedImage toImage();
+
+  @Override
+  void close();
+
+  enum Kind {
+    /**
+     * One {@code BufferedImage}, i.e. one {@code int[]} of the whole atlas.
+     */
+    HEAP,
+    /**
+     * On-heap tiles of at most {@link TiledAtlasSurface#DEFAULT_TILE_SIZE} squared pixels,
+     * allocated when first drawn to.
+     */
+    TILED,
+    /**
+     * Native memory from a shared arena.
+     */
+    OFF_HEAP,
+    /**
+     * A memory-mapped scratch file in the temporary directory, deleted on close.
+     */
+    MAPPED
+  }
+}
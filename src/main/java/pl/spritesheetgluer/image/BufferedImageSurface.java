@@ -0,0 +1,116 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Objects;
+
+/**
+ * Surface backed by a single image, normally a {@code TYPE_INT_ARGB} one whose pixel
+ * array is read and blitted into directly. Other image types go through {@code getRGB}
+ * and {@code Graphics2D}.
+ */
+public final class BufferedImageSurface implements AtlasSurface {
+  private final BufferedImage image;
+  private final int[] pixels;
+  private final int scanlineStride;
+  private final RasterBlitter blitter = new RasterBlitter();
+
+  public BufferedImageSurface(int width, int height) {
+    this(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+  }
+
+  /**
+   * Wraps {@code image}; its current pixels become the surface content.
+   */
+  public BufferedImageSurface(BufferedImage image) {
+    this.image = Objects.requireNonNull(image, "image");
+    if (image.getType() == BufferedImage.TYPE_INT_ARGB
+        && image.getRaster().getDataBuffer() instanceof DataBufferInt dataBuffer
+        && dataBuffer.getOffset() == 0
+        && image.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel
+        && image.getRaster().getSampleModelTranslateX() == 0
+        && image.getRaster().getSampleModelTranslateY() == 0) {
+      this.pixels = dataBuffer.getData();
+      this.scanlineStride = sampleModel.getScanlineStride();
+    } else {
+      this.pixels = null;
+      this.scanlineStride = 0;
+    }
+  }
+
+  public BufferedImage image() {
+    return image;
+  }
+
+  @Override
+  public int width() {
+    return image.getWidth();
+  }
+
+  @Override
+  public int height() {
+    return image.getHeight();
+  }
+
+  @Override
+  public void draw(BufferedImage source, int x, int y) {
+    int left = Math.max(0, x);
+    int top = Math.max(0, y);
+    int right = Math.min(width(), x + source.getWidth());
+    int bottom = Math.min(height(), y + source.getHeight());
+    if (left >= right || top >= bottom) {
+      return;
+    }
+    if (pixels != null && RasterBlitter.outpacesDrawImage(source) && isTransparent(left, top, right, bottom)) {
+      blitter.blit(source, left - x, top - y, right - left, bottom - top, pixels, top * scanlineStride + left, scanlineStride);
+      return;
+    }
+    Graphics2D graphics = image.createGraphics();
+    try {
+      graphics.setComposite(AlphaComposite.SrcOver);
+      graphics.drawImage(source, x, y, null);
+    } finally {
+      graphics.dispose();
+    }
+  }
+
+  @Override
+  public void readRows(int x, int y, int width, int height, int[] target, int offset, int stride) {
+    Objects.checkFromIndexSize(x, width, width());
+    Objects.checkFromIndexSize(y, height, height());
+    if (pixels == null) {
+      image.getRGB(x, y, width, height, target, offset, stride);
+      return;
+    }
+    for (int row = 0; row < height; row++) {
+      System.arraycopy(pixels, (y + row) * scanlineStride + x, target, offset + row * stride, width);
+    }
+  }
+
+  @Override
+  public long pixelBytes() {
+    return ImageMemory.pixelBytes(image);
+  }
+
+  @Override
+  public BufferedImage toImage() {
+    return image;
+  }
+
+  private boolean isTransparent(int left, int top, int right, int bottom) {
+    for (int row = top; row < bottom; row++) {
+      int start = row * scanlineStride;
+      if (!RasterBlitter.isTransparent(pixels, start + left, start + right)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,62 @@
+package pl.spritesheetgluer.image;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serves an in-memory file image to ImageIO readers without copying it again.
+ * The buffer is read with absolute gets, so its position is never changed.
+ */
+final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+  private final ByteBuffer buffer;
+
+  ByteBufferImageInputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkClosed();
+    bitOffset = 0;
+    if (streamPos >= buffer.limit()) {
+      return -1;
+    }
+    return buffer.get((int) streamPos++) & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] target, int offset, int length) throws IOException {
+    checkClosed();
+    if (offset < 0 || length < 0 || offset + length > target.length) {
+      throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+    }
+    bitOffset = 0;
+    if (length == 0) {
+      return 0;
+    }
+    long remaining = buffer.limit() - streamPos;
+    if (remaining <= 0) {
+      return -1;
+    }
+    int count = (int) Math.min(length, remaining);
+    buffer.get((int) streamPos, target, offset, count);
+    streamPos += count;
+    return count;
+  }
+
+  @Override
+  public long length() {
+    return buffer.limit();
+  }
+
+  @Override
+  public boolean isCached() {
+    return true;
+  }
+
+  @Override
+  public boolean isCachedMemory() {
+    return true;
+  }
+}
@@ -0,0 +1,56 @@
+package pl.spritesheetgluer.image;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps released read buffers, bucketed by power-of-two capacity, so that a long run of
+ * similarly sized frames reuses a handful of buffers instead of allocating one per file.
+ */
+final class ByteBufferPool {
+  private static final int MIN_CAPACITY = 64 * 1024;
+
+  private final long maxRetainedBytes;
+  private final Map<Integer, Deque<ByteBuffer>> buckets = new HashMap<>();
+  private long retainedBytes;
+
+  ByteBufferPool(long maxRetainedBytes) {
+    if (maxRetainedBytes < 0) {
+      throw new IllegalArgumentException("maxRetainedBytes must not be negative: " + maxRetainedBytes);
+    }
+    this.maxRetainedBytes = maxRetainedBytes;
+  }
+
+  synchronized ByteBuffer acquire(int size) {
+    int capacity = bucketCapacity(size);
+    Deque<ByteBuffer> bucket = buckets.get(capacity);
+    ByteBuffer buffer = bucket == null ? null : bucket.pollFirst();
+    if (buffer == null) {
+      return ByteBuffer.allocate(capacity);
+    }
+    retainedBytes -= capacity;
+    return buffer.clear();
+  }
+
+  synchronized void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (capacity != bucketCapacity(capacity) || retainedBytes + capacity > maxRetainedBytes) {
+      return;
+    }
+    buckets.computeIfAbsent(capacity, unused -> new ArrayDeque<>()).addFirst(buffer.clear());
+    retainedBytes += capacity;
+  }
+
+  private int bucketCapacity(int size) {
+    if (size <= MIN_CAPACITY) {
+      return MIN_CAPACITY;
+    }
+    if (size > 1 << 30) {
+      return size;
+    }
+    return Integer.highestOneBit(size - 1) << 1;
+  }
+}
@@ -0,0 +1,60 @@
+package pl.spritesheetgluer.image;
+
+/**
+ * Small open-addressing set of ARGB colors that remembers insertion indices and refuses
+ * to grow past {@link #MAX_COLORS}, the size of a PNG palette.
+ */
+final class ColorTable {
+  static final int MAX_COLORS = 256;
+  private static final int SLOT_BITS = 10;
+  private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+  private final int[] colors = new int[MAX_COLORS];
+  // Palette index + 1 per slot, 0 marks an empty slot.
+  private final short[] slots = new short[1 << SLOT_BITS];
+  private int size;
+
+  /**
+   * Adds {@code argb} unless it is already present; returns {@code false} when the
+   * table is full and the color is new.
+   */
+  boolean add(int argb) {
+    int slot = slot(argb);
+    while (slots[slot] != 0) {
+      if (colors[slots[slot] - 1] == argb) {
+        return true;
+      }
+      slot = (slot + 1) & SLOT_MASK;
+    }
+    if (size == MAX_COLORS) {
+      return false;
+    }
+    colors[size] = argb;
+    slots[slot] = (short) ++size;
+    return true;
+  }
+
+  int indexOf(int argb) {
+    int slot = slot(argb);
+    while (slots[slot] != 0) {
+      int index = slots[slot] - 1;
+      if (colors[index] == argb) {
+        return index;
+      }
+      slot = (slot + 1) & SLOT_MASK;
+    }
+    return -1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int color(int index) {
+    return colors[index];
+  }
+
+  private static int slot(int argb) {
+    return (argb * 0x9E3779B9) >>> (Integer.SIZE - SLOT_BITS);
+  }
+}
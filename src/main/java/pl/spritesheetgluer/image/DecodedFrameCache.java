@@ -0,0 +1,385 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of decoded frames, shared by every workflow through {@link FrameIngest}.
+ * Each entry is the frame's ARGB pixels, as drawing it onto transparent pixels leaves
+ * them, in a file that a hit copies straight into a frame instead of decoding the source
+ * again.
+ * Entries are named after a SHA-256 of the source bytes; a small identity file per source
+ * path remembers which entry its last seen size and modification time map to, so an
+ * unchanged source is found without reading it. The entries are evicted least recently
+ * used first once they take more than {@code maxBytes}; file modification times keep the
+ * order across runs.
+ */
+public final class DecodedFrameCache {
+  public static final long DEFAULT_MAX_BYTES = 1L << 30;
+  private static final int MAGIC = 0x53534746;
+  // 3: gray frames with alpha and 16-bit gray frames are cached as drawImage draws them.
+  private static final int VERSION = 3;
+  private static final int HEADER_BYTES = 4 * Integer.BYTES;
+  private static final int READ_CHUNK_BYTES = 64 * 1024;
+  private static final String ENTRY_SUFFIX = ".argb";
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final Path directory;
+  private final Path identities;
+  private final long maxBytes;
+  private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesSaved = new AtomicLong();
+
+  public DecodedFrameCache(Path directory) throws IOException {
+    this(directory, DEFAULT_MAX_BYTES);
+  }
+
+  public DecodedFrameCache(Path directory, long maxBytes) throws IOException {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.directory = directory.toAbsolutePath();
+    this.identities = this.directory.resolve("identities");
+    this.maxBytes = maxBytes;
+    Files.createDirectories(identities);
+    loadEntries();
+  }
+
+  /**
+   * {@code ~/.sprite-sheet-gluer/frame-cache}.
+   */
+  public static Path defaultDirectory() {
+    return Path.of(System.getProperty("user.home"), ".sprite-sheet-gluer", "frame-cache");
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long sizeBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Hits, misses and saved bytes since this cache was opened.
+   */
+  public FrameCacheStats stats() {
+    return new FrameCacheStats(hits.get(), misses.get(), bytesSaved.get());
+  }
+
+  /**
+   * Size and modification time of {@code file}; reading them is all a hit costs.
+   */
+  Identity identify(Path file) throws IOException {
+    Path absolute = file.toAbsolutePath().normalize();
+    BasicFileAttributes attributes = Files.readAttributes(absolute, BasicFileAttributes.class);
+    return new Identity(absolute.toString(), attributes.size(), attributes.lastModifiedTime().toMillis());
+  }
+
+  /**
+   * Reads the entry the identity file of {@code identity} points to, or returns
+   * {@code null} when the source changed since or was never cached.
+   */
+  BufferedImage lookup(Identity identity) {
+    String key = readIdentity(identity);
+    return key == null ? null : read(key);
+  }
+
+  /**
+   * Reads the entry for source bytes whose {@link #contentKey} is {@code contentKey},
+   * remembering it for {@code identity}, or returns {@code null} on a miss.
+   */
+  BufferedImage lookup(Identity identity, String contentKey) {
+    BufferedImage image = read(contentKey);
+    if (image != null) {
+      writeIdentity(identity, contentKey);
+    }
+    return image;
+  }
+
+  /**
+   * Stores {@code image}, decoded from the bytes whose key is {@code contentKey}. Failures
+   * are ignored: the cache only ever saves work.
+   */
+  void store(Identity identity, String contentKey, BufferedImage image) {
+    misses.incrementAndGet();
+    long size = HEADER_BYTES + ImageMemory.argbBytes(image.getWidth(), image.getHeight());
+    if (size > maxBytes) {
+      return;
+    }
+    synchronized (this) {
+      if (entries.containsKey(contentKey)) {
+        writeIdentity(identity, contentKey);
+        return;
+      }
+    }
+    Path entry = entryPath(contentKey);
+    Path temporary = directory.resolve(contentKey + "." + Thread.currentThread().threadId() + ".tmp");
+    try {
+      writeEntry(temporary, image);
+      move(temporary, entry);
+    } catch (IOException error) {
+      deleteQuietly(temporary);
+      return;
+    }
+    writeIdentity(identity, contentKey);
+    synchronized (this) {
+      if (entries.put(contentKey, size) == null) {
+        totalBytes += size;
+      }
+      evict();
+    }
+  }
+
+  /**
+   * A key for the source bytes from position to limit of {@code bytes}.
+   */
+  static String contentKey(ByteBuffer bytes) {
+    MessageDigest digest = sha256();
+    digest.update(bytes.duplicate());
+    return HEX.formatHex(digest.digest(), 0, 16);
+  }
+
+  /**
+   * Copies the entry's pixels into a new frame, or returns {@code null} on a miss. Only an
+   * entry whose header or size is wrong is evicted; a read that fails for any other
+   * reason, e.g. a file briefly locked by another process, is just a miss.
+   */
+  private BufferedImage read(String key) {
+    synchronized (this) {
+      if (entries.get(key) == null) {
+        return null;
+      }
+    }
+    Path entry = entryPath(key);
+    try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header);
+      int width = header.getInt(8);
+      int height = header.getInt(12);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+          || width <= 0 || height <= 0
+          || HEADER_BYTES + ImageMemory.argbBytes(width, height) != channel.size()) {
+        drop(key);
+        return null;
+      }
+      // Copied rather than mapped: every mapping would hold a file mapping until the frame
+      // is collected, and long runs would run out of them.
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(READ_CHUNK_BYTES, ImageMemory.argbBytes(width, height)))
+          .order(ByteOrder.LITTLE_ENDIAN);
+      for (int offset = 0; offset < pixels.length; ) {
+        bytes.clear().limit(Math.min(bytes.capacity(), (pixels.length - offset) * Integer.BYTES));
+        readFully(channel, bytes);
+        int count = bytes.limit() / Integer.BYTES;
+        bytes.asIntBuffer().get(pixels, offset, count);
+        offset += count;
+      }
+      touch(entry);
+      hits.incrementAndGet();
+      bytesSaved.addAndGet(ImageMemory.argbBytes(width, height));
+      return image;
+    } catch (NoSuchFileException error) {
+      drop(key);
+      return null;
+    } catch (IOException error) {
+      return null;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      if (channel.read(bytes) < 0) {
+        throw new EOFException("Cache entry ended early");
+      }
+    }
+    bytes.flip();
+  }
+
+  private void drop(String key) {
+    synchronized (this) {
+      Long size = entries.remove(key);
+      if (size != null) {
+        totalBytes -= size;
+      }
+    }
+    deleteQuietly(entryPath(key));
+  }
+
+  private static void writeEntry(Path temporary, BufferedImage image) throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    ByteBuffer bytes = ByteBuffer.allocate(Math.max(HEADER_BYTES, width * Integer.BYTES))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    try (FileChannel channel = FileChannel.open(
+        temporary,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE
+    )) {
+      bytes.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).flip();
+      writeFully(channel, bytes);
+      RasterBlitter blitter = new RasterBlitter();
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        blitter.blitRow(image, 0, y, width, row, 0);
+        bytes.clear();
+        bytes.asIntBuffer().put(row);
+        bytes.limit(width * Integer.BYTES);
+        writeFully(channel, bytes);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+  }
+
+  private String readIdentity(Identity identity) {
+    try {
+      String[] fields = Files.readString(identityPath(identity), StandardCharsets.UTF_8).trim().split(" ");
+      if (fields.length == 3
+          && Long.parseLong(fields[0]) == identity.size()
+          && Long.parseLong(fields[1]) == identity.modified()) {
+        return fields[2];
+      }
+    } catch (IOException | NumberFormatException error) {
+      // No identity file yet, or a damaged one: the source is read and hashed instead.
+    }
+    return null;
+  }
+
+  private void writeIdentity(Identity identity, String contentKey) {
+    Path path = identityPath(identity);
+    Path temporary = path.resolveSibling(path.getFileName() + "." + Thread.currentThread().threadId() + ".tmp");
+    try {
+      Files.writeString(temporary, identity.size() + " " + identity.modified() + " " + contentKey);
+      move(temporary, path);
+    } catch (IOException error) {
+      deleteQuietly(temporary);
+    }
+  }
+
+  private void loadEntries() throws IOException {
+    List<CachedEntry> found = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".tmp")) {
+          deleteQuietly(file);
+        } else if (name.endsWith(ENTRY_SUFFIX)) {
+          BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+          found.add(new CachedEntry(
+              name.substring(0, name.length() - ENTRY_SUFFIX.length()),
+              attributes.size(),
+              attributes.lastModifiedTime().toMillis()
+          ));
+        }
+      }
+    }
+    found.sort(Comparator.comparingLong(CachedEntry::lastUsed));
+    synchronized (this) {
+      for (CachedEntry entry : found) {
+        entries.put(entry.key(), entry.size());
+        totalBytes += entry.size();
+      }
+      evict();
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      eldest.remove();
+      totalBytes -= entry.getValue();
+      deleteQuietly(entryPath(entry.getKey()));
+    }
+  }
+
+  private Path entryPath(String key) {
+    return directory.resolve(key + ENTRY_SUFFIX);
+  }
+
+  private Path identityPath(Identity identity) {
+    MessageDigest digest = sha256();
+    digest.update(identity.path().getBytes(StandardCharsets.UTF_8));
+    return identities.resolve(HEX.formatHex(digest.digest(), 0, 16));
+  }
+
+  private static void touch(Path entry) {
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException error) {
+      // Only the eviction order across runs suffers.
+    }
+  }
+
+  private static void move(Path from, Path to) throws IOException {
+    try {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException error) {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException error) {
+      // A file in use cannot be deleted on some platforms; the next run cleans it up.
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException("SHA-256 is not available", error);
+    }
+  }
+
+  /**
+   * Where a source file lives, and its size and modification time when it was read.
+   */
+  record Identity(String path, long size, long modified) {
+  }
+
+  private record CachedEntry(String key, long size, long lastUsed) {
+  }
+}
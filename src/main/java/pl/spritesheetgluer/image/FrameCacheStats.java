@@ -0,0 +1,21 @@
+package pl.spritesheetgluer.image;
+
+/**
+ * Decoded-frame cache activity: frames copied from the cache, frames that had to be
+ * decoded, and the decoded pixel bytes the hits did not have to produce.
+ */
+public record FrameCacheStats(long hits, long misses, long bytesSaved) {
+  public static final FrameCacheStats NONE = new FrameCacheStats(0, 0, 0);
+
+  public FrameCacheStats {
+    if (hits < 0 || misses < 0 || bytesSaved < 0) {
+      throw new IllegalArgumentException(
+          "Cache counters must not be negative: " + hits + ", " + misses + ", " + bytesSaved
+      );
+    }
+  }
+
+  public FrameCacheStats plus(FrameCacheStats other) {
+    return new FrameCacheStats(hits + other.hits, misses + other.misses, bytesSaved + other.bytesSaved);
+  }
+}
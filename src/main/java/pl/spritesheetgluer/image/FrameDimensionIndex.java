@@ -0,0 +1,185 @@
+package pl.spritesheetgluer.image;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Frame sizes, remembered per folder in a hidden {@value #INDEX_FILE} file next to the
+ * frames and keyed by file name, size and modification time. A frame whose size and
+ * modification time match its entry costs one file-attribute read; only new or changed
+ * frames have their header probed, after which the folder's index is rewritten. Loaded
+ * folders stay in memory, so opening a folder again in the same session does not even
+ * read the index file. Instances are thread-safe.
+ */
+public final class FrameDimensionIndex {
+  public static final String INDEX_FILE = ".frame-sizes";
+  private static final String HEADER = "sprite-sheet-gluer frame sizes 1";
+
+  private final ImageHeaderProbe probe;
+  private final Map<Path, Folder> folders = new ConcurrentHashMap<>();
+
+  public FrameDimensionIndex() {
+    this(new ImageHeaderProbe());
+  }
+
+  public FrameDimensionIndex(ImageHeaderProbe probe) {
+    this.probe = Objects.requireNonNull(probe, "probe");
+  }
+
+  public ImageSize size(Path file) throws IOException {
+    return sizes(List.of(file)).get(0);
+  }
+
+  /**
+   * Returns the size of every file in {@code files}, in order. New and changed files are
+   * probed in parallel.
+   */
+  public List<ImageSize> sizes(List<Path> files) throws IOException {
+    ImageSize[] sizes = new ImageSize[files.size()];
+    Map<Path, List<Integer>> byFolder = new LinkedHashMap<>();
+    for (int index = 0; index < files.size(); index++) {
+      Path folder = files.get(index).toAbsolutePath().normalize().getParent();
+      byFolder.computeIfAbsent(folder, unused -> new ArrayList<>()).add(index);
+    }
+    for (Map.Entry<Path, List<Integer>> entry : byFolder.entrySet()) {
+      folders.computeIfAbsent(entry.getKey(), Folder::new).resolve(files, entry.getValue(), sizes);
+    }
+    return Arrays.asList(sizes);
+  }
+
+  private final class Folder {
+    private final Path directory;
+    private Map<String, Entry> entries;
+
+    private Folder(Path directory) {
+      this.directory = directory;
+    }
+
+    synchronized void resolve(List<Path> files, List<Integer> indices, ImageSize[] sizes) throws IOException {
+      if (entries == null) {
+        entries = load();
+      }
+      List<Integer> missing = new ArrayList<>();
+      List<Entry> stats = new ArrayList<>();
+      for (int index : indices) {
+        Path file = files.get(index);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String name = file.getFileName().toString();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Entry known = entries.get(name);
+        if (known != null && known.fileSize() == attributes.size() && known.modified() == modified) {
+          sizes[index] = known.size();
+        } else {
+          missing.add(index);
+          stats.add(new Entry(attributes.size(), modified, null));
+        }
+      }
+      if (missing.isEmpty()) {
+        return;
+      }
+
+      ImageSize[] probed = new ImageSize[missing.size()];
+      try {
+        IntStream.range(0, missing.size()).parallel().forEach(position -> {
+          try {
+            probed[position] = probe.probe(files.get(missing.get(position)));
+          } catch (IOException error) {
+            throw new UncheckedIOException(error);
+          }
+        });
+      } catch (UncheckedIOException error) {
+        throw error.getCause();
+      }
+      for (int position = 0; position < missing.size(); position++) {
+        int index = missing.get(position);
+        Entry stat = stats.get(position);
+        sizes[index] = probed[position];
+        entries.put(files.get(index).getFileName().toString(), new Entry(stat.fileSize(), stat.modified(), probed[position]));
+      }
+      save();
+    }
+
+    private Map<String, Entry> load() {
+      Map<String, Entry> loaded = new HashMap<>();
+      Path indexFile = directory.resolve(INDEX_FILE);
+      try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+        if (!HEADER.equals(reader.readLine())) {
+          return loaded;
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+          // size, modified, width, height, then the name, which may contain tabs.
+          String[] fields = line.split("\t", 5);
+          if (fields.length == 5) {
+            loaded.put(fields[4], new Entry(
+                Long.parseLong(fields[0]),
+                Long.parseLong(fields[1]),
+                new ImageSize(Integer.parseInt(fields[2]), Integer.parseInt(fields[3]))
+            ));
+          }
+        }
+      } catch (NoSuchFileException error) {
+        return loaded;
+      } catch (IOException | RuntimeException error) {
+        // A damaged index is rebuilt from the frame headers.
+        return new HashMap<>();
+      }
+      return loaded;
+    }
+
+    /**
+     * Writes the index, dropping entries of files that are gone. Failing to write it, for
+     * example in a read-only folder, only costs the next run the probes.
+     */
+    private void save() {
+      entries.keySet().removeIf(name -> !Files.exists(directory.resolve(name)));
+      Path indexFile = directory.resolve(INDEX_FILE);
+      Path temporary = directory.resolve(INDEX_FILE + ".tmp");
+      try {
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+          writer.write(HEADER);
+          writer.newLine();
+          for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            writer.write(value.fileSize() + "\t" + value.modified()
+                + "\t" + value.size().width() + "\t" + value.size().height()
+                + "\t" + entry.getKey());
+            writer.newLine();
+          }
+        }
+        try {
+          Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException error) {
+          Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } catch (IOException error) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException ignored) {
+          // Nothing else to clean up.
+        }
+      }
+    }
+  }
+
+  private record Entry(long fileSize, long modified, ImageSize size) {
+  }
+}
@@ -0,0 +1,257 @@
+package pl.spritesheetgluer.image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared image ingest: file bytes are read through a {@link FileChannel} into pooled
+ * buffers, and decoders consume them from memory. A {@link Batch} reads up to
+ * {@code readAhead} files ahead of the decoder so disk or network latency overlaps
+ * with decoding. With a {@link DecodedFrameCache}, frames whose source has not changed are
+ * copied from the cache instead of being read and decoded.
+ */
+public class FrameIngest {
+  public static final int DEFAULT_READ_AHEAD = 8;
+  private static final long DEFAULT_POOL_BYTES = 64L * 1024 * 1024;
+
+  private final int readAhead;
+  private final ByteBufferPool bufferPool;
+  private final DecodedFrameCache cache;
+
+  public FrameIngest() {
+    this(DEFAULT_READ_AHEAD);
+  }
+
+  public FrameIngest(int readAhead) {
+    this(readAhead, null);
+  }
+
+  public FrameIngest(DecodedFrameCache cache) {
+    this(DEFAULT_READ_AHEAD, Objects.requireNonNull(cache, "cache"));
+  }
+
+  private FrameIngest(int readAhead, DecodedFrameCache cache) {
+    if (readAhead <= 0) {
+      throw new IllegalArgumentException("readAhead must be positive: " + readAhead);
+    }
+    this.readAhead = readAhead;
+    this.bufferPool = new ByteBufferPool(DEFAULT_POOL_BYTES);
+    this.cache = cache;
+  }
+
+  public int readAhead() {
+    return readAhead;
+  }
+
+  /**
+   * Reads and decodes a single image without read-ahead.
+   */
+  public BufferedImage read(Path path) throws IOException {
+    return load(path, fetch(path), new CacheCounters());
+  }
+
+  /**
+   * Opens a read-ahead batch over {@code paths}. Frames may be decoded from any thread,
+   * in any order, but reading ahead follows the list order.
+   */
+  public Batch open(List<Path> paths) {
+    return new Batch(paths);
+  }
+
+  /**
+   * Copies {@code path} from the cache when its size and modification time are the ones
+   * cached, and reads its bytes otherwise.
+   */
+  private Fetched fetch(Path path) throws IOException {
+    if (cache == null) {
+      return new Fetched(readBytes(path), null, null);
+    }
+    DecodedFrameCache.Identity identity = cache.identify(path);
+    BufferedImage cached = cache.lookup(identity);
+    if (cached != null) {
+      return new Fetched(null, identity, cached);
+    }
+    return new Fetched(readBytes(path), identity, null);
+  }
+
+  /**
+   * Returns the fetched frame, copying it from the cache when a source with the same bytes
+   * was cached under another name or time, and decoding and caching it otherwise.
+   */
+  private BufferedImage load(Path path, Fetched fetched, CacheCounters counters) throws IOException {
+    if (fetched.cached() != null) {
+      counters.hit(fetched.cached());
+      return fetched.cached();
+    }
+    if (cache == null) {
+      return decode(path, fetched.bytes());
+    }
+    String contentKey = DecodedFrameCache.contentKey(fetched.bytes());
+    BufferedImage cached = cache.lookup(fetched.identity(), contentKey);
+    if (cached != null) {
+      bufferPool.release(fetched.bytes());
+      counters.hit(cached);
+      return cached;
+    }
+    BufferedImage image = decode(path, fetched.bytes());
+    cache.store(fetched.identity(), contentKey, image);
+    counters.misses.incrementAndGet();
+    return image;
+  }
+
+  private ByteBuffer readBytes(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException("Image file is too large to read: " + path);
+      }
+      ByteBuffer buffer = bufferPool.acquire((int) size);
+      buffer.limit((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          break;
+        }
+      }
+      return buffer.flip();
+    }
+  }
+
+  private BufferedImage decode(Path path, ByteBuffer bytes) throws IOException {
+    try {
+      // ImageIO.read closes the stream itself; the buffer goes back to the pool afterwards.
+      BufferedImage image = ImageIO.read(new ByteBufferImageInputStream(bytes));
+      if (image == null) {
+        throw new IOException("Unsupported image format: " + path);
+      }
+      return image;
+    } finally {
+      bufferPool.release(bytes);
+    }
+  }
+
+  public final class Batch implements AutoCloseable {
+    private final List<Path> paths;
+    private final List<CompletableFuture<Fetched>> reads;
+    private final CacheCounters counters = new CacheCounters();
+    private final ExecutorService ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private int scheduled;
+    private boolean closed;
+
+    private Batch(List<Path> paths) {
+      this.paths = List.copyOf(Objects.requireNonNull(paths, "paths"));
+      this.reads = new ArrayList<>(this.paths.size());
+    }
+
+    public int size() {
+      return paths.size();
+    }
+
+    public Path path(int index) {
+      return paths.get(index);
+    }
+
+    /**
+     * Cache hits and misses of the frames read from this batch so far; all zero without a
+     * cache.
+     */
+    public FrameCacheStats cacheStats() {
+      return counters.snapshot();
+    }
+
+    /**
+     * Decodes the frame at {@code index} from memory, scheduling reads for the next
+     * {@code readAhead} frames first.
+     */
+    public BufferedImage read(int index) throws IOException {
+      CompletableFuture<Fetched> pending = schedule(index);
+      Fetched fetched;
+      try {
+        fetched = pending.get();
+      } catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading " + paths.get(index));
+      } catch (ExecutionException error) {
+        if (error.getCause() instanceof IOException ioException) {
+          throw ioException;
+        }
+        throw new IOException("Failed to read " + paths.get(index), error.getCause());
+      }
+      return load(paths.get(index), fetched, counters);
+    }
+
+    private synchronized CompletableFuture<Fetched> schedule(int index) throws IOException {
+      if (closed) {
+        throw new IOException("Frame batch is already closed");
+      }
+      Objects.checkIndex(index, paths.size());
+      int last = (int) Math.min((long) index + readAhead, paths.size() - 1L);
+      while (scheduled <= last) {
+        Path path = paths.get(scheduled++);
+        CompletableFuture<Fetched> read = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+          try {
+            read.complete(fetch(path));
+          } catch (Throwable error) {
+            read.completeExceptionally(error);
+          }
+        });
+        reads.add(read);
+      }
+      CompletableFuture<Fetched> pending = reads.get(index);
+      reads.set(index, null);
+      if (pending == null) {
+        throw new IllegalStateException("Frame " + index + " was already read from this batch");
+      }
+      return pending;
+    }
+
+    @Override
+    public void close() {
+      synchronized (this) {
+        closed = true;
+      }
+      ioExecutor.close();
+      for (CompletableFuture<Fetched> read : reads) {
+        if (read != null && !read.isCompletedExceptionally() && read.join().bytes() != null) {
+          bufferPool.release(read.join().bytes());
+        }
+      }
+      reads.clear();
+    }
+  }
+
+  /**
+   * A read source: its bytes, or the cached frame when the cache already had it.
+   */
+  private record Fetched(ByteBuffer bytes, DecodedFrameCache.Identity identity, BufferedImage cached) {
+  }
+
+  private static final class CacheCounters {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    void hit(BufferedImage image) {
+      hits.incrementAndGet();
+      bytesSaved.addAndGet(ImageMemory.argbBytes(image.getWidth(), image.getHeight()));
+    }
+
+    FrameCacheStats snapshot() {
+      return new FrameCacheStats(hits.get(), misses.get(), bytesSaved.get());
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package pl.spritesheetgluer.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+public class ImageHeaderProbe {
+  /**
+   * Reads the image dimensions from the file header (PNG IHDR, JPEG SOF) without
+   * decoding any pixel data.
+   */
+  public ImageSize probe(Path path) throws IOException {
+    try (ImageInputStream stream = ImageIO.createImageInputStream(path.toFile())) {
+      if (stream == null) {
+        throw new IOException("Unable to open image: " + path);
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format: " + path);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, true);
+        return new ImageSize(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+
+public final class ImageMemory {
+  private ImageMemory() {
+  }
+
+  /**
+   * Returns the number of bytes held by the image's pixel buffers.
+   */
+  public static long pixelBytes(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    long elementBytes = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8L;
+    return (long) buffer.getSize() * buffer.getNumBanks() * elementBytes;
+  }
+
+  /**
+   * Returns the size of a 32-bit ARGB raster with the given dimensions.
+   */
+  public static long argbBytes(int width, int height) {
+    return (long) width * height * Integer.BYTES;
+  }
+}
@@ -0,0 +1,12 @@
+package pl.spritesheetgluer.image;
+
+public record ImageSize(int width, int height) {
+  public ImageSize {
+    if (width <= 0) {
+      throw new IllegalArgumentException("width must be positive: " + width);
+    }
+    if (height <= 0) {
+      throw new IllegalArgumentException("height must be positive: " + height);
+    }
+  }
+}
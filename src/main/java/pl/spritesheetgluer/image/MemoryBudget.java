@@ -0,0 +1,110 @@
+package pl.spritesheetgluer.image;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A byte budget shared by work running in parallel, for the decoded frames and atlas
+ * rasters each piece of work holds at its peak. {@link #acquire} blocks until the bytes
+ * are free and hands them out first come, first served, so a large request is not
+ * starved by a stream of small ones. A request larger than the whole budget waits until
+ * nothing else holds any and then runs alone.
+ */
+public final class MemoryBudget {
+  private final long totalBytes;
+  private final Set<Long> abandonedTickets = new HashSet<>();
+  private long availableBytes;
+  private long nextTicket;
+  private long servingTicket;
+
+  public MemoryBudget(long totalBytes) {
+    if (totalBytes <= 0) {
+      throw new IllegalArgumentException("totalBytes must be positive: " + totalBytes);
+    }
+    this.totalBytes = totalBytes;
+    this.availableBytes = totalBytes;
+  }
+
+  /**
+   * Half of the heap the JVM may grow to.
+   */
+  public static MemoryBudget defaultBudget() {
+    return new MemoryBudget(Math.max(1, Runtime.getRuntime().maxMemory() / 2));
+  }
+
+  public long totalBytes() {
+    return totalBytes;
+  }
+
+  public synchronized long availableBytes() {
+    return availableBytes;
+  }
+
+  /**
+   * Waits until {@code bytes}, capped at the whole budget, are free and takes them until
+   * the returned lease is closed.
+   */
+  public Lease acquire(long bytes) throws InterruptedException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("bytes must not be negative: " + bytes);
+    }
+    long granted = Math.min(bytes, totalBytes);
+    synchronized (this) {
+      long ticket = nextTicket++;
+      try {
+        while (ticket != servingTicket || availableBytes < granted) {
+          wait();
+        }
+      } catch (InterruptedException error) {
+        // Give the turn up, so the requests behind this one are not stuck behind it.
+        abandonedTickets.add(ticket);
+        skipAbandoned();
+        notifyAll();
+        throw error;
+      }
+      availableBytes -= granted;
+      servingTicket++;
+      skipAbandoned();
+      notifyAll();
+    }
+    return new Lease(granted);
+  }
+
+  private synchronized void release(long bytes) {
+    availableBytes += bytes;
+    notifyAll();
+  }
+
+  private void skipAbandoned() {
+    while (abandonedTickets.remove(servingTicket)) {
+      servingTicket++;
+    }
+  }
+
+  /**
+   * Bytes held from a {@link MemoryBudget}; closing it returns them once.
+   */
+  public final class Lease implements AutoCloseable {
+    private final long bytes;
+    private boolean released;
+
+    private Lease(long bytes) {
+      this.bytes = bytes;
+    }
+
+    public long bytes() {
+      return bytes;
+    }
+
+    @Override
+    public void close() {
+      synchronized (MemoryBudget.this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      release(bytes);
+    }
+  }
+}
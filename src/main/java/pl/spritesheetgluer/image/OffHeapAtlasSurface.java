@@ -0,0 +1,176 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Surface whose pixels live outside the Java heap, either in native memory or in a
+ * memory-mapped scratch file. Frames drawn onto still transparent areas are blitted row
+ * by row through a reused heap row; otherwise the covered area is copied into a small heap
+ * image, drawn there with {@code Graphics2D} and copied back. Either way only frame-sized
+ * arrays are ever allocated on the heap.
+ */
+public final class OffHeapAtlasSurface implements AtlasSurface {
+  private static final ValueLayout.OfInt PIXEL = ValueLayout.JAVA_INT;
+
+  private final int width;
+  private final int height;
+  private final Arena arena;
+  private final MemorySegment pixels;
+  private final RasterBlitter blitter = new RasterBlitter();
+  private int[] row = new int[0];
+  private MemorySegment zeros = MemorySegment.NULL;
+
+  private OffHeapAtlasSurface(int width, int height, Arena arena, MemorySegment pixels) {
+    this.width = width;
+    this.height = height;
+    this.arena = arena;
+    this.pixels = pixels;
+  }
+
+  /**
+   * Allocates zeroed native memory for the surface.
+   */
+  public static OffHeapAtlasSurface allocate(int width, int height) {
+    long bytes = byteSize(width, height);
+    Arena arena = Arena.ofShared();
+    try {
+      return new OffHeapAtlasSurface(width, height, arena, arena.allocate(bytes, PIXEL.byteAlignment()));
+    } catch (RuntimeException | Error error) {
+      arena.close();
+      throw error;
+    }
+  }
+
+  /**
+   * Maps a new scratch file in the temporary directory; it is deleted when the surface
+   * is closed. Pages the OS evicts go back to the file instead of to swap.
+   */
+  public static OffHeapAtlasSurface mapped(int width, int height) throws IOException {
+    long bytes = byteSize(width, height);
+    Path scratch = Files.createTempFile("atlas-surface-", ".argb");
+    Arena arena = Arena.ofShared();
+    try (FileChannel channel = FileChannel.open(
+        scratch,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.DELETE_ON_CLOSE
+    )) {
+      // The mapping outlives the channel; the file itself is only a name for the pages.
+      return new OffHeapAtlasSurface(width, height, arena, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena));
+    } catch (IOException | RuntimeException | Error error) {
+      arena.close();
+      Files.deleteIfExists(scratch);
+      throw error;
+    }
+  }
+
+  private static long byteSize(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Surface size must be positive: " + width + "x" + height);
+    }
+    return ImageMemory.argbBytes(width, height);
+  }
+
+  @Override
+  public int width() {
+    return width;
+  }
+
+  @Override
+  public int height() {
+    return height;
+  }
+
+  @Override
+  public void draw(BufferedImage source, int x, int y) {
+    int left = Math.max(0, x);
+    int top = Math.max(0, y);
+    int right = Math.min(width, x + source.getWidth());
+    int bottom = Math.min(height, y + source.getHeight());
+    if (left >= right || top >= bottom) {
+      return;
+    }
+    int areaWidth = right - left;
+    int areaHeight = bottom - top;
+    if (isTransparent(left, top, right, bottom)) {
+      if (row.length < areaWidth) {
+        row = new int[areaWidth];
+      }
+      for (int surfaceY = top; surfaceY < bottom; surfaceY++) {
+        blitter.blitRow(source, left - x, surfaceY - y, areaWidth, row, 0);
+        MemorySegment.copy(row, 0, pixels, PIXEL, offset(left, surfaceY), areaWidth);
+      }
+      return;
+    }
+    BufferedImage area = new BufferedImage(areaWidth, areaHeight, BufferedImage.TYPE_INT_ARGB);
+    int[] areaPixels = ((DataBufferInt) area.getRaster().getDataBuffer()).getData();
+    readRows(left, top, areaWidth, areaHeight, areaPixels, 0, areaWidth);
+    Graphics2D graphics = area.createGraphics();
+    try {
+      graphics.setComposite(AlphaComposite.SrcOver);
+      graphics.drawImage(source, x - left, y - top, null);
+    } finally {
+      graphics.dispose();
+    }
+    for (int row = 0; row < areaHeight; row++) {
+      MemorySegment.copy(areaPixels, row * areaWidth, pixels, PIXEL, offset(left, top + row), areaWidth);
+    }
+  }
+
+  @Override
+  public void readRows(int x, int y, int width, int height, int[] target, int offset, int stride) {
+    Objects.checkFromIndexSize(x, width, this.width);
+    Objects.checkFromIndexSize(y, height, this.height);
+    for (int row = 0; row < height; row++) {
+      MemorySegment.copy(pixels, PIXEL, offset(x, y + row), target, offset + row * stride, width);
+    }
+  }
+
+  @Override
+  public long pixelBytes() {
+    return pixels.byteSize();
+  }
+
+  @Override
+  public BufferedImage toImage() {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    readRows(0, 0, width, height, imagePixels, 0, width);
+    return image;
+  }
+
+  @Override
+  public void close() {
+    arena.close();
+  }
+
+  private boolean isTransparent(int left, int top, int right, int bottom) {
+    long rowBytes = (long) (right - left) * Integer.BYTES;
+    if (zeros.byteSize() < rowBytes) {
+      zeros = MemorySegment.ofArray(new int[right - left]);
+    }
+    for (int surfaceY = top; surfaceY < bottom; surfaceY++) {
+      long start = offset(left, surfaceY);
+      if (MemorySegment.mismatch(pixels, start, start + rowBytes, zeros, 0, rowBytes) != -1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long offset(int x, int y) {
+    return ((long) y * width + x) * Integer.BYTES;
+  }
+}
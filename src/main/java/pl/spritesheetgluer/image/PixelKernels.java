@@ -0,0 +1,107 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.Rectangle;
+
+/**
+ * Bulk loops over {@code TYPE_INT_ARGB} pixel arrays. {@link #get()} returns kernels built
+ * on the incubating Vector API when the {@code jdk.incubator.vector} module is in the boot
+ * layer (run with {@code --add-modules jdk.incubator.vector}) and plain loops otherwise.
+ * Both give identical results; set {@code -Dpl.spritesheetgluer.scalarKernels=true} to force
+ * the plain loops.
+ */
+public abstract sealed class PixelKernels permits ScalarPixelKernels, VectorPixelKernels {
+  static final int ALPHA = 0xFF000000;
+  private static final PixelKernels BEST = best();
+
+  PixelKernels() {
+  }
+
+  public static PixelKernels get() {
+    return BEST;
+  }
+
+  public static PixelKernels scalar() {
+    return ScalarPixelKernels.INSTANCE;
+  }
+
+  /**
+   * Short description of the implementation, for logs and benchmarks.
+   */
+  public abstract String description();
+
+  /**
+   * Index {@code i} of the first pixel where {@code a[aOffset + i]} and
+   * {@code b[bOffset + i]} differ, or -1. Two fully transparent pixels count as equal
+   * whatever their RGB.
+   */
+  public abstract int visibleMismatch(int[] a, int aOffset, int[] b, int bOffset, int length);
+
+  /**
+   * Whether every pixel from {@code from} to {@code to - 1} has zero alpha.
+   */
+  public abstract boolean allTransparent(int[] pixels, int from, int to);
+
+  /**
+   * Whether every pixel from {@code from} to {@code to - 1} is transparent black, i.e. 0.
+   */
+  public abstract boolean allZero(int[] pixels, int from, int to);
+
+  /**
+   * Index of the first pixel from {@code from} to {@code to - 1} with non-zero alpha, or -1.
+   */
+  public abstract int firstVisible(int[] pixels, int from, int to);
+
+  /**
+   * Index of the last pixel from {@code from} to {@code to - 1} with non-zero alpha, or -1.
+   */
+  public abstract int lastVisible(int[] pixels, int from, int to);
+
+  /**
+   * Converts {@code count} pixels stored as R, G, B, A bytes into ARGB ints.
+   */
+  public abstract void rgbaToArgb(byte[] source, int sourceOffset, int[] target, int targetOffset, int count);
+
+  /**
+   * The smallest rectangle holding every pixel with non-zero alpha in the
+   * {@code width x height} area starting at {@code offset}, relative to that area, or
+   * {@code null} when the area is fully transparent.
+   */
+  public final Rectangle visibleBounds(int[] pixels, int offset, int width, int height, int stride) {
+    int top = -1;
+    int bottom = -1;
+    int left = width;
+    int right = -1;
+    for (int y = 0; y < height; y++) {
+      int start = offset + y * stride;
+      int first = firstVisible(pixels, start, start + width);
+      if (first < 0) {
+        continue;
+      }
+      if (top < 0) {
+        top = y;
+      }
+      bottom = y;
+      left = Math.min(left, first - start);
+      if (right < width - 1) {
+        right = Math.max(right, lastVisible(pixels, first, start + width) - start);
+      }
+    }
+    if (top < 0) {
+      return null;
+    }
+    return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+  }
+
+  private static PixelKernels best() {
+    if (Boolean.getBoolean("pl.spritesheetgluer.scalarKernels")
+        || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      return scalar();
+    }
+    try {
+      PixelKernels vector = VectorPixelKernels.create();
+      return vector == null ? scalar() : vector;
+    } catch (LinkageError error) {
+      return scalar();
+    }
+  }
+}
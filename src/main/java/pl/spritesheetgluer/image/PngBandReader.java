@@ -0,0 +1,510 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG from top to bottom into {@code TYPE_INT_ARGB} rows, a few rows at a time,
+ * so an atlas can be read back without holding it whole. Handles every non-interlaced
+ * color type and bit depth. 16-bit color samples are rounded to 8 bits the way
+ * {@code getRGB} does; gray samples follow the reader's {@link Gray} mode. Chunk CRCs and
+ * the zlib checksum are verified.
+ */
+public final class PngBandReader implements AutoCloseable {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+  /**
+   * How gray samples become ARGB pixels.
+   */
+  public enum Gray {
+    /**
+     * As {@code Graphics2D.drawImage} draws the image ImageIO decodes, which is how
+     * {@link FrameIngest} reads source frames: gray without alpha as stored, 16-bit samples
+     * cut to their high byte, and gray with alpha or a tRNS key brightened as linear gray.
+     */
+    AS_DRAWN,
+    /**
+     * As stored, 16-bit samples rounded to 8 bits. {@link PngEncoder} writes gray samples
+     * straight from the ARGB pixels, so this reads its atlases back unchanged.
+     */
+    AS_STORED
+  }
+
+  private final DataInputStream in;
+  private final Gray gray;
+  private final int width;
+  private final int height;
+  private final PngColorType colorType;
+  private final int bitDepth;
+  private final int distance;
+  private final int[] palette;
+  private final long transparentKey;
+  private final PixelKernels kernels = PixelKernels.get();
+  private final Inflater inflater = new Inflater();
+  private final InflaterInputStream data;
+  private byte[] previous;
+  private byte[] current;
+  private int nextRow;
+
+  public PngBandReader(InputStream in) throws IOException {
+    this(in, Gray.AS_DRAWN);
+  }
+
+  public PngBandReader(InputStream in, Gray gray) throws IOException {
+    this.gray = Objects.requireNonNull(gray, "gray");
+    this.in = new DataInputStream(Objects.requireNonNull(in, "in"));
+    byte[] signature = new byte[SIGNATURE.length];
+    this.in.readFully(signature);
+    if (!Arrays.equals(signature, SIGNATURE)) {
+      throw new IOException("Not a PNG file");
+    }
+
+    Chunk header = readChunkHeader();
+    if (!header.type().equals("IHDR") || header.length() != 13) {
+      throw new IOException("PNG does not start with an IHDR chunk");
+    }
+    byte[] headerData = readChunkData(header);
+    width = readInt(headerData, 0);
+    height = readInt(headerData, 4);
+    bitDepth = headerData[8] & 0xFF;
+    colorType = colorType(headerData[9] & 0xFF);
+    if (width <= 0 || height <= 0) {
+      throw new IOException("Invalid PNG size: " + width + "x" + height);
+    }
+    if (!validBitDepth(colorType, bitDepth)) {
+      throw new IOException("Invalid PNG bit depth " + bitDepth + " for color type " + colorType);
+    }
+    if (headerData[10] != 0 || headerData[11] != 0) {
+      throw new IOException("Unsupported PNG compression or filter method");
+    }
+    if (headerData[12] != 0) {
+      throw new IOException("Interlaced PNGs are not supported");
+    }
+    distance = Math.max(1, colorType.channels() * bitDepth / 8);
+
+    int[] paletteColors = null;
+    long key = -1;
+    Chunk chunk = readChunkHeader();
+    while (!chunk.type().equals("IDAT")) {
+      if (chunk.type().equals("IEND")) {
+        throw new IOException("PNG has no image data");
+      }
+      byte[] chunkData = readChunkData(chunk);
+      if (chunk.type().equals("PLTE")) {
+        paletteColors = new int[chunkData.length / 3];
+        for (int index = 0; index < paletteColors.length; index++) {
+          paletteColors[index] = 0xFF000000
+              | (chunkData[index * 3] & 0xFF) << 16
+              | (chunkData[index * 3 + 1] & 0xFF) << 8
+              | chunkData[index * 3 + 2] & 0xFF;
+        }
+      } else if (chunk.type().equals("tRNS")) {
+        if (colorType == PngColorType.INDEXED) {
+          if (paletteColors == null) {
+            throw new IOException("PNG tRNS chunk comes before PLTE");
+          }
+          for (int index = 0; index < Math.min(chunkData.length, paletteColors.length); index++) {
+            paletteColors[index] = (chunkData[index] & 0xFF) << 24 | paletteColors[index] & 0xFFFFFF;
+          }
+        } else if (colorType == PngColorType.GRAYSCALE && chunkData.length >= 2) {
+          key = readShort(chunkData, 0);
+        } else if (colorType == PngColorType.RGB && chunkData.length >= 6) {
+          key = rgbKey(readShort(chunkData, 0), readShort(chunkData, 2), readShort(chunkData, 4));
+        }
+      }
+      chunk = readChunkHeader();
+    }
+    if (colorType == PngColorType.INDEXED && paletteColors == null) {
+      throw new IOException("Indexed PNG has no palette");
+    }
+    palette = paletteColors;
+    transparentKey = key;
+
+    long rowBytes = ((long) width * colorType.channels() * bitDepth + 7) / 8;
+    if (rowBytes > Integer.MAX_VALUE - 8) {
+      throw new IOException("PNG is too wide to decode: " + width);
+    }
+    previous = new byte[(int) rowBytes];
+    current = new byte[(int) rowBytes];
+    data = new InflaterInputStream(new ImageDataStream(chunk), inflater, 1 << 16);
+  }
+
+  public static PngBandReader open(Path path) throws IOException {
+    return open(path, Gray.AS_DRAWN);
+  }
+
+  public static PngBandReader open(Path path, Gray gray) throws IOException {
+    InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+    try {
+      return new PngBandReader(in, gray);
+    } catch (IOException | RuntimeException error) {
+      in.close();
+      throw error;
+    }
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int height() {
+    return height;
+  }
+
+  public PngColorType colorType() {
+    return colorType;
+  }
+
+  /**
+   * Index of the row the next read starts at.
+   */
+  public int nextRow() {
+    return nextRow;
+  }
+
+  /**
+   * Decodes up to {@code rows} rows into {@code target}, row {@code r} starting at
+   * {@code offset + r * width()}, and returns how many rows were read; 0 at the end of the
+   * image.
+   */
+  public int read(int[] target, int offset, int rows) throws IOException {
+    int count = Math.min(rows, height - nextRow);
+    Objects.checkFromIndexSize(offset, Math.multiplyExact(count, width), target.length);
+    for (int row = 0; row < count; row++) {
+      nextScanline();
+      toArgb(target, offset + row * width);
+    }
+    return count;
+  }
+
+  /**
+   * Decodes and drops up to {@code rows} rows; returns how many were skipped.
+   */
+  public int skip(int rows) throws IOException {
+    int count = Math.min(rows, height - nextRow);
+    for (int row = 0; row < count; row++) {
+      nextScanline();
+    }
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      in.close();
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private void nextScanline() throws IOException {
+    byte[] swap = previous;
+    previous = current;
+    current = swap;
+    int filter = data.read();
+    if (filter < 0 || data.readNBytes(current, 0, current.length) != current.length) {
+      throw new EOFException("PNG image data ends at row " + nextRow + " of " + height);
+    }
+    unfilter(filter);
+    nextRow++;
+    if (nextRow == height && data.read() >= 0) {
+      // Reading on to the end of the zlib stream is what makes the inflater check the checksum.
+      throw new IOException("PNG has more image data than " + height + " rows");
+    }
+  }
+
+  private void unfilter(int filter) throws IOException {
+    byte[] row = current;
+    byte[] up = previous;
+    switch (filter) {
+      case 0 -> {
+      }
+      case 1 -> {
+        for (int index = distance; index < row.length; index++) {
+          row[index] += row[index - distance];
+        }
+      }
+      case 2 -> {
+        for (int index = 0; index < row.length; index++) {
+          row[index] += up[index];
+        }
+      }
+      case 3 -> {
+        for (int index = 0; index < row.length; index++) {
+          int left = index >= distance ? row[index - distance] & 0xFF : 0;
+          row[index] += (byte) ((left + (up[index] & 0xFF)) >>> 1);
+        }
+      }
+      case 4 -> {
+        for (int index = 0; index < row.length; index++) {
+          int left = index >= distance ? row[index - distance] & 0xFF : 0;
+          int upLeft = index >= distance ? up[index - distance] & 0xFF : 0;
+          row[index] += (byte) paeth(left, up[index] & 0xFF, upLeft);
+        }
+      }
+      default -> throw new IOException("Invalid PNG filter type " + filter + " at row " + nextRow);
+    }
+  }
+
+  private void toArgb(int[] target, int offset) throws IOException {
+    byte[] row = current;
+    switch (colorType) {
+      case RGBA -> {
+        if (bitDepth == 8) {
+          kernels.rgbaToArgb(row, 0, target, offset, width);
+        } else {
+          for (int x = 0, index = 0; x < width; x++, index += 8) {
+            target[offset + x] = to8Bit(readShort(row, index + 6)) << 24
+                | to8Bit(readShort(row, index)) << 16
+                | to8Bit(readShort(row, index + 2)) << 8
+                | to8Bit(readShort(row, index + 4));
+          }
+        }
+      }
+      case RGB -> {
+        if (bitDepth == 8) {
+          for (int x = 0, index = 0; x < width; x++, index += 3) {
+            int red = row[index] & 0xFF;
+            int green = row[index + 1] & 0xFF;
+            int blue = row[index + 2] & 0xFF;
+            target[offset + x] = rgbKey(red, green, blue) == transparentKey
+                ? 0
+                : 0xFF000000 | red << 16 | green << 8 | blue;
+          }
+        } else {
+          for (int x = 0, index = 0; x < width; x++, index += 6) {
+            int red = readShort(row, index);
+            int green = readShort(row, index + 2);
+            int blue = readShort(row, index + 4);
+            target[offset + x] = rgbKey(red, green, blue) == transparentKey
+                ? 0
+                : 0xFF000000 | to8Bit(red) << 16 | to8Bit(green) << 8 | to8Bit(blue);
+          }
+        }
+      }
+      case GRAYSCALE_ALPHA -> {
+        boolean linear = gray == Gray.AS_DRAWN;
+        if (bitDepth == 8) {
+          for (int x = 0, index = 0; x < width; x++, index += 2) {
+            int level = row[index] & 0xFF;
+            level = linear ? LinearGray.BYTE[level] & 0xFF : level;
+            target[offset + x] = (row[index + 1] & 0xFF) << 24 | level * 0x010101;
+          }
+        } else {
+          for (int x = 0, index = 0; x < width; x++, index += 4) {
+            int sample = readShort(row, index);
+            int level = linear ? LinearGray.USHORT[sample] & 0xFF : to8Bit(sample);
+            target[offset + x] = to8Bit(readShort(row, index + 2)) << 24 | level * 0x010101;
+          }
+        }
+      }
+      case GRAYSCALE -> {
+        // ImageIO gives gray with a tRNS key an alpha channel, which getRGB treats as linear gray.
+        boolean linear = gray == Gray.AS_DRAWN && transparentKey >= 0;
+        int maxSample = (1 << bitDepth) - 1;
+        for (int x = 0; x < width; x++) {
+          int sample = sample(row, x);
+          if (sample == transparentKey) {
+            target[offset + x] = 0;
+            continue;
+          }
+          int level;
+          if (bitDepth != 16) {
+            level = sample * 255 / maxSample;
+            level = linear ? LinearGray.BYTE[level] & 0xFF : level;
+          } else if (linear) {
+            level = LinearGray.USHORT[sample] & 0xFF;
+          } else {
+            level = gray == Gray.AS_DRAWN ? sample >>> 8 : to8Bit(sample);
+          }
+          target[offset + x] = 0xFF000000 | level * 0x010101;
+        }
+      }
+      case INDEXED -> {
+        for (int x = 0; x < width; x++) {
+          int index = sample(row, x);
+          if (index >= palette.length) {
+            throw new IOException("PNG palette index " + index + " out of range at row " + (nextRow - 1));
+          }
+          target[offset + x] = palette[index];
+        }
+      }
+    }
+  }
+
+  private int sample(byte[] row, int x) {
+    return switch (bitDepth) {
+      case 16 -> readShort(row, x * 2);
+      case 8 -> row[x] & 0xFF;
+      default -> {
+        int pixelsPerByte = 8 / bitDepth;
+        int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+        yield (row[x / pixelsPerByte] & 0xFF) >>> shift & (1 << bitDepth) - 1;
+      }
+    };
+  }
+
+  private Chunk readChunkHeader() throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid PNG chunk length: " + Integer.toUnsignedString(length));
+    }
+    byte[] type = new byte[4];
+    in.readFully(type);
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    return new Chunk(new String(type, StandardCharsets.US_ASCII), length, crc);
+  }
+
+  private byte[] readChunkData(Chunk chunk) throws IOException {
+    byte[] chunkData = in.readNBytes(chunk.length());
+    if (chunkData.length != chunk.length()) {
+      throw new EOFException("PNG " + chunk.type() + " chunk is truncated");
+    }
+    chunk.crc().update(chunkData);
+    checkCrc(chunk);
+    return chunkData;
+  }
+
+  private void checkCrc(Chunk chunk) throws IOException {
+    if (Integer.toUnsignedLong(in.readInt()) != chunk.crc().getValue()) {
+      throw new IOException("PNG " + chunk.type() + " chunk has a bad CRC");
+    }
+  }
+
+  private static PngColorType colorType(int code) throws IOException {
+    for (PngColorType type : PngColorType.values()) {
+      if (type.code() == code) {
+        return type;
+      }
+    }
+    throw new IOException("Invalid PNG color type: " + code);
+  }
+
+  private static boolean validBitDepth(PngColorType colorType, int bitDepth) {
+    return switch (colorType) {
+      case GRAYSCALE -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 || bitDepth == 16;
+      case INDEXED -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+      default -> bitDepth == 8 || bitDepth == 16;
+    };
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 24
+        | (bytes[offset + 1] & 0xFF) << 16
+        | (bytes[offset + 2] & 0xFF) << 8
+        | bytes[offset + 3] & 0xFF;
+  }
+
+  private static int readShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+  }
+
+  private static long rgbKey(int red, int green, int blue) {
+    return (long) red << 32 | (long) green << 16 | blue;
+  }
+
+  private static int to8Bit(int sample) {
+    return (sample * 255 + 32_767) / 65_535;
+  }
+
+  private static int paeth(int left, int up, int upLeft) {
+    int estimate = left + up - upLeft;
+    int leftDistance = Math.abs(estimate - left);
+    int upDistance = Math.abs(estimate - up);
+    int upLeftDistance = Math.abs(estimate - upLeft);
+    if (leftDistance <= upDistance && leftDistance <= upLeftDistance) {
+      return left;
+    }
+    return upDistance <= upLeftDistance ? up : upLeft;
+  }
+
+  private record Chunk(String type, int length, CRC32 crc) {
+  }
+
+  /**
+   * The gray level {@code getRGB} returns for each sample of ImageIO's gray images with
+   * alpha, which it treats as linear gray; built on first use.
+   */
+  private static final class LinearGray {
+    private static final byte[] BYTE = levels(DataBuffer.TYPE_BYTE, 1 << 8);
+    private static final byte[] USHORT = levels(DataBuffer.TYPE_USHORT, 1 << 16);
+
+    private static byte[] levels(int dataType, int samples) {
+      ComponentColorModel colorModel = new ComponentColorModel(
+          ColorSpace.getInstance(ColorSpace.CS_GRAY), true, false, Transparency.TRANSLUCENT, dataType
+      );
+      WritableRaster raster = colorModel.createCompatibleWritableRaster(samples, 1);
+      for (int sample = 0; sample < samples; sample++) {
+        raster.setSample(sample, 0, 0, sample);
+        raster.setSample(sample, 0, 1, samples - 1);
+      }
+      int[] argb = new BufferedImage(colorModel, raster, false, null).getRGB(0, 0, samples, 1, null, 0, samples);
+      byte[] levels = new byte[samples];
+      for (int sample = 0; sample < samples; sample++) {
+        levels[sample] = (byte) argb[sample];
+      }
+      return levels;
+    }
+  }
+
+  /**
+   * The data of consecutive IDAT chunks as one stream, checking each chunk's CRC.
+   */
+  private final class ImageDataStream extends InputStream {
+    private Chunk chunk;
+    private int remaining;
+
+    private ImageDataStream(Chunk first) {
+      this.chunk = first;
+      this.remaining = first.length();
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      while (remaining == 0) {
+        if (chunk == null) {
+          return -1;
+        }
+        checkCrc(chunk);
+        Chunk next = readChunkHeader();
+        if (!next.type().equals("IDAT")) {
+          chunk = null;
+          return -1;
+        }
+        chunk = next;
+        remaining = next.length();
+      }
+      int count = in.read(buffer, offset, Math.min(length, remaining));
+      if (count < 0) {
+        throw new EOFException("PNG IDAT chunk is truncated");
+      }
+      chunk.crc().update(buffer, offset, count);
+      remaining -= count;
+      return count;
+    }
+  }
+}
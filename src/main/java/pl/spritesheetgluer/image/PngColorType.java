@@ -0,0 +1,28 @@
+package pl.spritesheetgluer.image;
+
+/**
+ * PNG color types, with the IHDR code and the number of samples per pixel.
+ */
+public enum PngColorType {
+  GRAYSCALE(0, 1),
+  RGB(2, 3),
+  INDEXED(3, 1),
+  GRAYSCALE_ALPHA(4, 2),
+  RGBA(6, 4);
+
+  private final int code;
+  private final int channels;
+
+  PngColorType(int code, int channels) {
+    this.code = code;
+    this.channels = channels;
+  }
+
+  public int code() {
+    return code;
+  }
+
+  public int channels() {
+    return channels;
+  }
+}
@@ -0,0 +1,579 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that splits the image into row bands and deflates them in parallel,
+ * pigz-style. Each band is primed with the tail of the previous band as its deflate
+ * dictionary and ends on a sync flush, so the concatenated output is one valid zlib
+ * stream inside the IDAT chunks. Deflater instances and the worker pool are kept and
+ * reused across writes, also by writes running at the same time.
+ * With {@link ColorMode#MINIMIZED} the image is first analysed and written with the
+ * smallest color type that keeps every visible pixel.
+ */
+public class PngEncoder {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  private static final int TARGET_BAND_BYTES = 256 * 1024;
+  private static final int ADLER_BASE = 65_521;
+
+  private final CompressionLevel level;
+  private final int parallelism;
+  private final ColorMode colorMode;
+  private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+  private final ForkJoinPool pool;
+
+  public PngEncoder() {
+    this(CompressionLevel.DEFAULT);
+  }
+
+  public PngEncoder(CompressionLevel level) {
+    this(level, Runtime.getRuntime().availableProcessors());
+  }
+
+  public PngEncoder(CompressionLevel level, int parallelism) {
+    this(level, parallelism, ColorMode.RGBA);
+  }
+
+  public PngEncoder(CompressionLevel level, int parallelism, ColorMode colorMode) {
+    this.level = Objects.requireNonNull(level, "level");
+    this.colorMode = Objects.requireNonNull(colorMode, "colorMode");
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    // Daemon workers, started on demand and retired when idle, so nothing needs closing.
+    this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+  }
+
+  public CompressionLevel level() {
+    return level;
+  }
+
+  public int parallelism() {
+    return parallelism;
+  }
+
+  public ColorMode colorMode() {
+    return colorMode;
+  }
+
+  public void write(BufferedImage image, OutputStream out) throws IOException {
+    Objects.requireNonNull(image, "image");
+    Objects.requireNonNull(out, "out");
+    writeRows(image.getWidth(), image.getHeight(), rowSource(image), out);
+  }
+
+  /**
+   * Encodes a composed atlas surface; rows are read straight from it, several at once
+   * when the encoder is parallel.
+   */
+  public void write(AtlasSurface surface, OutputStream out) throws IOException {
+    Objects.requireNonNull(surface, "surface");
+    Objects.requireNonNull(out, "out");
+    int width = surface.width();
+    writeRows(width, surface.height(), (y, target) -> surface.readRows(0, y, width, 1, target, 0, width), out);
+  }
+
+  private void writeRows(int width, int height, ArgbRowSource rows, OutputStream out) throws IOException {
+    PngPixelFormat format = colorMode == ColorMode.MINIMIZED && width > 0 && height > 0
+        ? PngPixelFormat.analyze(rows, width, height, pool, parallelism)
+        : PngPixelFormat.rgba();
+    int bandRows = compressionBandRows(format, width, height);
+    encode(width, height, format, new JobSource() {
+      private int nextRow;
+
+      @Override
+      public boolean hasNext() {
+        return nextRow < height;
+      }
+
+      @Override
+      public BandJob next() {
+        int startRow = nextRow;
+        nextRow = Math.min(height, startRow + bandRows);
+        return new BandJob(rows, 0, startRow, nextRow);
+      }
+    }, out);
+  }
+
+  /**
+   * Encodes an image that is rendered band by band and never exists as a whole.
+   * {@code renderer} is called from the calling thread for consecutive bands of
+   * {@code bandHeight} rows (the last one may be shorter), each into a fresh,
+   * fully transparent {@code width * rows} ARGB buffer. Only the bands that are
+   * still being compressed are kept, so memory depends on the band height rather
+   * than on the image size. Banded images are always written as RGBA, because picking
+   * a smaller color type would need every band before the first one is written.
+   */
+  public void write(int width, int height, int bandHeight, BandRenderer renderer, OutputStream out)
+      throws IOException {
+    Objects.requireNonNull(renderer, "renderer");
+    Objects.requireNonNull(out, "out");
+    if (bandHeight <= 0) {
+      throw new IllegalArgumentException("bandHeight must be positive: " + bandHeight);
+    }
+    PngPixelFormat format = PngPixelFormat.rgba();
+    int compressionRows = compressionBandRows(format, width, height);
+    encode(width, height, format, new JobSource() {
+      private RenderedBand previous;
+      private RenderedBand current;
+      private int nextRow;
+
+      @Override
+      public boolean hasNext() {
+        return nextRow < height;
+      }
+
+      @Override
+      public BandJob next() throws IOException {
+        if (current == null || nextRow >= current.endRow()) {
+          int rows = Math.min(bandHeight, height - nextRow);
+          int[] pixels = new int[Math.multiplyExact(width, rows)];
+          renderer.render(nextRow, rows, pixels);
+          previous = current;
+          current = new RenderedBand(nextRow, nextRow + rows, pixels);
+        }
+        RenderedBand band = current;
+        RenderedBand before = previous;
+        int startRow = nextRow;
+        nextRow = Math.min(band.endRow(), startRow + compressionRows);
+        int minRow = before == null ? band.startRow() : before.startRow();
+        ArgbRowSource rows = (y, target) -> {
+          RenderedBand source = y >= band.startRow() ? band : before;
+          System.arraycopy(source.pixels(), (y - source.startRow()) * width, target, 0, width);
+        };
+        return new BandJob(rows, minRow, startRow, nextRow);
+      }
+    }, out);
+  }
+
+  private int compressionBandRows(PngPixelFormat format, int width, int height) {
+    int rowBytes = format.rowBytes(width);
+    return Math.max(1, Math.min(height, TARGET_BAND_BYTES / rowBytes));
+  }
+
+  private void encode(int width, int height, PngPixelFormat format, JobSource jobs, OutputStream out)
+      throws IOException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+    }
+    int rowBytes = format.rowBytes(width);
+
+    out.write(SIGNATURE);
+    writeChunk(out, "IHDR", header(width, height, format));
+    byte[] palette = format.paletteChunk();
+    if (palette != null) {
+      writeChunk(out, "PLTE", palette);
+    }
+    byte[] transparency = format.transparencyChunk();
+    if (transparency != null) {
+      writeChunk(out, "tRNS", transparency);
+    }
+    writeChunk(out, "IDAT", zlibHeader());
+
+    long adler = 1L;
+    if (parallelism == 1) {
+      while (jobs.hasNext()) {
+        adler = writeBand(out, encodeBand(jobs.next(), width, format, height), adler);
+      }
+    } else {
+      Deque<ForkJoinTask<EncodedBand>> inFlight = new ArrayDeque<>();
+      try {
+        while (jobs.hasNext() || !inFlight.isEmpty()) {
+          while (jobs.hasNext() && inFlight.size() < parallelism * 2) {
+            BandJob job = jobs.next();
+            inFlight.addLast(pool.submit(() -> encodeBand(job, width, format, height)));
+          }
+          adler = writeBand(out, inFlight.removeFirst().get(), adler);
+        }
+      } catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while encoding PNG");
+      } catch (ExecutionException error) {
+        if (error.getCause() instanceof IOException ioException) {
+          throw ioException;
+        }
+        if (error.getCause() instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw new IOException("PNG encoding failed", error.getCause());
+      } finally {
+        // The bands still read rows from the caller's image, so let them finish first.
+        for (ForkJoinTask<EncodedBand> band : inFlight) {
+          band.quietlyJoin();
+        }
+      }
+    }
+
+    writeChunk(out, "IDAT", new byte[]{
+        (byte) (adler >>> 24),
+        (byte) (adler >>> 16),
+        (byte) (adler >>> 8),
+        (byte) adler
+    });
+    writeChunk(out, "IEND", new byte[0]);
+    out.flush();
+  }
+
+  private long writeBand(OutputStream out, EncodedBand band, long adler) throws IOException {
+    writeChunk(out, "IDAT", band.compressed());
+    return combineAdler(adler, band.adler(), band.rawLength());
+  }
+
+  private EncodedBand encodeBand(BandJob job, int width, PngPixelFormat format, int height)
+      throws IOException {
+    ArgbRowSource rows = job.rows();
+    int startRow = job.startRow();
+    int endRow = job.endRow();
+    boolean lastBand = endRow == height;
+    int rowBytes = format.rowBytes(width);
+    RowFilter filter = new RowFilter(width, format, level);
+
+    // Any suffix of the preceding data is a valid dictionary, so only rows that can be
+    // re-filtered exactly (their previous row is still available) are used.
+    int firstFilterableRow = job.minRow() == 0 ? 0 : job.minRow() + 1;
+    byte[] dictionary = null;
+    if (startRow > firstFilterableRow) {
+      int dictionaryRows = Math.min(startRow - firstFilterableRow, (DICTIONARY_SIZE + rowBytes - 1) / rowBytes);
+      byte[] tail = filter.filterRows(rows, startRow - dictionaryRows, startRow);
+      int dictionaryLength = Math.min(DICTIONARY_SIZE, tail.length);
+      dictionary = new byte[dictionaryLength];
+      System.arraycopy(tail, tail.length - dictionaryLength, dictionary, 0, dictionaryLength);
+    }
+    byte[] raw = filter.filterRows(rows, startRow, endRow);
+
+    Adler32 checksum = new Adler32();
+    checksum.update(raw);
+
+    Deflater deflater = acquireDeflater();
+    try {
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(raw);
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+      byte[] buffer = new byte[64 * 1024];
+      if (lastBand) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          int count = deflater.deflate(buffer);
+          compressed.write(buffer, 0, count);
+        }
+      } else {
+        int count;
+        do {
+          count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          compressed.write(buffer, 0, count);
+        } while (count == buffer.length || !deflater.needsInput());
+      }
+      return new EncodedBand(compressed.toByteArray(), checksum.getValue(), raw.length);
+    } finally {
+      releaseDeflater(deflater);
+    }
+  }
+
+  private Deflater acquireDeflater() {
+    Deflater deflater = deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater(level.deflateLevel(), true);
+    }
+    return deflater;
+  }
+
+  private void releaseDeflater(Deflater deflater) {
+    deflater.reset();
+    deflaters.offer(deflater);
+  }
+
+  private byte[] header(int width, int height, PngPixelFormat format) {
+    return new byte[]{
+        (byte) (width >>> 24), (byte) (width >>> 16), (byte) (width >>> 8), (byte) width,
+        (byte) (height >>> 24), (byte) (height >>> 16), (byte) (height >>> 8), (byte) height,
+        (byte) format.bitDepth(),
+        (byte) format.colorType().code(),
+        0,
+        0,
+        0
+    };
+  }
+
+  private byte[] zlibHeader() {
+    int compressionMethod = 0x78;
+    int levelFlag = switch (level) {
+      case FASTEST -> 0;
+      case FAST -> 1;
+      case DEFAULT -> 2;
+      case SMALLEST -> 3;
+    };
+    int flags = levelFlag << 6;
+    flags += 31 - ((compressionMethod << 8) + flags) % 31;
+    return new byte[]{(byte) compressionMethod, (byte) flags};
+  }
+
+  static void writeChunk(OutputStream out, String type, byte[] data) throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    int length = data.length;
+    out.write(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+    out.write(typeBytes);
+    out.write(data);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data);
+    long value = crc.getValue();
+    out.write(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+  }
+
+  /**
+   * Same as zlib's adler32_combine: the checksum of A followed by B from the checksums
+   * of A and B and the length of B.
+   */
+  static long combineAdler(long adlerA, long adlerB, long lengthB) {
+    long remainder = lengthB % ADLER_BASE;
+    long sum1 = adlerA & 0xFFFF;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (adlerB & 0xFFFF) + ADLER_BASE - 1;
+    sum2 += ((adlerA >>> 16) & 0xFFFF) + ((adlerB >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum2 >= (ADLER_BASE << 1)) {
+      sum2 -= (ADLER_BASE << 1);
+    }
+    if (sum2 >= ADLER_BASE) {
+      sum2 -= ADLER_BASE;
+    }
+    return sum1 | (sum2 << 16);
+  }
+
+  private static ArgbRowSource rowSource(BufferedImage image) {
+    if (image.getType() == BufferedImage.TYPE_INT_ARGB
+        && image.getRaster().getDataBuffer() instanceof DataBufferInt dataBuffer
+        && image.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel
+        && image.getRaster().getSampleModelTranslateX() == 0
+        && image.getRaster().getSampleModelTranslateY() == 0) {
+      int[] data = dataBuffer.getData();
+      int stride = sampleModel.getScanlineStride();
+      int offset = dataBuffer.getOffset();
+      return (y, target) -> System.arraycopy(data, offset + y * stride, target, 0, image.getWidth());
+    }
+    return (y, target) -> image.getRGB(0, y, image.getWidth(), 1, target, 0, image.getWidth());
+  }
+
+  public enum CompressionLevel {
+    FASTEST(1),
+    FAST(3),
+    DEFAULT(6),
+    SMALLEST(9);
+
+    private final int deflateLevel;
+
+    CompressionLevel(int deflateLevel) {
+      this.deflateLevel = deflateLevel;
+    }
+
+    public int deflateLevel() {
+      return deflateLevel;
+    }
+  }
+
+  public enum ColorMode {
+    /**
+     * Always 8-bit RGBA; every pixel, including the RGB of fully transparent ones, is kept.
+     */
+    RGBA,
+    /**
+     * Indexed with tRNS, grayscale, grayscale with alpha, RGB or RGBA, whichever is smallest
+     * for the image. Fully transparent pixels are written as transparent black.
+     */
+    MINIMIZED
+  }
+
+  @FunctionalInterface
+  public interface BandRenderer {
+    /**
+     * Renders rows {@code y} to {@code y + rows - 1} as non-premultiplied ARGB into
+     * {@code target}, which has the image width as its stride.
+     */
+    void render(int y, int rows, int[] target) throws IOException;
+  }
+
+  private interface JobSource {
+    boolean hasNext();
+
+    BandJob next() throws IOException;
+  }
+
+  /**
+   * Rows {@code startRow} to {@code endRow - 1} to compress; rows from {@code minRow}
+   * on can be read from {@code rows} for the filter and the dictionary.
+   */
+  private record BandJob(ArgbRowSource rows, int minRow, int startRow, int endRow) {
+  }
+
+  private record RenderedBand(int startRow, int endRow, int[] pixels) {
+  }
+
+  private record EncodedBand(byte[] compressed, long adler, long rawLength) {
+  }
+
+  /**
+   * Converts ARGB rows to filtered scanlines in the target pixel format. Indexed rows are
+   * never filtered, as the PNG specification recommends; otherwise the fastest level always
+   * uses the Sub filter and the others pick, per row, the filter with the smallest sum of
+   * absolute differences (the heuristic from the PNG specification).
+   */
+  private static final class RowFilter {
+    private final int width;
+    private final PngPixelFormat format;
+    private final int rowBytes;
+    private final int distance;
+    private final boolean unfiltered;
+    private final boolean adaptive;
+    private final int[] argb;
+    private byte[] previous;
+    private byte[] current;
+    private final byte[][] candidates;
+
+    private RowFilter(int width, PngPixelFormat format, CompressionLevel level) {
+      this.width = width;
+      this.format = format;
+      this.rowBytes = format.rowBytes(width);
+      this.distance = format.filterDistance();
+      this.unfiltered = format.colorType() == PngColorType.INDEXED;
+      this.adaptive = !unfiltered && level != CompressionLevel.FASTEST;
+      this.argb = new int[width];
+      this.previous = new byte[rowBytes - 1];
+      this.current = new byte[rowBytes - 1];
+      this.candidates = new byte[adaptive ? 5 : 1][rowBytes];
+    }
+
+    private byte[] filterRows(ArgbRowSource rows, int startRow, int endRow) throws IOException {
+      byte[] output = new byte[(endRow - startRow) * rowBytes];
+      if (startRow > 0) {
+        readPacked(rows, startRow - 1, previous);
+      } else {
+        Arrays.fill(previous, (byte) 0);
+      }
+      int outputOffset = 0;
+      for (int y = startRow; y < endRow; y++) {
+        readPacked(rows, y, current);
+        byte[] filtered = filterRow();
+        System.arraycopy(filtered, 0, output, outputOffset, rowBytes);
+        outputOffset += rowBytes;
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+      }
+      return output;
+    }
+
+    private void readPacked(ArgbRowSource rows, int y, byte[] target) throws IOException {
+      rows.readRow(y, argb);
+      format.pack(argb, width, target);
+    }
+
+    private byte[] filterRow() {
+      if (unfiltered) {
+        byte[] none = candidates[0];
+        none[0] = 0;
+        System.arraycopy(current, 0, none, 1, current.length);
+        return none;
+      }
+      if (!adaptive) {
+        byte[] sub = candidates[0];
+        sub[0] = 1;
+        filterSub(sub);
+        return sub;
+      }
+
+      byte[] best = null;
+      long bestScore = Long.MAX_VALUE;
+      for (int type = 0; type < 5; type++) {
+        byte[] candidate = candidates[type];
+        candidate[0] = (byte) type;
+        switch (type) {
+          case 0 -> System.arraycopy(current, 0, candidate, 1, current.length);
+          case 1 -> filterSub(candidate);
+          case 2 -> filterUp(candidate);
+          case 3 -> filterAverage(candidate);
+          default -> filterPaeth(candidate);
+        }
+        long score = 0;
+        for (int index = 1; index < candidate.length && score < bestScore; index++) {
+          score += Math.abs(candidate[index]);
+        }
+        if (score < bestScore) {
+          bestScore = score;
+          best = candidate;
+        }
+      }
+      return best;
+    }
+
+    private void filterSub(byte[] target) {
+      for (int index = 0; index < current.length; index++) {
+        int left = index >= distance ? current[index - distance] : 0;
+        target[index + 1] = (byte) (current[index] - left);
+      }
+    }
+
+    private void filterUp(byte[] target) {
+      for (int index = 0; index < current.length; index++) {
+        target[index + 1] = (byte) (current[index] - previous[index]);
+      }
+    }
+
+    private void filterAverage(byte[] target) {
+      for (int index = 0; index < current.length; index++) {
+        int left = index >= distance ? current[index - distance] & 0xFF : 0;
+        int up = previous[index] & 0xFF;
+        target[index + 1] = (byte) (current[index] - ((left + up) >>> 1));
+      }
+    }
+
+    private void filterPaeth(byte[] target) {
+      for (int index = 0; index < current.length; index++) {
+        int left = index >= distance ? current[index - distance] & 0xFF : 0;
+        int up = previous[index] & 0xFF;
+        int upLeft = index >= distance ? previous[index - distance] & 0xFF : 0;
+        target[index + 1] = (byte) (current[index] - paeth(left, up, upLeft));
+      }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+      int estimate = left + up - upLeft;
+      int distanceLeft = Math.abs(estimate - left);
+      int distanceUp = Math.abs(estimate - up);
+      int distanceUpLeft = Math.abs(estimate - upLeft);
+      if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+        return left;
+      }
+      if (distanceUp <= distanceUpLeft) {
+        return up;
+      }
+      return upLeft;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package pl.spritesheetgluer.image;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The PNG color type and bit depth an image is written with, and the packing of ARGB
+ * rows into raw scanline bytes for it.
+ */
+final class PngPixelFormat {
+  private static final PngPixelFormat RGBA = new PngPixelFormat(PngColorType.RGBA, 8, null);
+  private static final int MAX_GRAY_PALETTE = 16;
+
+  private final PngColorType colorType;
+  private final int bitDepth;
+  private final ColorTable palette;
+
+  private PngPixelFormat(PngColorType colorType, int bitDepth, ColorTable palette) {
+    this.colorType = colorType;
+    this.bitDepth = bitDepth;
+    this.palette = palette;
+  }
+
+  static PngPixelFormat rgba() {
+    return RGBA;
+  }
+
+  /**
+   * Scans every pixel once, in up to {@code parallelism} row chunks on {@code pool}, and
+   * picks the smallest color type that stores the image without visible loss. Fully
+   * transparent pixels count as a single color, since their RGB is never shown.
+   */
+  static PngPixelFormat analyze(ArgbRowSource rows, int width, int height, ForkJoinPool pool, int parallelism)
+      throws IOException {
+    int chunks = pool == null ? 1 : Math.min(parallelism, height);
+    if (chunks <= 1) {
+      return ColorStats.scan(rows, width, 0, height).choose();
+    }
+    List<ForkJoinTask<ColorStats>> scans = new ArrayList<>(chunks);
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      int startRow = (int) ((long) height * chunk / chunks);
+      int endRow = (int) ((long) height * (chunk + 1) / chunks);
+      scans.add(pool.submit(() -> ColorStats.scan(rows, width, startRow, endRow)));
+    }
+    try {
+      ColorStats stats = scans.get(0).get();
+      for (int chunk = 1; chunk < chunks; chunk++) {
+        stats = stats.merge(scans.get(chunk).get());
+      }
+      return stats.choose();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while analysing PNG colors");
+    } catch (ExecutionException error) {
+      if (error.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (error.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IOException("PNG color analysis failed", error.getCause());
+    } finally {
+      // The scans read the caller's rows, so none may outlive the call.
+      for (ForkJoinTask<ColorStats> scan : scans) {
+        scan.quietlyJoin();
+      }
+    }
+  }
+
+  PngColorType colorType() {
+    return colorType;
+  }
+
+  int bitDepth() {
+    return bitDepth;
+  }
+
+  int rowBytes(int width) {
+    long rowBytes = 1L + ((long) width * colorType.channels() * bitDepth + 7) / 8;
+    if (rowBytes > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Image is too wide to encode: " + width);
+    }
+    return (int) rowBytes;
+  }
+
+  /**
+   * Byte distance to the corresponding byte of the previous pixel, as used by the filters.
+   */
+  int filterDistance() {
+    return Math.max(1, colorType.channels() * bitDepth / 8);
+  }
+
+  /**
+   * PLTE chunk data, or {@code null} for color types without a palette.
+   */
+  byte[] paletteChunk() {
+    if (palette == null) {
+      return null;
+    }
+    byte[] data = new byte[palette.size() * 3];
+    for (int index = 0; index < palette.size(); index++) {
+      int argb = palette.color(index);
+      data[index * 3] = (byte) (argb >>> 16);
+      data[index * 3 + 1] = (byte) (argb >>> 8);
+      data[index * 3 + 2] = (byte) argb;
+    }
+    return data;
+  }
+
+  /**
+   * tRNS chunk data, or {@code null} when every palette entry is opaque. Translucent
+   * entries are sorted first, so the chunk stops at the last of them.
+   */
+  byte[] transparencyChunk() {
+    if (palette == null) {
+      return null;
+    }
+    int translucent = 0;
+    while (translucent < palette.size() && palette.color(translucent) >>> 24 != 0xFF) {
+      translucent++;
+    }
+    if (translucent == 0) {
+      return null;
+    }
+    byte[] data = new byte[translucent];
+    for (int index = 0; index < translucent; index++) {
+      data[index] = (byte) (palette.color(index) >>> 24);
+    }
+    return data;
+  }
+
+  /**
+   * Packs one row of ARGB pixels into {@code target}, which has room for
+   * {@code rowBytes(width) - 1} bytes.
+   */
+  void pack(int[] argb, int width, byte[] target) {
+    int index = 0;
+    switch (colorType) {
+      case RGBA -> {
+        for (int x = 0; x < width; x++) {
+          int pixel = argb[x];
+          target[index++] = (byte) (pixel >>> 16);
+          target[index++] = (byte) (pixel >>> 8);
+          target[index++] = (byte) pixel;
+          target[index++] = (byte) (pixel >>> 24);
+        }
+      }
+      case RGB -> {
+        for (int x = 0; x < width; x++) {
+          int pixel = argb[x];
+          target[index++] = (byte) (pixel >>> 16);
+          target[index++] = (byte) (pixel >>> 8);
+          target[index++] = (byte) pixel;
+        }
+      }
+      case GRAYSCALE -> {
+        for (int x = 0; x < width; x++) {
+          target[index++] = (byte) argb[x];
+        }
+      }
+      case GRAYSCALE_ALPHA -> {
+        for (int x = 0; x < width; x++) {
+          int pixel = canonical(argb[x]);
+          target[index++] = (byte) pixel;
+          target[index++] = (byte) (pixel >>> 24);
+        }
+      }
+      case INDEXED -> {
+        if (bitDepth == 8) {
+          for (int x = 0; x < width; x++) {
+            target[index++] = (byte) palette.indexOf(canonical(argb[x]));
+          }
+          return;
+        }
+        int pixelsPerByte = 8 / bitDepth;
+        Arrays.fill(target, 0, (width + pixelsPerByte - 1) / pixelsPerByte, (byte) 0);
+        for (int x = 0; x < width; x++) {
+          int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+          target[x / pixelsPerByte] |= (byte) (palette.indexOf(canonical(argb[x])) << shift);
+        }
+      }
+    }
+  }
+
+  private static int canonical(int argb) {
+    return argb >>> 24 == 0 ? 0 : argb;
+  }
+
+  /**
+   * What one chunk of rows needs: whether any pixel is translucent, whether every visible
+   * pixel is gray, and its distinct colors while they still fit a palette.
+   */
+  private record ColorStats(boolean translucent, boolean gray, ColorTable colors) {
+    private static ColorStats scan(ArgbRowSource rows, int width, int startRow, int endRow)
+        throws IOException {
+      int[] row = new int[width];
+      boolean translucent = false;
+      boolean gray = true;
+      ColorTable colors = new ColorTable();
+      for (int y = startRow; y < endRow; y++) {
+        rows.readRow(y, row);
+        for (int x = 0; x < width; x++) {
+          int pixel = canonical(row[x]);
+          int alpha = pixel >>> 24;
+          translucent |= alpha != 0xFF;
+          if (alpha != 0) {
+            int red = (pixel >>> 16) & 0xFF;
+            gray &= red == ((pixel >>> 8) & 0xFF) && red == (pixel & 0xFF);
+          }
+          if (colors != null && !colors.add(pixel)) {
+            colors = null;
+          }
+        }
+        if (colors == null && translucent && !gray) {
+          break;
+        }
+      }
+      return new ColorStats(translucent, gray, colors);
+    }
+
+    private ColorStats merge(ColorStats other) {
+      ColorTable merged = null;
+      if (colors != null && other.colors != null) {
+        merged = colors;
+        for (int index = 0; index < other.colors.size() && merged != null; index++) {
+          if (!merged.add(other.colors.color(index))) {
+            merged = null;
+          }
+        }
+      }
+      return new ColorStats(translucent || other.translucent, gray && other.gray, merged);
+    }
+
+    private PngPixelFormat choose() {
+      if (colors != null && !(gray && !translucent && colors.size() > MAX_GRAY_PALETTE)) {
+        return indexed();
+      }
+      if (gray) {
+        return new PngPixelFormat(translucent ? PngColorType.GRAYSCALE_ALPHA : PngColorType.GRAYSCALE, 8, null);
+      }
+      return translucent ? RGBA : new PngPixelFormat(PngColorType.RGB, 8, null);
+    }
+
+    private PngPixelFormat indexed() {
+      // Sorted so the palette does not depend on how rows were split between threads.
+      long[] keys = new long[colors.size()];
+      for (int index = 0; index < keys.length; index++) {
+        int argb = colors.color(index);
+        long opaque = argb >>> 24 == 0xFF ? 1L : 0L;
+        keys[index] = opaque << 32 | Integer.toUnsignedLong(argb);
+      }
+      Arrays.sort(keys);
+      ColorTable palette = new ColorTable();
+      for (long key : keys) {
+        palette.add((int) key);
+      }
+      int bitDepth = 8;
+      while (bitDepth > 1 && palette.size() <= 1 << (bitDepth / 2)) {
+        bitDepth /= 2;
+      }
+      return new PngPixelFormat(PngColorType.INDEXED, bitDepth, palette);
+    }
+  }
+}
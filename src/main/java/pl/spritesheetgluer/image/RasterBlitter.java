@@ -0,0 +1,359 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Copies image rows into {@code TYPE_INT_ARGB} pixel arrays with exactly the result of
+ * {@code Graphics2D.drawImage} in source-over mode onto fully transparent pixels, without
+ * going through Java2D. Source-over onto transparency is not a plain copy: Java2D
+ * premultiplies and un-premultiplies translucent pixels through 8-bit tables, so those
+ * channels are mapped through a table probed from Java2D once. The image types ImageIO
+ * returns, and frames read from a {@link DecodedFrameCache}, are read straight from
+ * their data buffers; anything else goes through
+ * {@code getRGB}. Instances keep scratch buffers and are not thread-safe.
+ */
+public final class RasterBlitter {
+  // OVER_TRANSPARENT[alpha << 8 | channel] is the channel drawImage writes for a
+  // non-premultiplied source pixel with that alpha.
+  private static final byte[] OVER_TRANSPARENT = probeOverTransparent();
+
+  private final int[] palette = new int[256];
+  private IndexColorModel paletteModel;
+  private SampleModel offsetsModel;
+  private int[] bandOffsets;
+  private int[] rgbRow = new int[0];
+
+  /**
+   * Writes {@code width} pixels of row {@code sourceY}, starting at column {@code sourceX},
+   * into {@code target} from {@code targetOffset}, as drawing the image onto transparent
+   * pixels would.
+   */
+  public void blitRow(BufferedImage source, int sourceX, int sourceY, int width, int[] target, int targetOffset) {
+    blit(source, sourceX, sourceY, width, 1, target, targetOffset, width);
+  }
+
+  /**
+   * Writes the {@code width} x {@code height} area at ({@code sourceX}, {@code sourceY})
+   * into {@code target}, row {@code r} starting at {@code targetOffset + r * targetStride},
+   * as drawing the image onto transparent pixels would. The image type is looked at once
+   * per call, so whole frames are cheaper to blit this way than row by row.
+   */
+  public void blit(
+      BufferedImage source,
+      int sourceX,
+      int sourceY,
+      int width,
+      int height,
+      int[] target,
+      int targetOffset,
+      int targetStride
+  ) {
+    Raster raster = source.getRaster();
+    SampleModel sampleModel = raster.getSampleModel();
+    int x = sourceX - raster.getSampleModelTranslateX();
+    int y = sourceY - raster.getSampleModelTranslateY();
+    int type = source.getType();
+
+    if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+        && raster.getDataBuffer() instanceof DataBufferInt buffer
+        && sampleModel instanceof SinglePixelPackedSampleModel packed) {
+      int[] data = buffer.getData();
+      int scanlineStride = packed.getScanlineStride();
+      int index = buffer.getOffset() + y * scanlineStride + x;
+      for (int row = 0; row < height; row++, index += scanlineStride, targetOffset += targetStride) {
+        if (type == BufferedImage.TYPE_INT_RGB) {
+          copyOpaque(data, index, width, target, targetOffset);
+        } else {
+          copyArgb(data, index, width, target, targetOffset);
+        }
+      }
+      return;
+    }
+
+    if (type == BufferedImage.TYPE_BYTE_GRAY
+        && raster.getDataBuffer() instanceof DataBufferByte buffer
+        && sampleModel instanceof PixelInterleavedSampleModel interleaved) {
+      // Java2D blits 8-bit gray samples as sRGB, unlike getRGB which treats them as linear.
+      byte[] data = buffer.getData();
+      int scanlineStride = interleaved.getScanlineStride();
+      int pixelStride = interleaved.getPixelStride();
+      int index = buffer.getOffset() + y * scanlineStride + x * pixelStride + bandOffsets(interleaved)[0];
+      for (int row = 0; row < height; row++, index += scanlineStride, targetOffset += targetStride) {
+        copyGray(data, index, pixelStride, width, target, targetOffset);
+      }
+      return;
+    }
+
+    if (type == BufferedImage.TYPE_USHORT_GRAY
+        && raster.getDataBuffer() instanceof DataBufferUShort buffer
+        && sampleModel instanceof PixelInterleavedSampleModel interleaved) {
+      // Likewise for 16-bit gray, which Java2D cuts to the high byte of each sample.
+      short[] data = buffer.getData();
+      int scanlineStride = interleaved.getScanlineStride();
+      int pixelStride = interleaved.getPixelStride();
+      int index = buffer.getOffset() + y * scanlineStride + x * pixelStride + bandOffsets(interleaved)[0];
+      for (int row = 0; row < height; row++, index += scanlineStride, targetOffset += targetStride) {
+        copyWideGray(data, index, pixelStride, width, target, targetOffset);
+      }
+      return;
+    }
+
+    if (source.getColorModel() instanceof IndexColorModel indexModel
+        && indexModel.getPixelSize() == 8
+        && raster.getDataBuffer() instanceof DataBufferByte buffer
+        && sampleModel instanceof PixelInterleavedSampleModel interleaved
+        && interleaved.getNumBands() == 1) {
+      byte[] data = buffer.getData();
+      int[] colors = composedPalette(indexModel);
+      int scanlineStride = interleaved.getScanlineStride();
+      int pixelStride = interleaved.getPixelStride();
+      int index = buffer.getOffset() + y * scanlineStride + x * pixelStride + bandOffsets(interleaved)[0];
+      for (int row = 0; row < height; row++, index += scanlineStride, targetOffset += targetStride) {
+        copyIndexed(data, index, pixelStride, colors, width, target, targetOffset);
+      }
+      return;
+    }
+
+    if (isInterleavedSrgb(source.getColorModel(), sampleModel)) {
+      PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) sampleModel;
+      int[] offsets = bandOffsets(interleaved);
+      int scanlineStride = interleaved.getScanlineStride();
+      int pixelStride = interleaved.getPixelStride();
+      if (raster.getDataBuffer() instanceof DataBufferByte buffer) {
+        byte[] data = buffer.getData();
+        int index = buffer.getOffset() + y * scanlineStride + x * pixelStride;
+        for (int row = 0; row < height; row++, index += scanlineStride, targetOffset += targetStride) {
+          if (offsets.length == 4) {
+            copyBytesWithAlpha(data, index, pixelStride, offsets, width, target, targetOffset);
+          } else {
+            copyBytes(data, index, pixelStride, offsets, width, target, targetOffset);
+          }
+        }
+        return;
+      }
+      if (raster.getDataBuffer() instanceof DataBufferUShort buffer) {
+        short[] data = buffer.getData();
+        int index = buffer.getOffset() + y * scanlineStride + x * pixelStride;
+        for (int row = 0; row < height; row++, index += scanlineStride, targetOffset += targetStride) {
+          copyShorts(data, index, pixelStride, offsets, width, target, targetOffset);
+        }
+        return;
+      }
+    }
+
+    if (rgbRow.length < width) {
+      rgbRow = new int[width];
+    }
+    for (int row = 0; row < height; row++, targetOffset += targetStride) {
+      source.getRGB(sourceX, sourceY + row, width, 1, rgbRow, 0, width);
+      copyArgb(rgbRow, 0, width, target, targetOffset);
+    }
+  }
+
+  /**
+   * Writes {@code width} non-premultiplied ARGB pixels from {@code source}, such as rows a
+   * {@link PngBandReader} decoded, into {@code target} as drawing them onto transparent
+   * pixels would.
+   */
+  public static void blitArgb(int[] source, int sourceOffset, int width, int[] target, int targetOffset) {
+    copyArgb(source, sourceOffset, width, target, targetOffset);
+  }
+
+  /**
+   * Returns whether {@code pixels[from]} to {@code pixels[to - 1]} are all transparent
+   * black, i.e. whether blitting over them is exact.
+   */
+  public static boolean isTransparent(int[] pixels, int from, int to) {
+    return PixelKernels.get().allZero(pixels, from, to);
+  }
+
+  /**
+   * Whether blitting {@code source} beats drawing it onto a {@code BufferedImage}. Java2D
+   * copies opaque sources with native loops, but translucent ones go through its
+   * premultiply and un-premultiply steps, which are slower than the table lookup here.
+   */
+  static boolean outpacesDrawImage(BufferedImage source) {
+    ColorModel colorModel = source.getColorModel();
+    return colorModel.hasAlpha() && !(colorModel instanceof IndexColorModel);
+  }
+
+  /**
+   * The pixel drawImage leaves when {@code argb} (non-premultiplied) is drawn over
+   * transparent black.
+   */
+  static int overTransparent(int argb) {
+    int alpha = argb >>> 24;
+    if (alpha == 0xFF) {
+      return argb;
+    }
+    if (alpha == 0) {
+      return 0;
+    }
+    int table = alpha << 8;
+    return argb & 0xFF000000
+        | (OVER_TRANSPARENT[table | (argb >>> 16) & 0xFF] & 0xFF) << 16
+        | (OVER_TRANSPARENT[table | (argb >>> 8) & 0xFF] & 0xFF) << 8
+        | OVER_TRANSPARENT[table | argb & 0xFF] & 0xFF;
+  }
+
+  // The copy loops are kept small and separate so each one is compiled on its own.
+
+  private static void copyOpaque(int[] data, int index, int width, int[] target, int targetOffset) {
+    for (int column = 0; column < width; column++) {
+      target[targetOffset + column] = 0xFF000000 | data[index + column];
+    }
+  }
+
+  private static void copyArgb(int[] data, int index, int width, int[] target, int targetOffset) {
+    for (int column = 0; column < width; column++) {
+      target[targetOffset + column] = overTransparent(data[index + column]);
+    }
+  }
+
+  private static void copyGray(byte[] data, int index, int pixelStride, int width, int[] target, int targetOffset) {
+    if (pixelStride == 1) {
+      for (int column = 0; column < width; column++) {
+        target[targetOffset + column] = 0xFF000000 | (data[index + column] & 0xFF) * 0x010101;
+      }
+      return;
+    }
+    for (int column = 0; column < width; column++, index += pixelStride) {
+      target[targetOffset + column] = 0xFF000000 | (data[index] & 0xFF) * 0x010101;
+    }
+  }
+
+  private static void copyWideGray(
+      short[] data, int index, int pixelStride, int width, int[] target, int targetOffset
+  ) {
+    for (int column = 0; column < width; column++, index += pixelStride) {
+      target[targetOffset + column] = 0xFF000000 | ((data[index] & 0xFFFF) >>> 8) * 0x010101;
+    }
+  }
+
+  private static void copyIndexed(
+      byte[] data, int index, int pixelStride, int[] colors, int width, int[] target, int targetOffset
+  ) {
+    if (pixelStride == 1) {
+      for (int column = 0; column < width; column++) {
+        target[targetOffset + column] = colors[data[index + column] & 0xFF];
+      }
+      return;
+    }
+    for (int column = 0; column < width; column++, index += pixelStride) {
+      target[targetOffset + column] = colors[data[index] & 0xFF];
+    }
+  }
+
+  private static void copyBytes(
+      byte[] data, int index, int pixelStride, int[] offsets, int width, int[] target, int targetOffset
+  ) {
+    int red = offsets[0];
+    int green = offsets[1];
+    int blue = offsets[2];
+    for (int column = 0; column < width; column++, index += pixelStride) {
+      target[targetOffset + column] = 0xFF000000
+          | (data[index + red] & 0xFF) << 16
+          | (data[index + green] & 0xFF) << 8
+          | data[index + blue] & 0xFF;
+    }
+  }
+
+  private static void copyBytesWithAlpha(
+      byte[] data, int index, int pixelStride, int[] offsets, int width, int[] target, int targetOffset
+  ) {
+    int red = offsets[0];
+    int green = offsets[1];
+    int blue = offsets[2];
+    int alpha = offsets[3];
+    for (int column = 0; column < width; column++, index += pixelStride) {
+      target[targetOffset + column] = overTransparent((data[index + alpha] & 0xFF) << 24
+          | (data[index + red] & 0xFF) << 16
+          | (data[index + green] & 0xFF) << 8
+          | data[index + blue] & 0xFF);
+    }
+  }
+
+  private static void copyShorts(
+      short[] data, int index, int pixelStride, int[] offsets, int width, int[] target, int targetOffset
+  ) {
+    boolean hasAlpha = offsets.length == 4;
+    for (int column = 0; column < width; column++, index += pixelStride) {
+      int alpha = hasAlpha ? to8Bit(data[index + offsets[3]]) : 0xFF;
+      target[targetOffset + column] = overTransparent(alpha << 24
+          | to8Bit(data[index + offsets[0]]) << 16
+          | to8Bit(data[index + offsets[1]]) << 8
+          | to8Bit(data[index + offsets[2]]));
+    }
+  }
+
+  private int[] composedPalette(IndexColorModel indexModel) {
+    if (paletteModel != indexModel) {
+      indexModel.getRGBs(palette);
+      for (int index = 0; index < indexModel.getMapSize(); index++) {
+        palette[index] = overTransparent(palette[index]);
+      }
+      paletteModel = indexModel;
+    }
+    return palette;
+  }
+
+  private int[] bandOffsets(PixelInterleavedSampleModel sampleModel) {
+    // getBandOffsets() returns a fresh copy each time.
+    if (offsetsModel != sampleModel) {
+      bandOffsets = sampleModel.getBandOffsets();
+      offsetsModel = sampleModel;
+    }
+    return bandOffsets;
+  }
+
+  private static boolean isInterleavedSrgb(ColorModel colorModel, SampleModel sampleModel) {
+    if (!(colorModel instanceof ComponentColorModel)
+        || !colorModel.getColorSpace().isCS_sRGB()
+        || colorModel.isAlphaPremultiplied()
+        || !(sampleModel instanceof PixelInterleavedSampleModel)) {
+      return false;
+    }
+    int bands = sampleModel.getNumBands();
+    return colorModel.getColorSpace().getType() == ColorSpace.TYPE_RGB
+        && (bands == 3 && !colorModel.hasAlpha() || bands == 4 && colorModel.hasAlpha());
+  }
+
+  private static int to8Bit(short sample) {
+    return ((sample & 0xFFFF) * 255 + 32_767) / 65_535;
+  }
+
+  private static byte[] probeOverTransparent() {
+    BufferedImage probe = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+    int[] probePixels = ((DataBufferInt) probe.getRaster().getDataBuffer()).getData();
+    for (int alpha = 0; alpha < 256; alpha++) {
+      for (int channel = 0; channel < 256; channel++) {
+        probePixels[alpha << 8 | channel] = alpha << 24 | channel;
+      }
+    }
+    BufferedImage result = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = result.createGraphics();
+    try {
+      graphics.drawImage(probe, 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    int[] resultPixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+    byte[] table = new byte[256 * 256];
+    for (int index = 0; index < table.length; index++) {
+      table[index] = (byte) resultPixels[index];
+    }
+    return table;
+  }
+}
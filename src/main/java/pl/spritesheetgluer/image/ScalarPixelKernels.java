@@ -0,0 +1,86 @@
+package pl.spritesheetgluer.image;
+
+/**
+ * Plain-loop pixel kernels, used when the Vector API is not available.
+ */
+final class ScalarPixelKernels extends PixelKernels {
+  static final ScalarPixelKernels INSTANCE = new ScalarPixelKernels();
+
+  private ScalarPixelKernels() {
+  }
+
+  @Override
+  public String description() {
+    return "scalar";
+  }
+
+  @Override
+  public int visibleMismatch(int[] a, int aOffset, int[] b, int bOffset, int length) {
+    return visibleMismatch(a, aOffset, b, bOffset, 0, length);
+  }
+
+  static int visibleMismatch(int[] a, int aOffset, int[] b, int bOffset, int from, int length) {
+    for (int index = from; index < length; index++) {
+      int left = a[aOffset + index];
+      int right = b[bOffset + index];
+      if (left != right && ((left | right) & ALPHA) != 0) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean allTransparent(int[] pixels, int from, int to) {
+    for (int index = from; index < to; index++) {
+      if ((pixels[index] & ALPHA) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean allZero(int[] pixels, int from, int to) {
+    for (int index = from; index < to; index++) {
+      if (pixels[index] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int firstVisible(int[] pixels, int from, int to) {
+    for (int index = from; index < to; index++) {
+      if ((pixels[index] & ALPHA) != 0) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int lastVisible(int[] pixels, int from, int to) {
+    for (int index = to - 1; index >= from; index--) {
+      if ((pixels[index] & ALPHA) != 0) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void rgbaToArgb(byte[] source, int sourceOffset, int[] target, int targetOffset, int count) {
+    rgbaToArgb(source, sourceOffset, target, targetOffset, 0, count);
+  }
+
+  static void rgbaToArgb(byte[] source, int sourceOffset, int[] target, int targetOffset, int from, int count) {
+    for (int pixel = from, index = sourceOffset + from * 4; pixel < count; pixel++, index += 4) {
+      target[targetOffset + pixel] = (source[index + 3] & 0xFF) << 24
+          | (source[index] & 0xFF) << 16
+          | (source[index + 1] & 0xFF) << 8
+          | source[index + 2] & 0xFF;
+    }
+  }
+}
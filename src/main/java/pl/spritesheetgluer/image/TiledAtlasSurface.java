@@ -0,0 +1,173 @@
+package pl.spritesheetgluer.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Surface split into square {@code TYPE_INT_ARGB} tiles, so no single array is large
+ * enough to become a humongous G1 allocation: the default 256x256 tile is 256 KiB, a
+ * quarter of the smallest G1 region, while G1 only treats arrays of half a region or more
+ * as humongous. Tiles are allocated on first draw; reading a tile that was never drawn
+ * to yields transparent pixels. Frames are blitted into each covered tile, falling back
+ * to {@code Graphics2D} where the tile already has content; either way the pixels match
+ * drawing once on a whole image.
+ */
+public final class TiledAtlasSurface implements AtlasSurface {
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int tileColumns;
+  private final BufferedImage[] tiles;
+  private final RasterBlitter blitter = new RasterBlitter();
+
+  public TiledAtlasSurface(int width, int height) {
+    this(width, height, DEFAULT_TILE_SIZE);
+  }
+
+  public TiledAtlasSurface(int width, int height, int tileSize) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Surface size must be positive: " + width + "x" + height);
+    }
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+    }
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.tileColumns = Math.ceilDiv(width, tileSize);
+    this.tiles = new BufferedImage[tileColumns * Math.ceilDiv(height, tileSize)];
+  }
+
+  @Override
+  public int width() {
+    return width;
+  }
+
+  @Override
+  public int height() {
+    return height;
+  }
+
+  @Override
+  public void draw(BufferedImage source, int x, int y) {
+    int left = Math.max(0, x);
+    int top = Math.max(0, y);
+    int right = Math.min(width, x + source.getWidth());
+    int bottom = Math.min(height, y + source.getHeight());
+    if (left >= right || top >= bottom) {
+      return;
+    }
+    for (int tileRow = top / tileSize; tileRow <= (bottom - 1) / tileSize; tileRow++) {
+      for (int tileColumn = left / tileSize; tileColumn <= (right - 1) / tileSize; tileColumn++) {
+        drawOnTile(source, x, y, tileColumn, tileRow, left, top, right, bottom);
+      }
+    }
+  }
+
+  private void drawOnTile(
+      BufferedImage source,
+      int x,
+      int y,
+      int tileColumn,
+      int tileRow,
+      int left,
+      int top,
+      int right,
+      int bottom
+  ) {
+    BufferedImage tile = tile(tileColumn, tileRow);
+    int tileX = tileColumn * tileSize;
+    int tileY = tileRow * tileSize;
+    int tileWidth = tile.getWidth();
+    int fromX = Math.max(left, tileX) - tileX;
+    int toX = Math.min(right, tileX + tileWidth) - tileX;
+    int fromY = Math.max(top, tileY) - tileY;
+    int toY = Math.min(bottom, tileY + tile.getHeight()) - tileY;
+    int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    boolean transparent = RasterBlitter.outpacesDrawImage(source);
+    for (int row = fromY; row < toY && transparent; row++) {
+      transparent = RasterBlitter.isTransparent(pixels, row * tileWidth + fromX, row * tileWidth + toX);
+    }
+    if (transparent) {
+      blitter.blit(source, tileX + fromX - x, tileY + fromY - y, toX - fromX, toY - fromY, pixels,
+          fromY * tileWidth + fromX, tileWidth);
+      return;
+    }
+    Graphics2D graphics = tile.createGraphics();
+    try {
+      graphics.setComposite(AlphaComposite.SrcOver);
+      graphics.drawImage(source, x - tileX, y - tileY, null);
+    } finally {
+      graphics.dispose();
+    }
+  }
+
+  @Override
+  public void readRows(int x, int y, int width, int height, int[] target, int offset, int stride) {
+    Objects.checkFromIndexSize(x, width, this.width);
+    Objects.checkFromIndexSize(y, height, this.height);
+    for (int row = 0; row < height; row++) {
+      int surfaceY = y + row;
+      int tileRow = surfaceY / tileSize;
+      int tileY = surfaceY - tileRow * tileSize;
+      int column = 0;
+      while (column < width) {
+        int surfaceX = x + column;
+        int tileColumn = surfaceX / tileSize;
+        int tileX = surfaceX - tileColumn * tileSize;
+        int count = Math.min(width - column, tileSize - tileX);
+        int targetIndex = offset + row * stride + column;
+        BufferedImage tile = tiles[tileRow * tileColumns + tileColumn];
+        if (tile == null) {
+          Arrays.fill(target, targetIndex, targetIndex + count, 0);
+        } else {
+          int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+          System.arraycopy(pixels, tileY * tile.getWidth() + tileX, target, targetIndex, count);
+        }
+        column += count;
+      }
+    }
+  }
+
+  @Override
+  public long pixelBytes() {
+    long bytes = 0;
+    for (BufferedImage tile : tiles) {
+      if (tile != null) {
+        bytes += ImageMemory.pixelBytes(tile);
+      }
+    }
+    return bytes;
+  }
+
+  @Override
+  public BufferedImage toImage() {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    readRows(0, 0, width, height, pixels, 0, width);
+    return image;
+  }
+
+  @Override
+  public void close() {
+    Arrays.fill(tiles, null);
+  }
+
+  private BufferedImage tile(int tileColumn, int tileRow) {
+    int index = tileRow * tileColumns + tileColumn;
+    BufferedImage tile = tiles[index];
+    if (tile == null) {
+      int tileWidth = Math.min(tileSize, width - tileColumn * tileSize);
+      int tileHeight = Math.min(tileSize, height - tileRow * tileSize);
+      tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+      tiles[index] = tile;
+    }
+    return tile;
+  }
+}
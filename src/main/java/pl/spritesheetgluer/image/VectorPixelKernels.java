@@ -0,0 +1,108 @@
+package pl.spritesheetgluer.image;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Pixel kernels on the platform's preferred vector width. Only loaded once
+ * {@link PixelKernels} has seen the {@code jdk.incubator.vector} module; the tails shorter
+ * than a vector go through the scalar loops.
+ */
+final class VectorPixelKernels extends PixelKernels {
+  private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+  private VectorPixelKernels() {
+  }
+
+  /**
+   * Returns the kernels, or {@code null} when vectors are too narrow to pay off.
+   */
+  static PixelKernels create() {
+    return INTS.length() >= 4 ? new VectorPixelKernels() : null;
+  }
+
+  @Override
+  public String description() {
+    return "vector (" + INTS.vectorBitSize() + "-bit)";
+  }
+
+  @Override
+  public int visibleMismatch(int[] a, int aOffset, int[] b, int bOffset, int length) {
+    int index = 0;
+    for (int bound = INTS.loopBound(length); index < bound; index += INTS.length()) {
+      IntVector left = IntVector.fromArray(INTS, a, aOffset + index);
+      IntVector right = IntVector.fromArray(INTS, b, bOffset + index);
+      VectorMask<Integer> differs = left.compare(VectorOperators.NE, right);
+      if (differs.anyTrue()) {
+        VectorMask<Integer> visible = left.or(right).and(ALPHA).compare(VectorOperators.NE, 0);
+        VectorMask<Integer> mismatches = differs.and(visible);
+        if (mismatches.anyTrue()) {
+          return index + mismatches.firstTrue();
+        }
+      }
+    }
+    return ScalarPixelKernels.visibleMismatch(a, aOffset, b, bOffset, index, length);
+  }
+
+  @Override
+  public boolean allTransparent(int[] pixels, int from, int to) {
+    return firstVisible(pixels, from, to) < 0;
+  }
+
+  @Override
+  public boolean allZero(int[] pixels, int from, int to) {
+    int index = from;
+    for (int bound = from + INTS.loopBound(to - from); index < bound; index += INTS.length()) {
+      if (IntVector.fromArray(INTS, pixels, index).compare(VectorOperators.NE, 0).anyTrue()) {
+        return false;
+      }
+    }
+    return ScalarPixelKernels.INSTANCE.allZero(pixels, index, to);
+  }
+
+  @Override
+  public int firstVisible(int[] pixels, int from, int to) {
+    int index = from;
+    for (int bound = from + INTS.loopBound(to - from); index < bound; index += INTS.length()) {
+      VectorMask<Integer> visible = IntVector.fromArray(INTS, pixels, index)
+          .and(ALPHA)
+          .compare(VectorOperators.NE, 0);
+      if (visible.anyTrue()) {
+        return index + visible.firstTrue();
+      }
+    }
+    return ScalarPixelKernels.INSTANCE.firstVisible(pixels, index, to);
+  }
+
+  @Override
+  public int lastVisible(int[] pixels, int from, int to) {
+    int index = to - INTS.length();
+    for (; index >= from; index -= INTS.length()) {
+      VectorMask<Integer> visible = IntVector.fromArray(INTS, pixels, index)
+          .and(ALPHA)
+          .compare(VectorOperators.NE, 0);
+      if (visible.anyTrue()) {
+        return index + visible.lastTrue();
+      }
+    }
+    return ScalarPixelKernels.INSTANCE.lastVisible(pixels, from, index + INTS.length());
+  }
+
+  @Override
+  public void rgbaToArgb(byte[] source, int sourceOffset, int[] target, int targetOffset, int count) {
+    int pixel = 0;
+    for (int bound = INTS.loopBound(count); pixel < bound; pixel += INTS.length()) {
+      // Reinterpreting is little-endian, so each lane holds A, B, G, R from high to low byte.
+      IntVector abgr = ByteVector.fromArray(BYTES, source, sourceOffset + pixel * 4).reinterpretAsInts();
+      abgr.and(0xFF00FF00)
+          .or(abgr.lanewise(VectorOperators.LSHL, 16).and(0x00FF0000))
+          .or(abgr.lanewise(VectorOperators.LSHR, 16).and(0x000000FF))
+          .intoArray(target, targetOffset + pixel);
+    }
+    ScalarPixelKernels.rgbaToArgb(source, sourceOffset, target, targetOffset, pixel, count);
+  }
+}
@@ -0,0 +1,111 @@
+package pl.spritesheetgluer.sprite;
+
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.PngBandReader;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Recreates an atlas from the PNG written for it last time when its cell grid did not
+ * change: the previous pixels are read back from top to bottom and the cells marked as
+ * changed are cleared, so only their frames have to be decoded and drawn again. The
+ * previous PNG holds each frame as drawing it onto transparent pixels left it, so copying
+ * it back gives exactly the pixels a full rebuild would draw.
+ */
+final class AtlasPatcher {
+  private final int columns;
+  private final int rows;
+  private final int cellWidth;
+  private final int cellHeight;
+  private final boolean[] changedCells;
+
+  /**
+   * {@code changedCells} has one entry per cell of the {@code columns x rows} grid, in
+   * row-major order.
+   */
+  AtlasPatcher(int columns, int rows, int cellWidth, int cellHeight, boolean[] changedCells) {
+    Objects.requireNonNull(changedCells, "changedCells");
+    if (changedCells.length != columns * rows) {
+      throw new IllegalArgumentException(
+          "Expected " + columns * rows + " cell flags, got " + changedCells.length
+      );
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.cellWidth = cellWidth;
+    this.cellHeight = cellHeight;
+    this.changedCells = changedCells.clone();
+  }
+
+  int width() {
+    return columns * cellWidth;
+  }
+
+  int height() {
+    return rows * cellHeight;
+  }
+
+  boolean changed(int cell) {
+    return changedCells[cell];
+  }
+
+  /**
+   * Opens the previous atlas for {@link #readBand}, checking that it has this grid's size.
+   * Its gray samples are read as stored, so a gray atlas comes back as it was written.
+   */
+  PngBandReader open(Path previousAtlas) throws IOException {
+    PngBandReader reader = PngBandReader.open(previousAtlas, PngBandReader.Gray.AS_STORED);
+    if (reader.width() != width() || reader.height() != height()) {
+      int width = reader.width();
+      int height = reader.height();
+      reader.close();
+      throw new IOException(
+          "Previous atlas " + previousAtlas + " is " + width + "x" + height
+              + ", expected " + width() + "x" + height()
+      );
+    }
+    return reader;
+  }
+
+  /**
+   * Reads atlas rows {@code y} to {@code y + rows - 1} from {@code reader}, whose next row
+   * must be {@code y}, into {@code target} with the atlas width as its stride, leaving the
+   * changed cells transparent.
+   */
+  void readBand(PngBandReader reader, int y, int rows, int[] target) throws IOException {
+    if (reader.nextRow() != y) {
+      throw new IllegalStateException("Previous atlas is at row " + reader.nextRow() + ", not " + y);
+    }
+    reader.read(target, 0, rows);
+    int width = width();
+    for (int row = 0; row < rows; row++) {
+      int cellRow = (y + row) / cellHeight;
+      for (int column = 0; column < columns; column++) {
+        if (changedCells[cellRow * columns + column]) {
+          int start = row * width + column * cellWidth;
+          Arrays.fill(target, start, start + cellWidth, 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the previous atlas onto {@code surface}, which must be transparent and of this
+   * grid's size, leaving the changed cells transparent.
+   */
+  void restore(Path previousAtlas, AtlasSurface surface) throws IOException {
+    BufferedImage band = new BufferedImage(width(), cellHeight, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+    try (PngBandReader reader = open(previousAtlas)) {
+      for (int row = 0; row < rows; row++) {
+        readBand(reader, row * cellHeight, cellHeight, pixels);
+        surface.draw(band, 0, row * cellHeight);
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package pl.spritesheetgluer.sprite;
+
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.BufferedImageSurface;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Controls how atlases are turned into PNG files. Atlases whose ARGB raster would take
+ * more than {@code streamingThresholdBytes} are never allocated whole; instead each band
+ * of roughly {@code bandHeight} pixel rows (rounded to whole cell rows) is composed from
+ * its sources and handed straight to the PNG encoder. Atlases that are composed whole use
+ * a single heap image up to {@code heapSurfaceLimitBytes} and a {@code largeSurfaceKind}
+ * surface above it.
+ */
+public record AtlasRenderOptions(
+    long streamingThresholdBytes,
+    int bandHeight,
+    long heapSurfaceLimitBytes,
+    AtlasSurface.Kind largeSurfaceKind
+) {
+  public static final long DEFAULT_STREAMING_THRESHOLD_BYTES = 256L * 1024 * 1024;
+  public static final int DEFAULT_BAND_HEIGHT = 512;
+  /**
+   * Atlases up to this size are composed in one heap image. An array this large is
+   * already a humongous G1 allocation unless the region size is set above the 32 MiB G1
+   * picks on its own, so bigger atlases use {@code largeSurfaceKind}.
+   */
+  public static final long DEFAULT_HEAP_SURFACE_LIMIT_BYTES = 16L * 1024 * 1024;
+
+  public AtlasRenderOptions {
+    if (streamingThresholdBytes < 0) {
+      throw new IllegalArgumentException(
+          "streamingThresholdBytes must not be negative: " + streamingThresholdBytes
+      );
+    }
+    if (bandHeight <= 0) {
+      throw new IllegalArgumentException("bandHeight must be positive: " + bandHeight);
+    }
+    if (heapSurfaceLimitBytes < 0) {
+      throw new IllegalArgumentException(
+          "heapSurfaceLimitBytes must not be negative: " + heapSurfaceLimitBytes
+      );
+    }
+    Objects.requireNonNull(largeSurfaceKind, "largeSurfaceKind");
+  }
+
+  public AtlasRenderOptions(long streamingThresholdBytes, int bandHeight) {
+    this(streamingThresholdBytes, bandHeight, DEFAULT_HEAP_SURFACE_LIMIT_BYTES, AtlasSurface.Kind.OFF_HEAP);
+  }
+
+  public static AtlasRenderOptions defaults() {
+    return new AtlasRenderOptions(DEFAULT_STREAMING_THRESHOLD_BYTES, DEFAULT_BAND_HEIGHT);
+  }
+
+  public static AtlasRenderOptions materialized() {
+    return new AtlasRenderOptions(Long.MAX_VALUE, DEFAULT_BAND_HEIGHT);
+  }
+
+  public static AtlasRenderOptions streamed(int bandHeight) {
+    return new AtlasRenderOptions(0, bandHeight);
+  }
+
+  /**
+   * Returns a copy that composes every atlas, whatever its size, on a {@code kind} surface.
+   */
+  public AtlasRenderOptions withSurface(AtlasSurface.Kind kind) {
+    if (kind == AtlasSurface.Kind.HEAP) {
+      return new AtlasRenderOptions(streamingThresholdBytes, bandHeight, Long.MAX_VALUE, largeSurfaceKind);
+    }
+    return new AtlasRenderOptions(streamingThresholdBytes, bandHeight, 0, kind);
+  }
+
+  public boolean streams(int width, int height) {
+    return (long) width * height * Integer.BYTES > streamingThresholdBytes;
+  }
+
+  /**
+   * Band height in pixels, rounded down to whole cell rows but never below one cell row.
+   */
+  public int bandHeightFor(int cellHeight) {
+    return Math.max(1, bandHeight / cellHeight) * cellHeight;
+  }
+
+  /**
+   * Creates a fully transparent surface for a {@code width x height} atlas.
+   */
+  public AtlasSurface newSurface(int width, int height) throws IOException {
+    if ((long) width * height * Integer.BYTES <= heapSurfaceLimitBytes) {
+      return new BufferedImageSurface(width, height);
+    }
+    return AtlasSurface.create(largeSurfaceKind, width, height);
+  }
+}
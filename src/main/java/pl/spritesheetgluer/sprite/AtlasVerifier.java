@@ -0,0 +1,193 @@
+package pl.spritesheetgluer.sprite;
+
+import pl.spritesheetgluer.image.PngBandReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Checks a saved atlas against a 64-bit hash of every expected cell. The hashes are taken
+ * up front, so the source images can be released before the PNG is read back; the PNG is
+ * then decoded one cell row at a time and the decoded cell rows are hashed and compared
+ * in parallel. Fully transparent pixels hash alike whatever their RGB, since a PNG writer
+ * is free to change it. Gray samples are read as stored, since that is how the writer
+ * put the atlas's pixels into them.
+ */
+final class AtlasVerifier {
+  private final int columns;
+  private final int rows;
+  private final int cellWidth;
+  private final int cellHeight;
+  private final long[] expected;
+  private final boolean[] checked;
+
+  AtlasVerifier(int columns, int rows, int cellWidth, int cellHeight) {
+    this.columns = columns;
+    this.rows = rows;
+    this.cellWidth = cellWidth;
+    this.cellHeight = cellHeight;
+    this.expected = new long[Math.multiplyExact(columns, rows)];
+    this.checked = new boolean[expected.length];
+  }
+
+  /**
+   * Records the hash the cell at ({@code column}, {@code row}) must have. Different cells
+   * may be set from different threads.
+   */
+  void expect(int column, int row, long hash) {
+    expected[row * columns + column] = hash;
+    checked[row * columns + column] = true;
+  }
+
+  int checkedCells() {
+    int count = 0;
+    for (boolean cell : checked) {
+      if (cell) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Hashes a {@code width x height} area of ARGB pixels.
+   */
+  static long hash(int[] pixels, int offset, int width, int height, int stride) {
+    long hash = 0x6A09E667F3BCC908L;
+    for (int y = 0; y < height; y++) {
+      int start = offset + y * stride;
+      for (int x = 0; x < width; x++) {
+        int pixel = pixels[start + x];
+        hash = (hash + (pixel >>> 24 == 0 ? 0 : pixel)) * 0x9E3779B97F4A7C15L;
+      }
+    }
+    return hash ^ hash >>> 32;
+  }
+
+  /**
+   * Decodes {@code path} and returns the first cell, in row-major order, whose pixels do
+   * not match, or {@code null} when every checked cell matches. Cell rows are hashed on
+   * {@code pool} while the calling thread decodes the next ones; with a {@code null} pool
+   * everything runs on the calling thread.
+   */
+  Mismatch verify(Path path, ForkJoinPool pool) throws IOException {
+    int width = columns * cellWidth;
+    int height = rows * cellHeight;
+    try (PngBandReader reader = PngBandReader.open(path, PngBandReader.Gray.AS_STORED)) {
+      if (reader.width() != width || reader.height() != height) {
+        throw new IOException(
+            "Saved sprite sheet verification failed: expected "
+                + width + "x" + height
+                + " but found " + reader.width() + "x" + reader.height()
+        );
+      }
+      if (pool == null) {
+        int[] band = new int[width * cellHeight];
+        for (int row = 0; row < rows; row++) {
+          Mismatch mismatch = readAndCheck(reader, row, band);
+          if (mismatch != null) {
+            return mismatch;
+          }
+        }
+        return null;
+      }
+      return verifyInParallel(reader, width, pool);
+    }
+  }
+
+  private Mismatch verifyInParallel(PngBandReader reader, int width, ForkJoinPool pool) throws IOException {
+    int parallelism = pool.getParallelism();
+    Deque<CheckedRow> inFlight = new ArrayDeque<>();
+    Deque<int[]> freeBands = new ArrayDeque<>();
+    try {
+      int nextRow = 0;
+      while (nextRow < rows || !inFlight.isEmpty()) {
+        while (nextRow < rows && inFlight.size() < parallelism * 2) {
+          int row = nextRow++;
+          if (!rowChecked(row)) {
+            reader.skip(cellHeight);
+            continue;
+          }
+          int[] band = freeBands.isEmpty() ? new int[width * cellHeight] : freeBands.removeFirst();
+          reader.read(band, 0, cellHeight);
+          inFlight.addLast(new CheckedRow(band, pool.submit(() -> check(row, band))));
+        }
+        if (inFlight.isEmpty()) {
+          continue;
+        }
+        // Rows are collected in order, so the first mismatch found is the first in the atlas.
+        CheckedRow oldest = inFlight.removeFirst();
+        Mismatch mismatch = oldest.result().get();
+        if (mismatch != null) {
+          return mismatch;
+        }
+        freeBands.addLast(oldest.band());
+      }
+      return null;
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while verifying sprite sheet");
+    } catch (ExecutionException error) {
+      if (error.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IOException("Sprite sheet verification failed", error.getCause());
+    } finally {
+      for (CheckedRow row : inFlight) {
+        row.result().cancel(true);
+      }
+    }
+  }
+
+  private Mismatch readAndCheck(PngBandReader reader, int row, int[] band) throws IOException {
+    if (!rowChecked(row)) {
+      reader.skip(cellHeight);
+      return null;
+    }
+    reader.read(band, 0, cellHeight);
+    return check(row, band);
+  }
+
+  private boolean rowChecked(int row) {
+    for (int column = 0; column < columns; column++) {
+      if (checked[row * columns + column]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Mismatch check(int row, int[] band) {
+    int width = columns * cellWidth;
+    for (int column = 0; column < columns; column++) {
+      int cell = row * columns + column;
+      if (!checked[cell]) {
+        continue;
+      }
+      if (hash(band, column * cellWidth, cellWidth, cellHeight, width) != expected[cell]) {
+        int[] saved = new int[cellWidth * cellHeight];
+        for (int y = 0; y < cellHeight; y++) {
+          System.arraycopy(band, y * width + column * cellWidth, saved, y * cellWidth, cellWidth);
+        }
+        return new Mismatch(column, row, saved);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A cell whose saved pixels, {@code cellWidth x cellHeight} in row-major order, do not
+   * hash to the expected value.
+   */
+  record Mismatch(int column, int row, int[] savedPixels) {
+  }
+
+  private record CheckedRow(int[] band, Future<Mismatch> result) {
+  }
+}
@@ -0,0 +1,236 @@
+package pl.spritesheetgluer.sprite;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Watches a folder tree and reports changed source files in batches, so the atlases they
+ * feed can be rebuilt while the tool stays open. Events are collected until the tree has
+ * been quiet for the debounce time, and each batch is handed to the listener on a single
+ * background thread; changes made while the listener runs are collected into the next
+ * batch. Files the tool writes itself (sheets, merged atlases, mappings, manifests and
+ * temporary files) are ignored, so rebuilding never triggers another rebuild.
+ */
+public final class AtlasWatcher implements AutoCloseable {
+  private static final Pattern GENERATED_IMAGE =
+      Pattern.compile(".*(?:-sheet(?:-\\d+)?|-merged)\\.png", Pattern.CASE_INSENSITIVE);
+
+  private final Path root;
+  private final long debounceNanos;
+  private final Listener listener;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final ExecutorService builder;
+  private final Thread watcher;
+  private final Set<Path> pending = new LinkedHashSet<>();
+  private long firstEventNanos;
+  private long lastEventNanos;
+  private boolean overflowed;
+  private Future<?> running;
+
+  /**
+   * Starts watching {@code root} and every folder below it.
+   */
+  public AtlasWatcher(Path root, Duration debounce, Listener listener) throws IOException {
+    this.root = root.toAbsolutePath().normalize();
+    if (!Files.isDirectory(this.root)) {
+      throw new IllegalArgumentException("Root path must be a directory: " + root);
+    }
+    if (debounce.isNegative()) {
+      throw new IllegalArgumentException("debounce must not be negative: " + debounce);
+    }
+    this.debounceNanos = debounce.toNanos();
+    this.listener = Objects.requireNonNull(listener, "listener");
+    this.watchService = this.root.getFileSystem().newWatchService();
+    try {
+      registerTree(this.root);
+    } catch (IOException | RuntimeException error) {
+      watchService.close();
+      throw error;
+    }
+    this.builder = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "atlas-watcher-build");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.watcher = new Thread(this::watch, "atlas-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  public Path root() {
+    return root;
+  }
+
+  /**
+   * Whether {@code file} under the watched {@code root} is one the tool writes: a
+   * {@code -sheet}, {@code -sheet-NN} or {@code -merged} PNG, a character sheet named
+   * after its folder, a {@code .frames.txt} mapping, or a hidden or temporary file such as
+   * a build manifest. Character folders are {@code root} itself or the folders right
+   * below it, as {@link SpriteSheetScanner} finds them, so a frame deeper down that
+   * happens to be named after its folder, like {@code knight/idle/idle.png} under a root
+   * of characters, is a source.
+   */
+  public static boolean isGeneratedFile(Path root, Path file) {
+    Path fileName = file.getFileName();
+    if (fileName == null) {
+      return false;
+    }
+    String name = fileName.toString();
+    String lowerName = name.toLowerCase(Locale.ROOT);
+    if (name.startsWith(".") || lowerName.endsWith(".tmp") || lowerName.endsWith(".frames.txt")) {
+      return true;
+    }
+    if (GENERATED_IMAGE.matcher(name).matches()) {
+      return true;
+    }
+    Path parent = file.getParent();
+    return parent != null && parent.getFileName() != null
+        && (parent.equals(root) || root.equals(parent.getParent()))
+        && lowerName.equals(parent.getFileName().toString().toLowerCase(Locale.ROOT) + ".png");
+  }
+
+  @Override
+  public void close() {
+    watcher.interrupt();
+    try {
+      watchService.close();
+    } catch (IOException ignored) {
+      // The watch thread ends either way.
+    }
+    builder.shutdownNow();
+  }
+
+  private void watch() {
+    long pollNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), debounceNanos / 4);
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = watchService.poll(pollNanos, TimeUnit.NANOSECONDS);
+        if (key != null) {
+          collect(key);
+        }
+        dispatchIfQuiet();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException error) {
+      // Closed.
+    }
+  }
+
+  private void collect(WatchKey key) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+        overflowed = true;
+        noteEvent();
+        continue;
+      }
+      Path changed = directory.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+        try {
+          registerTree(changed);
+        } catch (IOException error) {
+          overflowed = true;
+        }
+        pending.add(changed);
+        noteEvent();
+      } else if (!isGeneratedFile(root, changed)) {
+        pending.add(changed);
+        noteEvent();
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  private void noteEvent() {
+    long now = System.nanoTime();
+    if (firstEventNanos == 0) {
+      firstEventNanos = now;
+    }
+    lastEventNanos = now;
+  }
+
+  private void dispatchIfQuiet() {
+    if (pending.isEmpty() && !overflowed) {
+      return;
+    }
+    if (System.nanoTime() - lastEventNanos < debounceNanos || running != null && !running.isDone()) {
+      return;
+    }
+    Changes changes = new Changes(root, Set.copyOf(pending), overflowed, firstEventNanos);
+    pending.clear();
+    overflowed = false;
+    firstEventNanos = 0;
+    running = builder.submit(() -> listener.changed(changes));
+  }
+
+  private void registerTree(Path start) throws IOException {
+    Files.walkFileTree(start, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+        if (!directory.equals(start) && directory.getFileName().toString().startsWith(".")) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        WatchKey key = directory.register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY
+        );
+        directories.put(key, directory);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  @FunctionalInterface
+  public interface Listener {
+    /**
+     * Called on the watcher's build thread, never for two batches at once.
+     */
+    void changed(Changes changes);
+  }
+
+  /**
+   * One debounced batch of changes under {@code root}. {@code firstEventNanos} is the
+   * {@link System#nanoTime()} of the batch's first event, for measuring how long it took
+   * until the rebuilt atlas was written. When events were lost, {@code overflowed} is set
+   * and any file may have changed.
+   */
+  public record Changes(Path root, Set<Path> paths, boolean overflowed, long firstEventNanos) {
+    public Changes {
+      Objects.requireNonNull(root, "root");
+      paths = Set.copyOf(paths);
+    }
+
+    /**
+     * The changed paths, or just the root when events were lost, for the services'
+     * targeted {@code generate} methods.
+     */
+    public Set<Path> affectedPaths() {
+      return overflowed ? Set.of(root) : paths;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package pl.spritesheetgluer.sprite;
+
+import java.util.Objects;
+
+/**
+ * Stages of the character build in {@link SpriteSheetService}: {@code compose} checks the
+ * build manifest, decodes the frames and draws them, {@code encode} deflates the sheet
+ * into PNG bytes, and {@code write} stores the PNG, the mapping and the manifest.
+ */
+public record BuildPipelineOptions(StageOptions compose, StageOptions encode, StageOptions write) {
+  public BuildPipelineOptions {
+    Objects.requireNonNull(compose, "compose");
+    Objects.requireNonNull(encode, "encode");
+    Objects.requireNonNull(write, "write");
+  }
+
+  public static BuildPipelineOptions defaults() {
+    return withParallelism(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Composes and encodes up to {@code parallelism} characters at once, and writes up to
+   * two. Only one composed sheet waits for an encoder and two encoded ones for a writer,
+   * so the atlases in flight do not grow with the queues.
+   */
+  public static BuildPipelineOptions withParallelism(int parallelism) {
+    return new BuildPipelineOptions(
+        new StageOptions(parallelism, 2),
+        new StageOptions(parallelism, 1),
+        new StageOptions(Math.min(parallelism, 2), 2)
+    );
+  }
+}
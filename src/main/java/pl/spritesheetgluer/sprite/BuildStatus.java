@@ -0,0 +1,13 @@
+package pl.spritesheetgluer.sprite;
+
+/**
+ * Whether an output was written from all of its frames by this run, written by redrawing
+ * only the cells whose frames changed over the previous output, or left as it was because
+ * its inputs and settings had not changed since it was last written, see
+ * {@link IncrementalBuild}.
+ */
+public enum BuildStatus {
+  REBUILT,
+  PATCHED,
+  SKIPPED
+}
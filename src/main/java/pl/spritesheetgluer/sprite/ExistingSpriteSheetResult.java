@@ -1,5 +1,7 @@
 package pl.spritesheetgluer.sprite;
 
+import pl.spritesheetgluer.image.FrameCacheStats;
+
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
@@ -11,15 +13,20 @@ public record ExistingSpriteSheetResult(
     int columns,
     int rows,
     int frameCount,
+    int verifiedFrames,
     int cellWidth,
     int cellHeight,
-    List<Path> excludedSheets
+    List<Path> excludedSheets,
+    BuildStatus status,
+    FrameCacheStats cacheStats
 ) {
   public ExistingSpriteSheetResult {
     Objects.requireNonNull(outputName, "outputName");
     Objects.requireNonNull(outputPath, "outputPath");
     Objects.requireNonNull(mappingPath, "mappingPath");
     Objects.requireNonNull(excludedSheets, "excludedSheets");
+    Objects.requireNonNull(status, "status");
+    Objects.requireNonNull(cacheStats, "cacheStats");
     excludedSheets = List.copyOf(excludedSheets);
     if (cellWidth <= 0) {
       throw new IllegalArgumentException("cellWidth must be positive: " + cellWidth);
@@ -36,4 +43,12 @@ public record ExistingSpriteSheetResult(
   public int imageHeight() {
     return rows * cellHeight;
   }
+
+  /**
+   * The share of the atlas's cells that hold frames.
+   */
+  public double fillRatio() {
+    long cells = (long) columns * rows;
+    return cells == 0 ? 0 : (double) frameCount / cells;
+  }
 }
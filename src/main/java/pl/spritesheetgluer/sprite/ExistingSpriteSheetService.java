@@ -1,21 +1,30 @@
 package pl.spritesheetgluer.sprite;
 
-import javax.imageio.ImageIO;
-import java.awt.AlphaComposite;
-import java.awt.Color;
-import java.awt.Graphics2D;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.FrameCacheStats;
+import pl.spritesheetgluer.image.FrameDimensionIndex;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.ImageSize;
+import pl.spritesheetgluer.image.PixelKernels;
+import pl.spritesheetgluer.image.PngBandReader;
+import pl.spritesheetgluer.image.RasterBlitter;
+
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class ExistingSpriteSheetService {
@@ -37,7 +46,13 @@ public class ExistingSpriteSheetService {
 
   private final SpriteSheetWriter writer;
   private final SpriteSheetMetadataWriter metadataWriter;
+  private final FrameDimensionIndex dimensions = new FrameDimensionIndex();
+  private final FrameIngest ingest;
+  private final AtlasRenderOptions renderOptions;
+  private final VerifyMode verifyMode;
   private final int maxTextureSize;
+  private final IncrementalBuild incrementalBuild;
+  private final SheetPacker packer;
 
   public ExistingSpriteSheetService() {
     this(new SpriteSheetWriter(), new SpriteSheetMetadataWriter(), GODOT_MAX_TEXTURE_SIZE);
@@ -54,9 +69,69 @@ public class ExistingSpriteSheetService {
       SpriteSheetWriter writer,
       SpriteSheetMetadataWriter metadataWriter,
       int maxTextureSize
+  ) {
+    this(writer, metadataWriter, maxTextureSize, new FrameIngest());
+  }
+
+  public ExistingSpriteSheetService(
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      int maxTextureSize,
+      FrameIngest ingest
+  ) {
+    this(writer, metadataWriter, maxTextureSize, ingest, AtlasRenderOptions.defaults());
+  }
+
+  public ExistingSpriteSheetService(
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions
+  ) {
+    this(writer, metadataWriter, maxTextureSize, ingest, renderOptions, VerifyMode.FULL);
+  }
+
+  public ExistingSpriteSheetService(
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions,
+      VerifyMode verifyMode
+  ) {
+    this(writer, metadataWriter, maxTextureSize, ingest, renderOptions, verifyMode, IncrementalBuild.enabled());
+  }
+
+  public ExistingSpriteSheetService(
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions,
+      VerifyMode verifyMode,
+      IncrementalBuild incrementalBuild
+  ) {
+    this(writer, metadataWriter, maxTextureSize, ingest, renderOptions, verifyMode, incrementalBuild, SheetPacking.shelf());
+  }
+
+  public ExistingSpriteSheetService(
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions,
+      VerifyMode verifyMode,
+      IncrementalBuild incrementalBuild,
+      SheetPacking packing
   ) {
     this.writer = Objects.requireNonNull(writer, "writer");
     this.metadataWriter = Objects.requireNonNull(metadataWriter, "metadataWriter");
+    this.ingest = Objects.requireNonNull(ingest, "ingest");
+    this.renderOptions = Objects.requireNonNull(renderOptions, "renderOptions");
+    this.verifyMode = Objects.requireNonNull(verifyMode, "verifyMode");
+    this.incrementalBuild = Objects.requireNonNull(incrementalBuild, "incrementalBuild");
+    this.packer = new SheetPacker(packing);
     if (maxTextureSize <= 0) {
       throw new IllegalArgumentException("maxTextureSize must be positive: " + maxTextureSize);
     }
@@ -81,18 +156,56 @@ public class ExistingSpriteSheetService {
       throw new IllegalStateException("No sprite sheets found under: " + root);
     }
 
-    List<SourceSheet> validSheets = new ArrayList<>();
+    List<Path> inputs = new ArrayList<>(sourceSheets);
+    Path directionOrderPath = root.resolve(DIRECTION_ORDER_FILE);
+    if (Files.exists(directionOrderPath)) {
+      inputs.add(directionOrderPath);
+    }
+    IncrementalBuild.Unit unit = incrementalBuild.check(
+        IncrementalBuild.manifestPath(root, outputName),
+        "merge cell=" + cellWidth + "x" + cellHeight
+            + " max=" + maxTextureSize
+            + " verify=" + verifyMode
+            + " pack=" + packer.packing()
+            + " " + writer.settings(),
+        inputs
+    );
+    if (unit.upToDate()) {
+      return new ExistingSpriteSheetResult(
+          outputName,
+          outputPath,
+          mappingPath,
+          unit.intValue("columns"),
+          unit.intValue("rows"),
+          unit.intValue("frameCount"),
+          unit.intValue("verifiedFrames"),
+          cellWidth,
+          cellHeight,
+          unit.paths("excludedSheets"),
+          BuildStatus.SKIPPED,
+          FrameCacheStats.NONE
+      );
+    }
+
+    List<Path> fittingSheets = new ArrayList<>();
+    List<ImageSize> fittingSizes = new ArrayList<>();
     List<Path> excludedSheets = new ArrayList<>();
-    for (Path sourceSheet : sourceSheets) {
-      BufferedImage image = readImage(sourceSheet);
-      if (!fitsGrid(image, cellWidth, cellHeight)) {
+    List<ImageSize> sourceSizes = dimensions.sizes(sourceSheets);
+    for (int index = 0; index < sourceSheets.size(); index++) {
+      Path sourceSheet = sourceSheets.get(index);
+      ImageSize size = sourceSizes.get(index);
+      if (!fitsGrid(size, cellWidth, cellHeight)) {
         excludedSheets.add(sourceSheet);
         continue;
       }
+      fittingSheets.add(sourceSheet);
+      fittingSizes.add(size);
+    }
 
-      int columns = image.getWidth() / cellWidth;
-      int rows = image.getHeight() / cellHeight;
-      validSheets.add(new SourceSheet(sourceSheet, image, columns, rows));
+    List<SourceSheet> validSheets = new ArrayList<>();
+    for (int index = 0; index < fittingSheets.size(); index++) {
+      ImageSize size = fittingSizes.get(index);
+      validSheets.add(new SourceSheet(fittingSheets.get(index), index, size.width() / cellWidth, size.height() / cellHeight));
     }
 
     if (validSheets.isEmpty()) {
@@ -130,40 +243,53 @@ public class ExistingSpriteSheetService {
       );
     }
 
-    BufferedImage mergedSheet = new BufferedImage(
-        layout.columns() * cellWidth,
-        layout.rows() * cellHeight,
-        BufferedImage.TYPE_INT_ARGB
-    );
     List<MappingEntry> mappingEntries = new ArrayList<>();
-
     int frameCount = 0;
-    Graphics2D graphics = mergedSheet.createGraphics();
-    try {
-      graphics.setComposite(AlphaComposite.Src);
-      graphics.setColor(new Color(0, 0, 0, 0));
-      graphics.fillRect(0, 0, mergedSheet.getWidth(), mergedSheet.getHeight());
-      graphics.setComposite(AlphaComposite.SrcOver);
-
-      for (Placement placement : layout.placements()) {
-        SourceSheet sourceSheet = placement.sourceSheet();
-        graphics.drawImage(
-            sourceSheet.image(),
-            placement.column() * cellWidth,
-            placement.row() * cellHeight,
-            null
-        );
-        appendMappingEntries(mappingEntries, placement, layout.columns(), directionOrderConfig);
-        frameCount += sourceSheet.columns() * sourceSheet.rows();
+    for (Placement placement : layout.placements()) {
+      SourceSheet sourceSheet = placement.sourceSheet();
+      appendMappingEntries(mappingEntries, placement, layout.columns(), directionOrderConfig);
+      frameCount += sourceSheet.columns() * sourceSheet.rows();
+    }
+
+    // Sources are decoded only while they are drawn, and verification works from the cell
+    // hashes taken on the way, so no more than the atlas and one source are held at once.
+    AtlasVerifier verifier = verifyMode == VerifyMode.OFF
+        ? null
+        : new AtlasVerifier(layout.columns(), layout.rows(), cellWidth, cellHeight);
+    int atlasWidth = layout.columns() * cellWidth;
+    int atlasHeight = layout.rows() * cellHeight;
+    FrameCacheStats cacheStats;
+    if (renderOptions.streams(atlasWidth, atlasHeight)) {
+      try (StreamedMerge merge = new StreamedMerge(layout, verifier, cellWidth, cellHeight)) {
+        writer.write(atlasWidth, atlasHeight, renderOptions.bandHeightFor(cellHeight), merge::renderBand, outputPath);
+        cacheStats = merge.cacheStats();
+      } catch (IOException | RuntimeException error) {
+        Files.deleteIfExists(outputPath);
+        throw error;
+      }
+    } else {
+      try (AtlasSurface mergedSheet = renderOptions.newSurface(atlasWidth, atlasHeight)) {
+        try (FrameIngest.Batch batch = ingest.open(fittingSheets)) {
+          drawPlacements(batch, layout, verifier, mergedSheet, cellWidth, cellHeight);
+          cacheStats = batch.cacheStats();
+        }
+        writer.write(mergedSheet, outputPath);
       }
-    } finally {
-      graphics.dispose();
     }
 
     List<String> mappingLines = buildMappingLines(mappingEntries, layout.rows(), layout.columns());
-    writer.write(mergedSheet, outputPath);
     metadataWriter.write(mappingPath, mappingLines);
-    verifySavedOutput(outputPath, layout, cellWidth, cellHeight);
+    int verifiedFrames = 0;
+    if (verifier != null) {
+      verifySavedOutput(outputPath, verifier, layout, cellWidth, cellHeight);
+      verifiedFrames = verifier.checkedCells();
+    }
+    unit.put("columns", layout.columns())
+        .put("rows", layout.rows())
+        .put("frameCount", frameCount)
+        .put("verifiedFrames", verifiedFrames)
+        .putPaths("excludedSheets", excludedSheets)
+        .record(List.of(outputPath, mappingPath));
 
     return new ExistingSpriteSheetResult(
         outputName,
@@ -172,12 +298,36 @@ public class ExistingSpriteSheetService {
         layout.columns(),
         layout.rows(),
         frameCount,
+        verifiedFrames,
         cellWidth,
         cellHeight,
-        excludedSheets
+        excludedSheets,
+        BuildStatus.REBUILT,
+        cacheStats
     );
   }
 
+  /**
+   * Draws every placed source sheet onto {@code mergedSheet}, decoding each one from
+   * {@code batch}, which is in source order, only for as long as it is drawn and hashed.
+   */
+  private void drawPlacements(
+      FrameIngest.Batch batch,
+      Layout layout,
+      AtlasVerifier verifier,
+      AtlasSurface mergedSheet,
+      int cellWidth,
+      int cellHeight
+  ) throws IOException {
+    for (Placement placement : layout.placements()) {
+      BufferedImage image = batch.read(placement.sourceSheet().index());
+      if (verifier != null) {
+        expectCells(verifier, layout, placement, image, cellWidth, cellHeight);
+      }
+      mergedSheet.draw(image, placement.column() * cellWidth, placement.row() * cellHeight);
+    }
+  }
+
   private void appendMappingEntries(
       List<MappingEntry> mappingEntries,
       Placement placement,
@@ -222,77 +372,98 @@ public class ExistingSpriteSheetService {
     return String.format(Locale.ROOT, "row-%02d", row + 1);
   }
 
+  /**
+   * Hashes, in parallel per frame row, every cell of {@code placement} the verify mode
+   * checks, as the cell will look once blitted onto the transparent atlas.
+   */
+  private void expectCells(
+      AtlasVerifier verifier,
+      Layout layout,
+      Placement placement,
+      BufferedImage image,
+      int cellWidth,
+      int cellHeight
+  ) {
+    SourceSheet sourceSheet = placement.sourceSheet();
+    IntStream.range(0, sourceSheet.rows()).parallel().forEach(row -> {
+      RasterBlitter blitter = new RasterBlitter();
+      int[] cell = new int[cellWidth * cellHeight];
+      for (int column = 0; column < sourceSheet.columns(); column++) {
+        int atlasColumn = placement.column() + column;
+        int atlasRow = placement.row() + row;
+        if (!verifyMode.checks(atlasRow * layout.columns() + atlasColumn, column)) {
+          continue;
+        }
+        blitter.blit(image, column * cellWidth, row * cellHeight, cellWidth, cellHeight, cell, 0, cellWidth);
+        verifier.expect(atlasColumn, atlasRow, AtlasVerifier.hash(cell, 0, cellWidth, cellHeight, cellWidth));
+      }
+    });
+  }
+
   private void verifySavedOutput(
       Path outputPath,
+      AtlasVerifier verifier,
       Layout layout,
       int cellWidth,
       int cellHeight
   ) throws IOException {
-    BufferedImage savedOutput = readImage(outputPath);
-    int expectedWidth = layout.columns() * cellWidth;
-    int expectedHeight = layout.rows() * cellHeight;
-    if (savedOutput.getWidth() != expectedWidth || savedOutput.getHeight() != expectedHeight) {
-      throw new IOException(
-          "Saved sprite sheet verification failed: expected "
-              + expectedWidth + "x" + expectedHeight
-              + " but found " + savedOutput.getWidth() + "x" + savedOutput.getHeight()
-      );
+    AtlasVerifier.Mismatch mismatch = verifier.verify(
+        outputPath,
+        Runtime.getRuntime().availableProcessors() > 1 ? ForkJoinPool.commonPool() : null
+    );
+    if (mismatch == null) {
+      return;
     }
-
     for (Placement placement : layout.placements()) {
-      verifySheetPlacement(savedOutput, placement, cellWidth, cellHeight);
+      int frameColumn = mismatch.column() - placement.column();
+      int frameRow = mismatch.row() - placement.row();
+      SourceSheet sourceSheet = placement.sourceSheet();
+      if (frameColumn >= 0 && frameColumn < sourceSheet.columns()
+          && frameRow >= 0 && frameRow < sourceSheet.rows()) {
+        throw describeMismatch(sourceSheet, frameColumn, frameRow, mismatch.savedPixels(), cellWidth, cellHeight);
+      }
     }
+    throw new IOException("Saved sprite sheet verification failed at cell "
+        + mismatch.column() + ", " + mismatch.row());
   }
 
-  private void verifySheetPlacement(
-      BufferedImage savedOutput,
-      Placement placement,
+  /**
+   * Decodes the mismatching source sheet again to name the first pixel that differs; this
+   * only runs once verification has already failed.
+   */
+  private IOException describeMismatch(
+      SourceSheet sourceSheet,
+      int frameColumn,
+      int frameRow,
+      int[] savedPixels,
       int cellWidth,
       int cellHeight
   ) throws IOException {
-    SourceSheet sourceSheet = placement.sourceSheet();
-    BufferedImage sourceImage = sourceSheet.image();
-    int width = sourceImage.getWidth();
-    int height = sourceImage.getHeight();
-    int[] sourcePixels = sourceImage.getRGB(0, 0, width, height, null, 0, width);
-    int[] savedPixels = savedOutput.getRGB(
-        placement.column() * cellWidth,
-        placement.row() * cellHeight,
-        width,
-        height,
-        null,
+    int[] sourcePixels = new int[cellWidth * cellHeight];
+    new RasterBlitter().blit(
+        ingest.read(sourceSheet.path()),
+        frameColumn * cellWidth,
+        frameRow * cellHeight,
+        cellWidth,
+        cellHeight,
+        sourcePixels,
         0,
-        width
+        cellWidth
+    );
+    String sourceName = stripExtension(sourceSheet.path().getFileName().toString());
+    String location = "Saved sprite sheet verification failed at "
+        + sourceName
+        + "/" + directionNameForRow(sourceName, frameRow, DirectionOrderConfig.defaultConfig())
+        + " frame " + (frameColumn + 1);
+    int index = PixelKernels.get().visibleMismatch(sourcePixels, 0, savedPixels, 0, sourcePixels.length);
+    if (index < 0) {
+      return new IOException(location + ": saved pixels do not match the source hash");
+    }
+    return new IOException(
+        location
+            + " pixel (" + (index % cellWidth) + ", " + (index / cellWidth) + "): expected "
+            + formatArgb(sourcePixels[index]) + " but found " + formatArgb(savedPixels[index])
     );
-    for (int index = 0; index < sourcePixels.length; index++) {
-      if (!pixelsVisuallyEqual(sourcePixels[index], savedPixels[index])) {
-        int x = index % width;
-        int y = index / width;
-        int frameColumn = x / cellWidth;
-        int frameRow = y / cellHeight;
-        throw new IOException(
-            "Saved sprite sheet verification failed at "
-                + stripExtension(sourceSheet.path().getFileName().toString())
-                + "/" + directionNameForRow(
-                stripExtension(sourceSheet.path().getFileName().toString()),
-                frameRow,
-                DirectionOrderConfig.defaultConfig()
-            )
-                + " frame " + (frameColumn + 1)
-                + " pixel (" + (x % cellWidth) + ", " + (y % cellHeight) + "): expected "
-                + formatArgb(sourcePixels[index]) + " but found " + formatArgb(savedPixels[index])
-        );
-      }
-    }
-  }
-
-  private boolean pixelsVisuallyEqual(int sourceArgb, int savedArgb) {
-    int sourceAlpha = (sourceArgb >>> 24) & 0xFF;
-    int savedAlpha = (savedArgb >>> 24) & 0xFF;
-    if (sourceAlpha == 0 && savedAlpha == 0) {
-      return true;
-    }
-    return sourceArgb == savedArgb;
   }
 
   private String formatArgb(int argb) {
@@ -355,96 +526,30 @@ public class ExistingSpriteSheetService {
       int cellWidth,
       int cellHeight
   ) {
-    int minColumns = sourceSheets.stream()
-        .mapToInt(SourceSheet::columns)
-        .max()
-        .orElse(0);
-    int sumColumns = sourceSheets.stream()
-        .mapToInt(SourceSheet::columns)
-        .sum();
-    int maxCandidateColumns = Math.min(maxTextureColumns, sumColumns);
-    Layout best = null;
-    for (int candidateColumns = minColumns; candidateColumns <= maxCandidateColumns; candidateColumns++) {
-      Layout candidate = packShelves(sourceSheets, candidateColumns, maxTextureRows);
-      if (candidate == null) {
-        continue;
-      }
-      if (best == null || isBetterLayout(candidate, best, cellWidth, cellHeight)) {
-        best = candidate;
-      }
-    }
-    return best;
-  }
-
-  private Layout packShelves(List<SourceSheet> sourceSheets, int maxColumns, int maxRows) {
-    List<Placement> placements = new ArrayList<>();
-    int currentColumn = 0;
-    int currentRow = 0;
-    int shelfHeight = 0;
-    int usedColumns = 0;
-    for (SourceSheet sourceSheet : sourceSheets) {
-      if (currentColumn > 0 && currentColumn + sourceSheet.columns() > maxColumns) {
-        currentRow += shelfHeight;
-        currentColumn = 0;
-        shelfHeight = 0;
-      }
-      if (currentRow + sourceSheet.rows() > maxRows) {
-        return null;
-      }
-
-      placements.add(new Placement(sourceSheet, currentColumn, currentRow));
-      currentColumn += sourceSheet.columns();
-      shelfHeight = Math.max(shelfHeight, sourceSheet.rows());
-      usedColumns = Math.max(usedColumns, currentColumn);
-    }
-
-    int usedRows = currentRow + shelfHeight;
-    if (usedRows > maxRows) {
+    List<SheetPacker.Size> sizes = sourceSheets.stream()
+        .map(sourceSheet -> new SheetPacker.Size(sourceSheet.columns(), sourceSheet.rows()))
+        .toList();
+    SheetPacker.Packing packing = packer.packBest(sizes, maxTextureColumns, maxTextureRows, cellWidth, cellHeight);
+    if (packing == null) {
       return null;
     }
-    return new Layout(List.copyOf(placements), usedColumns, usedRows);
-  }
-
-  private boolean isBetterLayout(Layout candidate, Layout currentBest, int cellWidth, int cellHeight) {
-    int candidateWidth = candidate.columns() * cellWidth;
-    int candidateHeight = candidate.rows() * cellHeight;
-    int bestWidth = currentBest.columns() * cellWidth;
-    int bestHeight = currentBest.rows() * cellHeight;
-
-    int candidateLongestSide = Math.max(candidateWidth, candidateHeight);
-    int bestLongestSide = Math.max(bestWidth, bestHeight);
-    if (candidateLongestSide != bestLongestSide) {
-      return candidateLongestSide < bestLongestSide;
-    }
-
-    long candidateArea = (long) candidateWidth * candidateHeight;
-    long bestArea = (long) bestWidth * bestHeight;
-    if (candidateArea != bestArea) {
-      return candidateArea < bestArea;
-    }
-
-    int candidateAspectDelta = Math.abs(candidateWidth - candidateHeight);
-    int bestAspectDelta = Math.abs(bestWidth - bestHeight);
-    if (candidateAspectDelta != bestAspectDelta) {
-      return candidateAspectDelta < bestAspectDelta;
+    List<Placement> placements = new ArrayList<>();
+    for (int index = 0; index < sourceSheets.size(); index++) {
+      SheetPacker.Position position = packing.positions().get(index);
+      placements.add(new Placement(sourceSheets.get(index), position.column(), position.row()));
     }
-
-    return candidateWidth < bestWidth;
+    return new Layout(List.copyOf(placements), packing.columns(), packing.rows());
   }
 
-  private BufferedImage readImage(Path path) throws IOException {
-    BufferedImage image = ImageIO.read(path.toFile());
-    if (image == null) {
-      throw new IOException("Unsupported image format: " + path);
-    }
-    return image;
+  private boolean fitsGrid(ImageSize size, int cellWidth, int cellHeight) {
+    return size.width() >= cellWidth
+        && size.height() >= cellHeight
+        && size.width() % cellWidth == 0
+        && size.height() % cellHeight == 0;
   }
 
-  private boolean fitsGrid(BufferedImage image, int cellWidth, int cellHeight) {
-    return image.getWidth() >= cellWidth
-        && image.getHeight() >= cellHeight
-        && image.getWidth() % cellWidth == 0
-        && image.getHeight() % cellHeight == 0;
+  private static boolean isPng(Path file) {
+    return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png");
   }
 
   private boolean isImageFile(Path file) {
@@ -489,7 +594,241 @@ public class ExistingSpriteSheetService {
     }
   }
 
-  private record SourceSheet(Path path, BufferedImage image, int columns, int rows) {
+  /**
+   * Renders a streamed merge band by band, keeping only the source sheets that overlap the
+   * current band open. PNG sheets are decoded a band at a time by a {@link PngBandReader},
+   * so even a sheet as tall as the atlas is never held whole; other formats and interlaced
+   * PNGs are decoded whole when their first band comes up and dropped after their last.
+   * {@link PngBandReader} decodes every PNG color type and bit depth to the pixels
+   * {@link FrameIngest} gives the materialized merge, gray included, so both merges write
+   * the same atlas. The cells the verify mode checks are hashed from each sheet's rows as
+   * they are read, keyed by the atlas cell they are meant for, so a wrong placement shows
+   * up when the saved atlas is checked.
+   */
+  private final class StreamedMerge implements AutoCloseable {
+    private final Layout layout;
+    private final AtlasVerifier verifier;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final List<Placement> byRow;
+    private final Map<Path, Integer> decodedIndex = new HashMap<>();
+    private final FrameIngest.Batch decoded;
+    private final List<OpenSheet> open = new ArrayList<>();
+    private final RasterBlitter blitter = new RasterBlitter();
+    private int nextPlacement;
+
+    private StreamedMerge(Layout layout, AtlasVerifier verifier, int cellWidth, int cellHeight) {
+      this.layout = layout;
+      this.verifier = verifier;
+      this.cellWidth = cellWidth;
+      this.cellHeight = cellHeight;
+      this.byRow = layout.placements().stream()
+          .sorted(Comparator.comparingInt(Placement::row))
+          .toList();
+      List<Path> decodedPaths = new ArrayList<>();
+      for (Placement placement : byRow) {
+        Path path = placement.sourceSheet().path();
+        if (!isPng(path)) {
+          decodedIndex.put(path, decodedPaths.size());
+          decodedPaths.add(path);
+        }
+      }
+      this.decoded = ingest.open(decodedPaths);
+    }
+
+    FrameCacheStats cacheStats() {
+      return decoded.cacheStats();
+    }
+
+    /**
+     * Composes atlas rows {@code y} to {@code y + rows - 1}, which are whole cell rows, into
+     * {@code target}, whose stride is the atlas width.
+     */
+    void renderBand(int y, int rows, int[] target) throws IOException {
+      int end = y + rows;
+      while (nextPlacement < byRow.size() && byRow.get(nextPlacement).row() * cellHeight < end) {
+        open.add(open(byRow.get(nextPlacement++)));
+      }
+      int atlasWidth = layout.columns() * cellWidth;
+      List<SheetRows> read = new ArrayList<>(open.size());
+      for (OpenSheet sheet : open) {
+        int top = sheet.placement().row() * cellHeight;
+        int from = Math.max(y, top);
+        int to = Math.min(end, top + sheet.height());
+        if (from < to) {
+          int[] pixels = sheet.read(blitter, from - top, to - from);
+          int width = sheet.width();
+          int offset = (from - y) * atlasWidth + sheet.placement().column() * cellWidth;
+          for (int row = 0; row < to - from; row++) {
+            System.arraycopy(pixels, row * width, target, offset + row * atlasWidth, width);
+          }
+          read.add(new SheetRows(sheet, from - top, to - from));
+        }
+      }
+      if (verifier != null) {
+        read.parallelStream().forEach(this::expectSheetCells);
+      }
+      for (Iterator<OpenSheet> sheets = open.iterator(); sheets.hasNext(); ) {
+        OpenSheet sheet = sheets.next();
+        if (sheet.placement().row() * cellHeight + sheet.height() <= end) {
+          sheets.remove();
+          sheet.close();
+        }
+      }
+    }
+
+    private OpenSheet open(Placement placement) throws IOException {
+      SourceSheet sourceSheet = placement.sourceSheet();
+      Path path = sourceSheet.path();
+      int width = sourceSheet.columns() * cellWidth;
+      int height = sourceSheet.rows() * cellHeight;
+      Integer index = decodedIndex.get(path);
+      if (index == null) {
+        PngBandReader reader;
+        try {
+          reader = PngBandReader.open(path);
+        } catch (IOException error) {
+          // Interlaced PNGs cannot be read band by band; the decoder reports anything worse.
+          return new OpenSheet(placement, null, checkSize(path, ingest.read(path), width, height));
+        }
+        if (reader.width() != width || reader.height() != height) {
+          reader.close();
+          throw new IOException("Source sheet " + path + " changed size while merging");
+        }
+        return new OpenSheet(placement, reader, null);
+      }
+      return new OpenSheet(placement, null, checkSize(path, decoded.read(index), width, height));
+    }
+
+    private BufferedImage checkSize(Path path, BufferedImage image, int width, int height) throws IOException {
+      if (image.getWidth() != width || image.getHeight() != height) {
+        throw new IOException("Source sheet " + path + " changed size while merging");
+      }
+      return image;
+    }
+
+    /**
+     * Hashes the cells of the sheet rows just read, which are whole cell rows, for the atlas
+     * cells the placement puts them in.
+     */
+    private void expectSheetCells(SheetRows rows) {
+      Placement placement = rows.sheet().placement();
+      int[] pixels = rows.sheet().pixels();
+      int width = rows.sheet().width();
+      int endRow = (rows.sourceY() + rows.count()) / cellHeight;
+      for (int row = rows.sourceY() / cellHeight; row < endRow; row++) {
+        int atlasRow = placement.row() + row;
+        for (int column = 0; column < placement.sourceSheet().columns(); column++) {
+          int atlasColumn = placement.column() + column;
+          if (!verifyMode.checks(atlasRow * layout.columns() + atlasColumn, column)) {
+            continue;
+          }
+          int offset = (row * cellHeight - rows.sourceY()) * width + column * cellWidth;
+          verifier.expect(atlasColumn, atlasRow, AtlasVerifier.hash(pixels, offset, cellWidth, cellHeight, width));
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      decoded.close();
+      IOException failure = null;
+      for (OpenSheet sheet : open) {
+        try {
+          sheet.close();
+        } catch (IOException error) {
+          if (failure == null) {
+            failure = error;
+          } else {
+            failure.addSuppressed(error);
+          }
+        }
+      }
+      open.clear();
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * A source sheet being streamed: read band by band from {@code reader}, or from the
+   * whole decoded {@code image}.
+   */
+  private static final class OpenSheet implements AutoCloseable {
+    private final Placement placement;
+    private final PngBandReader reader;
+    private final BufferedImage image;
+    private int[] rows = new int[0];
+
+    private OpenSheet(Placement placement, PngBandReader reader, BufferedImage image) {
+      this.placement = placement;
+      this.reader = reader;
+      this.image = image;
+    }
+
+    Placement placement() {
+      return placement;
+    }
+
+    int width() {
+      return reader != null ? reader.width() : image.getWidth();
+    }
+
+    int height() {
+      return reader != null ? reader.height() : image.getHeight();
+    }
+
+    /**
+     * The rows the last {@link #read} returned.
+     */
+    int[] pixels() {
+      return rows;
+    }
+
+    /**
+     * Returns sheet rows {@code sourceY} to {@code sourceY + count - 1}, one after the other
+     * at the sheet's width, as drawing them onto the transparent atlas would leave them.
+     * The array is reused by the next read.
+     */
+    int[] read(RasterBlitter blitter, int sourceY, int count) throws IOException {
+      int width = width();
+      if (rows.length < width * count) {
+        rows = new int[width * count];
+      }
+      if (reader == null) {
+        blitter.blit(image, 0, sourceY, width, count, rows, 0, width);
+        return rows;
+      }
+      if (reader.nextRow() != sourceY) {
+        throw new IllegalStateException("Source sheet is at row " + reader.nextRow() + ", not " + sourceY);
+      }
+      if (reader.read(rows, 0, count) != count) {
+        throw new IOException("Source sheet ended before row " + (sourceY + count));
+      }
+      RasterBlitter.blitArgb(rows, 0, width * count, rows, 0);
+      return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (reader != null) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Rows {@code sourceY} to {@code sourceY + count - 1} of a sheet, as its last read left
+   * them in {@link OpenSheet#pixels()}.
+   */
+  private record SheetRows(OpenSheet sheet, int sourceY, int count) {
+  }
+
+  /**
+   * A source sheet; {@code index} is its position in the list of sheets that fit the grid.
+   */
+  private record SourceSheet(Path path, int index, int columns, int rows) {
   }
 
   private record Placement(SourceSheet sourceSheet, int column, int row) {
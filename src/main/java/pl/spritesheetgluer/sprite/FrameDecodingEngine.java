@@ -0,0 +1,261 @@
+package pl.spritesheetgluer.sprite;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs per-frame work (probing, decoding) on a configurable pool and returns the
+ * results in input order, so callers see exactly what the serial loop would produce.
+ * The pool belongs to the engine and is shared by every call, also by calls running at
+ * the same time, so however many sheets decode at once they use at most
+ * {@link #parallelism()} threads, or in-flight virtual threads, between them.
+ */
+public final class FrameDecodingEngine {
+  private static final FrameDecodingEngine DEFAULT_ENGINE = forkJoin(Runtime.getRuntime().availableProcessors());
+
+  private final Mode mode;
+  private final int parallelism;
+  private final ForkJoinPool pool;
+  private final Semaphore permits;
+
+  private FrameDecodingEngine(Mode mode, int parallelism) {
+    this.mode = Objects.requireNonNull(mode, "mode");
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    // Worker threads are daemons, started on demand and retired when idle, so the pool
+    // never needs to be shut down.
+    this.pool = mode == Mode.FORK_JOIN && parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    this.permits = mode == Mode.VIRTUAL_THREADS ? new Semaphore(parallelism) : null;
+  }
+
+  public static FrameDecodingEngine serial() {
+    return new FrameDecodingEngine(Mode.SERIAL, 1);
+  }
+
+  public static FrameDecodingEngine forkJoin(int parallelism) {
+    return new FrameDecodingEngine(Mode.FORK_JOIN, parallelism);
+  }
+
+  /**
+   * Runs every task on its own virtual thread, with at most {@code maxConcurrency}
+   * tasks in flight at once.
+   */
+  public static FrameDecodingEngine virtualThreads(int maxConcurrency) {
+    return new FrameDecodingEngine(Mode.VIRTUAL_THREADS, maxConcurrency);
+  }
+
+  /**
+   * One fork/join engine with a thread per processor, shared by everyone who asks.
+   */
+  public static FrameDecodingEngine defaultEngine() {
+    return DEFAULT_ENGINE;
+  }
+
+  public Mode mode() {
+    return mode;
+  }
+
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Applies {@code task} to every input and returns the results in input order.
+   * When several tasks fail, the failure of the earliest input is rethrown.
+   */
+  public <S, T> List<T> map(List<S> inputs, FrameTask<S, T> task) throws IOException {
+    Objects.requireNonNull(inputs, "inputs");
+    Objects.requireNonNull(task, "task");
+    if (mode == Mode.SERIAL || parallelism == 1 || inputs.size() <= 1) {
+      List<T> results = new ArrayList<>(inputs.size());
+      for (S input : inputs) {
+        results.add(task.apply(input));
+      }
+      return results;
+    }
+
+    if (mode == Mode.FORK_JOIN) {
+      return submitAll(pool, inputs, task);
+    }
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      return submitAll(executor, inputs, task);
+    }
+  }
+
+  /**
+   * Applies {@code task} to every input and hands the results to {@code consumer} in input
+   * order on the calling thread. At most {@code window} results are decoded or waiting to be
+   * consumed at any time, so memory stays bounded no matter how many inputs there are.
+   */
+  public <S, T> void stream(
+      List<S> inputs,
+      int window,
+      FrameTask<S, T> task,
+      FrameConsumer<T> consumer
+  ) throws IOException {
+    Objects.requireNonNull(inputs, "inputs");
+    Objects.requireNonNull(task, "task");
+    Objects.requireNonNull(consumer, "consumer");
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive: " + window);
+    }
+    if (mode == Mode.SERIAL || parallelism == 1 || window == 1 || inputs.size() <= 1) {
+      for (S input : inputs) {
+        consumer.accept(task.apply(input));
+      }
+      return;
+    }
+
+    if (mode == Mode.FORK_JOIN) {
+      streamAll(pool, inputs, window, task, consumer);
+      return;
+    }
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      streamAll(executor, inputs, window, task, consumer);
+    }
+  }
+
+  private <S, T> void streamAll(
+      ExecutorService executor,
+      List<S> inputs,
+      int window,
+      FrameTask<S, T> task,
+      FrameConsumer<T> consumer
+  ) throws IOException {
+    Deque<Future<T>> inFlight = new ArrayDeque<>();
+    AtomicBoolean abandoned = new AtomicBoolean();
+    int nextInput = 0;
+    try {
+      while (nextInput < inputs.size() || !inFlight.isEmpty()) {
+        while (nextInput < inputs.size() && inFlight.size() < window) {
+          inFlight.addLast(submit(executor, inputs.get(nextInput++), task, abandoned));
+        }
+        consumer.accept(inFlight.removeFirst().get());
+      }
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding frames", error);
+    } catch (ExecutionException error) {
+      throw unwrap(error.getCause());
+    } finally {
+      abandon(inFlight, abandoned);
+    }
+  }
+
+  private <S, T> Future<T> submit(ExecutorService executor, S input, FrameTask<S, T> task, AtomicBoolean abandoned) {
+    return executor.submit(() -> {
+      if (permits == null) {
+        return abandoned.get() ? null : task.apply(input);
+      }
+      permits.acquire();
+      try {
+        return abandoned.get() ? null : task.apply(input);
+      } finally {
+        permits.release();
+      }
+    });
+  }
+
+  /**
+   * Stops the tasks of a call that is leaving early from starting and waits for the ones
+   * already running, which may still use what the caller is about to close. The pool
+   * outlives the call, so it cannot be closed to wait for them.
+   */
+  private static void abandon(Collection<? extends Future<?>> futures, AtomicBoolean abandoned) {
+    abandoned.set(true);
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException error) {
+          interrupted = true;
+        } catch (ExecutionException | CancellationException error) {
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private <S, T> List<T> submitAll(
+      ExecutorService executor,
+      List<S> inputs,
+      FrameTask<S, T> task
+  ) throws IOException {
+    List<Future<T>> futures = new ArrayList<>(inputs.size());
+    AtomicBoolean abandoned = new AtomicBoolean();
+    for (S input : inputs) {
+      futures.add(submit(executor, input, task, abandoned));
+    }
+
+    List<T> results = new ArrayList<>(inputs.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while decoding frames", error);
+    } catch (ExecutionException error) {
+      throw unwrap(error.getCause());
+    } finally {
+      abandon(futures, abandoned);
+    }
+  }
+
+  private IOException unwrap(Throwable cause) {
+    if (cause instanceof IOException ioException) {
+      return ioException;
+    }
+    if (cause instanceof UncheckedIOException uncheckedIOException) {
+      return uncheckedIOException.getCause();
+    }
+    if (cause instanceof RuntimeException runtimeException) {
+      throw runtimeException;
+    }
+    if (cause instanceof Error error) {
+      throw error;
+    }
+    if (cause instanceof CancellationException || cause instanceof InterruptedException) {
+      return new IOException("Frame decoding was interrupted", cause);
+    }
+    return new IOException(cause);
+  }
+
+  public enum Mode {
+    SERIAL,
+    FORK_JOIN,
+    VIRTUAL_THREADS
+  }
+
+  @FunctionalInterface
+  public interface FrameTask<S, T> {
+    T apply(S input) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface FrameConsumer<T> {
+    void accept(T result) throws IOException;
+  }
+}
@@ -0,0 +1,398 @@
+package pl.spritesheetgluer.sprite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Remembers what each build unit (a character, a loose-frame prefix group or a merge
+ * folder) was last built from, in a hidden manifest next to its outputs, so an unchanged
+ * unit can be skipped without decoding anything. An input is unchanged when its size and
+ * modification time match the manifest or, failing that, when its size and CRC-32C do; a
+ * unit is skipped only when its inputs and settings string all match and every output is
+ * still the file that was written. A unit that is not up to date can still tell which of
+ * its inputs changed, so an atlas whose cell grid stayed the same can be patched.
+ */
+public final class IncrementalBuild {
+  private static final String VERSION = "1";
+  private static final String VALUE_PREFIX = "value.";
+  private static final IncrementalBuild ENABLED = new IncrementalBuild(true);
+  private static final IncrementalBuild DISABLED = new IncrementalBuild(false);
+
+  private final boolean enabled;
+
+  private IncrementalBuild(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public static IncrementalBuild enabled() {
+    return ENABLED;
+  }
+
+  /**
+   * Rebuilds every unit and writes no manifests.
+   */
+  public static IncrementalBuild disabled() {
+    return DISABLED;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * The manifest of the unit whose main output is {@code outputName}.png in {@code directory}.
+   */
+  static Path manifestPath(Path directory, String outputName) {
+    return directory.resolve("." + outputName + ".manifest");
+  }
+
+  /**
+   * Compares {@code inputs}, in order, and {@code settings} with the manifest at
+   * {@code manifestPath}. Only file attributes are read unless a modification time changed.
+   */
+  Unit check(Path manifestPath, String settings, List<Path> inputs) throws IOException {
+    Objects.requireNonNull(manifestPath, "manifestPath");
+    Objects.requireNonNull(settings, "settings");
+    Path directory = manifestPath.toAbsolutePath().getParent();
+    List<FileState> states = new ArrayList<>(inputs.size());
+    for (Path input : inputs) {
+      states.add(FileState.of(directory, input));
+    }
+    Unit unit = new Unit(enabled, manifestPath, directory, settings, states, enabled ? load(manifestPath) : null);
+    unit.upToDate = unit.matchesPrevious();
+    return unit;
+  }
+
+  private static Properties load(Path manifestPath) {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    } catch (IOException | IllegalArgumentException error) {
+      // A missing or damaged manifest only means the unit is rebuilt.
+      return null;
+    }
+    return VERSION.equals(properties.getProperty("version")) ? properties : null;
+  }
+
+  static long contentHash(Path file) throws IOException {
+    CRC32C crc = new CRC32C();
+    byte[] buffer = new byte[1 << 16];
+    try (InputStream in = Files.newInputStream(file)) {
+      int count;
+      while ((count = in.read(buffer)) >= 0) {
+        crc.update(buffer, 0, count);
+      }
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * One build unit: whether it is up to date, the values its last build recorded, and the
+   * values and outputs to record once it has been rebuilt.
+   */
+  static final class Unit {
+    private final boolean enabled;
+    private final Path manifestPath;
+    private final Path directory;
+    private final String settings;
+    private final List<FileState> inputs;
+    private final Properties previous;
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private boolean upToDate;
+
+    private Unit(
+        boolean enabled,
+        Path manifestPath,
+        Path directory,
+        String settings,
+        List<FileState> inputs,
+        Properties previous
+    ) {
+      this.enabled = enabled;
+      this.manifestPath = manifestPath;
+      this.directory = directory;
+      this.settings = settings;
+      this.inputs = inputs;
+      this.previous = previous;
+    }
+
+    boolean upToDate() {
+      return upToDate;
+    }
+
+    BuildStatus status() {
+      return upToDate ? BuildStatus.SKIPPED : BuildStatus.REBUILT;
+    }
+
+    /**
+     * Whether the settings string matches the previous manifest.
+     */
+    boolean settingsMatch() {
+      return previous != null && settings.equals(previous.getProperty("settings"));
+    }
+
+    /**
+     * Whether there is a previous manifest and every output it lists is still the file
+     * that was written then.
+     */
+    boolean outputsIntact() throws IOException {
+      List<FileState> recordedOutputs = previous == null ? null : FileState.loadAll(previous, "output");
+      if (recordedOutputs == null) {
+        return false;
+      }
+      for (FileState output : recordedOutputs) {
+        FileState current;
+        try {
+          current = FileState.of(directory, directory.resolve(output.path()));
+        } catch (NoSuchFileException missing) {
+          return false;
+        }
+        if (current.size() != output.size() || current.modified() != output.modified()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * The inputs, as absolute paths, that are new or whose content differs from the
+     * previous manifest. Only inputs whose size matches but whose modification time does
+     * not are hashed, and their hashes are kept for {@link #record}.
+     */
+    Set<Path> changedInputs() throws IOException {
+      Map<String, FileState> previousInputs = previousInputs();
+      Set<Path> changed = new HashSet<>();
+      for (int index = 0; index < inputs.size(); index++) {
+        FileState input = inputs.get(index);
+        FileState known = previousInputs.get(input.path());
+        Path file = directory.resolve(input.path()).normalize();
+        if (known == null || known.size() != input.size()) {
+          changed.add(file);
+        } else if (known.modified() != input.modified()) {
+          long hash = input.hash() >= 0 ? input.hash() : contentHash(file);
+          inputs.set(index, new FileState(input.path(), input.size(), input.modified(), hash));
+          if (hash != known.hash()) {
+            changed.add(file);
+          }
+        }
+      }
+      return changed;
+    }
+
+    boolean hasValue(String key) {
+      return previous != null && previous.getProperty(VALUE_PREFIX + key) != null;
+    }
+
+    String value(String key) throws IOException {
+      String value = previous == null ? null : previous.getProperty(VALUE_PREFIX + key);
+      if (value == null) {
+        throw new IOException("Build manifest " + manifestPath + " has no value for " + key);
+      }
+      return value;
+    }
+
+    int intValue(String key) throws IOException {
+      try {
+        return Integer.parseInt(value(key));
+      } catch (NumberFormatException error) {
+        throw new IOException("Build manifest " + manifestPath + " has an invalid value for " + key, error);
+      }
+    }
+
+    List<Path> paths(String key) throws IOException {
+      String value = value(key);
+      List<Path> paths = new ArrayList<>();
+      if (!value.isEmpty()) {
+        for (String path : value.split("\n")) {
+          paths.add(directory.resolve(path));
+        }
+      }
+      return paths;
+    }
+
+    Unit put(String key, String value) {
+      values.put(key, Objects.requireNonNull(value, key));
+      return this;
+    }
+
+    Unit put(String key, int value) {
+      return put(key, String.valueOf(value));
+    }
+
+    Unit putPaths(String key, List<Path> paths) {
+      List<String> relative = new ArrayList<>(paths.size());
+      for (Path path : paths) {
+        relative.add(relativize(directory, path));
+      }
+      return put(key, String.join("\n", relative));
+    }
+
+    /**
+     * Writes the manifest for a successful rebuild. Inputs whose size and modification time
+     * still match the previous manifest keep their recorded hash; the others are hashed now.
+     */
+    void record(List<Path> outputs) throws IOException {
+      if (!enabled) {
+        return;
+      }
+      Map<String, FileState> previousInputs = previousInputs();
+      Properties properties = new Properties();
+      properties.setProperty("version", VERSION);
+      properties.setProperty("settings", settings);
+      properties.setProperty("inputs", String.valueOf(inputs.size()));
+      for (int index = 0; index < inputs.size(); index++) {
+        FileState input = inputs.get(index);
+        FileState known = previousInputs.get(input.path());
+        long hash = input.hash();
+        if (hash < 0) {
+          hash = known != null && known.hash() >= 0 && known.size() == input.size() && known.modified() == input.modified()
+              ? known.hash()
+              : contentHash(directory.resolve(input.path()));
+        }
+        new FileState(input.path(), input.size(), input.modified(), hash).store(properties, "input." + index);
+      }
+      properties.setProperty("outputs", String.valueOf(outputs.size()));
+      for (int index = 0; index < outputs.size(); index++) {
+        FileState.of(directory, outputs.get(index)).store(properties, "output." + index);
+      }
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        properties.setProperty(VALUE_PREFIX + entry.getKey(), entry.getValue());
+      }
+      write(properties);
+    }
+
+    private boolean matchesPrevious() throws IOException {
+      if (!settingsMatch()) {
+        return false;
+      }
+      List<FileState> recordedInputs = FileState.loadAll(previous, "input");
+      if (recordedInputs == null || recordedInputs.size() != inputs.size()) {
+        return false;
+      }
+      boolean touched = false;
+      for (int index = 0; index < inputs.size(); index++) {
+        FileState input = inputs.get(index);
+        FileState recorded = recordedInputs.get(index);
+        if (!input.path().equals(recorded.path()) || input.size() != recorded.size()) {
+          return false;
+        }
+        if (input.modified() != recorded.modified()) {
+          long hash = contentHash(directory.resolve(input.path()));
+          if (hash != recorded.hash()) {
+            inputs.set(index, new FileState(input.path(), input.size(), input.modified(), hash));
+            return false;
+          }
+          touched = true;
+        }
+        inputs.set(index, new FileState(input.path(), input.size(), input.modified(), recorded.hash()));
+      }
+      if (!outputsIntact()) {
+        return false;
+      }
+      if (touched) {
+        // Keep the fast path for the next run once an input was only touched.
+        Properties refreshed = new Properties();
+        refreshed.putAll(previous);
+        for (int index = 0; index < inputs.size(); index++) {
+          inputs.get(index).store(refreshed, "input." + index);
+        }
+        write(refreshed);
+      }
+      return true;
+    }
+
+    private Map<String, FileState> previousInputs() {
+      Map<String, FileState> byPath = new HashMap<>();
+      List<FileState> recorded = previous == null ? null : FileState.loadAll(previous, "input");
+      if (recorded != null) {
+        for (FileState state : recorded) {
+          byPath.put(state.path(), state);
+        }
+      }
+      return byPath;
+    }
+
+    private void write(Properties properties) throws IOException {
+      Path temporary = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+      try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        properties.store(writer, "sprite-sheet-gluer build manifest");
+      }
+      try {
+        Files.move(temporary, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException error) {
+        Files.move(temporary, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+
+  private static String relativize(Path directory, Path file) {
+    return directory.relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+  }
+
+  /**
+   * Size, modification time and, once known, CRC-32C of a file; {@code hash} is negative
+   * until the content has been hashed.
+   */
+  private record FileState(String path, long size, long modified, long hash) {
+    static FileState of(Path directory, Path file) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return new FileState(
+          relativize(directory, file),
+          attributes.size(),
+          attributes.lastModifiedTime().toMillis(),
+          -1
+      );
+    }
+
+    static List<FileState> loadAll(Properties properties, String kind) {
+      try {
+        int count = Integer.parseInt(properties.getProperty(kind + "s", ""));
+        List<FileState> states = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+          String key = kind + "." + index;
+          String path = properties.getProperty(key + ".path");
+          if (path == null) {
+            return null;
+          }
+          states.add(new FileState(
+              path,
+              Long.parseLong(properties.getProperty(key + ".size", "")),
+              Long.parseLong(properties.getProperty(key + ".modified", "")),
+              Long.parseLong(properties.getProperty(key + ".hash", "-1"))
+          ));
+        }
+        return states;
+      } catch (NumberFormatException error) {
+        return null;
+      }
+    }
+
+    void store(Properties properties, String key) {
+      properties.setProperty(key + ".path", path);
+      properties.setProperty(key + ".size", String.valueOf(size));
+      properties.setProperty(key + ".modified", String.valueOf(modified));
+      if (hash >= 0) {
+        properties.setProperty(key + ".hash", String.valueOf(hash));
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package pl.spritesheetgluer.sprite;
 
+import pl.spritesheetgluer.image.FrameCacheStats;
+
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
@@ -9,13 +11,15 @@ public record LooseFrameSpriteSheetBatchResult(
     List<LooseFrameSpriteSheetResult> sheets,
     List<Path> excludedFrames,
     List<Path> unmatchedPrefixFrames,
-    Map<String, Integer> detectedFrameSizes
+    Map<String, Integer> detectedFrameSizes,
+    FrameCacheStats cacheStats
 ) {
   public LooseFrameSpriteSheetBatchResult {
     Objects.requireNonNull(sheets, "sheets");
     Objects.requireNonNull(excludedFrames, "excludedFrames");
     Objects.requireNonNull(unmatchedPrefixFrames, "unmatchedPrefixFrames");
     Objects.requireNonNull(detectedFrameSizes, "detectedFrameSizes");
+    Objects.requireNonNull(cacheStats, "cacheStats");
     sheets = List.copyOf(sheets);
     excludedFrames = List.copyOf(excludedFrames);
     unmatchedPrefixFrames = List.copyOf(unmatchedPrefixFrames);
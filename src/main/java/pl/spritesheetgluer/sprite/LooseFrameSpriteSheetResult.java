@@ -13,12 +13,15 @@ public record LooseFrameSpriteSheetResult(
     int cellWidth,
     int cellHeight,
     int sheetIndex,
-    int totalSheets
+    int totalSheets,
+    BuildStatus status,
+    int patchedCells
 ) {
   public LooseFrameSpriteSheetResult {
     Objects.requireNonNull(prefix, "prefix");
     Objects.requireNonNull(outputName, "outputName");
     Objects.requireNonNull(outputPath, "outputPath");
+    Objects.requireNonNull(status, "status");
     if (columns <= 0) {
       throw new IllegalArgumentException("columns must be positive: " + columns);
     }
@@ -40,6 +43,9 @@ public record LooseFrameSpriteSheetResult(
     if (totalSheets <= 0) {
       throw new IllegalArgumentException("totalSheets must be positive: " + totalSheets);
     }
+    if (patchedCells < 0) {
+      throw new IllegalArgumentException("patchedCells must not be negative: " + patchedCells);
+    }
     if (sheetIndex > totalSheets) {
       throw new IllegalArgumentException(
           "sheetIndex must not exceed totalSheets: " + sheetIndex + " > " + totalSheets
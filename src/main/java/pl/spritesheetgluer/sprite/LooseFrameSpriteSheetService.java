@@ -1,21 +1,37 @@
 package pl.spritesheetgluer.sprite;
 
-import javax.imageio.ImageIO;
-import java.awt.AlphaComposite;
-import java.awt.Color;
-import java.awt.Graphics2D;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.FrameCacheStats;
+import pl.spritesheetgluer.image.FrameDimensionIndex;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.ImageMemory;
+import pl.spritesheetgluer.image.ImageSize;
+import pl.spritesheetgluer.image.MemoryBudget;
+import pl.spritesheetgluer.image.PngBandReader;
+import pl.spritesheetgluer.image.RasterBlitter;
+
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 public class LooseFrameSpriteSheetService {
@@ -24,9 +40,17 @@ public class LooseFrameSpriteSheetService {
   private static final Comparator<Path> NAME_COMPARATOR =
       Comparator.comparing(path -> path.getFileName().toString().toLowerCase(Locale.ROOT));
   private static final String OUTPUT_SUFFIX = "-sheet";
+  private static final Pattern SHEET_OUTPUT_NAME =
+      Pattern.compile(".*" + OUTPUT_SUFFIX + "(?:-\\d+)?", Pattern.CASE_INSENSITIVE);
 
   private final SpriteSheetWriter writer;
+  private final FrameDimensionIndex dimensions = new FrameDimensionIndex();
+  private final FrameIngest ingest;
+  private final AtlasRenderOptions renderOptions;
   private final int maxTextureSize;
+  private final IncrementalBuild incrementalBuild;
+  private final int groupParallelism;
+  private final MemoryBudget memoryBudget;
 
   public LooseFrameSpriteSheetService() {
     this(new SpriteSheetWriter(), GODOT_MAX_TEXTURE_SIZE);
@@ -42,7 +66,69 @@ public class LooseFrameSpriteSheetService {
       SpriteSheetWriter writer,
       int maxTextureSize
   ) {
+    this(writer, maxTextureSize, new FrameIngest());
+  }
+
+  public LooseFrameSpriteSheetService(
+      SpriteSheetWriter writer,
+      int maxTextureSize,
+      FrameIngest ingest
+  ) {
+    this(writer, maxTextureSize, ingest, AtlasRenderOptions.defaults());
+  }
+
+  public LooseFrameSpriteSheetService(
+      SpriteSheetWriter writer,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions
+  ) {
+    this(writer, maxTextureSize, ingest, renderOptions, IncrementalBuild.enabled());
+  }
+
+  public LooseFrameSpriteSheetService(
+      SpriteSheetWriter writer,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions,
+      IncrementalBuild incrementalBuild
+  ) {
+    this(
+        writer,
+        maxTextureSize,
+        ingest,
+        renderOptions,
+        incrementalBuild,
+        Runtime.getRuntime().availableProcessors(),
+        MemoryBudget.defaultBudget()
+    );
+  }
+
+  /**
+   * Plans up to {@code groupParallelism} prefix groups at once and then writes up to as
+   * many of their sheets at once. Before a sheet decodes anything it takes the bytes it
+   * needs, the atlas raster or bands plus the frames read ahead, from
+   * {@code memoryBudget}, so many small sheets run side by side while a huge one waits
+   * for room.
+   */
+  public LooseFrameSpriteSheetService(
+      SpriteSheetWriter writer,
+      int maxTextureSize,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions,
+      IncrementalBuild incrementalBuild,
+      int groupParallelism,
+      MemoryBudget memoryBudget
+  ) {
+    if (groupParallelism <= 0) {
+      throw new IllegalArgumentException("groupParallelism must be positive: " + groupParallelism);
+    }
+    this.groupParallelism = groupParallelism;
+    this.memoryBudget = Objects.requireNonNull(memoryBudget, "memoryBudget");
     this.writer = Objects.requireNonNull(writer, "writer");
+    this.ingest = Objects.requireNonNull(ingest, "ingest");
+    this.renderOptions = Objects.requireNonNull(renderOptions, "renderOptions");
+    this.incrementalBuild = Objects.requireNonNull(incrementalBuild, "incrementalBuild");
     if (maxTextureSize <= 0) {
       throw new IllegalArgumentException("maxTextureSize must be positive: " + maxTextureSize);
     }
@@ -50,7 +136,7 @@ public class LooseFrameSpriteSheetService {
   }
 
   public LooseFrameSpriteSheetBatchResult generate(Path root) throws IOException {
-    return generate(root, null, List.of());
+    return generate(root, null, List.of(), null);
   }
 
   public LooseFrameSpriteSheetBatchResult generate(Path root, int cellWidth, int cellHeight) throws IOException {
@@ -64,13 +150,31 @@ public class LooseFrameSpriteSheetService {
       List<String> configuredPrefixes
   ) throws IOException {
     validateCellSize(cellWidth, cellHeight);
-    return generate(root, new SizeKey(cellWidth, cellHeight), configuredPrefixes);
+    return generate(root, new SizeKey(cellWidth, cellHeight), configuredPrefixes, null);
+  }
+
+  /**
+   * Regenerates only the prefix groups that one of {@code changedPaths} belongs or
+   * belonged to, e.g. those an {@link AtlasWatcher} reported; the root itself among them
+   * means every group. Unlike a full run, finding no group to rebuild is not an error.
+   */
+  public LooseFrameSpriteSheetBatchResult generate(
+      Path root,
+      int cellWidth,
+      int cellHeight,
+      List<String> configuredPrefixes,
+      Collection<Path> changedPaths
+  ) throws IOException {
+    validateCellSize(cellWidth, cellHeight);
+    Objects.requireNonNull(changedPaths, "changedPaths");
+    return generate(root, new SizeKey(cellWidth, cellHeight), configuredPrefixes, changedPaths);
   }
 
   private LooseFrameSpriteSheetBatchResult generate(
       Path root,
       SizeKey expectedSize,
-      List<String> configuredPrefixes
+      List<String> configuredPrefixes,
+      Collection<Path> changedPaths
   ) throws IOException {
     Objects.requireNonNull(root, "root");
     if (!Files.isDirectory(root)) {
@@ -88,15 +192,30 @@ public class LooseFrameSpriteSheetService {
     List<String> prefixes = normalizeConfiguredPrefixes(configuredPrefixes);
     GroupingSelection groupingSelection = groupFramesByPrefix(sourceFrames, prefixes);
     Map<String, PrefixGroup> groups = groupingSelection.groups();
+    List<Path> unmatchedPrefixFrames = groupingSelection.unmatchedFrames();
+    Set<String> affectedKeys = changedPaths == null ? null : affectedGroupKeys(root, changedPaths, prefixes);
+    if (affectedKeys != null) {
+      Map<String, PrefixGroup> affectedGroups = new LinkedHashMap<>(groups);
+      affectedGroups.keySet().retainAll(affectedKeys);
+      if (affectedGroups.isEmpty()) {
+        return new LooseFrameSpriteSheetBatchResult(List.of(), List.of(), List.of(), Map.of(), FrameCacheStats.NONE);
+      }
+      groups = affectedGroups;
+      Set<Path> changed = new HashSet<>();
+      changedPaths.forEach(path -> changed.add(path.toAbsolutePath().normalize()));
+      unmatchedPrefixFrames = unmatchedPrefixFrames.stream()
+          .filter(frame -> changed.contains(frame.toAbsolutePath().normalize()))
+          .toList();
+    }
     List<LooseFrameSpriteSheetResult> results = new ArrayList<>();
     List<Path> excludedFrames = new ArrayList<>();
-    List<Path> unmatchedPrefixFrames = groupingSelection.unmatchedFrames();
     Map<String, Integer> detectedFrameSizes = new LinkedHashMap<>();
-    for (PrefixGroup group : groups.values()) {
-      GroupProcessingResult groupResult = processGroup(root, group, expectedSize);
+    FrameCacheStats cacheStats = FrameCacheStats.NONE;
+    for (GroupProcessingResult groupResult : processGroups(root, List.copyOf(groups.values()), expectedSize)) {
       results.addAll(groupResult.results());
       excludedFrames.addAll(groupResult.excludedFrames());
       mergeCounts(detectedFrameSizes, groupResult.detectedFrameSizes());
+      cacheStats = cacheStats.plus(groupResult.cacheStats());
     }
 
     if (!prefixes.isEmpty() && groups.isEmpty()) {
@@ -122,18 +241,288 @@ public class LooseFrameSpriteSheetService {
         results,
         excludedFrames,
         unmatchedPrefixFrames,
-        detectedFrameSizes
+        detectedFrameSizes,
+        cacheStats
     );
   }
 
-  private GroupProcessingResult processGroup(Path root, PrefixGroup group, SizeKey expectedSize) throws IOException {
+  /**
+   * Processes the groups on up to {@code groupParallelism} threads and returns their
+   * results in group order. Groups are planned first, from their frame sizes alone; then
+   * the sheets of the groups before the first one that failed to plan are written, each
+   * decoding only its own frames while it is composed; then each group's manifest is
+   * recorded. As in a serial loop, the first group that fails stops the groups after it:
+   * their sheets are not written and the failure is thrown once the manifests of the
+   * groups before it were recorded.
+   */
+  private List<GroupProcessingResult> processGroups(Path root, List<PrefixGroup> groups, SizeKey expectedSize)
+      throws IOException {
+    ExecutorService executor = groupParallelism == 1 ? null : Executors.newFixedThreadPool(groupParallelism);
+    try {
+      List<Integer> groupIndices = new ArrayList<>(groups.size());
+      for (int index = 0; index < groups.size(); index++) {
+        groupIndices.add(index);
+      }
+      List<Outcome<GroupWork>> planned = runAll(
+          executor,
+          groupIndices,
+          index -> index,
+          index -> planGroupWork(root, groups.get(index), expectedSize)
+      );
+      List<SheetJob> sheetJobs = new ArrayList<>();
+      for (int index = 0; index < planned.size(); index++) {
+        GroupWork work = planned.get(index).value();
+        if (work == null) {
+          break;
+        }
+        if (work.reused() == null) {
+          for (SheetPlan sheet : work.plan().sheets()) {
+            sheetJobs.add(new SheetJob(index, work, sheet));
+          }
+        }
+      }
+      List<Outcome<WrittenSheet>> written = runAll(executor, sheetJobs, SheetJob::group, this::writePlannedSheet);
+
+      List<GroupProcessingResult> results = new ArrayList<>(groups.size());
+      int nextSheet = 0;
+      for (Outcome<GroupWork> outcome : planned) {
+        GroupWork work = outcome.valueOrThrow();
+        if (work.reused() != null) {
+          results.add(work.reused());
+          continue;
+        }
+        List<WrittenSheet> sheets = new ArrayList<>();
+        for (int index = 0; index < work.plan().sheets().size(); index++) {
+          sheets.add(written.get(nextSheet++).valueOrThrow());
+        }
+        results.add(recordGroup(work, sheets));
+      }
+      return results;
+    } finally {
+      if (executor != null) {
+        executor.close();
+      }
+    }
+  }
+
+  /**
+   * Applies {@code task} to every input, on {@code executor} or, without one, on this
+   * thread, and returns each input's result or failure in input order. Once an input of
+   * some group fails, the inputs of later groups that have not started are cancelled and
+   * come back as {@link Outcome#CANCELLED}.
+   */
+  private <S, T> List<Outcome<T>> runAll(
+      ExecutorService executor,
+      List<S> inputs,
+      ToIntFunction<S> groupOf,
+      GroupTask<S, T> task
+  ) throws IOException {
+    AtomicInteger firstFailedGroup = new AtomicInteger(Integer.MAX_VALUE);
+    GroupTask<S, Outcome<T>> run = input -> {
+      int group = groupOf.applyAsInt(input);
+      if (group > firstFailedGroup.get()) {
+        return Outcome.cancelled();
+      }
+      Outcome<T> outcome = Outcome.of(task, input);
+      if (outcome.error() != null) {
+        firstFailedGroup.accumulateAndGet(group, Math::min);
+      }
+      return outcome;
+    };
+
+    List<Outcome<T>> outcomes = new ArrayList<>(inputs.size());
+    if (executor == null || inputs.size() <= 1) {
+      for (S input : inputs) {
+        outcomes.add(run.apply(input));
+      }
+      return outcomes;
+    }
+
+    List<Future<Outcome<T>>> futures = new ArrayList<>(inputs.size());
+    for (S input : inputs) {
+      futures.add(executor.submit(() -> run.apply(input)));
+    }
+    try {
+      for (int index = 0; index < futures.size(); index++) {
+        Future<Outcome<T>> future = futures.get(index);
+        if (future.isCancelled()) {
+          outcomes.add(Outcome.cancelled());
+          continue;
+        }
+        Outcome<T> outcome = future.get();
+        if (outcome.error() != null) {
+          int group = groupOf.applyAsInt(inputs.get(index));
+          for (int later = index + 1; later < futures.size(); later++) {
+            if (groupOf.applyAsInt(inputs.get(later)) > group) {
+              futures.get(later).cancel(false);
+            }
+          }
+        }
+        outcomes.add(outcome);
+      }
+    } catch (InterruptedException error) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building sprite sheets", error);
+    } catch (ExecutionException error) {
+      // Outcome.of only lets errors through.
+      futures.forEach(future -> future.cancel(true));
+      throw (Error) error.getCause();
+    }
+    return outcomes;
+  }
+
+  /**
+   * Checks the group's build manifest and, unless the group is up to date, splits its
+   * frames into sheets from their header-probed sizes without decoding any of them.
+   */
+  private GroupWork planGroupWork(Path root, PrefixGroup group, SizeKey expectedSize) throws IOException {
+    String cellSize = expectedSize == null ? "auto" : formatSize(expectedSize);
+    IncrementalBuild.Unit unit = incrementalBuild.check(
+        IncrementalBuild.manifestPath(root, group.prefix() + OUTPUT_SUFFIX),
+        "loose prefix=" + group.prefix() + " cell=" + cellSize + " max=" + maxTextureSize + " " + writer.settings(),
+        group.frames()
+    );
+    if (unit.upToDate()) {
+      return new GroupWork(unit, null, false, Set.of(), reuseGroup(root, group, unit));
+    }
+
+    GroupPlan plan = planGroup(root, group, expectedSize);
+    boolean patchable = incrementalBuild.isEnabled() && unit.outputsIntact()
+        && unit.hasValue("totalSheets") && unit.intValue("totalSheets") == plan.sheets().size();
+    Set<Path> changedFrames = patchable ? unit.changedInputs() : Set.of();
+    return new GroupWork(unit, plan, patchable, changedFrames, null);
+  }
+
+  /**
+   * Writes one sheet of a group whose manifest showed changes. Every sheet that keeps
+   * the same frames in the same cells is patched: unchanged sheets are left alone and the
+   * others only redraw the cells of changed frames. A sheet that is written takes the
+   * bytes it needs from the memory budget first, so only as many sheets as fit are
+   * decoded at once.
+   */
+  private WrittenSheet writePlannedSheet(SheetJob job) throws IOException {
+    GroupWork work = job.work();
+    SheetPlan sheet = job.sheet();
+    AtlasPatcher patcher = null;
+    if (work.patchable() && sameSheet(work.unit(), sheet)) {
+      boolean[] changedCells = changedCells(sheet, work.changedFrames());
+      if (!anyChanged(changedCells) && work.unit().settingsMatch()) {
+        return new WrittenSheet(sheet.result(BuildStatus.SKIPPED, 0), FrameCacheStats.NONE);
+      }
+      Layout layout = sheet.layout();
+      patcher = new AtlasPatcher(layout.columns(), layout.rows(), sheet.cellWidth(), sheet.cellHeight(), changedCells);
+    }
+
+    MemoryBudget.Lease lease;
+    try {
+      lease = memoryBudget.acquire(peakBytes(sheet));
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for memory for " + sheet.outputName(), error);
+    }
+    try {
+      return writeSheet(sheet, patcher);
+    } finally {
+      lease.close();
+    }
+  }
+
+  /**
+   * Records the build manifest of a group whose sheets were all written.
+   */
+  private GroupProcessingResult recordGroup(GroupWork work, List<WrittenSheet> written) throws IOException {
+    GroupPlan plan = work.plan();
+    IncrementalBuild.Unit unit = work.unit();
+    List<LooseFrameSpriteSheetResult> results = new ArrayList<>();
+    FrameCacheStats cacheStats = FrameCacheStats.NONE;
+    for (WrittenSheet sheet : written) {
+      results.add(sheet.result());
+      cacheStats = cacheStats.plus(sheet.cacheStats());
+    }
+
+    List<Path> outputs = new ArrayList<>();
+    unit.put("totalSheets", results.size());
+    for (int index = 0; index < results.size(); index++) {
+      LooseFrameSpriteSheetResult sheet = results.get(index);
+      String key = "sheet." + sheet.sheetIndex() + ".";
+      unit.put(key + "outputName", sheet.outputName())
+          .put(key + "columns", sheet.columns())
+          .put(key + "rows", sheet.rows())
+          .put(key + "frameCount", sheet.frameCount())
+          .put(key + "cellWidth", sheet.cellWidth())
+          .put(key + "cellHeight", sheet.cellHeight())
+          .putPaths(key + "frames", plan.sheets().get(index).framePaths());
+      outputs.add(sheet.outputPath());
+    }
+    List<String> sizeCounts = new ArrayList<>();
+    plan.detectedFrameSizes().forEach((size, count) -> sizeCounts.add(size + "=" + count));
+    unit.putPaths("excludedFrames", plan.excludedFrames())
+        .put("detectedFrameSizes", String.join(",", sizeCounts))
+        .record(outputs);
+    return new GroupProcessingResult(results, plan.excludedFrames(), plan.detectedFrameSizes(), cacheStats);
+  }
+
+  /**
+   * The most pixel memory writing {@code sheet} holds at once: the whole atlas, or for a
+   * streamed atlas the band being rendered and the one being encoded, plus the frames the
+   * ingest reads ahead and the one being drawn.
+   */
+  private long peakBytes(SheetPlan sheet) {
+    int width = sheet.layout().columns() * sheet.cellWidth();
+    int height = sheet.layout().rows() * sheet.cellHeight();
+    long atlasBytes = renderOptions.streams(width, height)
+        ? 2 * ImageMemory.argbBytes(width, renderOptions.bandHeightFor(sheet.cellHeight()))
+        : ImageMemory.argbBytes(width, height);
+    long frameBytes = (ingest.readAhead() + 1L) * ImageMemory.argbBytes(sheet.cellWidth(), sheet.cellHeight());
+    return atlasBytes + frameBytes;
+  }
+
+  private GroupProcessingResult reuseGroup(Path root, PrefixGroup group, IncrementalBuild.Unit unit) throws IOException {
+    int totalSheets = unit.intValue("totalSheets");
+    List<LooseFrameSpriteSheetResult> results = new ArrayList<>();
+    for (int sheetIndex = 1; sheetIndex <= totalSheets; sheetIndex++) {
+      String key = "sheet." + sheetIndex + ".";
+      String outputName = unit.value(key + "outputName");
+      results.add(new LooseFrameSpriteSheetResult(
+          group.prefix(),
+          outputName,
+          root.resolve(outputName + ".png"),
+          unit.intValue(key + "columns"),
+          unit.intValue(key + "rows"),
+          unit.intValue(key + "frameCount"),
+          unit.intValue(key + "cellWidth"),
+          unit.intValue(key + "cellHeight"),
+          sheetIndex,
+          totalSheets,
+          BuildStatus.SKIPPED,
+          0
+      ));
+    }
+    Map<String, Integer> detectedFrameSizes = new LinkedHashMap<>();
+    for (String entry : unit.value("detectedFrameSizes").split(",")) {
+      int separator = entry.lastIndexOf('=');
+      if (separator > 0) {
+        detectedFrameSizes.put(entry.substring(0, separator), Integer.parseInt(entry.substring(separator + 1)));
+      }
+    }
+    return new GroupProcessingResult(results, unit.paths("excludedFrames"), detectedFrameSizes, FrameCacheStats.NONE);
+  }
+
+  /**
+   * Picks the cell size, splits the matching frames into sheets and lays out each sheet,
+   * reading only the frame sizes.
+   */
+  private GroupPlan planGroup(Path root, PrefixGroup group, SizeKey expectedSize) throws IOException {
     Map<SizeKey, Integer> sizeCounts = new LinkedHashMap<>();
     List<FrameCandidate> candidates = new ArrayList<>();
-    for (Path framePath : group.frames()) {
-      BufferedImage image = readImage(framePath);
-      SizeKey size = new SizeKey(image.getWidth(), image.getHeight());
+    List<ImageSize> imageSizes = dimensions.sizes(group.frames());
+    for (int index = 0; index < group.frames().size(); index++) {
+      Path framePath = group.frames().get(index);
+      ImageSize imageSize = imageSizes.get(index);
+      SizeKey size = new SizeKey(imageSize.width(), imageSize.height());
       sizeCounts.merge(size, 1, Integer::sum);
-      candidates.add(new FrameCandidate(framePath, image, size));
+      candidates.add(new FrameCandidate(framePath, size));
     }
 
     SizeKey targetSize = expectedSize == null ? selectTargetSize(sizeCounts) : expectedSize;
@@ -166,73 +555,236 @@ public class LooseFrameSpriteSheetService {
 
     long maxFramesPerSheet = (long) maxColumns * maxRows;
     int totalSheets = (int) ((includedFrames.size() + maxFramesPerSheet - 1) / maxFramesPerSheet);
-    List<LooseFrameSpriteSheetResult> results = new ArrayList<>();
+    List<SheetPlan> sheets = new ArrayList<>();
     for (int sheetNumber = 0; sheetNumber < totalSheets; sheetNumber++) {
       int fromIndex = (int) Math.min((long) sheetNumber * maxFramesPerSheet, includedFrames.size());
       int toIndex = (int) Math.min((long) fromIndex + maxFramesPerSheet, includedFrames.size());
       List<FrameCandidate> sheetFrames = includedFrames.subList(fromIndex, toIndex);
-      results.add(writeSheet(root, group.prefix(), sheetNumber + 1, totalSheets, sheetFrames, cellWidth, cellHeight));
+      Layout layout = findBestLayout(sheetFrames.size(), cellWidth, cellHeight);
+      if (layout == null) {
+        throw new IllegalStateException(
+            "Prefix " + group.prefix()
+                + " cannot fit within " + maxTextureSize + "x" + maxTextureSize
+                + " at frame size " + cellWidth + "x" + cellHeight
+        );
+      }
+      String outputName = buildOutputName(group.prefix(), sheetNumber + 1, totalSheets);
+      sheets.add(new SheetPlan(
+          group.prefix(),
+          outputName,
+          root.resolve(outputName + ".png"),
+          sheetNumber + 1,
+          totalSheets,
+          List.copyOf(sheetFrames),
+          layout,
+          cellWidth,
+          cellHeight
+      ));
     }
 
-    return new GroupProcessingResult(results, excludedFrames, formatSizeCounts(sizeCounts));
+    return new GroupPlan(sheets, excludedFrames, formatSizeCounts(sizeCounts));
   }
 
-  private LooseFrameSpriteSheetResult writeSheet(
-      Path root,
-      String prefix,
-      int sheetIndex,
-      int totalSheets,
-      List<FrameCandidate> frames,
-      int cellWidth,
-      int cellHeight
-  ) throws IOException {
-    Layout layout = findBestLayout(frames.size(), cellWidth, cellHeight);
-    if (layout == null) {
-      throw new IllegalStateException(
-          "Prefix " + prefix
-              + " cannot fit within " + maxTextureSize + "x" + maxTextureSize
-              + " at frame size " + cellWidth + "x" + cellHeight
-      );
+  /**
+   * Whether the last build wrote {@code sheet}'s output from the same frames in the same
+   * grid, so it can be patched.
+   */
+  private boolean sameSheet(IncrementalBuild.Unit unit, SheetPlan sheet) throws IOException {
+    String key = "sheet." + sheet.sheetIndex() + ".";
+    if (!unit.hasValue(key + "frames")) {
+      return false;
     }
+    return unit.value(key + "outputName").equals(sheet.outputName())
+        && unit.intValue(key + "columns") == sheet.layout().columns()
+        && unit.intValue(key + "rows") == sheet.layout().rows()
+        && unit.intValue(key + "cellWidth") == sheet.cellWidth()
+        && unit.intValue(key + "cellHeight") == sheet.cellHeight()
+        && normalize(unit.paths(key + "frames")).equals(normalize(sheet.framePaths()));
+  }
 
-    BufferedImage spriteSheet = new BufferedImage(
-        layout.columns() * cellWidth,
-        layout.rows() * cellHeight,
-        BufferedImage.TYPE_INT_ARGB
-    );
-    Graphics2D graphics = spriteSheet.createGraphics();
-    try {
-      graphics.setComposite(AlphaComposite.Src);
-      graphics.setColor(new Color(0, 0, 0, 0));
-      graphics.fillRect(0, 0, spriteSheet.getWidth(), spriteSheet.getHeight());
-      graphics.setComposite(AlphaComposite.SrcOver);
+  /**
+   * Marks the cells of {@code changedFrames}, the only ones redrawn over the sheet's
+   * previous output when it is patched.
+   */
+  private boolean[] changedCells(SheetPlan sheet, Set<Path> changedFrames) {
+    Layout layout = sheet.layout();
+    boolean[] changedCells = new boolean[layout.columns() * layout.rows()];
+    for (int index = 0; index < sheet.frames().size(); index++) {
+      changedCells[index] = changedFrames.contains(sheet.frames().get(index).path().toAbsolutePath().normalize());
+    }
+    return changedCells;
+  }
+
+  private static boolean anyChanged(boolean[] changedCells) {
+    for (boolean changed : changedCells) {
+      if (changed) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes {@code sheet} from all of its frames, or with {@code patcher} from its previous
+   * output and the frames of the changed cells only.
+   */
+  private WrittenSheet writeSheet(SheetPlan sheet, AtlasPatcher patcher) throws IOException {
+    Layout layout = sheet.layout();
+    int cellWidth = sheet.cellWidth();
+    int cellHeight = sheet.cellHeight();
+    Path outputPath = sheet.outputPath();
+    int sheetWidth = layout.columns() * cellWidth;
+    int sheetHeight = layout.rows() * cellHeight;
+    int[] batchIndices = new int[sheet.frames().size()];
+    List<Path> drawnFrames = new ArrayList<>();
+    for (int index = 0; index < batchIndices.length; index++) {
+      if (patcher == null || patcher.changed(index)) {
+        batchIndices[index] = drawnFrames.size();
+        drawnFrames.add(sheet.frames().get(index).path());
+      } else {
+        batchIndices[index] = -1;
+      }
+    }
 
-      for (int index = 0; index < frames.size(); index++) {
-        FrameCandidate frame = frames.get(index);
+    FrameCacheStats cacheStats;
+    try (FrameIngest.Batch batch = ingest.open(drawnFrames)) {
+      if (renderOptions.streams(sheetWidth, sheetHeight)) {
+        RasterBlitter blitter = new RasterBlitter();
+        if (patcher == null) {
+          writer.write(
+              sheetWidth,
+              sheetHeight,
+              renderOptions.bandHeightFor(cellHeight),
+              (y, rows, target) -> renderBand(batch, batchIndices, blitter, layout, cellWidth, cellHeight, sheetWidth, y, rows, target),
+              outputPath
+          );
+        } else {
+          // The previous sheet is read while the new one is written, so it goes to a temporary file first.
+          Path temporary = outputPath.resolveSibling("." + outputPath.getFileName() + ".tmp");
+          try (PngBandReader previous = patcher.open(outputPath)) {
+            writer.write(
+                sheetWidth,
+                sheetHeight,
+                renderOptions.bandHeightFor(cellHeight),
+                (y, rows, target) -> {
+                  patcher.readBand(previous, y, rows, target);
+                  renderBand(batch, batchIndices, blitter, layout, cellWidth, cellHeight, sheetWidth, y, rows, target);
+                },
+                temporary
+            );
+          } catch (IOException | RuntimeException | Error error) {
+            Files.deleteIfExists(temporary);
+            throw error;
+          }
+          Files.move(temporary, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } else {
+        try (AtlasSurface surface = renderSheet(batch, batchIndices, layout, cellWidth, cellHeight, patcher, outputPath)) {
+          writer.write(surface, outputPath);
+        }
+      }
+      cacheStats = batch.cacheStats();
+    }
+
+    LooseFrameSpriteSheetResult result = patcher == null
+        ? sheet.result(BuildStatus.REBUILT, 0)
+        : sheet.result(BuildStatus.PATCHED, drawnFrames.size());
+    return new WrittenSheet(result, cacheStats);
+  }
+
+  private AtlasSurface renderSheet(
+      FrameIngest.Batch batch,
+      int[] batchIndices,
+      Layout layout,
+      int cellWidth,
+      int cellHeight,
+      AtlasPatcher patcher,
+      Path previousAtlas
+  ) throws IOException {
+    AtlasSurface spriteSheet = renderOptions.newSurface(layout.columns() * cellWidth, layout.rows() * cellHeight);
+    try {
+      if (patcher != null) {
+        patcher.restore(previousAtlas, spriteSheet);
+      }
+      for (int index = 0; index < batchIndices.length; index++) {
+        if (batchIndices[index] < 0) {
+          continue;
+        }
         int column = index % layout.columns();
         int row = index / layout.columns();
-        graphics.drawImage(frame.image(), column * cellWidth, row * cellHeight, null);
+        spriteSheet.draw(batch.read(batchIndices[index]), column * cellWidth, row * cellHeight);
       }
-    } finally {
-      graphics.dispose();
-    }
-
-    String outputName = buildOutputName(prefix, sheetIndex, totalSheets);
-    Path outputPath = root.resolve(outputName + ".png");
-    writer.write(spriteSheet, outputPath);
-
-    return new LooseFrameSpriteSheetResult(
-        prefix,
-        outputName,
-        outputPath,
-        layout.columns(),
-        layout.rows(),
-        frames.size(),
-        cellWidth,
-        cellHeight,
-        sheetIndex,
-        totalSheets
-    );
+    } catch (IOException | RuntimeException | Error error) {
+      spriteSheet.close();
+      throw error;
+    }
+    return spriteSheet;
+  }
+
+  /**
+   * Decodes the frames of the cell rows covered by atlas rows {@code y} to
+   * {@code y + rows - 1} that are drawn from {@code batch} and blits them into
+   * {@code target}. Bands always start on a cell row, so every frame is decoded exactly
+   * once.
+   */
+  private void renderBand(
+      FrameIngest.Batch batch,
+      int[] batchIndices,
+      RasterBlitter blitter,
+      Layout layout,
+      int cellWidth,
+      int cellHeight,
+      int sheetWidth,
+      int y,
+      int rows,
+      int[] target
+  ) throws IOException {
+    int firstIndex = y / cellHeight * layout.columns();
+    int endIndex = Math.min(batchIndices.length, Math.ceilDiv(y + rows, cellHeight) * layout.columns());
+    for (int index = firstIndex; index < endIndex; index++) {
+      if (batchIndices[index] < 0) {
+        continue;
+      }
+      BufferedImage frame = batch.read(batchIndices[index]);
+      int top = index / layout.columns() * cellHeight;
+      int left = index % layout.columns() * cellWidth;
+      int height = Math.min(frame.getHeight(), y + rows - top);
+      blitter.blit(frame, 0, 0, frame.getWidth(), height, target, (top - y) * sheetWidth + left, sheetWidth);
+    }
+  }
+
+  private List<Path> normalize(List<Path> paths) {
+    return paths.stream().map(path -> path.toAbsolutePath().normalize()).toList();
+  }
+
+  /**
+   * The keys of the prefix groups that the files among {@code changedPaths} directly under
+   * {@code root} fall into, whether they still exist or not; every key when the root or a
+   * folder above it changed.
+   */
+  private Set<String> affectedGroupKeys(Path root, Collection<Path> changedPaths, List<String> prefixes) {
+    Path normalizedRoot = root.toAbsolutePath().normalize();
+    PrefixTrie configured = new PrefixTrie(prefixes);
+    Set<String> keys = new HashSet<>();
+    for (Path changedPath : changedPaths) {
+      Path changed = changedPath.toAbsolutePath().normalize();
+      if (normalizedRoot.startsWith(changed)) {
+        return null;
+      }
+      if (!normalizedRoot.equals(changed.getParent())) {
+        continue;
+      }
+      String fileName = changed.getFileName().toString();
+      if (configured.isEmpty()) {
+        keys.add(inferPrefix(fileName).toLowerCase(Locale.ROOT));
+      } else {
+        String prefix = configured.match(stripExtension(fileName).trim());
+        if (prefix != null) {
+          keys.add(prefix.toLowerCase(Locale.ROOT));
+        }
+      }
+    }
+    return keys;
   }
 
   private GroupingSelection groupFramesByPrefix(List<Path> sourceFrames, List<String> configuredPrefixes) {
@@ -263,20 +815,16 @@ public class LooseFrameSpriteSheetService {
   private GroupingSelection groupFramesByConfiguredPrefixes(List<Path> sourceFrames, List<String> configuredPrefixes) {
     Map<String, PrefixGroupBuilder> grouped = new LinkedHashMap<>();
     List<Path> unmatchedFrames = new ArrayList<>();
-    List<ConfiguredPrefix> prefixes = configuredPrefixes.stream()
-        .map(ConfiguredPrefix::new)
-        .sorted(Comparator.comparingInt((ConfiguredPrefix prefix) -> prefix.value().length()).reversed())
-        .toList();
+    PrefixTrie prefixes = new PrefixTrie(configuredPrefixes);
 
     for (Path sourceFrame : sourceFrames) {
       String baseName = stripExtension(sourceFrame.getFileName().toString()).trim();
-      ConfiguredPrefix matchedPrefix = findConfiguredPrefix(baseName, prefixes);
-      if (matchedPrefix == null) {
+      String prefix = prefixes.match(baseName);
+      if (prefix == null) {
         unmatchedFrames.add(sourceFrame);
         continue;
       }
 
-      String prefix = matchedPrefix.value();
       String key = prefix.toLowerCase(Locale.ROOT);
       PrefixGroupBuilder builder = grouped.computeIfAbsent(
           key,
@@ -293,37 +841,6 @@ public class LooseFrameSpriteSheetService {
     return new GroupingSelection(groups, List.copyOf(unmatchedFrames));
   }
 
-  private ConfiguredPrefix findConfiguredPrefix(String baseName, List<ConfiguredPrefix> prefixes) {
-    for (ConfiguredPrefix prefix : prefixes) {
-      if (matchesConfiguredPrefix(baseName, prefix.value())) {
-        return prefix;
-      }
-    }
-    return null;
-  }
-
-  private boolean matchesConfiguredPrefix(String baseName, String configuredPrefix) {
-    if (baseName.length() < configuredPrefix.length()) {
-      return false;
-    }
-    if (!baseName.regionMatches(true, 0, configuredPrefix, 0, configuredPrefix.length())) {
-      return false;
-    }
-    if (baseName.length() == configuredPrefix.length()) {
-      return true;
-    }
-
-    char nextCharacter = baseName.charAt(configuredPrefix.length());
-    if (Character.isWhitespace(nextCharacter) || nextCharacter == '_' || nextCharacter == '-') {
-      return true;
-    }
-    if (Character.isDigit(nextCharacter)) {
-      return true;
-    }
-    char lastPrefixCharacter = configuredPrefix.charAt(configuredPrefix.length() - 1);
-    return Character.isUpperCase(nextCharacter) && Character.isLowerCase(lastPrefixCharacter);
-  }
-
   private List<String> normalizeConfiguredPrefixes(List<String> configuredPrefixes) {
     if (configuredPrefixes == null || configuredPrefixes.isEmpty()) {
       return List.of();
@@ -418,18 +935,7 @@ public class LooseFrameSpriteSheetService {
     return candidateWidth < bestWidth;
   }
 
-  private BufferedImage readImage(Path path) throws IOException {
-    BufferedImage image = ImageIO.read(path.toFile());
-    if (image == null) {
-      throw new IOException("Unsupported image format: " + path);
-    }
-    return image;
-  }
-
   private boolean isImageFile(Path file) {
-    if (!Files.isRegularFile(file)) {
-      return false;
-    }
     String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
     int dot = name.lastIndexOf('.');
     if (dot < 0 || dot == name.length() - 1) {
@@ -441,7 +947,7 @@ public class LooseFrameSpriteSheetService {
 
   private boolean isSourceFrame(Path file) {
     String baseName = stripExtension(file.getFileName().toString());
-    return !baseName.toLowerCase(Locale.ROOT).matches(".*" + OUTPUT_SUFFIX + "(?:-\\d+)?");
+    return !SHEET_OUTPUT_NAME.matcher(baseName).matches();
   }
 
   private void validateCellSize(int cellWidth, int cellHeight) {
@@ -509,7 +1015,7 @@ public class LooseFrameSpriteSheetService {
   private record SizeKey(int width, int height) {
   }
 
-  private record FrameCandidate(Path path, BufferedImage image, SizeKey size) {
+  private record FrameCandidate(Path path, SizeKey size) {
   }
 
   private record PrefixGroup(String prefix, List<Path> frames) {
@@ -518,16 +1024,107 @@ public class LooseFrameSpriteSheetService {
   private record PrefixGroupBuilder(String prefix, List<Path> frames) {
   }
 
-  private record ConfiguredPrefix(String value) {
-  }
-
   private record GroupProcessingResult(
       List<LooseFrameSpriteSheetResult> results,
       List<Path> excludedFrames,
-      Map<String, Integer> detectedFrameSizes
+      Map<String, Integer> detectedFrameSizes,
+      FrameCacheStats cacheStats
   ) {
   }
 
+  /**
+   * A group after its manifest check: either {@code reused} from the last build, or a
+   * {@code plan} whose sheets still have to be written.
+   */
+  private record GroupWork(
+      IncrementalBuild.Unit unit,
+      GroupPlan plan,
+      boolean patchable,
+      Set<Path> changedFrames,
+      GroupProcessingResult reused
+  ) {
+  }
+
+  private record SheetJob(int group, GroupWork work, SheetPlan sheet) {
+  }
+
+  @FunctionalInterface
+  private interface GroupTask<S, T> {
+    T apply(S input) throws IOException;
+  }
+
+  /**
+   * The result of one task, or the exception it failed with.
+   */
+  private record Outcome<T>(T value, Exception error) {
+    /**
+     * Stands for an input that was not run because an earlier group failed.
+     */
+    private static final Outcome<?> CANCELLED = new Outcome<>(null, null);
+
+    @SuppressWarnings("unchecked")
+    static <T> Outcome<T> cancelled() {
+      return (Outcome<T>) CANCELLED;
+    }
+
+    static <S, T> Outcome<T> of(GroupTask<S, T> task, S input) {
+      try {
+        return new Outcome<>(task.apply(input), null);
+      } catch (IOException | RuntimeException error) {
+        return new Outcome<>(null, error);
+      }
+    }
+
+    T valueOrThrow() throws IOException {
+      if (error instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (error != null) {
+        throw (RuntimeException) error;
+      }
+      return value;
+    }
+  }
+
+  private record WrittenSheet(LooseFrameSpriteSheetResult result, FrameCacheStats cacheStats) {
+  }
+
+  private record GroupPlan(List<SheetPlan> sheets, List<Path> excludedFrames, Map<String, Integer> detectedFrameSizes) {
+  }
+
+  private record SheetPlan(
+      String prefix,
+      String outputName,
+      Path outputPath,
+      int sheetIndex,
+      int totalSheets,
+      List<FrameCandidate> frames,
+      Layout layout,
+      int cellWidth,
+      int cellHeight
+  ) {
+    List<Path> framePaths() {
+      return frames.stream().map(FrameCandidate::path).toList();
+    }
+
+    LooseFrameSpriteSheetResult result(BuildStatus status, int patchedCells) {
+      return new LooseFrameSpriteSheetResult(
+          prefix,
+          outputName,
+          outputPath,
+          layout.columns(),
+          layout.rows(),
+          frames.size(),
+          cellWidth,
+          cellHeight,
+          sheetIndex,
+          totalSheets,
+          status,
+          patchedCells
+      );
+    }
+  }
+
   private record GroupingSelection(Map<String, PrefixGroup> groups, List<Path> unmatchedFrames) {
   }
 
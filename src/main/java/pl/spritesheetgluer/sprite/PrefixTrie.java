@@ -0,0 +1,87 @@
+package pl.spritesheetgluer.sprite;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Case-insensitive trie of configured frame-name prefixes. {@link #match} walks a name
+ * once and returns the longest prefix that ends on a boundary: the end of the name,
+ * whitespace, {@code _}, {@code -}, a digit, or an upper-case letter right after a
+ * lower-case last prefix character. Matching costs the length of the name, however many
+ * prefixes there are.
+ */
+public final class PrefixTrie {
+  private final Node root = new Node();
+
+  /**
+   * Prefixes equal ignoring case must not repeat; the first one is kept.
+   */
+  public PrefixTrie(List<String> prefixes) {
+    Objects.requireNonNull(prefixes, "prefixes");
+    for (String prefix : prefixes) {
+      if (prefix.isEmpty()) {
+        throw new IllegalArgumentException("Prefixes must not be empty.");
+      }
+      Node node = root;
+      for (int index = 0; index < prefix.length(); index++) {
+        node = node.children.computeIfAbsent(fold(prefix.charAt(index)), unused -> new Node());
+      }
+      if (node.prefix == null) {
+        node.prefix = prefix;
+      }
+    }
+  }
+
+  public boolean isEmpty() {
+    return root.children.isEmpty();
+  }
+
+  /**
+   * The longest prefix {@code name} starts with, ignoring case, that ends on a boundary,
+   * or {@code null} if there is none.
+   */
+  public String match(String name) {
+    String matched = null;
+    Node node = root;
+    for (int index = 0; index < name.length(); index++) {
+      node = node.children.get(fold(name.charAt(index)));
+      if (node == null) {
+        return matched;
+      }
+      if (node.prefix != null && endsOnBoundary(name, node.prefix)) {
+        matched = node.prefix;
+      }
+    }
+    return matched;
+  }
+
+  private static boolean endsOnBoundary(String name, String prefix) {
+    if (name.length() == prefix.length()) {
+      return true;
+    }
+    char nextCharacter = name.charAt(prefix.length());
+    if (Character.isWhitespace(nextCharacter) || nextCharacter == '_' || nextCharacter == '-') {
+      return true;
+    }
+    if (Character.isDigit(nextCharacter)) {
+      return true;
+    }
+    char lastPrefixCharacter = prefix.charAt(prefix.length() - 1);
+    return Character.isUpperCase(nextCharacter) && Character.isLowerCase(lastPrefixCharacter);
+  }
+
+  /**
+   * Folds case the way {@link String#regionMatches(boolean, int, String, int, int)} compares
+   * characters, so two characters fold alike exactly when it treats them as equal.
+   */
+  private static char fold(char character) {
+    return Character.toLowerCase(Character.toUpperCase(character));
+  }
+
+  private static final class Node {
+    private final Map<Character, Node> children = new HashMap<>();
+    private String prefix;
+  }
+}
@@ -0,0 +1,450 @@
+package pl.spritesheetgluer.sprite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Places sheets measured in whole cells on an atlas grid with a {@link SheetPacking}.
+ * {@link #pack} fills a bin of a given width; {@link #packBest} tries bin widths from the
+ * widest sheet up to the max and keeps the best atlas by {@link #isBetter}. Sheets are
+ * never rotated, since that would turn their frames. Instances are thread-safe.
+ */
+public final class SheetPacker {
+  /**
+   * A MaxRects pack costs far more than a shelf pack, so {@link #packBest} tries at most
+   * this many evenly spaced bin widths with it instead of every one.
+   */
+  static final int MAX_RECTS_CANDIDATE_WIDTHS = 64;
+  /**
+   * Shelf searches over fewer widths than this run as one task.
+   */
+  private static final int MIN_SHELF_WIDTHS_PER_TASK = 64;
+
+  private final SheetPacking packing;
+
+  public SheetPacker(SheetPacking packing) {
+    this.packing = Objects.requireNonNull(packing, "packing");
+  }
+
+  public SheetPacking packing() {
+    return packing;
+  }
+
+  /**
+   * Packs {@code sheets} into a bin {@code columns} cells wide and {@code maxRows} cells
+   * tall, or returns {@code null} when they do not all fit.
+   */
+  public Packing pack(List<Size> sheets, int columns, int maxRows) {
+    Objects.requireNonNull(sheets, "sheets");
+    return pack(sheets, placementOrder(sheets), columns, maxRows);
+  }
+
+  /**
+   * The best of the packs into bins from the widest sheet up to {@code maxColumns} cells
+   * wide, all at most {@code maxRows} tall, or {@code null} when none fits. Always the
+   * pack an exhaustive search over those widths picks, see {@link #searchShelves}.
+   */
+  public Packing packBest(List<Size> sheets, int maxColumns, int maxRows, int cellWidth, int cellHeight) {
+    Objects.requireNonNull(sheets, "sheets");
+    int minColumns = sheets.stream()
+        .mapToInt(Size::columns)
+        .max()
+        .orElse(0);
+    int sumColumns = sheets.stream()
+        .mapToInt(Size::columns)
+        .sum();
+    int maxCandidateColumns = Math.min(maxColumns, sumColumns);
+    if (maxCandidateColumns < minColumns) {
+      return null;
+    }
+    int[] order = placementOrder(sheets);
+    if (packing.heuristic() == SheetPacking.Heuristic.SHELF) {
+      return packBestShelves(sheets, order, minColumns, maxCandidateColumns, maxRows, cellWidth, cellHeight);
+    }
+
+    int[] widths = maxRectsCandidateWidths(minColumns, maxCandidateColumns);
+    Packing[] candidates = new Packing[widths.length];
+    IntStream.range(0, widths.length).parallel()
+        .forEach(index -> candidates[index] = packMaxRects(sheets, order, widths[index], maxRows));
+    // Reduced in width order, so of two equally good packs the narrower bin's wins.
+    Packing best = null;
+    for (Packing candidate : candidates) {
+      if (candidate != null && (best == null || isBetter(candidate, best, cellWidth, cellHeight))) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private Packing packBestShelves(
+      List<Size> sheets,
+      int[] order,
+      int minColumns,
+      int maxColumns,
+      int maxRows,
+      int cellWidth,
+      int cellHeight
+  ) {
+    ShelfBounds bounds = new ShelfBounds(
+        minColumns,
+        sheets.stream().mapToInt(Size::rows).max().orElse(0),
+        usedCells(sheets),
+        cellWidth,
+        cellHeight
+    );
+    AtomicReference<Packing> best = new AtomicReference<>();
+    int count = maxColumns - minColumns + 1;
+    int ranges = Math.max(1, Math.min(count / MIN_SHELF_WIDTHS_PER_TASK, ForkJoinPool.getCommonPoolParallelism() * 4));
+    IntStream.range(0, ranges).parallel().forEach(range -> searchShelves(
+        sheets,
+        order,
+        minColumns + (int) ((long) count * range / ranges),
+        minColumns + (int) ((long) count * (range + 1) / ranges),
+        maxRows,
+        bounds,
+        best
+    ));
+    return best.get();
+  }
+
+  /**
+   * Packs the distinct shelf layouts of bins {@code fromColumns} up to, but not including,
+   * {@code toColumns} wide, offering each to {@code best}. A shelf pack only changes at the
+   * width where the first sheet that started a new shelf fits on the one before, so the
+   * widths in between are skipped; a pack at such a width fills it exactly, so once that
+   * is wider than the best longest side no wider bin can win. Widths whose lower bounds on
+   * the atlas size already lose to the best pack so far are not packed at all. Distinct
+   * shelf packs never have the same size, so the best one is unique and the search finds
+   * it whatever order the ranges run in.
+   */
+  private static void searchShelves(
+      List<Size> sheets,
+      int[] order,
+      int fromColumns,
+      int toColumns,
+      int maxRows,
+      ShelfBounds bounds,
+      AtomicReference<Packing> best
+  ) {
+    boolean filled = false;
+    int columns = fromColumns;
+    while (columns < toColumns) {
+      Packing current = best.get();
+      if (current != null && bounds.loses(columns, filled, current)) {
+        if (filled && bounds.widthLoses(columns, current)) {
+          return;
+        }
+        columns++;
+        filled = false;
+        continue;
+      }
+      ShelfPack pack = packShelves(sheets, order, columns, maxRows);
+      if (pack.packing() != null) {
+        best.accumulateAndGet(pack.packing(), (previous, candidate) ->
+            previous == null || isBetter(candidate, previous, bounds.cellWidth(), bounds.cellHeight())
+                ? candidate
+                : previous);
+      }
+      if (pack.nextColumns() == Integer.MAX_VALUE) {
+        return;
+      }
+      columns = pack.nextColumns();
+      filled = true;
+    }
+  }
+
+  /**
+   * Whether {@code candidate} makes a better atlas than {@code currentBest}: a shorter
+   * longest side in pixels, then a smaller area, then closer to square, then narrower.
+   */
+  public static boolean isBetter(Packing candidate, Packing currentBest, int cellWidth, int cellHeight) {
+    int candidateWidth = candidate.columns() * cellWidth;
+    int candidateHeight = candidate.rows() * cellHeight;
+    int bestWidth = currentBest.columns() * cellWidth;
+    int bestHeight = currentBest.rows() * cellHeight;
+
+    int candidateLongestSide = Math.max(candidateWidth, candidateHeight);
+    int bestLongestSide = Math.max(bestWidth, bestHeight);
+    if (candidateLongestSide != bestLongestSide) {
+      return candidateLongestSide < bestLongestSide;
+    }
+
+    long candidateArea = (long) candidateWidth * candidateHeight;
+    long bestArea = (long) bestWidth * bestHeight;
+    if (candidateArea != bestArea) {
+      return candidateArea < bestArea;
+    }
+
+    int candidateAspectDelta = Math.abs(candidateWidth - candidateHeight);
+    int bestAspectDelta = Math.abs(bestWidth - bestHeight);
+    if (candidateAspectDelta != bestAspectDelta) {
+      return candidateAspectDelta < bestAspectDelta;
+    }
+
+    return candidateWidth < bestWidth;
+  }
+
+  private Packing pack(List<Size> sheets, int[] order, int columns, int maxRows) {
+    return packing.heuristic() == SheetPacking.Heuristic.SHELF
+        ? packShelves(sheets, order, columns, maxRows).packing()
+        : packMaxRects(sheets, order, columns, maxRows);
+  }
+
+  private static int[] maxRectsCandidateWidths(int minColumns, int maxColumns) {
+    int count = maxColumns - minColumns + 1;
+    if (count <= MAX_RECTS_CANDIDATE_WIDTHS) {
+      return IntStream.rangeClosed(minColumns, maxColumns).toArray();
+    }
+    return IntStream.range(0, MAX_RECTS_CANDIDATE_WIDTHS)
+        .map(step -> minColumns + (int) ((long) (count - 1) * step / (MAX_RECTS_CANDIDATE_WIDTHS - 1)))
+        .distinct()
+        .toArray();
+  }
+
+  private int[] placementOrder(List<Size> sheets) {
+    Comparator<Integer> comparator = switch (packing.order()) {
+      case SOURCE -> null;
+      case HEIGHT -> Comparator.<Integer>comparingInt(index -> sheets.get(index).rows())
+          .thenComparingInt(index -> sheets.get(index).columns())
+          .reversed();
+      case AREA -> Comparator.<Integer>comparingLong(index -> sheets.get(index).cells())
+          .thenComparingInt(index -> sheets.get(index).rows())
+          .reversed();
+    };
+    if (comparator == null) {
+      return IntStream.range(0, sheets.size()).toArray();
+    }
+    // List.sort is stable, so ties keep their source order.
+    List<Integer> order = new ArrayList<>(IntStream.range(0, sheets.size()).boxed().toList());
+    order.sort(comparator);
+    return order.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Packs shelves into a bin {@code maxColumns} wide and returns the pack, {@code null}
+   * when it does not fit, with the narrowest wider bin that would break a shelf elsewhere.
+   */
+  private static ShelfPack packShelves(List<Size> sheets, int[] order, int maxColumns, int maxRows) {
+    Position[] positions = new Position[sheets.size()];
+    int currentColumn = 0;
+    int currentRow = 0;
+    int shelfHeight = 0;
+    int usedColumns = 0;
+    int nextColumns = Integer.MAX_VALUE;
+    for (int index : order) {
+      Size sheet = sheets.get(index);
+      if (currentColumn > 0 && currentColumn + sheet.columns() > maxColumns) {
+        nextColumns = Math.min(nextColumns, currentColumn + sheet.columns());
+        currentRow += shelfHeight;
+        currentColumn = 0;
+        shelfHeight = 0;
+      }
+      if (currentRow + sheet.rows() > maxRows) {
+        return new ShelfPack(null, nextColumns);
+      }
+
+      positions[index] = new Position(currentColumn, currentRow);
+      currentColumn += sheet.columns();
+      shelfHeight = Math.max(shelfHeight, sheet.rows());
+      usedColumns = Math.max(usedColumns, currentColumn);
+    }
+
+    int usedRows = currentRow + shelfHeight;
+    if (usedRows > maxRows) {
+      return new ShelfPack(null, nextColumns);
+    }
+    return new ShelfPack(new Packing(Arrays.asList(positions), usedColumns, usedRows, usedCells(sheets)), nextColumns);
+  }
+
+  /**
+   * MaxRects: keeps every maximal free rectangle of the bin, places each sheet in the one
+   * the heuristic scores best, then splits the free rectangles it overlaps and drops the
+   * ones contained in others.
+   */
+  private Packing packMaxRects(List<Size> sheets, int[] order, int columns, int maxRows) {
+    if (columns <= 0 || maxRows <= 0) {
+      return sheets.isEmpty() ? new Packing(List.of(), 0, 0, 0) : null;
+    }
+    Position[] positions = new Position[sheets.size()];
+    List<Rect> free = new ArrayList<>();
+    free.add(new Rect(0, 0, columns, maxRows));
+    int usedColumns = 0;
+    int usedRows = 0;
+    for (int index : order) {
+      Size sheet = sheets.get(index);
+      Rect best = null;
+      long bestScore = Long.MAX_VALUE;
+      long bestTieBreak = Long.MAX_VALUE;
+      for (Rect rect : free) {
+        if (sheet.columns() > rect.width() || sheet.rows() > rect.height()) {
+          continue;
+        }
+        int leftoverWidth = rect.width() - sheet.columns();
+        int leftoverHeight = rect.height() - sheet.rows();
+        long score;
+        long tieBreak;
+        switch (packing.heuristic()) {
+          case BEST_SHORT_SIDE_FIT -> {
+            score = Math.min(leftoverWidth, leftoverHeight);
+            tieBreak = Math.max(leftoverWidth, leftoverHeight);
+          }
+          case BEST_AREA_FIT -> {
+            score = (long) rect.width() * rect.height() - sheet.cells();
+            tieBreak = Math.min(leftoverWidth, leftoverHeight);
+          }
+          default -> {
+            score = rect.row() + sheet.rows();
+            tieBreak = rect.column();
+          }
+        }
+        if (score < bestScore || score == bestScore && tieBreak < bestTieBreak) {
+          best = rect;
+          bestScore = score;
+          bestTieBreak = tieBreak;
+        }
+      }
+      if (best == null) {
+        return null;
+      }
+
+      Rect placed = new Rect(best.column(), best.row(), sheet.columns(), sheet.rows());
+      positions[index] = new Position(placed.column(), placed.row());
+      usedColumns = Math.max(usedColumns, placed.right());
+      usedRows = Math.max(usedRows, placed.bottom());
+      free = splitFreeRects(free, placed);
+    }
+    return new Packing(Arrays.asList(positions), usedColumns, usedRows, usedCells(sheets));
+  }
+
+  private static List<Rect> splitFreeRects(List<Rect> free, Rect placed) {
+    List<Rect> split = new ArrayList<>(free.size() + 4);
+    for (Rect rect : free) {
+      if (!rect.intersects(placed)) {
+        split.add(rect);
+        continue;
+      }
+      if (placed.column() > rect.column()) {
+        split.add(new Rect(rect.column(), rect.row(), placed.column() - rect.column(), rect.height()));
+      }
+      if (placed.right() < rect.right()) {
+        split.add(new Rect(placed.right(), rect.row(), rect.right() - placed.right(), rect.height()));
+      }
+      if (placed.row() > rect.row()) {
+        split.add(new Rect(rect.column(), rect.row(), rect.width(), placed.row() - rect.row()));
+      }
+      if (placed.bottom() < rect.bottom()) {
+        split.add(new Rect(rect.column(), placed.bottom(), rect.width(), rect.bottom() - placed.bottom()));
+      }
+    }
+
+    List<Rect> maximal = new ArrayList<>(split.size());
+    for (int index = 0; index < split.size(); index++) {
+      Rect rect = split.get(index);
+      boolean contained = false;
+      for (int other = 0; other < split.size() && !contained; other++) {
+        // Of two equal rectangles only the first is kept.
+        contained = other != index && split.get(other).contains(rect)
+            && (!rect.contains(split.get(other)) || other < index);
+      }
+      if (!contained) {
+        maximal.add(rect);
+      }
+    }
+    return maximal;
+  }
+
+  private static int usedCells(List<Size> sheets) {
+    return sheets.stream().mapToInt(Size::cells).sum();
+  }
+
+  /**
+   * A sheet's size in cells.
+   */
+  public record Size(int columns, int rows) {
+    public Size {
+      if (columns <= 0 || rows <= 0) {
+        throw new IllegalArgumentException("Sheet size must be positive: " + columns + "x" + rows);
+      }
+    }
+
+    public int cells() {
+      return columns * rows;
+    }
+  }
+
+  /**
+   * Where a sheet's top-left cell lands on the atlas grid.
+   */
+  public record Position(int column, int row) {
+  }
+
+  /**
+   * Sheet positions in the order of the packed sheets, the atlas size in cells, and how
+   * many of its cells the sheets cover.
+   */
+  public record Packing(List<Position> positions, int columns, int rows, int usedCells) {
+    public Packing {
+      positions = List.copyOf(positions);
+    }
+
+    /**
+     * The share of the atlas's cells that hold frames.
+     */
+    public double fillRatio() {
+      long cells = (long) columns * rows;
+      return cells == 0 ? 0 : (double) usedCells / cells;
+    }
+  }
+
+  private record ShelfPack(Packing packing, int nextColumns) {
+  }
+
+  /**
+   * Lower bounds on the atlas a shelf pack into a bin {@code columns} wide makes: it is at
+   * least as tall as the tallest sheet and as the used cells spread over the bin's width,
+   * and at least as wide as the widest sheet, or exactly as wide as the bin when the bin
+   * is known to be filled.
+   */
+  private record ShelfBounds(int minColumns, int tallestRows, long usedCells, int cellWidth, int cellHeight) {
+    boolean loses(int columns, boolean filled, Packing best) {
+      long width = (long) (filled ? columns : minColumns) * cellWidth;
+      long height = Math.max(tallestRows, (usedCells + columns - 1) / columns) * cellHeight;
+      long longestSide = Math.max(width, height);
+      long bestWidth = (long) best.columns() * cellWidth;
+      long bestHeight = (long) best.rows() * cellHeight;
+      long bestLongestSide = Math.max(bestWidth, bestHeight);
+      return longestSide > bestLongestSide
+          || longestSide == bestLongestSide && width * height > bestWidth * bestHeight;
+    }
+
+    boolean widthLoses(int columns, Packing best) {
+      return (long) columns * cellWidth > Math.max((long) best.columns() * cellWidth, (long) best.rows() * cellHeight);
+    }
+  }
+
+  private record Rect(int column, int row, int width, int height) {
+    int right() {
+      return column + width;
+    }
+
+    int bottom() {
+      return row + height;
+    }
+
+    boolean intersects(Rect other) {
+      return column < other.right() && other.column() < right()
+          && row < other.bottom() && other.row() < bottom();
+    }
+
+    boolean contains(Rect other) {
+      return column <= other.column() && row <= other.row()
+          && other.right() <= right() && other.bottom() <= bottom();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package pl.spritesheetgluer.sprite;
+
+import java.util.Objects;
+
+/**
+ * How {@link ExistingSpriteSheetService} places source sheets on the atlas's cell grid:
+ * which {@link Heuristic} picks each sheet's position, and in which {@link Order} the sheets
+ * are placed. Whatever the order, the mapping file lists the sheets in source order.
+ */
+public record SheetPacking(Heuristic heuristic, Order order) {
+  public SheetPacking {
+    Objects.requireNonNull(heuristic, "heuristic");
+    Objects.requireNonNull(order, "order");
+  }
+
+  /**
+   * Shelves in file-name order, as merges have always been packed.
+   */
+  public static SheetPacking shelf() {
+    return new SheetPacking(Heuristic.SHELF, Order.SOURCE);
+  }
+
+  public static SheetPacking maxRects(Heuristic heuristic, Order order) {
+    if (heuristic == Heuristic.SHELF) {
+      throw new IllegalArgumentException("SHELF is not a MaxRects heuristic");
+    }
+    return new SheetPacking(heuristic, order);
+  }
+
+  @Override
+  public String toString() {
+    return heuristic + "/" + order;
+  }
+
+  public enum Heuristic {
+    /**
+     * Left to right in rows as tall as their tallest sheet, starting a new row when the
+     * next sheet does not fit.
+     */
+    SHELF,
+    /**
+     * MaxRects: the free rectangle whose shorter leftover side is smallest.
+     */
+    BEST_SHORT_SIDE_FIT,
+    /**
+     * MaxRects: the smallest free rectangle the sheet fits in.
+     */
+    BEST_AREA_FIT,
+    /**
+     * MaxRects: the position whose bottom edge is highest up, then leftmost.
+     */
+    BOTTOM_LEFT
+  }
+
+  public enum Order {
+    /**
+     * File-name order.
+     */
+    SOURCE,
+    /**
+     * Tallest first, then widest; sheets that tie keep their file-name order.
+     */
+    HEIGHT,
+    /**
+     * Largest area first, then tallest; sheets that tie keep their file-name order.
+     */
+    AREA
+  }
+}
@@ -0,0 +1,63 @@
+package pl.spritesheetgluer.sprite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The sheets of every character that could be built, in scan order, and the characters
+ * that failed, also in scan order. One character failing does not stop the others.
+ * {@code stages} tells how busy each build stage was.
+ */
+public record SpriteSheetBatchResult(
+    List<SpriteSheetResult> sheets,
+    List<CharacterFailure> failures,
+    List<StageUtilization> stages
+) {
+  public SpriteSheetBatchResult {
+    Objects.requireNonNull(sheets, "sheets");
+    Objects.requireNonNull(failures, "failures");
+    Objects.requireNonNull(stages, "stages");
+    sheets = List.copyOf(sheets);
+    failures = List.copyOf(failures);
+    stages = List.copyOf(stages);
+  }
+
+  public SpriteSheetBatchResult(List<SpriteSheetResult> sheets, List<CharacterFailure> failures) {
+    this(sheets, failures, List.of());
+  }
+
+  /**
+   * Returns the sheets, or rethrows the first failure with the others attached as
+   * suppressed exceptions.
+   */
+  public List<SpriteSheetResult> sheetsOrThrow() throws IOException {
+    if (failures.isEmpty()) {
+      return sheets;
+    }
+    Exception first = failures.get(0).error();
+    for (CharacterFailure failure : failures.subList(1, failures.size())) {
+      first.addSuppressed(failure.error());
+    }
+    if (first instanceof IOException ioException) {
+      throw ioException;
+    }
+    throw (RuntimeException) first;
+  }
+
+  /**
+   * A character whose sheet could not be built. {@code error} is an {@link IOException} or
+   * a {@link RuntimeException}.
+   */
+  public record CharacterFailure(String characterName, Path root, Exception error) {
+    public CharacterFailure {
+      Objects.requireNonNull(characterName, "characterName");
+      Objects.requireNonNull(root, "root");
+      Objects.requireNonNull(error, "error");
+      if (!(error instanceof IOException) && !(error instanceof RuntimeException)) {
+        throw new IllegalArgumentException("error must be an IOException or a RuntimeException: " + error);
+      }
+    }
+  }
+}
@@ -2,10 +2,14 @@ package pl.spritesheetgluer.sprite;
 
 import pl.spritesheetgluer.definition.CharacterDefinition;
 import pl.spritesheetgluer.definition.DirectionDefinition;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.DecodedFrameCache;
+import pl.spritesheetgluer.image.FrameCacheStats;
+import pl.spritesheetgluer.image.FrameDimensionIndex;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.ImageMemory;
+import pl.spritesheetgluer.image.ImageSize;
 
-import java.awt.AlphaComposite;
-import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -13,15 +17,95 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import javax.imageio.ImageIO;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SpriteSheetComposer {
+  /**
+   * Decode window that keeps every frame of a character decoded until it is drawn,
+   * matching the original buffered behaviour.
+   */
+  public static final int UNBOUNDED_DECODE_WINDOW = Integer.MAX_VALUE;
+  private static final int DECODE_WINDOW_PER_THREAD = 2;
+
+  private final FrameDecodingEngine decodingEngine;
+  private final FrameDimensionIndex dimensions = new FrameDimensionIndex();
+  private final int decodeWindow;
+  private final FrameIngest ingest;
+  private final AtlasRenderOptions renderOptions;
+
+  public SpriteSheetComposer() {
+    this(FrameDecodingEngine.defaultEngine());
+  }
+
+  /**
+   * Uses {@code decodingEngine} to decode frames; pass {@link FrameDecodingEngine#serial()}
+   * to keep the one-frame-at-a-time path.
+   */
+  public SpriteSheetComposer(FrameDecodingEngine decodingEngine) {
+    this(decodingEngine, decodingEngine.parallelism() * DECODE_WINDOW_PER_THREAD);
+  }
+
+  /**
+   * Frames are decoded, drawn into their cell and dropped right away; at most
+   * {@code decodeWindow} decoded frames are held at once.
+   */
+  public SpriteSheetComposer(FrameDecodingEngine decodingEngine, int decodeWindow) {
+    this(decodingEngine, decodeWindow, new FrameIngest());
+  }
+
+  /**
+   * Reads frames through {@code ingest}, e.g. one that shares a {@link DecodedFrameCache}
+   * with the other workflows.
+   */
+  public SpriteSheetComposer(FrameIngest ingest) {
+    this(FrameDecodingEngine.defaultEngine(), ingest);
+  }
+
+  private SpriteSheetComposer(FrameDecodingEngine decodingEngine, FrameIngest ingest) {
+    this(decodingEngine, decodingEngine.parallelism() * DECODE_WINDOW_PER_THREAD, ingest);
+  }
+
+  public SpriteSheetComposer(FrameDecodingEngine decodingEngine, int decodeWindow, FrameIngest ingest) {
+    this(decodingEngine, decodeWindow, ingest, AtlasRenderOptions.defaults());
+  }
+
+  /**
+   * Composes on surfaces chosen by {@code renderOptions}, so large sheets can live in
+   * tiles or off the heap.
+   */
+  public SpriteSheetComposer(
+      FrameDecodingEngine decodingEngine,
+      int decodeWindow,
+      FrameIngest ingest,
+      AtlasRenderOptions renderOptions
+  ) {
+    this.decodingEngine = Objects.requireNonNull(decodingEngine, "decodingEngine");
+    if (decodeWindow <= 0) {
+      throw new IllegalArgumentException("decodeWindow must be positive: " + decodeWindow);
+    }
+    this.decodeWindow = decodeWindow;
+    this.ingest = Objects.requireNonNull(ingest, "ingest");
+    this.renderOptions = Objects.requireNonNull(renderOptions, "renderOptions");
+  }
+
   /**
    * Composes a sprite sheet without scaling; each frame is placed in a fixed-size cell.
-   * Frames that do not match the most common size are skipped.
+   * Frame sizes come from the folders' {@link FrameDimensionIndex}, and frames that do not
+   * match the most common size are skipped without being decoded.
    * Rows follow the scan order of directions, and columns follow file name order.
+   * The caller owns the returned render's surface and must close it.
    */
   public SpriteSheetComposition compose(CharacterDefinition character) throws IOException {
+    return compose(layout(character));
+  }
+
+  /**
+   * Places the frames of {@code character} in cells as {@link #compose(CharacterDefinition)}
+   * does, reading only the frame sizes.
+   */
+  SpriteSheetLayout layout(CharacterDefinition character) throws IOException {
     List<DirectionDefinition> directions = character.animations().stream()
         .flatMap(animation -> animation.directions().stream())
         .toList();
@@ -30,15 +114,21 @@ public class SpriteSheetComposer {
       throw new IllegalStateException("No directions found for: " + character.name());
     }
 
+    List<Path> framePaths = directions.stream()
+        .flatMap(direction -> direction.frames().stream())
+        .toList();
+    List<ImageSize> frameSizes = dimensions.sizes(framePaths);
+
     Map<SizeKey, Integer> sizeCounts = new LinkedHashMap<>();
     Map<DirectionDefinition, List<FrameCandidate>> candidatesByDirection = new LinkedHashMap<>();
+    int frameIndex = 0;
     for (DirectionDefinition direction : directions) {
       List<FrameCandidate> candidates = new ArrayList<>();
       for (Path path : direction.frames()) {
-        BufferedImage frame = readImage(path);
-        SizeKey size = new SizeKey(frame.getWidth(), frame.getHeight());
+        ImageSize frameSize = frameSizes.get(frameIndex++);
+        SizeKey size = new SizeKey(frameSize.width(), frameSize.height());
         sizeCounts.merge(size, 1, Integer::sum);
-        candidates.add(new FrameCandidate(path, frame, size));
+        candidates.add(new FrameCandidate(path, size));
       }
       candidatesByDirection.put(direction, candidates);
     }
@@ -49,27 +139,21 @@ public class SpriteSheetComposer {
     }
 
     int maxFrames = 0;
-    int cellWidth = targetSize.width();
-    int cellHeight = targetSize.height();
-    List<List<BufferedImage>> directionFrames = new ArrayList<>();
     List<DirectionDefinition> filteredDirections = new ArrayList<>();
     List<Path> excludedFrames = new ArrayList<>();
     for (Map.Entry<DirectionDefinition, List<FrameCandidate>> entry : candidatesByDirection.entrySet()) {
-      List<BufferedImage> frames = new ArrayList<>();
       List<Path> includedPaths = new ArrayList<>();
       for (FrameCandidate candidate : entry.getValue()) {
         if (candidate.size().equals(targetSize)) {
-          frames.add(candidate.image());
           includedPaths.add(candidate.path());
         } else {
           excludedFrames.add(candidate.path());
         }
       }
-      if (!frames.isEmpty()) {
+      if (!includedPaths.isEmpty()) {
         DirectionDefinition direction = entry.getKey();
         filteredDirections.add(new DirectionDefinition(direction.name(), direction.root(), includedPaths));
-        directionFrames.add(frames);
-        maxFrames = Math.max(maxFrames, frames.size());
+        maxFrames = Math.max(maxFrames, includedPaths.size());
       }
     }
 
@@ -82,45 +166,105 @@ public class SpriteSheetComposer {
 
     int rows = filteredDirections.size();
     int columns = maxFrames;
-    int width = columns * cellWidth;
-    int height = rows * cellHeight;
+    int width = columns * targetSize.width();
+    int height = rows * targetSize.height();
 
     if (width <= 0 || height <= 0) {
       throw new IllegalStateException("Invalid sprite sheet size for: " + character.name());
     }
+    return new SpriteSheetLayout(
+        character.name(),
+        filteredDirections,
+        excludedFrames,
+        columns,
+        rows,
+        targetSize.width(),
+        targetSize.height()
+    );
+  }
 
-    BufferedImage sheet = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    Graphics2D graphics = sheet.createGraphics();
-    try {
-      graphics.setComposite(AlphaComposite.Src);
-      graphics.setColor(new Color(0, 0, 0, 0));
-      graphics.fillRect(0, 0, width, height);
-      graphics.setComposite(AlphaComposite.SrcOver);
-
-      int row = 0;
-      int frameCount = 0;
-      for (List<BufferedImage> frames : directionFrames) {
-        for (int col = 0; col < frames.size(); col++) {
-          BufferedImage frame = frames.get(col);
-          graphics.drawImage(frame, col * cellWidth, row * cellHeight, null);
-          frameCount++;
+  /**
+   * Decodes and draws every frame of {@code layout}.
+   */
+  SpriteSheetComposition compose(SpriteSheetLayout layout) throws IOException {
+    return render(layout, null, Set.of());
+  }
+
+  /**
+   * Composes {@code layout} from {@code previousAtlas}, the sheet written for the same
+   * layout before, decoding only the frames in {@code changedFrames}; the other cells are
+   * copied from the previous sheet.
+   */
+  SpriteSheetComposition patch(SpriteSheetLayout layout, Path previousAtlas, Set<Path> changedFrames)
+      throws IOException {
+    Objects.requireNonNull(previousAtlas, "previousAtlas");
+    return render(layout, previousAtlas, changedFrames);
+  }
+
+  private SpriteSheetComposition render(SpriteSheetLayout layout, Path previousAtlas, Set<Path> changedFrames)
+      throws IOException {
+    int columns = layout.columns();
+    int rows = layout.rows();
+    int cellWidth = layout.cellWidth();
+    int cellHeight = layout.cellHeight();
+    List<DirectionDefinition> directions = layout.directions();
+
+    List<CellFrame> cellFrames = new ArrayList<>();
+    List<CellFrame> drawnFrames = new ArrayList<>();
+    boolean[] changedCells = new boolean[columns * rows];
+    for (int row = 0; row < directions.size(); row++) {
+      List<Path> frames = directions.get(row).frames();
+      for (int col = 0; col < frames.size(); col++) {
+        CellFrame cellFrame = new CellFrame(drawnFrames.size(), frames.get(col), col, row);
+        cellFrames.add(cellFrame);
+        if (previousAtlas == null || changedFrames.contains(frames.get(col).toAbsolutePath().normalize())) {
+          changedCells[row * columns + col] = true;
+          drawnFrames.add(cellFrame);
         }
-        row++;
       }
-
-      SpriteSheetRender render = new SpriteSheetRender(sheet, columns, rows, frameCount, cellWidth, cellHeight);
-      return new SpriteSheetComposition(render, filteredDirections, excludedFrames);
-    } finally {
-      graphics.dispose();
     }
-  }
 
-  private BufferedImage readImage(Path path) throws IOException {
-    BufferedImage image = ImageIO.read(path.toFile());
-    if (image == null) {
-      throw new IOException("Unsupported image format: " + path);
+    AtlasSurface sheet = renderOptions.newSurface(columns * cellWidth, rows * cellHeight);
+    AtomicLong inFlightBytes = new AtomicLong();
+    AtomicLong peakInFlightBytes = new AtomicLong();
+    FrameCacheStats cacheStats;
+    try {
+      if (previousAtlas != null) {
+        new AtlasPatcher(columns, rows, cellWidth, cellHeight, changedCells).restore(previousAtlas, sheet);
+      }
+      try (FrameIngest.Batch batch = ingest.open(drawnFrames.stream().map(CellFrame::path).toList())) {
+        decodingEngine.stream(
+            drawnFrames,
+            decodeWindow,
+            cellFrame -> {
+              BufferedImage frame = batch.read(cellFrame.index());
+              long bytes = ImageMemory.pixelBytes(frame);
+              peakInFlightBytes.accumulateAndGet(inFlightBytes.addAndGet(bytes), Math::max);
+              return new DecodedCellFrame(cellFrame, frame, bytes);
+            },
+            decoded -> {
+              CellFrame cellFrame = decoded.cellFrame();
+              sheet.draw(decoded.image(), cellFrame.column() * cellWidth, cellFrame.row() * cellHeight);
+              inFlightBytes.addAndGet(-decoded.bytes());
+            }
+        );
+        cacheStats = batch.cacheStats();
+      }
+    } catch (IOException | RuntimeException | Error error) {
+      sheet.close();
+      throw error;
     }
-    return image;
+
+    long peakPixelBytes = sheet.pixelBytes() + peakInFlightBytes.get();
+    SpriteSheetRender render = new SpriteSheetRender(sheet, columns, rows, cellFrames.size(), cellWidth, cellHeight);
+    return new SpriteSheetComposition(
+        render,
+        directions,
+        layout.excludedFrames(),
+        peakPixelBytes,
+        cacheStats,
+        drawnFrames.size()
+    );
   }
 
   private SizeKey selectTargetSize(Map<SizeKey, Integer> sizeCounts) {
@@ -139,6 +283,12 @@ public class SpriteSheetComposer {
   private record SizeKey(int width, int height) {
   }
 
-  private record FrameCandidate(Path path, BufferedImage image, SizeKey size) {
+  private record FrameCandidate(Path path, SizeKey size) {
+  }
+
+  private record CellFrame(int index, Path path, int column, int row) {
+  }
+
+  private record DecodedCellFrame(CellFrame cellFrame, BufferedImage image, long bytes) {
   }
 }
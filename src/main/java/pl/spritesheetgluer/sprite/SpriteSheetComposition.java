@@ -1,6 +1,7 @@
 package pl.spritesheetgluer.sprite;
 
 import pl.spritesheetgluer.definition.DirectionDefinition;
+import pl.spritesheetgluer.image.FrameCacheStats;
 
 import java.nio.file.Path;
 import java.util.List;
@@ -9,13 +10,23 @@ import java.util.Objects;
 public record SpriteSheetComposition(
     SpriteSheetRender render,
     List<DirectionDefinition> directions,
-    List<Path> excludedFrames
+    List<Path> excludedFrames,
+    long peakPixelBytes,
+    FrameCacheStats cacheStats,
+    int decodedFrames
 ) {
   public SpriteSheetComposition {
     Objects.requireNonNull(render, "render");
     Objects.requireNonNull(directions, "directions");
     Objects.requireNonNull(excludedFrames, "excludedFrames");
+    Objects.requireNonNull(cacheStats, "cacheStats");
     directions = List.copyOf(directions);
     excludedFrames = List.copyOf(excludedFrames);
+    if (peakPixelBytes < 0) {
+      throw new IllegalArgumentException("peakPixelBytes must not be negative: " + peakPixelBytes);
+    }
+    if (decodedFrames < 0) {
+      throw new IllegalArgumentException("decodedFrames must not be negative: " + decodedFrames);
+    }
   }
 }
@@ -0,0 +1,41 @@
+package pl.spritesheetgluer.sprite;
+
+import pl.spritesheetgluer.definition.DirectionDefinition;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Where each frame of a character goes: one row per direction that kept any frames, one
+ * column per frame, in cells of the most common frame size.
+ */
+record SpriteSheetLayout(
+    String characterName,
+    List<DirectionDefinition> directions,
+    List<Path> excludedFrames,
+    int columns,
+    int rows,
+    int cellWidth,
+    int cellHeight
+) {
+  SpriteSheetLayout {
+    Objects.requireNonNull(characterName, "characterName");
+    Objects.requireNonNull(directions, "directions");
+    Objects.requireNonNull(excludedFrames, "excludedFrames");
+    directions = List.copyOf(directions);
+    excludedFrames = List.copyOf(excludedFrames);
+  }
+
+  /**
+   * The frames of all rows, in row order.
+   */
+  List<Path> frames() {
+    List<Path> frames = new ArrayList<>();
+    for (DirectionDefinition direction : directions) {
+      frames.addAll(direction.frames());
+    }
+    return frames;
+  }
+}
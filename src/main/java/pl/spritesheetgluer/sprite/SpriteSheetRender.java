@@ -1,10 +1,12 @@
 package pl.spritesheetgluer.sprite;
 
+import pl.spritesheetgluer.image.AtlasSurface;
+
 import java.awt.image.BufferedImage;
 import java.util.Objects;
 
 public record SpriteSheetRender(
-    BufferedImage image,
+    AtlasSurface surface,
     int columns,
     int rows,
     int frameCount,
@@ -12,7 +14,7 @@ public record SpriteSheetRender(
     int cellHeight
 ) {
   public SpriteSheetRender {
-    Objects.requireNonNull(image, "image");
+    Objects.requireNonNull(surface, "surface");
     if (cellWidth <= 0) {
       throw new IllegalArgumentException("cellWidth must be positive: " + cellWidth);
     }
@@ -20,4 +22,11 @@ public record SpriteSheetRender(
       throw new IllegalArgumentException("cellHeight must be positive: " + cellHeight);
     }
   }
+
+  /**
+   * The composed sheet as one image; copies the pixels unless the surface is heap-backed.
+   */
+  public BufferedImage image() {
+    return surface.toImage();
+  }
 }
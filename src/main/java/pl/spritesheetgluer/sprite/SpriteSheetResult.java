@@ -1,5 +1,7 @@
 package pl.spritesheetgluer.sprite;
 
+import pl.spritesheetgluer.image.FrameCacheStats;
+
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
@@ -13,13 +15,18 @@ public record SpriteSheetResult(
     int frameCount,
     int cellWidth,
     int cellHeight,
-    List<Path> excludedFrames
+    List<Path> excludedFrames,
+    BuildStatus status,
+    FrameCacheStats cacheStats,
+    int patchedCells
 ) {
   public SpriteSheetResult {
     Objects.requireNonNull(characterName, "characterName");
     Objects.requireNonNull(outputPath, "outputPath");
     Objects.requireNonNull(mappingPath, "mappingPath");
     Objects.requireNonNull(excludedFrames, "excludedFrames");
+    Objects.requireNonNull(status, "status");
+    Objects.requireNonNull(cacheStats, "cacheStats");
     excludedFrames = List.copyOf(excludedFrames);
     if (cellWidth <= 0) {
       throw new IllegalArgumentException("cellWidth must be positive: " + cellWidth);
@@ -27,5 +34,8 @@ public record SpriteSheetResult(
     if (cellHeight <= 0) {
       throw new IllegalArgumentException("cellHeight must be positive: " + cellHeight);
     }
+    if (patchedCells < 0) {
+      throw new IllegalArgumentException("patchedCells must not be negative: " + patchedCells);
+    }
   }
 }
@@ -5,15 +5,17 @@ import pl.spritesheetgluer.definition.CharacterDefinition;
 import pl.spritesheetgluer.definition.DirectionDefinition;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.stream.Stream;
 
 public class SpriteSheetScanner {
   private static final Set<String> SUPPORTED_EXTENSIONS = Set.of("png", "jpg", "jpeg");
-  private static final Comparator<Path> NAME_COMPARATOR =
-      Comparator.comparing(path -> path.getFileName().toString().toLowerCase(Locale.ROOT));
+  /**
+   * Character folders, their animation folders and the animations' direction folders lie
+   * at most three levels below the root, so their frames are at most four levels deep.
+   */
+  private static final int MAX_DEPTH = 4;
 
   public List<CharacterDefinition> scan(Path root) throws IOException {
     if (root == null) {
@@ -23,22 +25,17 @@ public class SpriteSheetScanner {
       throw new IllegalArgumentException("Root path must be a directory: " + root);
     }
 
-    List<Path> rootDirectories = listSortedDirectories(root);
-    if (rootDirectories.isEmpty()) {
-      List<Path> rootFrames = listSortedFiles(root).stream()
-          .filter(this::isImageFile)
-          .toList();
-      if (!rootFrames.isEmpty()) {
-        return List.of(scanFlatRoot(root, rootFrames));
-      }
+    Folder tree = readTree(root);
+    if (tree.directories().isEmpty() && !tree.frames().isEmpty()) {
+      return List.of(scanFlatRoot(root, tree.frames()));
     }
 
-    if (isCharacterRoot(root)) {
-      return List.of(scanCharacter(root));
+    if (isCharacterRoot(tree)) {
+      return List.of(scanCharacter(tree));
     }
 
     List<CharacterDefinition> characters = new ArrayList<>();
-    for (Path candidate : rootDirectories) {
+    for (Folder candidate : tree.directories()) {
       if (isCharacterRoot(candidate)) {
         characters.add(scanCharacter(candidate));
       }
@@ -46,63 +43,104 @@ public class SpriteSheetScanner {
     return characters;
   }
 
+  /**
+   * Reads every folder and frame file down to {@link #MAX_DEPTH} in a single walk, using
+   * the attributes the walk already has instead of asking for them again, and sorts each
+   * folder's entries by their lower-cased names once.
+   */
+  private Folder readTree(Path root) throws IOException {
+    Deque<Folder> open = new ArrayDeque<>();
+    Folder[] top = new Folder[1];
+    Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), MAX_DEPTH, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+        Folder folder = new Folder(directory);
+        if (open.isEmpty()) {
+          top[0] = folder;
+        } else {
+          open.peek().directories().add(folder);
+        }
+        open.push(folder);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        // Folders at the depth limit arrive here too; they cannot hold frames we use.
+        if (attributes.isRegularFile() && isImageFile(file)) {
+          open.peek().frames().add(new Named(file));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException error) throws IOException {
+        if (error instanceof FileSystemLoopException) {
+          return FileVisitResult.CONTINUE;
+        }
+        throw error;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path directory, IOException error) throws IOException {
+        if (error != null) {
+          throw error;
+        }
+        open.pop().sort();
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return top[0];
+  }
+
   /**
    * Scans a single character root. Animations may store frames directly or
    * in nested direction subfolders.
    */
-  private CharacterDefinition scanCharacter(Path root) throws IOException {
+  private CharacterDefinition scanCharacter(Folder root) {
     List<AnimationDefinition> animations = new ArrayList<>();
-    for (Path animationDir : listSortedDirectories(root)) {
+    for (Folder animationDir : root.directories()) {
       List<DirectionDefinition> directions = new ArrayList<>();
       processFrames(animationDir, directions);
-      for (Path directionDir : listSortedDirectories(animationDir)) {
+      for (Folder directionDir : animationDir.directories()) {
         processFrames(directionDir, directions);
       }
       if (!directions.isEmpty()) {
-        animations.add(new AnimationDefinition(animationDir.getFileName().toString(), animationDir, directions));
+        animations.add(new AnimationDefinition(animationDir.name(), animationDir.path(), directions));
       }
     }
 
     if (animations.isEmpty()) {
-      throw new IllegalStateException("No animation frames found under: " + root);
+      throw new IllegalStateException("No animation frames found under: " + root.path());
     }
 
-    return new CharacterDefinition(root.getFileName().toString(), root, animations);
+    return new CharacterDefinition(root.name(), root.path(), animations);
   }
 
-  private CharacterDefinition scanFlatRoot(Path root, List<Path> frames) {
+  private CharacterDefinition scanFlatRoot(Path root, List<Named> frames) {
     String name = root.getFileName().toString();
-    DirectionDefinition direction = new DirectionDefinition(name, root, frames);
+    DirectionDefinition direction = new DirectionDefinition(name, root, paths(frames));
     AnimationDefinition animation = new AnimationDefinition(name, root, List.of(direction));
     return new CharacterDefinition(name, root, List.of(animation));
   }
 
-  private void processFrames(Path animationDir, List<DirectionDefinition> directions) throws IOException {
-    List<Path> directFrames = new ArrayList<>();
-    for (Path file : listSortedFiles(animationDir)) {
-      if (isImageFile(file)) {
-        directFrames.add(file);
-      }
-    }
-    if (!directFrames.isEmpty()) {
+  private void processFrames(Folder animationDir, List<DirectionDefinition> directions) {
+    if (!animationDir.frames().isEmpty()) {
       directions.add(new DirectionDefinition(
-          animationDir.getFileName().toString(),
-          animationDir,
-          directFrames
+          animationDir.name(),
+          animationDir.path(),
+          paths(animationDir.frames())
       ));
     }
   }
 
-  private boolean isCharacterRoot(Path root) throws IOException {
-    if (!Files.isDirectory(root)) {
-      return false;
-    }
-    for (Path animationDir : listSortedDirectories(root)) {
-      if (containsImages(animationDir)) {
+  private boolean isCharacterRoot(Folder root) {
+    for (Folder animationDir : root.directories()) {
+      if (!animationDir.frames().isEmpty()) {
         return true;
       }
-      for (Path directionDir : listSortedDirectories(animationDir)) {
-        if (containsImages(directionDir)) {
+      for (Folder directionDir : animationDir.directories()) {
+        if (!directionDir.frames().isEmpty()) {
           return true;
         }
       }
@@ -110,16 +148,7 @@ public class SpriteSheetScanner {
     return false;
   }
 
-  private boolean containsImages(Path dir) throws IOException {
-    try (Stream<Path> stream = Files.list(dir)) {
-      return stream.anyMatch(this::isImageFile);
-    }
-  }
-
   private boolean isImageFile(Path file) {
-    if (!Files.isRegularFile(file)) {
-      return false;
-    }
     String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
     int dot = name.lastIndexOf('.');
     if (dot < 0 || dot == name.length() - 1) {
@@ -129,15 +158,40 @@ public class SpriteSheetScanner {
     return SUPPORTED_EXTENSIONS.contains(extension);
   }
 
-  private List<Path> listSortedDirectories(Path root) throws IOException {
-    try (Stream<Path> stream = Files.list(root)) {
-      return stream.filter(Files::isDirectory).sorted(NAME_COMPARATOR).toList();
+  private static List<Path> paths(List<Named> entries) {
+    List<Path> paths = new ArrayList<>(entries.size());
+    for (Named entry : entries) {
+      paths.add(entry.path());
     }
+    return paths;
   }
 
-  private List<Path> listSortedFiles(Path root) throws IOException {
-    try (Stream<Path> stream = Files.list(root)) {
-      return stream.filter(Files::isRegularFile).sorted(NAME_COMPARATOR).toList();
+  /**
+   * A path with its lower-cased file name, the key folders and frames are sorted by.
+   */
+  private record Named(Path path, String sortKey) {
+    Named(Path path) {
+      this(path, path.getFileName().toString().toLowerCase(Locale.ROOT));
+    }
+  }
+
+  private record Folder(Path path, String sortKey, List<Folder> directories, List<Named> frames) {
+    Folder(Path path) {
+      this(path, sortKey(path), new ArrayList<>(), new ArrayList<>());
+    }
+
+    String name() {
+      return path.getFileName().toString();
+    }
+
+    void sort() {
+      directories.sort(Comparator.comparing(Folder::sortKey));
+      frames.sort(Comparator.comparing(Named::sortKey));
+    }
+
+    private static String sortKey(Path path) {
+      Path fileName = path.getFileName();
+      return fileName == null ? "" : fileName.toString().toLowerCase(Locale.ROOT);
     }
   }
 }
@@ -1,11 +1,19 @@
 package pl.spritesheetgluer.sprite;
 
+import pl.spritesheetgluer.definition.AnimationDefinition;
 import pl.spritesheetgluer.definition.CharacterDefinition;
 import pl.spritesheetgluer.definition.DirectionDefinition;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.FrameCacheStats;
+import pl.spritesheetgluer.image.ImageMemory;
+import pl.spritesheetgluer.image.MemoryBudget;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 
@@ -15,6 +23,9 @@ public class SpriteSheetService {
   private final SpriteSheetComposer composer;
   private final SpriteSheetWriter writer;
   private final SpriteSheetMetadataWriter metadataWriter;
+  private final IncrementalBuild incrementalBuild;
+  private final BuildPipelineOptions pipelineOptions;
+  private final MemoryBudget memoryBudget;
 
   public SpriteSheetService() {
     this(
@@ -30,46 +41,312 @@ public class SpriteSheetService {
       SpriteSheetComposer composer,
       SpriteSheetWriter writer,
       SpriteSheetMetadataWriter metadataWriter
+  ) {
+    this(scanner, composer, writer, metadataWriter, IncrementalBuild.enabled());
+  }
+
+  public SpriteSheetService(
+      SpriteSheetScanner scanner,
+      SpriteSheetComposer composer,
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      IncrementalBuild incrementalBuild
+  ) {
+    this(scanner, composer, writer, metadataWriter, incrementalBuild, BuildPipelineOptions.defaults());
+  }
+
+  /**
+   * Composes and encodes up to {@code characterParallelism} characters at once, see
+   * {@link BuildPipelineOptions#withParallelism(int)}.
+   */
+  public SpriteSheetService(
+      SpriteSheetScanner scanner,
+      SpriteSheetComposer composer,
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      IncrementalBuild incrementalBuild,
+      int characterParallelism
+  ) {
+    this(
+        scanner,
+        composer,
+        writer,
+        metadataWriter,
+        incrementalBuild,
+        BuildPipelineOptions.withParallelism(characterParallelism)
+    );
+  }
+
+  /**
+   * Runs the compose, encode and write stages with the threads and queue depths of
+   * {@code pipelineOptions}.
+   */
+  public SpriteSheetService(
+      SpriteSheetScanner scanner,
+      SpriteSheetComposer composer,
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      IncrementalBuild incrementalBuild,
+      BuildPipelineOptions pipelineOptions
+  ) {
+    this(scanner, composer, writer, metadataWriter, incrementalBuild, pipelineOptions, MemoryBudget.defaultBudget());
+  }
+
+  /**
+   * Before a character's sheet is allocated, its compose job takes the bytes of the atlas
+   * raster from {@code memoryBudget} and holds them until the sheet is written, so only as
+   * many atlases as fit are in flight however many threads the stages have.
+   */
+  public SpriteSheetService(
+      SpriteSheetScanner scanner,
+      SpriteSheetComposer composer,
+      SpriteSheetWriter writer,
+      SpriteSheetMetadataWriter metadataWriter,
+      IncrementalBuild incrementalBuild,
+      BuildPipelineOptions pipelineOptions,
+      MemoryBudget memoryBudget
   ) {
     this.scanner = Objects.requireNonNull(scanner, "scanner");
     this.composer = Objects.requireNonNull(composer, "composer");
     this.writer = Objects.requireNonNull(writer, "writer");
     this.metadataWriter = Objects.requireNonNull(metadataWriter, "metadataWriter");
+    this.incrementalBuild = Objects.requireNonNull(incrementalBuild, "incrementalBuild");
+    this.pipelineOptions = Objects.requireNonNull(pipelineOptions, "pipelineOptions");
+    this.memoryBudget = Objects.requireNonNull(memoryBudget, "memoryBudget");
   }
 
+  /**
+   * Builds every character under {@code root} and returns their sheets in scan order. If
+   * any character fails, the others are still built and the first failure is thrown; use
+   * {@link #generateBatch(Path)} to get the failures per character instead.
+   */
   public List<SpriteSheetResult> generate(Path root) throws IOException {
+    return generateBatch(root).sheetsOrThrow();
+  }
+
+  /**
+   * Regenerates only the characters under {@code root} that contain one of
+   * {@code changedPaths} or lie below one of them, e.g. those an {@link AtlasWatcher}
+   * reported.
+   */
+  public List<SpriteSheetResult> generate(Path root, Collection<Path> changedPaths) throws IOException {
+    return generateBatch(root, changedPaths).sheetsOrThrow();
+  }
+
+  public SpriteSheetBatchResult generateBatch(Path root) throws IOException {
     Objects.requireNonNull(root, "root");
+    return generate(scan(root));
+  }
 
+  public SpriteSheetBatchResult generateBatch(Path root, Collection<Path> changedPaths) throws IOException {
+    Objects.requireNonNull(root, "root");
+    Objects.requireNonNull(changedPaths, "changedPaths");
+
+    List<Path> changed = changedPaths.stream().map(path -> path.toAbsolutePath().normalize()).toList();
+    List<CharacterDefinition> affected = new ArrayList<>();
+    for (CharacterDefinition character : scan(root)) {
+      Path characterRoot = character.root().toAbsolutePath().normalize();
+      if (changed.stream().anyMatch(path -> path.startsWith(characterRoot) || characterRoot.startsWith(path))) {
+        affected.add(character);
+      }
+    }
+    return generate(affected);
+  }
+
+  private List<CharacterDefinition> scan(Path root) throws IOException {
     List<CharacterDefinition> characters = scanner.scan(root);
     if (characters.isEmpty()) {
       throw new IllegalStateException("No character folders found under: " + root);
     }
+    return characters;
+  }
 
-    List<SpriteSheetResult> results = new ArrayList<>();
+  /**
+   * Builds the characters through the compose, encode and write stages, so one character
+   * can be decoded and drawn while the one before it is deflated and the one before that
+   * is written. Results come back in input order; a character that fails is recorded and
+   * the others carry on.
+   */
+  private SpriteSheetBatchResult generate(List<CharacterDefinition> characters) throws IOException {
+    List<CharacterJob> jobs = new ArrayList<>();
     for (CharacterDefinition character : characters) {
-      SpriteSheetComposition composition = composer.compose(character);
-      SpriteSheetRender render = composition.render();
-      String outputFileName = character.name() + ".png";
-      Path outputPath = character.root().resolve(outputFileName);
-      writer.write(render.image(), outputPath);
-      Path mappingPath = character.root().resolve(character.name() + ".frames.txt");
-      metadataWriter.write(
-          mappingPath,
-          buildMapping(character, composition.directions(), render.rows(), render.columns())
-      );
-      results.add(new SpriteSheetResult(
+      jobs.add(new CharacterJob(character));
+    }
+    StagedPipeline<CharacterJob> pipeline = new StagedPipeline<>("sprite-sheet", List.of(
+        new StagedPipeline.Stage<>("compose", pipelineOptions.compose(), this::compose),
+        new StagedPipeline.Stage<>("encode", pipelineOptions.encode(), this::encode),
+        new StagedPipeline.Stage<>("write", pipelineOptions.write(), this::write)
+    ));
+    List<StageUtilization> utilization = pipeline.run(jobs, (job, error) -> {
+      job.release();
+      job.failure = error;
+    });
+
+    List<SpriteSheetResult> sheets = new ArrayList<>();
+    List<SpriteSheetBatchResult.CharacterFailure> failures = new ArrayList<>();
+    for (CharacterJob job : jobs) {
+      if (job.failure != null) {
+        failures.add(new SpriteSheetBatchResult.CharacterFailure(job.character.name(), job.character.root(), job.failure));
+      } else {
+        sheets.add(job.result);
+      }
+    }
+    return new SpriteSheetBatchResult(sheets, failures, utilization);
+  }
+
+  /**
+   * Composes the sheet of one character, unless its build manifest shows that neither
+   * its frames nor the writer settings changed. When frames changed but the layout did
+   * not, only the changed cells are redrawn over the previous sheet.
+   */
+  private void compose(CharacterJob job) throws IOException {
+    CharacterDefinition character = job.character;
+    job.unit = incrementalBuild.check(
+        IncrementalBuild.manifestPath(character.root(), character.name()),
+        "character " + writer.settings(),
+        frames(character)
+    );
+    if (job.unit.upToDate()) {
+      job.result = new SpriteSheetResult(
           character.name(),
-          outputPath,
-          mappingPath,
-          render.columns(),
-          render.rows(),
-          render.frameCount(),
-          render.cellWidth(),
-          render.cellHeight(),
-          composition.excludedFrames()
+          job.outputPath,
+          job.mappingPath,
+          job.unit.intValue("columns"),
+          job.unit.intValue("rows"),
+          job.unit.intValue("frameCount"),
+          job.unit.intValue("cellWidth"),
+          job.unit.intValue("cellHeight"),
+          job.unit.paths("excludedFrames"),
+          BuildStatus.SKIPPED,
+          FrameCacheStats.NONE,
+          0
+      );
+      return;
+    }
+
+    job.layout = composer.layout(character);
+    try {
+      job.lease = memoryBudget.acquire(ImageMemory.argbBytes(
+          job.layout.columns() * job.layout.cellWidth(),
+          job.layout.rows() * job.layout.cellHeight()
       ));
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for memory for " + character.name(), error);
+    }
+    job.patch = incrementalBuild.isEnabled() && job.unit.outputsIntact() && sameLayout(job.unit, job.layout);
+    job.composition = job.patch
+        ? composer.patch(job.layout, job.outputPath, job.unit.changedInputs())
+        : composer.compose(job.layout);
+    job.surface = job.composition.render().surface();
+  }
+
+  /**
+   * Encodes the sheet to a temporary file next to its output, so the encoded bytes wait
+   * for the write stage on disk rather than on the heap.
+   */
+  private void encode(CharacterJob job) throws IOException {
+    if (job.surface == null) {
+      return;
+    }
+    AtlasSurface surface = job.surface;
+    job.surface = null;
+    job.encoded = job.outputPath.resolveSibling("." + job.outputPath.getFileName() + ".tmp");
+    try {
+      writer.write(surface, job.encoded);
+    } finally {
+      surface.close();
+    }
+  }
+
+  /**
+   * Moves the encoded sheet into place, writes the mapping of one character and records
+   * its build manifest, then returns the character's share of the memory budget.
+   */
+  private void write(CharacterJob job) throws IOException {
+    if (job.composition == null) {
+      return;
+    }
+    MemoryBudget.Lease lease = job.lease;
+    job.lease = null;
+    try {
+      writeSheet(job);
+    } finally {
+      lease.close();
+    }
+  }
+
+  private void writeSheet(CharacterJob job) throws IOException {
+    CharacterDefinition character = job.character;
+    SpriteSheetComposition composition = job.composition;
+    SpriteSheetRender render = composition.render();
+    Files.move(job.encoded, job.outputPath, StandardCopyOption.REPLACE_EXISTING);
+    job.encoded = null;
+    metadataWriter.write(
+        job.mappingPath,
+        buildMapping(character, composition.directions(), render.rows(), render.columns())
+    );
+    job.unit.put("columns", render.columns())
+        .put("rows", render.rows())
+        .put("frameCount", render.frameCount())
+        .put("cellWidth", render.cellWidth())
+        .put("cellHeight", render.cellHeight())
+        .put("rowLengths", rowLengths(job.layout))
+        .putPaths("layoutFrames", job.layout.frames())
+        .putPaths("excludedFrames", composition.excludedFrames())
+        .record(List.of(job.outputPath, job.mappingPath));
+    job.result = new SpriteSheetResult(
+        character.name(),
+        job.outputPath,
+        job.mappingPath,
+        render.columns(),
+        render.rows(),
+        render.frameCount(),
+        render.cellWidth(),
+        render.cellHeight(),
+        composition.excludedFrames(),
+        job.patch ? BuildStatus.PATCHED : BuildStatus.REBUILT,
+        composition.cacheStats(),
+        job.patch ? composition.decodedFrames() : 0
+    );
+  }
+
+  /**
+   * Whether the last build placed the same frames in the same cells of a grid of the same
+   * size, so its sheet can be patched.
+   */
+  private boolean sameLayout(IncrementalBuild.Unit unit, SpriteSheetLayout layout) throws IOException {
+    if (!unit.hasValue("layoutFrames") || !unit.hasValue("rowLengths")) {
+      return false;
     }
-    return results;
+    return unit.intValue("columns") == layout.columns()
+        && unit.intValue("rows") == layout.rows()
+        && unit.intValue("cellWidth") == layout.cellWidth()
+        && unit.intValue("cellHeight") == layout.cellHeight()
+        && unit.value("rowLengths").equals(rowLengths(layout))
+        && normalize(unit.paths("layoutFrames")).equals(normalize(layout.frames()));
+  }
+
+  private String rowLengths(SpriteSheetLayout layout) {
+    List<String> lengths = new ArrayList<>();
+    for (DirectionDefinition direction : layout.directions()) {
+      lengths.add(String.valueOf(direction.frames().size()));
+    }
+    return String.join(",", lengths);
+  }
+
+  private List<Path> normalize(List<Path> paths) {
+    return paths.stream().map(path -> path.toAbsolutePath().normalize()).toList();
+  }
+
+  private List<Path> frames(CharacterDefinition character) {
+    List<Path> frames = new ArrayList<>();
+    for (AnimationDefinition animation : character.animations()) {
+      for (DirectionDefinition direction : animation.directions()) {
+        frames.addAll(direction.frames());
+      }
+    }
+    return frames;
   }
 
   /**
@@ -108,4 +385,52 @@ public class SpriteSheetService {
     }
     return name.replace('\\', '/');
   }
+
+  /**
+   * One character on its way through the pipeline; each stage fills in what the next
+   * one needs. The queues between stages hand it from thread to thread safely.
+   */
+  private static final class CharacterJob {
+    private final CharacterDefinition character;
+    private final Path outputPath;
+    private final Path mappingPath;
+    private IncrementalBuild.Unit unit;
+    private SpriteSheetLayout layout;
+    private boolean patch;
+    private SpriteSheetComposition composition;
+    private MemoryBudget.Lease lease;
+    private AtlasSurface surface;
+    private Path encoded;
+    private SpriteSheetResult result;
+    private Exception failure;
+
+    private CharacterJob(CharacterDefinition character) {
+      this.character = character;
+      this.outputPath = character.root().resolve(character.name() + ".png");
+      this.mappingPath = character.root().resolve(character.name() + ".frames.txt");
+    }
+
+    /**
+     * Frees the composed surface, its share of the memory budget and the encoded sheet of
+     * a job that failed.
+     */
+    private void release() {
+      if (surface != null) {
+        surface.close();
+        surface = null;
+      }
+      if (lease != null) {
+        lease.close();
+        lease = null;
+      }
+      if (encoded != null) {
+        try {
+          Files.deleteIfExists(encoded);
+        } catch (IOException ignored) {
+          // The job has failed already; a leftover temporary file is overwritten next build.
+        }
+        encoded = null;
+      }
+    }
+  }
 }
@@ -1,14 +1,84 @@
 package pl.spritesheetgluer.sprite;
 
-import javax.imageio.ImageIO;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.BufferedImageSurface;
+import pl.spritesheetgluer.image.PngEncoder;
+
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Objects;
 
 public class SpriteSheetWriter {
+  private final PngEncoder encoder;
+
+  public SpriteSheetWriter() {
+    this(new PngEncoder());
+  }
+
+  /**
+   * Writes atlases with {@code colorMode}; {@link PngEncoder.ColorMode#MINIMIZED} picks the
+   * smallest lossless PNG color type for each atlas.
+   */
+  public SpriteSheetWriter(PngEncoder.ColorMode colorMode) {
+    this(new PngEncoder(
+        PngEncoder.CompressionLevel.DEFAULT,
+        Runtime.getRuntime().availableProcessors(),
+        colorMode
+    ));
+  }
+
+  public SpriteSheetWriter(PngEncoder encoder) {
+    this.encoder = Objects.requireNonNull(encoder, "encoder");
+  }
+
+  /**
+   * Describes everything about the encoder that changes the bytes written, for
+   * {@link IncrementalBuild} manifests.
+   */
+  public String settings() {
+    return "png level=" + encoder.level() + " color=" + encoder.colorMode();
+  }
+
   public void write(BufferedImage image, Path outputPath) throws IOException {
     Files.createDirectories(outputPath.getParent());
-    ImageIO.write(image, "png", outputPath.toFile());
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputPath), 1 << 16)) {
+      encoder.write(image, out);
+    }
+  }
+
+  /**
+   * Writes a composed atlas surface. Heap surfaces go through
+   * {@link #write(BufferedImage, Path)}, the others are encoded from their rows.
+   */
+  public void write(AtlasSurface surface, Path outputPath) throws IOException {
+    if (surface instanceof BufferedImageSurface heapSurface) {
+      write(heapSurface.image(), outputPath);
+      return;
+    }
+    Files.createDirectories(outputPath.getParent());
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputPath), 1 << 16)) {
+      encoder.write(surface, out);
+    }
+  }
+
+  /**
+   * Writes an atlas that is rendered band by band, see
+   * {@link PngEncoder#write(int, int, int, PngEncoder.BandRenderer, OutputStream)}.
+   */
+  public void write(
+      int width,
+      int height,
+      int bandHeight,
+      PngEncoder.BandRenderer renderer,
+      Path outputPath
+  ) throws IOException {
+    Files.createDirectories(outputPath.getParent());
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputPath), 1 << 16)) {
+      encoder.write(width, height, bandHeight, renderer, out);
+    }
   }
 }
@@ -0,0 +1,17 @@
+package pl.spritesheetgluer.sprite;
+
+/**
+ * How many threads work on one stage of a {@link StagedPipeline}, and how many jobs may
+ * wait in front of it. A full queue blocks the stage before it, which bounds how many
+ * jobs, and so how much memory, are in flight.
+ */
+public record StageOptions(int parallelism, int queueDepth) {
+  public StageOptions {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    if (queueDepth <= 0) {
+      throw new IllegalArgumentException("queueDepth must be positive: " + queueDepth);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package pl.spritesheetgluer.sprite;
+
+import java.util.Objects;
+
+/**
+ * How busy one pipeline stage was over a run: {@code busyNanos} is the time its threads
+ * spent working, summed over threads, out of {@code parallelism x wallNanos}. Time spent
+ * waiting for input or for room in the next queue does not count as busy.
+ */
+public record StageUtilization(String name, int parallelism, int jobs, long busyNanos, long wallNanos) {
+  public StageUtilization {
+    Objects.requireNonNull(name, "name");
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+  }
+
+  /**
+   * Busy time as a fraction of the time the stage's threads were available, from 0 to 1.
+   */
+  public double utilization() {
+    if (wallNanos <= 0) {
+      return 0;
+    }
+    return Math.min(1.0, (double) busyNanos / ((double) wallNanos * parallelism));
+  }
+}
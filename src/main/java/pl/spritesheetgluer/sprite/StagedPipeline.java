@@ -0,0 +1,176 @@
+package pl.spritesheetgluer.sprite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Passes jobs through a chain of stages, each with its own threads and a bounded queue in
+ * front of it, so one job can be in a later stage while the next is in an earlier one. A
+ * job whose stage fails is handed to the failure handler and leaves the pipeline; the
+ * other jobs carry on.
+ */
+final class StagedPipeline<J> {
+  private final String name;
+  private final List<Stage<J>> stages;
+
+  StagedPipeline(String name, List<Stage<J>> stages) {
+    this.name = Objects.requireNonNull(name, "name");
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("A pipeline needs at least one stage.");
+    }
+    this.stages = List.copyOf(stages);
+  }
+
+  /**
+   * Runs every job through every stage and waits until all of them left the pipeline.
+   */
+  List<StageUtilization> run(List<J> jobs, FailureHandler<J> onFailure) throws IOException {
+    List<BlockingQueue<Slot<J>>> queues = new ArrayList<>();
+    for (Stage<J> stage : stages) {
+      queues.add(new ArrayBlockingQueue<>(stage.options().queueDepth()));
+    }
+    List<AtomicLong> busy = new ArrayList<>();
+    List<AtomicInteger> done = new ArrayList<>();
+    List<AtomicInteger> running = new ArrayList<>();
+    AtomicReference<Error> fatal = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int index = 0; index < stages.size(); index++) {
+      busy.add(new AtomicLong());
+      done.add(new AtomicInteger());
+      running.add(new AtomicInteger(stages.get(index).options().parallelism()));
+    }
+
+    long start = System.nanoTime();
+    for (int index = 0; index < stages.size(); index++) {
+      int stageIndex = index;
+      Stage<J> stage = stages.get(index);
+      for (int worker = 0; worker < stage.options().parallelism(); worker++) {
+        Thread thread = new Thread(
+            () -> work(stageIndex, queues, busy.get(stageIndex), done.get(stageIndex), running.get(stageIndex), onFailure, fatal),
+            name + "-" + stage.name() + "-" + worker
+        );
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+      }
+    }
+
+    try {
+      BlockingQueue<Slot<J>> first = queues.get(0);
+      for (J job : jobs) {
+        first.put(new Slot<>(job));
+      }
+      for (int worker = 0; worker < stages.get(0).options().parallelism(); worker++) {
+        first.put(Slot.end());
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException error) {
+      threads.forEach(Thread::interrupt);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building sprite sheets", error);
+    }
+    long wallNanos = System.nanoTime() - start;
+    if (fatal.get() != null) {
+      throw fatal.get();
+    }
+
+    List<StageUtilization> utilization = new ArrayList<>();
+    for (int index = 0; index < stages.size(); index++) {
+      Stage<J> stage = stages.get(index);
+      utilization.add(new StageUtilization(
+          stage.name(),
+          stage.options().parallelism(),
+          done.get(index).get(),
+          busy.get(index).get(),
+          wallNanos
+      ));
+    }
+    return utilization;
+  }
+
+  private void work(
+      int stageIndex,
+      List<BlockingQueue<Slot<J>>> queues,
+      AtomicLong busy,
+      AtomicInteger done,
+      AtomicInteger running,
+      FailureHandler<J> onFailure,
+      AtomicReference<Error> fatal
+  ) {
+    Stage<J> stage = stages.get(stageIndex);
+    BlockingQueue<Slot<J>> next = stageIndex + 1 < queues.size() ? queues.get(stageIndex + 1) : null;
+    try {
+      while (true) {
+        Slot<J> slot = queues.get(stageIndex).take();
+        if (slot.isEnd()) {
+          break;
+        }
+        J job = slot.job();
+        long start = System.nanoTime();
+        boolean passed = false;
+        try {
+          stage.task().run(job);
+          passed = true;
+        } catch (IOException | RuntimeException error) {
+          onFailure.failed(job, error);
+        } catch (Error error) {
+          fatal.compareAndSet(null, error);
+          onFailure.failed(job, new IOException(error));
+        } finally {
+          busy.addAndGet(System.nanoTime() - start);
+          done.incrementAndGet();
+        }
+        if (passed && next != null) {
+          next.put(slot);
+        }
+      }
+      if (running.decrementAndGet() == 0 && next != null) {
+        for (int worker = 0; worker < stages.get(stageIndex + 1).options().parallelism(); worker++) {
+          next.put(Slot.end());
+        }
+      }
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  record Stage<J>(String name, StageOptions options, StageTask<J> task) {
+    Stage {
+      Objects.requireNonNull(name, "name");
+      Objects.requireNonNull(options, "options");
+      Objects.requireNonNull(task, "task");
+    }
+  }
+
+  @FunctionalInterface
+  interface StageTask<J> {
+    void run(J job) throws IOException;
+  }
+
+  @FunctionalInterface
+  interface FailureHandler<J> {
+    /**
+     * Called on the failing stage's thread; the job is not passed on.
+     */
+    void failed(J job, Exception error);
+  }
+
+  private record Slot<J>(J job, boolean isEnd) {
+    Slot(J job) {
+      this(job, false);
+    }
+
+    static <J> Slot<J> end() {
+      return new Slot<>(null, true);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package pl.spritesheetgluer.sprite;
+
+/**
+ * How much of a saved merged atlas is read back and compared with its source frames.
+ */
+public enum VerifyMode {
+  /**
+   * Every frame is checked.
+   */
+  FULL,
+  /**
+   * The first frame of every source row and every {@value #SAMPLE_INTERVAL}th atlas cell
+   * are checked. The whole PNG is still decoded, so this mostly saves hashing time.
+   */
+  SAMPLED,
+  /**
+   * The saved atlas is not read back.
+   */
+  OFF;
+
+  static final int SAMPLE_INTERVAL = 8;
+
+  boolean checks(int atlasCell, int sheetColumn) {
+    return switch (this) {
+      case FULL -> true;
+      case SAMPLED -> sheetColumn == 0 || atlasCell % SAMPLE_INTERVAL == 0;
+      case OFF -> false;
+    };
+  }
+}
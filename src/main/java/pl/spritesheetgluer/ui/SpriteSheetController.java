@@ -1,5 +1,6 @@
 package pl.spritesheetgluer.ui;
 
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -8,35 +9,85 @@ import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.stage.DirectoryChooser;
+import pl.spritesheetgluer.image.DecodedFrameCache;
+import pl.spritesheetgluer.image.FrameCacheStats;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.sprite.AtlasRenderOptions;
+import pl.spritesheetgluer.sprite.AtlasWatcher;
+import pl.spritesheetgluer.sprite.BuildStatus;
 import pl.spritesheetgluer.sprite.ExistingSpriteSheetResult;
 import pl.spritesheetgluer.sprite.ExistingSpriteSheetService;
+import pl.spritesheetgluer.sprite.IncrementalBuild;
 import pl.spritesheetgluer.sprite.LooseFrameSpriteSheetBatchResult;
 import pl.spritesheetgluer.sprite.LooseFrameSpriteSheetResult;
 import pl.spritesheetgluer.sprite.LooseFrameSpriteSheetService;
+import pl.spritesheetgluer.sprite.SheetPacking;
+import pl.spritesheetgluer.sprite.SpriteSheetBatchResult;
+import pl.spritesheetgluer.sprite.SpriteSheetComposer;
+import pl.spritesheetgluer.sprite.SpriteSheetMetadataWriter;
 import pl.spritesheetgluer.sprite.SpriteSheetResult;
+import pl.spritesheetgluer.sprite.SpriteSheetScanner;
 import pl.spritesheetgluer.sprite.SpriteSheetService;
+import pl.spritesheetgluer.sprite.SpriteSheetWriter;
+import pl.spritesheetgluer.sprite.StageUtilization;
+import pl.spritesheetgluer.sprite.VerifyMode;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 public class SpriteSheetController {
+  private static final Duration WATCH_DEBOUNCE = Duration.ofMillis(400);
+
   private final ObjectProperty<Path> rootPath = new SimpleObjectProperty<>();
   private final ObjectProperty<Path> looseRootPath = new SimpleObjectProperty<>();
   private final ObjectProperty<Path> mergeRootPath = new SimpleObjectProperty<>();
   private final BooleanProperty busy = new SimpleBooleanProperty(false);
   private final BooleanProperty looseBusy = new SimpleBooleanProperty(false);
   private final BooleanProperty mergeBusy = new SimpleBooleanProperty(false);
-  private final SpriteSheetService spriteSheetService = new SpriteSheetService();
-  private final LooseFrameSpriteSheetService looseFrameSpriteSheetService = new LooseFrameSpriteSheetService();
-  private final ExistingSpriteSheetService existingSpriteSheetService = new ExistingSpriteSheetService();
+  // One ingest, and so one decoded-frame cache, for all three workflows.
+  private final FrameIngest frameIngest = openFrameIngest();
+  private final SpriteSheetService spriteSheetService = new SpriteSheetService(
+      new SpriteSheetScanner(),
+      new SpriteSheetComposer(frameIngest),
+      new SpriteSheetWriter(),
+      new SpriteSheetMetadataWriter()
+  );
+  private final LooseFrameSpriteSheetService looseFrameSpriteSheetService = new LooseFrameSpriteSheetService(
+      new SpriteSheetWriter(),
+      LooseFrameSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+      frameIngest
+  );
+  private final ExistingSpriteSheetService existingSpriteSheetService = new ExistingSpriteSheetService(
+      new SpriteSheetWriter(),
+      new SpriteSheetMetadataWriter(),
+      ExistingSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+      frameIngest
+  );
+  private final ExistingSpriteSheetService tightExistingSpriteSheetService = new ExistingSpriteSheetService(
+      new SpriteSheetWriter(),
+      new SpriteSheetMetadataWriter(),
+      ExistingSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+      frameIngest,
+      AtlasRenderOptions.defaults(),
+      VerifyMode.FULL,
+      IncrementalBuild.enabled(),
+      SheetPacking.maxRects(SheetPacking.Heuristic.BEST_SHORT_SIDE_FIT, SheetPacking.Order.AREA)
+  );
+  private AtlasWatcher watcher;
+  private AtlasWatcher looseWatcher;
+  private AtlasWatcher mergeWatcher;
   @FXML
   private TextField rootField;
   @FXML
@@ -65,6 +116,14 @@ public class SpriteSheetController {
   private TextField mergeCellHeightField;
   @FXML
   private Button mergeButton;
+  @FXML
+  private CheckBox watchCheckBox;
+  @FXML
+  private CheckBox looseWatchCheckBox;
+  @FXML
+  private CheckBox mergeWatchCheckBox;
+  @FXML
+  private CheckBox mergePackTightlyCheckBox;
 
   @FXML
   private void initialize() {
@@ -73,14 +132,107 @@ public class SpriteSheetController {
     bindPathField(mergeRootPath, mergeRootField);
 
     generateButton.disableProperty().bind(
-        rootPath.isNull().or(busy)
+        rootPath.isNull().or(busy).or(watchCheckBox.selectedProperty())
     );
     looseGenerateButton.disableProperty().bind(
-        looseRootPath.isNull().or(looseBusy)
+        looseRootPath.isNull().or(looseBusy).or(looseWatchCheckBox.selectedProperty())
     );
     mergeButton.disableProperty().bind(
-        mergeRootPath.isNull().or(mergeBusy)
+        mergeRootPath.isNull().or(mergeBusy).or(mergeWatchCheckBox.selectedProperty())
     );
+    watchCheckBox.disableProperty().bind(rootPath.isNull().or(busy));
+    looseWatchCheckBox.disableProperty().bind(looseRootPath.isNull().or(looseBusy));
+    mergeWatchCheckBox.disableProperty().bind(mergeRootPath.isNull().or(mergeBusy));
+    mergePackTightlyCheckBox.disableProperty().bind(mergeBusy.or(mergeWatchCheckBox.selectedProperty()));
+
+    // Choosing another folder stops watching the old one.
+    rootPath.addListener((observable, oldValue, newValue) -> watchCheckBox.setSelected(false));
+    looseRootPath.addListener((observable, oldValue, newValue) -> looseWatchCheckBox.setSelected(false));
+    mergeRootPath.addListener((observable, oldValue, newValue) -> mergeWatchCheckBox.setSelected(false));
+    watchCheckBox.selectedProperty().addListener((observable, oldValue, selected) -> onToggleWatch(selected));
+    looseWatchCheckBox.selectedProperty().addListener((observable, oldValue, selected) -> onToggleLooseWatch(selected));
+    mergeWatchCheckBox.selectedProperty().addListener((observable, oldValue, selected) -> onToggleMergeWatch(selected));
+  }
+
+  private void onToggleWatch(boolean selected) {
+    closeWatcher(watcher, logArea);
+    watcher = null;
+    Path root = rootPath.get();
+    if (!selected || root == null) {
+      return;
+    }
+    watcher = startWatcher(watchCheckBox, root, logArea, changes -> {
+      SpriteSheetBatchResult batch = spriteSheetService.generateBatch(root, changes.affectedPaths());
+      List<String> updated = new ArrayList<>();
+      for (SpriteSheetResult result : batch.sheets()) {
+        if (result.status() != BuildStatus.SKIPPED) {
+          updated.add(savedOrUnchanged(result.status()) + result.characterName() + " -> " + result.outputPath());
+        }
+      }
+      for (SpriteSheetBatchResult.CharacterFailure failure : batch.failures()) {
+        updated.add("Failed " + failure.characterName() + ": " + failure.error().getMessage());
+      }
+      return updated;
+    });
+  }
+
+  private void onToggleLooseWatch(boolean selected) {
+    closeWatcher(looseWatcher, looseLogArea);
+    looseWatcher = null;
+    Path root = looseRootPath.get();
+    if (!selected || root == null) {
+      return;
+    }
+    int cellWidth;
+    int cellHeight;
+    try {
+      cellWidth = parsePositiveInt(looseCellWidthField, "Frame width");
+      cellHeight = parsePositiveInt(looseCellHeightField, "Frame height");
+    } catch (IllegalArgumentException error) {
+      appendLog(looseLogArea, "Failed: " + error.getMessage());
+      looseWatchCheckBox.setSelected(false);
+      return;
+    }
+    List<String> configuredPrefixes = parseCommaSeparatedValues(loosePrefixesField.getText());
+    looseWatcher = startWatcher(looseWatchCheckBox, root, looseLogArea, changes -> {
+      LooseFrameSpriteSheetBatchResult batch = looseFrameSpriteSheetService.generate(
+          root, cellWidth, cellHeight, configuredPrefixes, changes.affectedPaths()
+      );
+      List<String> updated = new ArrayList<>();
+      for (LooseFrameSpriteSheetResult result : batch.sheets()) {
+        if (result.status() != BuildStatus.SKIPPED) {
+          updated.add(savedOrUnchanged(result.status()) + result.outputName() + " -> " + result.outputPath());
+        }
+      }
+      return updated;
+    });
+  }
+
+  private void onToggleMergeWatch(boolean selected) {
+    closeWatcher(mergeWatcher, mergeLogArea);
+    mergeWatcher = null;
+    Path root = mergeRootPath.get();
+    if (!selected || root == null) {
+      return;
+    }
+    int cellWidth;
+    int cellHeight;
+    try {
+      cellWidth = parsePositiveInt(mergeCellWidthField, "Frame width");
+      cellHeight = parsePositiveInt(mergeCellHeightField, "Frame height");
+    } catch (IllegalArgumentException error) {
+      appendLog(mergeLogArea, "Failed: " + error.getMessage());
+      mergeWatchCheckBox.setSelected(false);
+      return;
+    }
+    ExistingSpriteSheetService service = mergeService();
+    mergeWatcher = startWatcher(mergeWatchCheckBox, root, mergeLogArea, changes -> {
+      // A merge folder is a single unit: any source change rebuilds the merged atlas.
+      ExistingSpriteSheetResult result = service.generate(root, cellWidth, cellHeight);
+      return result.status() == BuildStatus.SKIPPED
+          ? List.of()
+          : List.of(savedOrUnchanged(result.status()) + result.outputName() + " -> " + result.outputPath());
+    });
   }
 
   @FXML
@@ -106,10 +258,10 @@ public class SpriteSheetController {
       return;
     }
 
-    Task<List<SpriteSheetResult>> task = new Task<>() {
+    Task<SpriteSheetBatchResult> task = new Task<>() {
       @Override
-      protected List<SpriteSheetResult> call() throws Exception {
-        return spriteSheetService.generate(root);
+      protected SpriteSheetBatchResult call() throws Exception {
+        return spriteSheetService.generateBatch(root);
       }
     };
 
@@ -118,17 +270,28 @@ public class SpriteSheetController {
 
     task.setOnSucceeded(event -> {
       busy.set(false);
-      List<SpriteSheetResult> results = task.getValue();
-      appendLog(logArea, "Done. Generated " + results.size() + " sprite sheet(s).");
+      SpriteSheetBatchResult batch = task.getValue();
+      List<SpriteSheetResult> results = batch.sheets();
+      long unchanged = results.stream().filter(result -> result.status() == BuildStatus.SKIPPED).count();
+      appendLog(
+          logArea,
+          "Done. Generated " + (results.size() - unchanged) + " sprite sheet(s), " + unchanged + " unchanged"
+              + (batch.failures().isEmpty() ? "." : ", " + batch.failures().size() + " failed.")
+      );
+      for (SpriteSheetBatchResult.CharacterFailure failure : batch.failures()) {
+        appendLog(logArea, "Failed " + failure.characterName() + ": " + failure.error().getMessage());
+      }
+      appendStageLog(logArea, batch.stages());
       List<String> skippedLines = new ArrayList<>();
       int skippedCount = 0;
       for (SpriteSheetResult result : results) {
         appendLog(
             logArea,
-            "Saved " + result.characterName()
+            savedOrUnchanged(result.status()) + result.characterName()
                 + " (cell: " + result.cellWidth() + "x" + result.cellHeight()
                 + ", grid: " + result.columns() + "x" + result.rows()
-                + ", frames: " + result.frameCount() + ") -> " + result.outputPath()
+                + ", frames: " + result.frameCount() + patchedCells(result.patchedCells(), result.status())
+                + ") -> " + result.outputPath()
                 + " (map: " + result.mappingPath() + ")"
         );
         List<Path> excludedFrames = result.excludedFrames();
@@ -141,6 +304,10 @@ public class SpriteSheetController {
           skippedCount += excludedFrames.size();
         }
       }
+      appendCacheLog(
+          logArea,
+          results.stream().map(SpriteSheetResult::cacheStats).reduce(FrameCacheStats.NONE, FrameCacheStats::plus)
+      );
       if (!skippedLines.isEmpty()) {
         appendLog(logArea, "Warning: skipped " + skippedCount + " image(s) due to size mismatch.");
         StringBuilder message = new StringBuilder(
@@ -151,6 +318,14 @@ public class SpriteSheetController {
         }
         showWarning("Sprite sheet generation warning", message.toString());
       }
+      if (!batch.failures().isEmpty()) {
+        StringBuilder message = new StringBuilder("These characters could not be built:");
+        for (SpriteSheetBatchResult.CharacterFailure failure : batch.failures()) {
+          message.append(System.lineSeparator())
+              .append(failure.characterName()).append(": ").append(failure.error().getMessage());
+        }
+        showError("Sprite sheet generation failed", message.toString());
+      }
     });
 
     task.setOnFailed(event -> {
@@ -209,19 +384,21 @@ public class SpriteSheetController {
       LooseFrameSpriteSheetBatchResult batch = task.getValue();
       List<LooseFrameSpriteSheetResult> results = batch.sheets();
       long prefixCount = results.stream().map(LooseFrameSpriteSheetResult::prefix).distinct().count();
+      long unchanged = results.stream().filter(result -> result.status() == BuildStatus.SKIPPED).count();
       appendLog(
           looseLogArea,
-          "Done. Generated " + results.size() + " sprite sheet(s) across " + prefixCount + " prefix group(s)."
+          "Done. Generated " + (results.size() - unchanged) + " sprite sheet(s), " + unchanged
+              + " unchanged, across " + prefixCount + " prefix group(s)."
       );
       for (LooseFrameSpriteSheetResult result : results) {
         appendLog(
             looseLogArea,
-            "Saved " + result.outputName()
+            savedOrUnchanged(result.status()) + result.outputName()
                 + " (prefix: " + result.prefix()
                 + ", sheet: " + result.sheetIndex() + "/" + result.totalSheets()
                 + ", cell: " + result.cellWidth() + "x" + result.cellHeight()
                 + ", grid: " + result.columns() + "x" + result.rows()
-                + ", frames: " + result.frameCount()
+                + ", frames: " + result.frameCount() + patchedCells(result.patchedCells(), result.status())
                 + ") -> " + result.outputPath()
         );
         appendLog(
@@ -239,6 +416,7 @@ public class SpriteSheetController {
           );
         }
       }
+      appendCacheLog(looseLogArea, batch.cacheStats());
       if (!batch.unmatchedPrefixFrames().isEmpty()) {
         appendLog(
             looseLogArea,
@@ -306,6 +484,10 @@ public class SpriteSheetController {
     startWorker(task, "loose-frame-sprite-sheet-generator");
   }
 
+  private ExistingSpriteSheetService mergeService() {
+    return mergePackTightlyCheckBox.isSelected() ? tightExistingSpriteSheetService : existingSpriteSheetService;
+  }
+
   @FXML
   private void onMergeSheets() {
     Path root = mergeRootPath.get();
@@ -325,10 +507,11 @@ public class SpriteSheetController {
       return;
     }
 
+    ExistingSpriteSheetService service = mergeService();
     Task<ExistingSpriteSheetResult> task = new Task<>() {
       @Override
       protected ExistingSpriteSheetResult call() throws Exception {
-        return existingSpriteSheetService.generate(root, cellWidth, cellHeight);
+        return service.generate(root, cellWidth, cellHeight);
       }
     };
 
@@ -341,10 +524,15 @@ public class SpriteSheetController {
     task.setOnSucceeded(event -> {
       mergeBusy.set(false);
       ExistingSpriteSheetResult result = task.getValue();
-      appendLog(mergeLogArea, "Done. Created merged sprite sheet.");
       appendLog(
           mergeLogArea,
-          "Saved " + result.outputName()
+          result.status() == BuildStatus.SKIPPED
+              ? "Done. Merged sprite sheet is up to date."
+              : "Done. Created merged sprite sheet."
+      );
+      appendLog(
+          mergeLogArea,
+          savedOrUnchanged(result.status()) + result.outputName()
               + " (cell: " + result.cellWidth() + "x" + result.cellHeight()
               + ", grid: " + result.columns() + "x" + result.rows()
               + ", frames: " + result.frameCount() + ") -> " + result.outputPath()
@@ -353,14 +541,28 @@ public class SpriteSheetController {
       appendLog(
           mergeLogArea,
           "Packed atlas size: " + result.imageWidth() + "x" + result.imageHeight()
+              + String.format(Locale.ROOT, ", %.1f%% of cells filled", result.fillRatio() * 100)
               + " (Godot limit: "
               + ExistingSpriteSheetService.GODOT_MAX_TEXTURE_SIZE + "x"
               + ExistingSpriteSheetService.GODOT_MAX_TEXTURE_SIZE + ")."
       );
-      appendLog(
-          mergeLogArea,
-          "Verified saved PNG matches all " + result.frameCount() + " source frame(s) pixel-for-pixel."
-      );
+      if (result.status() == BuildStatus.SKIPPED) {
+        appendLog(mergeLogArea, "Sources are unchanged since the last merge, so it was not verified again.");
+      } else if (result.verifiedFrames() == result.frameCount()) {
+        appendLog(
+            mergeLogArea,
+            "Verified saved PNG matches all " + result.frameCount() + " source frame(s) pixel-for-pixel."
+        );
+      } else if (result.verifiedFrames() > 0) {
+        appendLog(
+            mergeLogArea,
+            "Verified saved PNG matches " + result.verifiedFrames() + " sampled source frame(s) of "
+                + result.frameCount() + " pixel-for-pixel."
+        );
+      } else {
+        appendLog(mergeLogArea, "Skipped verification of the saved PNG.");
+      }
+      appendCacheLog(mergeLogArea, result.cacheStats());
       if (!result.excludedSheets().isEmpty()) {
         appendLog(
             mergeLogArea,
@@ -434,6 +636,98 @@ public class SpriteSheetController {
     }
   }
 
+  private void appendCacheLog(TextArea target, FrameCacheStats stats) {
+    if (stats.hits() + stats.misses() == 0) {
+      return;
+    }
+    appendLog(
+        target,
+        "Frame cache: " + stats.hits() + " hit(s), " + stats.misses() + " miss(es), "
+            + String.format(Locale.ROOT, "%.1f", stats.bytesSaved() / (1024.0 * 1024.0))
+            + " MB of decoded pixels reused."
+    );
+  }
+
+  private void appendStageLog(TextArea target, List<StageUtilization> stages) {
+    if (stages.isEmpty()) {
+      return;
+    }
+    List<String> parts = new ArrayList<>();
+    for (StageUtilization stage : stages) {
+      parts.add(String.format(
+          Locale.ROOT,
+          "%s %.0f%% of %d thread(s)",
+          stage.name(),
+          stage.utilization() * 100,
+          stage.parallelism()
+      ));
+    }
+    appendLog(target, "Stage utilization: " + String.join(", ", parts) + ".");
+  }
+
+  private static FrameIngest openFrameIngest() {
+    try {
+      return new FrameIngest(new DecodedFrameCache(DecodedFrameCache.defaultDirectory()));
+    } catch (IOException error) {
+      // Without a writable cache directory frames are simply decoded every time.
+      return new FrameIngest();
+    }
+  }
+
+  private String savedOrUnchanged(BuildStatus status) {
+    return switch (status) {
+      case REBUILT -> "Saved ";
+      case PATCHED -> "Patched ";
+      case SKIPPED -> "Unchanged ";
+    };
+  }
+
+  private String patchedCells(int patchedCells, BuildStatus status) {
+    return status == BuildStatus.PATCHED ? ", redrawn cells: " + patchedCells : "";
+  }
+
+  /**
+   * Watches {@code root} and runs {@code rebuild} on the watcher's build thread for every
+   * debounced batch of changes, logging what it updated and how long after the first
+   * change the atlases were written.
+   */
+  private AtlasWatcher startWatcher(CheckBox toggle, Path root, TextArea log, WatchRebuild rebuild) {
+    try {
+      AtlasWatcher started = new AtlasWatcher(root, WATCH_DEBOUNCE, changes -> {
+        try {
+          List<String> updated = rebuild.run(changes);
+          long latencyMillis = (System.nanoTime() - changes.firstEventNanos()) / 1_000_000;
+          Platform.runLater(() -> {
+            for (String line : updated) {
+              appendLog(log, line);
+            }
+            appendLog(
+                log,
+                "Watch: " + changes.paths().size() + " change(s), " + updated.size()
+                    + " atlas(es) updated " + latencyMillis + " ms after the first change."
+            );
+          });
+        } catch (Exception error) {
+          String message = error.getMessage() == null ? error.toString() : error.getMessage();
+          Platform.runLater(() -> appendLog(log, "Watch rebuild failed: " + message));
+        }
+      });
+      appendLog(log, "Watching " + root + " for changes...");
+      return started;
+    } catch (IOException | RuntimeException error) {
+      appendLog(log, "Failed to watch " + root + ": " + error.getMessage());
+      toggle.setSelected(false);
+      return null;
+    }
+  }
+
+  private void closeWatcher(AtlasWatcher current, TextArea log) {
+    if (current != null) {
+      current.close();
+      appendLog(log, "Stopped watching " + current.root() + ".");
+    }
+  }
+
   private void startWorker(Task<?> task, String threadName) {
     Thread worker = new Thread(task, threadName);
     worker.setDaemon(true);
@@ -501,4 +795,12 @@ public class SpriteSheetController {
     alert.setContentText(message == null ? "Unknown error." : message);
     alert.showAndWait();
   }
+
+  @FunctionalInterface
+  private interface WatchRebuild {
+    /**
+     * Rebuilds what {@code changes} affect and returns a log line per updated atlas.
+     */
+    List<String> run(AtlasWatcher.Changes changes) throws Exception;
+  }
 }
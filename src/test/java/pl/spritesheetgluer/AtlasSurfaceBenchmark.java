@@ -0,0 +1,72 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.PngEncoder;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+
+/**
+ * Composes and encodes one large atlas on a single surface kind and reports time, GC
+ * activity and peak heap. Run each kind in its own JVM with a GC log, for example
+ * <pre>
+ * java -Xmx1200m -XX:+UseG1GC -Xlog:gc*:file=gc-heap.log \
+ *     -cp target/classes:target/test-classes pl.spritesheetgluer.AtlasSurfaceBenchmark HEAP 16384
+ * </pre>
+ * and compare the "Humongous regions" lines and pause counts between the logs.
+ * Not part of the test suite.
+ */
+public final class AtlasSurfaceBenchmark {
+  private static final int FRAME_SIZE = 128;
+
+  private AtlasSurfaceBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    AtlasSurface.Kind kind = args.length > 0 ? AtlasSurface.Kind.valueOf(args[0]) : AtlasSurface.Kind.TILED;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+    BufferedImage[] frames = new BufferedImage[8];
+    for (int index = 0; index < frames.length; index++) {
+      frames[index] = PngEncoderTest.spriteLikeImage(FRAME_SIZE, FRAME_SIZE, index);
+    }
+
+    long start = System.nanoTime();
+    long pixelBytes;
+    try (AtlasSurface surface = AtlasSurface.create(kind, size, size)) {
+      int index = 0;
+      for (int y = 0; y + FRAME_SIZE <= size; y += FRAME_SIZE) {
+        for (int x = 0; x + FRAME_SIZE <= size; x += FRAME_SIZE) {
+          surface.draw(frames[index++ % frames.length], x, y);
+        }
+      }
+      long composed = System.nanoTime();
+      new PngEncoder(PngEncoder.CompressionLevel.FASTEST).write(surface, OutputStream.nullOutputStream());
+      pixelBytes = surface.pixelBytes();
+      System.out.printf(Locale.ROOT, "%-8s %dx%d compose %8.1f ms, encode %8.1f ms%n",
+          kind, size, size, (composed - start) / 1e6, (System.nanoTime() - composed) / 1e6);
+    }
+
+    long collections = 0;
+    long collectionMillis = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      collections += Math.max(0, collector.getCollectionCount());
+      collectionMillis += Math.max(0, collector.getCollectionTime());
+      System.out.printf(Locale.ROOT, "  %-24s %4d collections %6d ms%n",
+          collector.getName(), collector.getCollectionCount(), collector.getCollectionTime());
+    }
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+    }
+    System.out.printf(Locale.ROOT, "  surface %d MiB, peak heap %d MiB, %d collections, %d ms in GC%n",
+        pixelBytes >> 20, peakHeap >> 20, collections, collectionMillis);
+  }
+}
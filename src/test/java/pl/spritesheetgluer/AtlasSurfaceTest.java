@@ -0,0 +1,87 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.PngEncoder;
+import pl.spritesheetgluer.image.TiledAtlasSurface;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AtlasSurfaceTest {
+  private static final int WIDTH = 70;
+  private static final int HEIGHT = 45;
+
+  @Test
+  void everySurfaceKindDrawsLikeGraphics2D() throws Exception {
+    BufferedImage expected = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = expected.createGraphics();
+    try {
+      for (Placement placement : placements()) {
+        graphics.drawImage(placement.image(), placement.x(), placement.y(), null);
+      }
+    } finally {
+      graphics.dispose();
+    }
+
+    List<AtlasSurface> surfaces = new ArrayList<>();
+    for (AtlasSurface.Kind kind : AtlasSurface.Kind.values()) {
+      surfaces.add(AtlasSurface.create(kind, WIDTH, HEIGHT));
+    }
+    surfaces.add(new TiledAtlasSurface(WIDTH, HEIGHT, 16));
+    for (AtlasSurface surface : surfaces) {
+      try (surface) {
+        for (Placement placement : placements()) {
+          surface.draw(placement.image(), placement.x(), placement.y());
+        }
+        String name = surface.getClass().getSimpleName();
+        int[] pixels = new int[WIDTH * HEIGHT];
+        surface.readRows(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+        for (int y = 0; y < HEIGHT; y++) {
+          for (int x = 0; x < WIDTH; x++) {
+            assertEquals(expected.getRGB(x, y), pixels[y * WIDTH + x], name + " pixel (" + x + ", " + y + ")");
+          }
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        new PngEncoder().write(surface, png);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+        assertEquals(expected.getRGB(33, 17), decoded.getRGB(33, 17), name);
+      }
+    }
+  }
+
+  @Test
+  void tiledSurfaceOnlyAllocatesTilesThatWereDrawnTo() {
+    try (TiledAtlasSurface surface = new TiledAtlasSurface(64, 64, 16)) {
+      assertEquals(0, surface.pixelBytes());
+      surface.draw(PngEncoderTest.spriteLikeImage(8, 8, 1L), 20, 20);
+      assertEquals(16 * 16 * 4, surface.pixelBytes());
+
+      int[] row = new int[64];
+      surface.readRows(0, 50, 64, 1, row, 0, 64);
+      for (int pixel : row) {
+        assertEquals(0, pixel);
+      }
+    }
+  }
+
+  private static List<Placement> placements() {
+    return List.of(
+        new Placement(PngEncoderTest.spriteLikeImage(40, 30, 1L), 0, 0),
+        new Placement(PngEncoderTest.spriteLikeImage(40, 30, 2L), 20, 10),
+        new Placement(PngEncoderTest.spriteLikeImage(17, 9, 3L), -5, 40),
+        new Placement(PngEncoderTest.spriteLikeImage(17, 9, 4L), 60, -3)
+    );
+  }
+
+  private record Placement(BufferedImage image, int x, int y) {
+  }
+}
@@ -0,0 +1,85 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.sprite.AtlasWatcher;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AtlasWatcherTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void recognizesTheFilesTheToolWrites() {
+    Path root = Path.of("characters");
+    Path knight = root.resolve("knight");
+    assertTrue(AtlasWatcher.isGeneratedFile(root, root.resolve("loose").resolve("Stone-sheet.png")));
+    assertTrue(AtlasWatcher.isGeneratedFile(root, root.resolve("loose").resolve("Stone-sheet-02.png")));
+    assertTrue(AtlasWatcher.isGeneratedFile(root, root.resolve("sheets").resolve("sheets-merged.png")));
+    assertTrue(AtlasWatcher.isGeneratedFile(root, knight.resolve("knight.png")));
+    assertTrue(AtlasWatcher.isGeneratedFile(knight, knight.resolve("knight.png")));
+    assertTrue(AtlasWatcher.isGeneratedFile(root, knight.resolve("knight.frames.txt")));
+    assertTrue(AtlasWatcher.isGeneratedFile(root, knight.resolve(".knight.manifest")));
+    assertTrue(AtlasWatcher.isGeneratedFile(root, knight.resolve("walk").resolve(".frame-sizes")));
+    assertFalse(AtlasWatcher.isGeneratedFile(root, root.resolve("loose").resolve("Stone 01.png")));
+    assertFalse(AtlasWatcher.isGeneratedFile(root, knight.resolve("walk").resolve("knight.png")));
+    assertFalse(AtlasWatcher.isGeneratedFile(root, knight.resolve("idle").resolve("idle.png")));
+    assertFalse(AtlasWatcher.isGeneratedFile(root, root.resolve("sheets").resolve("direction-order.txt")));
+  }
+
+  @Test
+  void reportsDebouncedSourceChangesAndIgnoresGeneratedOutputs() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("knight"));
+    Path walk = Files.createDirectory(root.resolve("walk"));
+    BlockingQueue<AtlasWatcher.Changes> batches = new LinkedBlockingQueue<>();
+
+    try (AtlasWatcher watcher = new AtlasWatcher(root, Duration.ofMillis(200), batches::add)) {
+      writePng(root.resolve("knight.png"));
+      writePng(walk.resolve("a.png"));
+      writePng(walk.resolve("b.png"));
+      Files.writeString(root.resolve("knight.frames.txt"), "grid: 1x2");
+
+      Set<Path> reported = new HashSet<>();
+      AtlasWatcher.Changes first = batches.poll(10, TimeUnit.SECONDS);
+      assertNotNull(first);
+      reported.addAll(first.affectedPaths());
+      // Some platforms report the frames' writes a little apart; allow a second batch.
+      AtlasWatcher.Changes second = batches.poll(1, TimeUnit.SECONDS);
+      if (second != null) {
+        reported.addAll(second.affectedPaths());
+      }
+      assertEquals(Set.of(walk.resolve("a.png"), walk.resolve("b.png")), reported);
+      assertTrue(first.firstEventNanos() <= System.nanoTime());
+
+      // A folder created later is watched as well.
+      Path idle = Files.createDirectory(root.resolve("idle"));
+      AtlasWatcher.Changes created = batches.poll(10, TimeUnit.SECONDS);
+      assertNotNull(created);
+      assertTrue(created.paths().contains(idle));
+      writePng(idle.resolve("a.png"));
+      AtlasWatcher.Changes nested = batches.poll(10, TimeUnit.SECONDS);
+      assertNotNull(nested);
+      assertTrue(nested.paths().contains(idle.resolve("a.png")));
+    }
+  }
+
+  private static void writePng(Path path) throws IOException {
+    ImageIO.write(new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB), "png", path.toFile());
+  }
+}
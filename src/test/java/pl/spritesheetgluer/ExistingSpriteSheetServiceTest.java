@@ -2,19 +2,38 @@ package pl.spritesheetgluer;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.PngBandReader;
+import pl.spritesheetgluer.image.PngColorType;
+import pl.spritesheetgluer.image.PngEncoder;
+import pl.spritesheetgluer.sprite.AtlasRenderOptions;
+import pl.spritesheetgluer.sprite.BuildStatus;
 import pl.spritesheetgluer.sprite.ExistingSpriteSheetResult;
 import pl.spritesheetgluer.sprite.ExistingSpriteSheetService;
+import pl.spritesheetgluer.sprite.IncrementalBuild;
+import pl.spritesheetgluer.sprite.SheetPacking;
 import pl.spritesheetgluer.sprite.SpriteSheetMetadataWriter;
 import pl.spritesheetgluer.sprite.SpriteSheetWriter;
+import pl.spritesheetgluer.sprite.VerifyMode;
 
 import javax.imageio.ImageIO;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
@@ -137,6 +156,232 @@ class ExistingSpriteSheetServiceTest {
     ), lines);
   }
 
+  @Test
+  void streamedMergeMatchesMaterializedMerge() throws Exception {
+    Path materializedRoot = Files.createDirectory(tempDir.resolve("materialized"));
+    Path streamedRoot = Files.createDirectory(tempDir.resolve("streamed"));
+    for (Path root : List.of(materializedRoot, streamedRoot)) {
+      writeSheet(root.resolve("01.png"), 4, 4, new Color[][]{
+          {Color.RED, Color.GREEN, Color.BLUE},
+          {Color.YELLOW, Color.CYAN, Color.MAGENTA}
+      });
+      writeSheet(root.resolve("02.png"), 4, 4, new Color[][]{
+          {Color.ORANGE, Color.PINK}
+      });
+      writeSheet(root.resolve("03.png"), 4, 4, new Color[][]{
+          {Color.WHITE},
+          {Color.GRAY},
+          {Color.DARK_GRAY}
+      });
+    }
+
+    ExistingSpriteSheetResult materialized = newService(AtlasRenderOptions.materialized()).generate(materializedRoot, 4, 4);
+    ExistingSpriteSheetResult streamed = newService(AtlasRenderOptions.streamed(4)).generate(streamedRoot, 4, 4);
+
+    assertEquals(materialized.columns(), streamed.columns());
+    assertEquals(materialized.rows(), streamed.rows());
+    assertIterableEquals(
+        Files.readAllLines(materialized.mappingPath()),
+        Files.readAllLines(streamed.mappingPath())
+    );
+    BufferedImage expected = ImageIO.read(materialized.outputPath().toFile());
+    BufferedImage actual = ImageIO.read(streamed.outputPath().toFile());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+      }
+    }
+  }
+
+  @Test
+  void streamedMergeReadsTallAndMixedFormatSourcesBandByBand() throws Exception {
+    Path materializedRoot = Files.createDirectory(tempDir.resolve("mixed-materialized"));
+    Path streamedRoot = Files.createDirectory(tempDir.resolve("mixed-streamed"));
+    Color translucent = new Color(200, 40, 90, 77);
+    for (Path root : List.of(materializedRoot, streamedRoot)) {
+      writeSheet(root.resolve("01-tall.png"), 4, 4, new Color[][]{
+          {Color.RED}, {translucent}, {Color.BLUE}, {new Color(0, 0, 0, 0)}, {Color.GREEN}, {Color.ORANGE}
+      });
+      writeSheet(root.resolve("02-gray.png"), "png", BufferedImage.TYPE_BYTE_GRAY, 4, 4, new Color[][]{
+          {Color.GRAY, Color.DARK_GRAY}
+      });
+      writeSheet(root.resolve("03-indexed.png"), "png", BufferedImage.TYPE_BYTE_INDEXED, 4, 4, new Color[][]{
+          {Color.CYAN, Color.MAGENTA},
+          {Color.YELLOW, Color.WHITE}
+      });
+      writeSheet(root.resolve("04-photo.jpg"), "jpg", BufferedImage.TYPE_INT_RGB, 4, 4, new Color[][]{
+          {Color.PINK, Color.LIGHT_GRAY}
+      });
+    }
+
+    ExistingSpriteSheetResult materialized = newService(AtlasRenderOptions.materialized(), 32)
+        .generate(materializedRoot, 4, 4);
+    ExistingSpriteSheetResult streamed = newService(AtlasRenderOptions.streamed(4), 32)
+        .generate(streamedRoot, 4, 4);
+
+    assertEquals(14, streamed.verifiedFrames());
+    assertEquals(materialized.verifiedFrames(), streamed.verifiedFrames());
+    assertIterableEquals(
+        Files.readAllLines(materialized.mappingPath()),
+        Files.readAllLines(streamed.mappingPath())
+    );
+    BufferedImage expected = ImageIO.read(materialized.outputPath().toFile());
+    BufferedImage actual = ImageIO.read(streamed.outputPath().toFile());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+      }
+    }
+  }
+
+  @Test
+  void materializedAndStreamedMergesDecode16BitGrayAlphaSheetsAlike() throws Exception {
+    List<BufferedImage> outputs = new ArrayList<>();
+    Path graySheet = null;
+    for (AtlasRenderOptions options : List.of(AtlasRenderOptions.materialized(), AtlasRenderOptions.streamed(4))) {
+      Path root = Files.createTempDirectory(tempDir, "gray16");
+      writeSheet(root.resolve("01-color.png"), 4, 4, new Color[][]{{Color.RED, new Color(10, 200, 30, 128)}});
+      graySheet = root.resolve("02-gray.png");
+      writeGray16AlphaSheet(graySheet, 4, 4, new int[][]{{0x4040, 0xC0C0}, {0x1234, 0xFFFF}});
+
+      ExistingSpriteSheetResult result = newService(options, 32).generate(root, 4, 4);
+
+      assertEquals(4, result.verifiedFrames());
+      outputs.add(ImageIO.read(result.outputPath().toFile()));
+    }
+
+    BufferedImage materialized = outputs.get(0);
+    BufferedImage streamed = outputs.get(1);
+    assertEquals(materialized.getWidth(), streamed.getWidth());
+    assertEquals(materialized.getHeight(), streamed.getHeight());
+    for (int y = 0; y < materialized.getHeight(); y++) {
+      for (int x = 0; x < materialized.getWidth(); x++) {
+        assertEquals(materialized.getRGB(x, y), streamed.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+      }
+    }
+    // Both decode the sheet as drawImage draws ImageIO's image, brightened as linear gray.
+    BufferedImage drawn = new BufferedImage(8, 4, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = drawn.createGraphics();
+    try {
+      graphics.drawImage(ImageIO.read(graySheet.toFile()), 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    assertEquals(drawn.getRGB(1, 1), streamed.getRGB(1, 5));
+    assertEquals(drawn.getRGB(5, 1), streamed.getRGB(5, 5));
+  }
+
+  @Test
+  void mapsMaxRectsPlacementsToTheCellsTheyLandIn() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("maxrects"));
+    Map<String, Color[][]> sheets = new LinkedHashMap<>();
+    sheets.put("A-tall", new Color[][]{{Color.RED, Color.GREEN}, {Color.BLUE, Color.YELLOW}, {Color.CYAN, Color.MAGENTA}});
+    sheets.put("B-short", new Color[][]{{Color.ORANGE, Color.PINK}});
+    sheets.put("C-tall", new Color[][]{{Color.WHITE, Color.GRAY}, {Color.DARK_GRAY, Color.LIGHT_GRAY}, {Color.BLACK, new Color(10, 20, 30)}});
+    sheets.put("D-short", new Color[][]{{new Color(40, 50, 60), new Color(70, 80, 90)}});
+    sheets.put("E-short", new Color[][]{{new Color(100, 110, 120), new Color(130, 140, 150)}});
+    for (Map.Entry<String, Color[][]> sheet : sheets.entrySet()) {
+      writeSheet(root.resolve(sheet.getKey() + ".png"), 4, 4, sheet.getValue());
+    }
+
+    ExistingSpriteSheetService service = new ExistingSpriteSheetService(
+        new SpriteSheetWriter(),
+        new SpriteSheetMetadataWriter(),
+        32,
+        new FrameIngest(),
+        AtlasRenderOptions.defaults(),
+        VerifyMode.FULL,
+        IncrementalBuild.enabled(),
+        SheetPacking.maxRects(SheetPacking.Heuristic.BEST_SHORT_SIDE_FIT, SheetPacking.Order.AREA)
+    );
+    ExistingSpriteSheetResult result = service.generate(root, 4, 4);
+
+    assertEquals(18, result.frameCount());
+    assertEquals(18, result.verifiedFrames());
+    assertEquals(20, result.columns() * result.rows());
+    assertEquals(0.9, result.fillRatio(), 1e-9);
+    BufferedImage merged = ImageIO.read(result.outputPath().toFile());
+    List<String> lines = Files.readAllLines(result.mappingPath());
+    assertEquals("grid: " + result.rows() + "x" + result.columns(), lines.get(0));
+    Map<String, Integer> sheetRows = new HashMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      String name = line.substring(0, line.indexOf('/'));
+      int row = sheetRows.merge(name, 1, Integer::sum) - 1;
+      String[] cells = line.substring(line.indexOf(" -> ") + 4).split(", ");
+      for (int column = 0; column < cells.length; column++) {
+        int cell = Integer.parseInt(cells[column]);
+        assertCellColor(merged, cell % result.columns(), cell / result.columns(), 4, 4, sheets.get(name)[row][column]);
+      }
+    }
+    assertEquals(Map.of("A-tall", 3, "B-short", 1, "C-tall", 3, "D-short", 1, "E-short", 1), sheetRows);
+  }
+
+  @Test
+  void verifiesMinimizedColorTypeOutput() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("minimized"));
+    writeSheet(root.resolve("Walk.png"), 4, 4, new Color[][]{
+        {Color.WHITE, Color.GRAY, Color.DARK_GRAY},
+        {Color.BLACK, Color.LIGHT_GRAY, new Color(0, 0, 0, 0)}
+    });
+
+    ExistingSpriteSheetService service = new ExistingSpriteSheetService(
+        new SpriteSheetWriter(PngEncoder.ColorMode.MINIMIZED),
+        new SpriteSheetMetadataWriter()
+    );
+    ExistingSpriteSheetResult result = service.generate(root, 4, 4);
+
+    BufferedImage merged = ImageIO.read(result.outputPath().toFile());
+    assertEquals(BufferedImage.TYPE_BYTE_BINARY, merged.getType());
+    assertCellColor(merged, 1, 0, 4, 4, Color.GRAY);
+    assertCellColor(merged, 1, 1, 4, 4, Color.LIGHT_GRAY);
+  }
+
+  @Test
+  void verifiesMinimizedGrayAlphaOutputOfGrayAlphaSources() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("minimized-gray"));
+    ComponentColorModel colorModel = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_GRAY), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE
+    );
+    // More gray and alpha pairs than a palette holds, so the atlas is saved as gray+alpha.
+    WritableRaster raster = colorModel.createCompatibleWritableRaster(32, 32);
+    for (int y = 0; y < 32; y++) {
+      for (int x = 0; x < 32; x++) {
+        raster.setPixel(x, y, new int[]{(x * 8 + y) & 0xFF, 64 + y * 6});
+      }
+    }
+    Path source = root.resolve("Mist.png");
+    ImageIO.write(new BufferedImage(colorModel, raster, false, null), "png", source.toFile());
+
+    ExistingSpriteSheetService service = new ExistingSpriteSheetService(
+        new SpriteSheetWriter(PngEncoder.ColorMode.MINIMIZED),
+        new SpriteSheetMetadataWriter()
+    );
+    ExistingSpriteSheetResult result = service.generate(root, 32, 32);
+
+    assertEquals(1, result.verifiedFrames());
+    // The source is drawn as before; the saved samples are exactly the drawn pixels.
+    BufferedImage drawn = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = drawn.createGraphics();
+    try {
+      graphics.drawImage(ImageIO.read(source.toFile()), 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    int[] saved = new int[32 * 32];
+    try (PngBandReader reader = PngBandReader.open(result.outputPath(), PngBandReader.Gray.AS_STORED)) {
+      assertEquals(PngColorType.GRAYSCALE_ALPHA, reader.colorType());
+      reader.read(saved, 0, 32);
+    }
+    assertIterableEquals(
+        Arrays.stream(drawn.getRGB(0, 0, 32, 32, null, 0, 32)).boxed().toList(),
+        Arrays.stream(saved).boxed().toList()
+    );
+  }
+
   @Test
   void ignoresPreviousMergedOutputWhenCollectingSources() throws Exception {
     Path root = Files.createDirectory(tempDir.resolve("FireMage"));
@@ -165,6 +410,33 @@ class ExistingSpriteSheetServiceTest {
     ), lines);
   }
 
+  @Test
+  void skipsUnchangedMergesAndRebuildsWhenTheDirectionOrderChanges() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("Archer"));
+    writeSheet(root.resolve("Attack.png"), 4, 4, new Color[][]{
+        {Color.RED, Color.GREEN}
+    });
+    writeSheet(root.resolve("tiny.png"), 3, 3, new Color[][]{
+        {Color.BLUE}
+    });
+
+    ExistingSpriteSheetService service = new ExistingSpriteSheetService();
+    ExistingSpriteSheetResult first = service.generate(root, 4, 4);
+    ExistingSpriteSheetResult second = service.generate(root, 4, 4);
+
+    assertEquals(BuildStatus.REBUILT, first.status());
+    assertEquals(BuildStatus.SKIPPED, second.status());
+    assertEquals(first.frameCount(), second.frameCount());
+    assertEquals(first.verifiedFrames(), second.verifiedFrames());
+    assertEquals(List.of(root.resolve("tiny.png")), second.excludedSheets());
+    assertEquals(BuildStatus.REBUILT, service.generate(root, 2, 2).status());
+
+    Files.writeString(root.resolve(ExistingSpriteSheetService.DIRECTION_ORDER_FILE), "Attack = up\n");
+    ExistingSpriteSheetResult reordered = service.generate(root, 2, 2);
+    assertEquals(BuildStatus.REBUILT, reordered.status());
+    assertTrue(Files.readAllLines(reordered.mappingPath()).contains("Attack/up -> 0, 1, 2, 3"));
+  }
+
   @Test
   void failsWhenNoSheetMatchesTheGrid() throws Exception {
     Path root = Files.createDirectory(tempDir.resolve("invalid-only"));
@@ -210,7 +482,41 @@ class ExistingSpriteSheetServiceTest {
     );
 
     IOException error = assertThrows(IOException.class, () -> service.generate(root, 4, 4));
-    assertTrue(error.getMessage().contains("Saved sprite sheet verification failed"));
+    assertEquals(
+        "Saved sprite sheet verification failed at Attack/right frame 1 pixel (0, 0): "
+            + "expected #FFFF0000 but found #FF010203",
+        error.getMessage()
+    );
+  }
+
+  @Test
+  void countsTheFramesEachVerifyModeChecks() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("verify-modes"));
+    Color[][] cells = new Color[3][10];
+    for (Color[] row : cells) {
+      Arrays.fill(row, Color.BLUE);
+    }
+    writeSheet(root.resolve("Walk.png"), 4, 4, cells);
+
+    int[] verifiedFrames = new int[VerifyMode.values().length];
+    for (VerifyMode verifyMode : VerifyMode.values()) {
+      ExistingSpriteSheetService service = new ExistingSpriteSheetService(
+          new SpriteSheetWriter(),
+          new SpriteSheetMetadataWriter(),
+          ExistingSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+          new FrameIngest(),
+          AtlasRenderOptions.defaults(),
+          verifyMode
+      );
+      ExistingSpriteSheetResult result = service.generate(root, 4, 4);
+      assertEquals(30, result.frameCount());
+      verifiedFrames[verifyMode.ordinal()] = result.verifiedFrames();
+    }
+
+    assertEquals(30, verifiedFrames[VerifyMode.FULL.ordinal()]);
+    // Cells 0, 10 and 20 start a source row; 8, 16 and 24 are sampled on top of those.
+    assertEquals(6, verifiedFrames[VerifyMode.SAMPLED.ordinal()]);
+    assertEquals(0, verifiedFrames[VerifyMode.OFF.ordinal()]);
   }
 
   @Test
@@ -282,13 +588,38 @@ class ExistingSpriteSheetServiceTest {
     assertEquals("Attack/row-09 -> 8", lines.get(9));
   }
 
+  private static ExistingSpriteSheetService newService(AtlasRenderOptions renderOptions) {
+    return newService(renderOptions, 24);
+  }
+
+  private static ExistingSpriteSheetService newService(AtlasRenderOptions renderOptions, int maxTextureSize) {
+    return new ExistingSpriteSheetService(
+        new SpriteSheetWriter(),
+        new SpriteSheetMetadataWriter(),
+        maxTextureSize,
+        new FrameIngest(),
+        renderOptions
+    );
+  }
+
   private static void writeSheet(Path path, int cellWidth, int cellHeight, Color[][] cells) throws IOException {
+    writeSheet(path, "png", BufferedImage.TYPE_INT_ARGB, cellWidth, cellHeight, cells);
+  }
+
+  private static void writeSheet(
+      Path path,
+      String format,
+      int imageType,
+      int cellWidth,
+      int cellHeight,
+      Color[][] cells
+  ) throws IOException {
     int rows = cells.length;
     int columns = cells[0].length;
     BufferedImage image = new BufferedImage(
         columns * cellWidth,
         rows * cellHeight,
-        BufferedImage.TYPE_INT_ARGB
+        imageType
     );
     Graphics2D graphics = image.createGraphics();
     try {
@@ -301,7 +632,25 @@ class ExistingSpriteSheetServiceTest {
     } finally {
       graphics.dispose();
     }
-    ImageIO.write(image, "png", path.toFile());
+    ImageIO.write(image, format, path.toFile());
+  }
+
+  /**
+   * Writes a 16-bit gray+alpha sheet of one row, cell {@code c} filled with the gray and
+   * alpha samples {@code cells[c]}.
+   */
+  private static void writeGray16AlphaSheet(Path path, int cellWidth, int cellHeight, int[][] cells)
+      throws IOException {
+    ComponentColorModel colorModel = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_GRAY), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT
+    );
+    WritableRaster raster = colorModel.createCompatibleWritableRaster(cells.length * cellWidth, cellHeight);
+    for (int y = 0; y < cellHeight; y++) {
+      for (int x = 0; x < raster.getWidth(); x++) {
+        raster.setPixel(x, y, cells[x / cellWidth]);
+      }
+    }
+    ImageIO.write(new BufferedImage(colorModel, raster, false, null), "png", path.toFile());
   }
 
   private static void writeRawPng(Path path, int width, int height, Color color) throws IOException {
@@ -0,0 +1,78 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.image.FrameDimensionIndex;
+import pl.spritesheetgluer.image.ImageHeaderProbe;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Times reading the sizes of many small frames by probing every header, through a fresh
+ * {@link FrameDimensionIndex} (first run, then a later run reading the index file) and
+ * through one that already holds the folder. Not part of the test suite.
+ */
+public final class FrameDimensionIndexBenchmark {
+  private static final int FRAMES = 20_000;
+  private static final int ROUNDS = 5;
+
+  private FrameDimensionIndexBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path folder = Files.createTempDirectory("frame-sizes");
+    try {
+      List<Path> frames = new ArrayList<>();
+      BufferedImage frame = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+      for (int index = 0; index < FRAMES; index++) {
+        Path path = folder.resolve(String.format(Locale.ROOT, "walk_%05d.png", index));
+        ImageIO.write(frame, "png", path.toFile());
+        frames.add(path);
+      }
+
+      ImageHeaderProbe probe = new ImageHeaderProbe();
+      report("header probes", () -> {
+        for (Path path : frames) {
+          probe.probe(path);
+        }
+      });
+      report("index, first run", () -> {
+        Files.deleteIfExists(folder.resolve(FrameDimensionIndex.INDEX_FILE));
+        new FrameDimensionIndex().sizes(frames);
+      });
+      new FrameDimensionIndex().sizes(frames);
+      report("index, later run", () -> new FrameDimensionIndex().sizes(frames));
+      FrameDimensionIndex warm = new FrameDimensionIndex();
+      warm.sizes(frames);
+      report("index, same session", () -> warm.sizes(frames));
+    } finally {
+      try (Stream<Path> files = Files.walk(folder)) {
+        for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+          Files.deleteIfExists(path);
+        }
+      }
+    }
+  }
+
+  private static void report(String label, Task task) throws IOException {
+    task.run();
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf(Locale.ROOT, "%-20s %8.1f ms for %d frames%n", label, best / 1e6, FRAMES);
+  }
+
+  private interface Task {
+    void run() throws IOException;
+  }
+}
@@ -0,0 +1,69 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.image.FrameDimensionIndex;
+import pl.spritesheetgluer.image.ImageHeaderProbe;
+import pl.spritesheetgluer.image.ImageSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameDimensionIndexTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void remembersSizesAcrossInstancesAndReprobesOnlyChangedFrames() throws Exception {
+    Path a = tempDir.resolve("a.png");
+    Path b = tempDir.resolve("b.png");
+    Path c = tempDir.resolve("c.png");
+    writePng(a, 4, 4);
+    writePng(b, 6, 2);
+    writePng(c, 4, 4);
+
+    CountingProbe firstProbe = new CountingProbe();
+    List<ImageSize> first = new FrameDimensionIndex(firstProbe).sizes(List.of(a, b, c));
+    assertEquals(List.of(new ImageSize(4, 4), new ImageSize(6, 2), new ImageSize(4, 4)), first);
+    assertEquals(3, firstProbe.probes.get());
+    assertTrue(Files.exists(tempDir.resolve(FrameDimensionIndex.INDEX_FILE)));
+
+    // A fresh index stands in for the next run; it only reads the index file.
+    CountingProbe secondProbe = new CountingProbe();
+    FrameDimensionIndex second = new FrameDimensionIndex(secondProbe);
+    assertEquals(first, second.sizes(List.of(a, b, c)));
+    assertEquals(0, secondProbe.probes.get());
+
+    writePng(b, 8, 8);
+    Files.setLastModifiedTime(b, FileTime.fromMillis(Files.getLastModifiedTime(b).toMillis() + 2_000));
+    Files.delete(c);
+    assertEquals(List.of(new ImageSize(4, 4), new ImageSize(8, 8)), second.sizes(List.of(a, b)));
+    assertEquals(1, secondProbe.probes.get());
+    List<String> lines = Files.readAllLines(tempDir.resolve(FrameDimensionIndex.INDEX_FILE));
+    assertFalse(lines.stream().anyMatch(line -> line.endsWith("\tc.png")));
+  }
+
+  private static void writePng(Path path, int width, int height) throws IOException {
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", path.toFile());
+  }
+
+  private static final class CountingProbe extends ImageHeaderProbe {
+    private final AtomicInteger probes = new AtomicInteger();
+
+    @Override
+    public ImageSize probe(Path path) throws IOException {
+      probes.incrementAndGet();
+      return super.probe(path);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.image.DecodedFrameCache;
+import pl.spritesheetgluer.image.FrameCacheStats;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.RasterBlitter;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameIngestTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void decodesBatchFramesFromMemoryInAnyOrder() throws Exception {
+    List<Path> paths = new ArrayList<>();
+    for (int index = 0; index < 6; index++) {
+      Path path = tempDir.resolve("frame-" + index + ".png");
+      writePng(path, 3 + index, 5, new Color(index * 40, 255 - index * 40, 7, 255));
+      paths.add(path);
+    }
+
+    FrameIngest ingest = new FrameIngest(2);
+    try (FrameIngest.Batch batch = ingest.open(paths)) {
+      for (int index : new int[]{3, 0, 5, 1, 4, 2}) {
+        BufferedImage expected = ImageIO.read(paths.get(index).toFile());
+        BufferedImage actual = batch.read(index);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getRGB(1, 1), actual.getRGB(1, 1));
+      }
+    }
+  }
+
+  @Test
+  void reportsUnsupportedFilesWithTheirPath() throws Exception {
+    Path path = tempDir.resolve("broken.png");
+    Files.writeString(path, "not an image");
+
+    IOException error = assertThrows(IOException.class, () -> new FrameIngest().read(path));
+    assertTrue(error.getMessage().contains("broken.png"));
+  }
+
+  @Test
+  void mapsUnchangedFramesFromTheDecodedFrameCache() throws Exception {
+    List<Path> paths = new ArrayList<>();
+    for (int index = 0; index < 3; index++) {
+      Path path = tempDir.resolve("frame-" + index + ".png");
+      writePng(path, 4, 3, new Color(200, 40 * index, 7, 90 + index * 60));
+      paths.add(path);
+    }
+    Path cacheDirectory = tempDir.resolve("cache");
+
+    try (FrameIngest.Batch batch = new FrameIngest(new DecodedFrameCache(cacheDirectory)).open(paths)) {
+      for (int index = 0; index < paths.size(); index++) {
+        batch.read(index);
+      }
+      assertEquals(new FrameCacheStats(0, 3, 0), batch.cacheStats());
+    }
+
+    // A second cache over the same directory stands in for the next run.
+    Files.setLastModifiedTime(paths.get(0), FileTime.fromMillis(0));
+    writePng(paths.get(1), 4, 3, Color.BLUE);
+    FrameIngest ingest = new FrameIngest(new DecodedFrameCache(cacheDirectory));
+    RasterBlitter blitter = new RasterBlitter();
+    try (FrameIngest.Batch batch = ingest.open(paths)) {
+      for (int index = 0; index < paths.size(); index++) {
+        int[] expected = new int[12];
+        int[] actual = new int[12];
+        blitter.blit(new FrameIngest().read(paths.get(index)), 0, 0, 4, 3, expected, 0, 4);
+        blitter.blit(batch.read(index), 0, 0, 4, 3, actual, 0, 4);
+        assertArrayEquals(expected, actual, "frame " + index);
+      }
+      assertEquals(new FrameCacheStats(2, 1, 2 * 4 * 3 * 4), batch.cacheStats());
+    }
+  }
+
+  @Test
+  void evictsTheLeastRecentlyUsedFramesOverTheSizeLimit() throws Exception {
+    List<Path> paths = new ArrayList<>();
+    for (int index = 0; index < 3; index++) {
+      Path path = tempDir.resolve("frame-" + index + ".png");
+      writePng(path, 8, 8, new Color(index * 80, 30, 60, 255));
+      paths.add(path);
+    }
+    long entryBytes = 16 + 8 * 8 * 4;
+    DecodedFrameCache cache = new DecodedFrameCache(tempDir.resolve("cache"), 2 * entryBytes);
+    FrameIngest ingest = new FrameIngest(cache);
+
+    ingest.read(paths.get(0));
+    ingest.read(paths.get(1));
+    ingest.read(paths.get(0));
+    ingest.read(paths.get(2));
+    assertEquals(2 * entryBytes, cache.sizeBytes());
+
+    ingest.read(paths.get(0));
+    ingest.read(paths.get(1));
+    assertEquals(new FrameCacheStats(2, 4, 2 * 8 * 8 * 4), cache.stats());
+  }
+
+  @Test
+  void evictsOnlyCacheEntriesWhoseHeaderOrSizeIsWrong() throws Exception {
+    Path frame = tempDir.resolve("frame.png");
+    writePng(frame, 4, 4, Color.ORANGE);
+    Path cacheDirectory = tempDir.resolve("cache");
+    DecodedFrameCache cache = new DecodedFrameCache(cacheDirectory);
+    FrameIngest ingest = new FrameIngest(cache);
+    ingest.read(frame);
+    long entryBytes = cache.sizeBytes();
+    Path entry;
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      entry = files.filter(file -> file.toString().endsWith(".argb")).findFirst().orElseThrow();
+    }
+
+    // An entry that cannot be opened right now is only a miss; it stays for the next read.
+    Path aside = entry.resolveSibling("aside");
+    Files.move(entry, aside);
+    Files.createDirectory(entry);
+    assertEquals(Color.ORANGE.getRGB(), ingest.read(frame).getRGB(1, 1));
+    assertEquals(entryBytes, cache.sizeBytes());
+    Files.delete(entry);
+    Files.move(aside, entry);
+    assertEquals(Color.ORANGE.getRGB(), ingest.read(frame).getRGB(1, 1));
+    assertEquals(new FrameCacheStats(1, 2, 4 * 4 * 4), cache.stats());
+
+    byte[] bytes = Files.readAllBytes(entry);
+    Files.write(entry, Arrays.copyOf(bytes, bytes.length - 4));
+    assertEquals(Color.ORANGE.getRGB(), ingest.read(frame).getRGB(1, 1));
+    assertEquals(new FrameCacheStats(1, 3, 4 * 4 * 4), cache.stats());
+    assertEquals(entryBytes, cache.sizeBytes());
+    assertEquals(bytes.length, Files.size(entry));
+  }
+
+  private static void writePng(Path path, int width, int height, Color color) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = image.createGraphics();
+    try {
+      graphics.setColor(color);
+      graphics.fillRect(0, 0, width, height);
+    } finally {
+      graphics.dispose();
+    }
+    ImageIO.write(image, "png", path.toFile());
+  }
+}
@@ -2,6 +2,11 @@ package pl.spritesheetgluer;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.MemoryBudget;
+import pl.spritesheetgluer.sprite.AtlasRenderOptions;
+import pl.spritesheetgluer.sprite.BuildStatus;
+import pl.spritesheetgluer.sprite.IncrementalBuild;
 import pl.spritesheetgluer.sprite.LooseFrameSpriteSheetBatchResult;
 import pl.spritesheetgluer.sprite.LooseFrameSpriteSheetResult;
 import pl.spritesheetgluer.sprite.LooseFrameSpriteSheetService;
@@ -11,14 +16,21 @@ import javax.imageio.ImageIO;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class LooseFrameSpriteSheetServiceTest {
@@ -65,6 +77,28 @@ class LooseFrameSpriteSheetServiceTest {
     assertFalse(Files.exists(root.resolve("Stone-sheet.frames.txt")));
   }
 
+  @Test
+  void packsGrayFramesAsDrawImageDrawsThem() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("gray"));
+    List<Path> frames = List.of(
+        SpriteSheetServiceTest.writeGrayPng(root.resolve("Mist 01.png"), 4, 4, DataBuffer.TYPE_BYTE, 0x40, 0xC0),
+        SpriteSheetServiceTest.writeGrayPng(root.resolve("Mist 02.png"), 4, 4, DataBuffer.TYPE_USHORT, 0x4040, 0xC0C0),
+        SpriteSheetServiceTest.writeGrayPng(root.resolve("Mist 03.png"), 4, 4, DataBuffer.TYPE_USHORT, 0x1234),
+        SpriteSheetServiceTest.writeGrayPng(root.resolve("Mist 04.png"), 4, 4, DataBuffer.TYPE_BYTE, 0x40)
+    );
+
+    LooseFrameSpriteSheetResult mist = new LooseFrameSpriteSheetService().generate(root).sheets().get(0);
+
+    BufferedImage sheet = ImageIO.read(mist.outputPath().toFile());
+    for (int index = 0; index < frames.size(); index++) {
+      assertEquals(
+          SpriteSheetServiceTest.drawnPixel(frames.get(index)),
+          sheet.getRGB(index % mist.columns() * 4 + 1, index / mist.columns() * 4 + 1),
+          "frame " + index
+      );
+    }
+  }
+
   @Test
   void splitsLargePrefixGroupAcrossMultipleSheetsWhenTextureLimitIsReached() throws Exception {
     Path root = Files.createDirectory(tempDir.resolve("split"));
@@ -175,6 +209,301 @@ class LooseFrameSpriteSheetServiceTest {
     assertFalse(Files.exists(root.resolve("GroundTile-sheet.frames.txt")));
   }
 
+  @Test
+  void excludesMismatchedFramesFromTheirHeadersWithoutDecodingThem() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("header-probe"));
+    writePng(root.resolve("Stone 01.png"), 4, 4, Color.RED);
+    writePng(root.resolve("Stone 02.png"), 4, 4, Color.GREEN);
+    Path excluded = root.resolve("Stone 03.png");
+    writePng(excluded, 8, 8, Color.BLUE);
+    byte[] bytes = Files.readAllBytes(excluded);
+    Files.write(excluded, Arrays.copyOf(bytes, 33));
+
+    LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService();
+    LooseFrameSpriteSheetBatchResult batch = service.generate(root, 4, 4);
+
+    assertEquals(List.of(excluded), batch.excludedFrames());
+    assertEquals(Map.of("4x4", 2, "8x8", 1), batch.detectedFrameSizes());
+    assertEquals(2, batch.sheets().get(0).frameCount());
+  }
+
+  @Test
+  void streamsSheetsBandByBandWhenConfigured() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("streamed"));
+    Color[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.CYAN};
+    for (int index = 0; index < colors.length; index++) {
+      writePng(root.resolve("Stone 0" + (index + 1) + ".png"), 4, 4, colors[index]);
+    }
+
+    LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService(
+        new SpriteSheetWriter(),
+        LooseFrameSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+        new FrameIngest(),
+        AtlasRenderOptions.streamed(1)
+    );
+    LooseFrameSpriteSheetResult result = service.generate(root).sheets().get(0);
+
+    assertEquals(2, result.columns());
+    assertEquals(3, result.rows());
+    BufferedImage sheet = ImageIO.read(result.outputPath().toFile());
+    for (int index = 0; index < colors.length; index++) {
+      assertCellColor(sheet, index % 2, index / 2, 4, 4, colors[index]);
+    }
+    assertEquals(0, sheet.getRGB(5, 9));
+  }
+
+  @Test
+  void rebuildsOnlyThePrefixGroupsWhoseFramesChanged() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("incremental"));
+    writePng(root.resolve("Stone 01.png"), 4, 4, Color.RED);
+    writePng(root.resolve("Stone 02.png"), 2, 2, Color.BLUE);
+    writePng(root.resolve("Ground 01.png"), 4, 4, Color.YELLOW);
+
+    LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService();
+    LooseFrameSpriteSheetBatchResult first = service.generate(root);
+    LooseFrameSpriteSheetBatchResult second = service.generate(root);
+
+    assertEquals(
+        List.of(BuildStatus.SKIPPED, BuildStatus.SKIPPED),
+        second.sheets().stream().map(LooseFrameSpriteSheetResult::status).toList()
+    );
+    assertEquals(first.excludedFrames(), second.excludedFrames());
+    assertEquals(first.detectedFrameSizes(), second.detectedFrameSizes());
+    assertEquals(first.sheets().get(1).outputPath(), second.sheets().get(1).outputPath());
+
+    writePng(root.resolve("Stone 03.png"), 4, 4, Color.GREEN);
+    LooseFrameSpriteSheetBatchResult third = service.generate(root);
+    assertEquals(
+        List.of(BuildStatus.SKIPPED, BuildStatus.REBUILT),
+        third.sheets().stream().map(LooseFrameSpriteSheetResult::status).toList()
+    );
+    assertEquals(2, third.sheets().get(1).frameCount());
+  }
+
+  @Test
+  void patchesOnlyTheChangedCellsOfSheetsWhoseLayoutHolds() throws Exception {
+    for (AtlasRenderOptions options : List.of(AtlasRenderOptions.materialized(), AtlasRenderOptions.streamed(4))) {
+      Path root = Files.createTempDirectory(tempDir, "patch");
+      Color[] colors = {
+          Color.RED, Color.GREEN, Color.BLUE, new Color(1, 2, 3, 4),
+          new Color(90, 80, 70, 140), Color.ORANGE
+      };
+      for (int index = 0; index < colors.length; index++) {
+        writePng(root.resolve("Walk 0" + (index + 1) + ".png"), 4, 4, colors[index]);
+      }
+      LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService(
+          new SpriteSheetWriter(), 8, new FrameIngest(), options, IncrementalBuild.enabled()
+      );
+      service.generate(root);
+
+      Path changedFrame = root.resolve("Walk 06.png");
+      writePng(changedFrame, 4, 4, new Color(250, 10, 120, 200));
+      Files.setLastModifiedTime(
+          changedFrame,
+          FileTime.fromMillis(Files.getLastModifiedTime(changedFrame).toMillis() + 2_000)
+      );
+      List<LooseFrameSpriteSheetResult> patched = service.generate(root).sheets();
+      assertEquals(
+          List.of(BuildStatus.SKIPPED, BuildStatus.PATCHED),
+          patched.stream().map(LooseFrameSpriteSheetResult::status).toList()
+      );
+      assertEquals(1, patched.get(1).patchedCells());
+      BufferedImage patchedSheet = ImageIO.read(patched.get(1).outputPath().toFile());
+
+      LooseFrameSpriteSheetService full = new LooseFrameSpriteSheetService(
+          new SpriteSheetWriter(), 8, new FrameIngest(), options, IncrementalBuild.disabled()
+      );
+      BufferedImage rebuiltSheet = ImageIO.read(full.generate(root).sheets().get(1).outputPath().toFile());
+      assertEquals(rebuiltSheet.getWidth(), patchedSheet.getWidth());
+      assertEquals(rebuiltSheet.getHeight(), patchedSheet.getHeight());
+      for (int y = 0; y < rebuiltSheet.getHeight(); y++) {
+        for (int x = 0; x < rebuiltSheet.getWidth(); x++) {
+          assertEquals(rebuiltSheet.getRGB(x, y), patchedSheet.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+        }
+      }
+    }
+  }
+
+  @Test
+  void rebuildsOnlyTheGroupsOfChangedFilesWhenGivenThem() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("targeted"));
+    writePng(root.resolve("Stone 01.png"), 4, 4, Color.RED);
+    writePng(root.resolve("Ground 01.png"), 4, 4, Color.YELLOW);
+    LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService();
+
+    writePng(root.resolve("Stone 02.png"), 4, 4, Color.BLUE);
+    LooseFrameSpriteSheetBatchResult stone = service.generate(
+        root, 4, 4, List.of(), List.of(root.resolve("Stone 02.png").toAbsolutePath())
+    );
+    assertEquals(List.of("Stone"), stone.sheets().stream().map(LooseFrameSpriteSheetResult::prefix).toList());
+    assertEquals(2, stone.sheets().get(0).frameCount());
+    assertFalse(Files.exists(root.resolve("Ground-sheet.png")));
+
+    Files.delete(root.resolve("Ground 01.png"));
+    LooseFrameSpriteSheetBatchResult gone = service.generate(
+        root, 4, 4, List.of(), List.of(root.resolve("Ground 01.png"))
+    );
+    assertTrue(gone.sheets().isEmpty());
+
+    LooseFrameSpriteSheetBatchResult everything = service.generate(root, 4, 4, List.of(), List.of(root));
+    assertEquals(List.of("Stone"), everything.sheets().stream().map(LooseFrameSpriteSheetResult::prefix).toList());
+  }
+
+  @Test
+  void buildsGroupsInParallelUnderAMemoryBudgetInDeterministicOrder() throws Exception {
+    List<String> prefixes = List.of("Alpha", "Bravo", "Charlie", "Delta", "Echo", "Foxtrot");
+    List<LooseFrameSpriteSheetBatchResult> batches = new ArrayList<>();
+    for (int groupParallelism : new int[] {1, 4}) {
+      Path root = Files.createDirectory(tempDir.resolve("loose-" + groupParallelism));
+      for (int group = 0; group < prefixes.size(); group++) {
+        for (int frame = 0; frame <= group; frame++) {
+          writePng(root.resolve(prefixes.get(group) + " " + frame + ".png"), 4, 4, Color.RED);
+        }
+        writePng(root.resolve(prefixes.get(group) + " odd.png"), 2, 2, Color.BLUE);
+      }
+      LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService(
+          new SpriteSheetWriter(),
+          LooseFrameSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+          new FrameIngest(),
+          AtlasRenderOptions.defaults(),
+          IncrementalBuild.disabled(),
+          groupParallelism,
+          // Smaller than any group needs, so the groups take turns.
+          new MemoryBudget(16)
+      );
+      batches.add(service.generate(root, 4, 4));
+    }
+
+    LooseFrameSpriteSheetBatchResult serial = batches.get(0);
+    LooseFrameSpriteSheetBatchResult parallel = batches.get(1);
+    assertEquals(prefixes, parallel.sheets().stream().map(LooseFrameSpriteSheetResult::prefix).toList());
+    assertEquals(
+        serial.sheets().stream().map(sheet -> sheet.outputName() + " " + sheet.frameCount()).toList(),
+        parallel.sheets().stream().map(sheet -> sheet.outputName() + " " + sheet.frameCount()).toList()
+    );
+    assertEquals(
+        serial.excludedFrames().stream().map(Path::getFileName).toList(),
+        parallel.excludedFrames().stream().map(Path::getFileName).toList()
+    );
+    assertEquals(prefixes.size(), parallel.excludedFrames().size());
+    assertEquals(serial.detectedFrameSizes(), parallel.detectedFrameSizes());
+  }
+
+  @Test
+  void decodesEachSheetOfASplitGroupOnItsOwnAndWritesSheetsInParallel() throws Exception {
+    Color[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.CYAN, Color.MAGENTA};
+    List<List<BufferedImage>> outputs = new ArrayList<>();
+    for (int parallelism : new int[] {1, 3}) {
+      Path root = Files.createDirectory(tempDir.resolve("split-" + parallelism));
+      for (int frame = 0; frame < 10; frame++) {
+        writePng(root.resolve(String.format("Tile %02d.png", frame)), 4, 4, colors[frame % colors.length]);
+      }
+      List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+      FrameIngest countingIngest = new FrameIngest() {
+        @Override
+        public Batch open(List<Path> paths) {
+          batchSizes.add(paths.size());
+          return super.open(paths);
+        }
+      };
+      LooseFrameSpriteSheetService service = new LooseFrameSpriteSheetService(
+          new SpriteSheetWriter(),
+          8,
+          countingIngest,
+          AtlasRenderOptions.defaults(),
+          IncrementalBuild.disabled(),
+          parallelism,
+          MemoryBudget.defaultBudget()
+      );
+      LooseFrameSpriteSheetBatchResult batch = service.generate(root);
+
+      assertEquals(
+          List.of("Tile-sheet-01", "Tile-sheet-02", "Tile-sheet-03"),
+          batch.sheets().stream().map(LooseFrameSpriteSheetResult::outputName).toList()
+      );
+      assertEquals(List.of(2, 4, 4), batchSizes.stream().sorted().toList());
+      List<BufferedImage> images = new ArrayList<>();
+      for (LooseFrameSpriteSheetResult sheet : batch.sheets()) {
+        images.add(ImageIO.read(sheet.outputPath().toFile()));
+      }
+      outputs.add(images);
+    }
+
+    for (int sheet = 0; sheet < 3; sheet++) {
+      BufferedImage serial = outputs.get(0).get(sheet);
+      BufferedImage parallel = outputs.get(1).get(sheet);
+      assertEquals(serial.getWidth(), parallel.getWidth());
+      assertEquals(serial.getHeight(), parallel.getHeight());
+      for (int y = 0; y < serial.getHeight(); y++) {
+        for (int x = 0; x < serial.getWidth(); x++) {
+          assertEquals(serial.getRGB(x, y), parallel.getRGB(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  void stopsAtTheFirstGroupThatFailsToPlanAsASerialBuildWould() throws Exception {
+    for (int groupParallelism : new int[] {1, 3}) {
+      Path root = writeThreeGroups(Files.createDirectory(tempDir.resolve("unplanned-" + groupParallelism)));
+      // Without one readable frame, Bravo cannot be planned.
+      Files.write(root.resolve("Bravo 1.png"), new byte[] {1, 2, 3});
+      Files.write(root.resolve("Bravo 2.png"), new byte[] {1, 2, 3});
+
+      assertThrows(IOException.class, () -> newService(new SpriteSheetWriter(), groupParallelism).generate(root));
+
+      assertEquals(List.of("Alpha-sheet.png"), sheetsIn(root));
+    }
+  }
+
+  @Test
+  void stopsAtTheFirstGroupWhoseSheetFailsAsASerialBuildWould() throws Exception {
+    Path root = writeThreeGroups(Files.createDirectory(tempDir.resolve("unwritten")));
+    SpriteSheetWriter failingWriter = new SpriteSheetWriter() {
+      @Override
+      public void write(BufferedImage image, Path outputPath) throws IOException {
+        if (outputPath.getFileName().toString().startsWith("Bravo")) {
+          throw new IOException("disk full");
+        }
+        super.write(image, outputPath);
+      }
+    };
+
+    IOException failure = assertThrows(IOException.class, () -> newService(failingWriter, 1).generate(root));
+
+    assertEquals("disk full", failure.getMessage());
+    assertEquals(List.of("Alpha-sheet.png"), sheetsIn(root));
+  }
+
+  private static Path writeThreeGroups(Path root) throws IOException {
+    for (String prefix : List.of("Alpha", "Bravo", "Charlie")) {
+      writePng(root.resolve(prefix + " 1.png"), 4, 4, Color.RED);
+      writePng(root.resolve(prefix + " 2.png"), 4, 4, Color.BLUE);
+    }
+    return root;
+  }
+
+  private static LooseFrameSpriteSheetService newService(SpriteSheetWriter writer, int groupParallelism) {
+    return new LooseFrameSpriteSheetService(
+        writer,
+        LooseFrameSpriteSheetService.GODOT_MAX_TEXTURE_SIZE,
+        new FrameIngest(),
+        AtlasRenderOptions.defaults(),
+        IncrementalBuild.enabled(),
+        groupParallelism,
+        MemoryBudget.defaultBudget()
+    );
+  }
+
+  private static List<String> sheetsIn(Path root) throws IOException {
+    try (Stream<Path> files = Files.list(root)) {
+      return files.map(path -> path.getFileName().toString())
+          .filter(name -> name.endsWith("-sheet.png"))
+          .sorted()
+          .toList();
+    }
+  }
+
   private static void writePng(Path path, int width, int height, Color color) throws IOException {
     BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     Graphics2D graphics = image.createGraphics();
@@ -0,0 +1,63 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import pl.spritesheetgluer.image.MemoryBudget;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBudgetTest {
+  @Test
+  void capsRequestsAtTheWholeBudgetAndReturnsBytesOnce() throws Exception {
+    MemoryBudget budget = new MemoryBudget(100);
+    MemoryBudget.Lease huge = budget.acquire(1_000);
+    assertEquals(100, huge.bytes());
+    assertEquals(0, budget.availableBytes());
+    huge.close();
+    huge.close();
+    assertEquals(100, budget.availableBytes());
+  }
+
+  @Test
+  void servesWaitingRequestsInArrivalOrder() throws Exception {
+    MemoryBudget budget = new MemoryBudget(100);
+    List<String> order = new CopyOnWriteArrayList<>();
+    MemoryBudget.Lease held = budget.acquire(60);
+
+    Thread large = new Thread(() -> take(budget, 80, "large", order));
+    large.start();
+    waitUntilBlocked(large);
+    // Would fit next to the held bytes, but has to wait behind the large request; once
+    // that one runs, it no longer fits until the large one is done.
+    Thread small = new Thread(() -> take(budget, 30, "small", order));
+    small.start();
+    waitUntilBlocked(small);
+    assertTrue(order.isEmpty());
+
+    held.close();
+    large.join(TimeUnit.SECONDS.toMillis(5));
+    small.join(TimeUnit.SECONDS.toMillis(5));
+    assertEquals(List.of("large", "small"), order);
+    assertEquals(100, budget.availableBytes());
+  }
+
+  private static void take(MemoryBudget budget, long bytes, String name, List<String> order) {
+    try (MemoryBudget.Lease ignored = budget.acquire(bytes)) {
+      order.add(name);
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(Thread.State.WAITING, thread.getState());
+  }
+}
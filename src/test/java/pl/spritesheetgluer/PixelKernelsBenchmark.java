@@ -0,0 +1,61 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.image.PixelKernels;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * Times every pixel kernel on the scalar and on the best available implementation over a
+ * square sprite-like buffer, 2048 pixels wide unless given as the first argument. Run with {@code --add-modules jdk.incubator.vector} to
+ * compare against the Vector API kernels. Not part of the test suite.
+ */
+public final class PixelKernelsBenchmark {
+  private static final int ROUNDS = 200;
+
+  private PixelKernelsBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+    int length = size * size;
+    int[] pixels = new int[length];
+    Random random = new Random(1L);
+    for (int index = 0; index < length; index++) {
+      // Mostly transparent margins with opaque sprites, like a packed atlas.
+      int x = index % size;
+      pixels[index] = x % 256 < 64 ? 0 : 0xFF000000 | random.nextInt(0x1000000);
+    }
+    int[] copy = pixels.clone();
+    copy[length - 1] ^= 1;
+    int[] zeros = new int[length];
+    byte[] rgba = new byte[length * 4];
+    random.nextBytes(rgba);
+    int[] argb = new int[length];
+
+    PixelKernels[] implementations = {PixelKernels.scalar(), PixelKernels.get()};
+    for (PixelKernels kernels : implementations) {
+      System.out.printf(Locale.ROOT, "%s%n", kernels.description());
+      report("visibleMismatch", () -> kernels.visibleMismatch(pixels, 0, copy, 0, length));
+      report("allTransparent", () -> kernels.allTransparent(zeros, 0, length) ? 1 : 0);
+      report("allZero", () -> kernels.allZero(zeros, 0, length) ? 1 : 0);
+      report("visibleBounds", () -> kernels.visibleBounds(pixels, 0, size, size, size).width);
+      report("rgbaToArgb", () -> {
+        kernels.rgbaToArgb(rgba, 0, argb, 0, length);
+        return argb[length - 1];
+      });
+    }
+  }
+
+  private static void report(String name, IntSupplier kernel) {
+    long best = Long.MAX_VALUE;
+    int sink = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      sink += kernel.getAsInt();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf(Locale.ROOT, "  %-16s %8.3f ms  (%d)%n", name, best / 1e6, sink);
+  }
+}
@@ -0,0 +1,90 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import pl.spritesheetgluer.image.PixelKernels;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PixelKernelsTest {
+  private static final PixelKernels SCALAR = PixelKernels.scalar();
+  private static final PixelKernels BEST = PixelKernels.get();
+
+  @Test
+  void scalarKernelsFollowTheirContracts() {
+    int[] saved = {0, 0x00123456, 0xFF102030, 0x80FFFFFF};
+    int[] source = {0, 0x00000000, 0xFF102030, 0x80FFFFFE};
+    assertEquals(3, SCALAR.visibleMismatch(source, 0, saved, 0, 4));
+    assertEquals(-1, SCALAR.visibleMismatch(source, 0, saved, 0, 3));
+
+    assertTrue(SCALAR.allTransparent(saved, 0, 2));
+    assertFalse(SCALAR.allZero(saved, 0, 2));
+    assertEquals(2, SCALAR.firstVisible(saved, 0, 4));
+    assertEquals(3, SCALAR.lastVisible(saved, 0, 4));
+    assertEquals(-1, SCALAR.lastVisible(saved, 0, 2));
+
+    int[] argb = new int[2];
+    SCALAR.rgbaToArgb(new byte[]{1, 2, 3, 4, (byte) 0xAA, (byte) 0xBB, (byte) 0xCC, (byte) 0xDD}, 0, argb, 0, 2);
+    assertArrayEquals(new int[]{0x04010203, 0xDDAABBCC}, argb);
+  }
+
+  @Test
+  void bestKernelsMatchScalarKernels() {
+    Random random = new Random(5L);
+    for (int round = 0; round < 200; round++) {
+      int length = random.nextInt(150);
+      int offset = random.nextInt(9);
+      int[] a = sparsePixels(random, offset + length + 3);
+      int[] b = a.clone();
+      for (int changes = random.nextInt(4); changes > 0 && length > 0; changes--) {
+        int index = offset + random.nextInt(length);
+        b[index] = random.nextBoolean() ? random.nextInt() : b[index] ^ 0x00010000;
+      }
+      int to = offset + length;
+
+      String context = "round " + round + " on " + BEST.description();
+      assertEquals(SCALAR.visibleMismatch(a, offset, b, offset, length),
+          BEST.visibleMismatch(a, offset, b, offset, length), context);
+      assertEquals(SCALAR.allTransparent(a, offset, to), BEST.allTransparent(a, offset, to), context);
+      assertEquals(SCALAR.allZero(a, offset, to), BEST.allZero(a, offset, to), context);
+      assertEquals(SCALAR.firstVisible(a, offset, to), BEST.firstVisible(a, offset, to), context);
+      assertEquals(SCALAR.lastVisible(a, offset, to), BEST.lastVisible(a, offset, to), context);
+
+      byte[] rgba = new byte[offset + length * 4];
+      random.nextBytes(rgba);
+      int[] expected = new int[length + 2];
+      int[] actual = new int[length + 2];
+      SCALAR.rgbaToArgb(rgba, offset, expected, 1, length);
+      BEST.rgbaToArgb(rgba, offset, actual, 1, length);
+      assertArrayEquals(expected, actual, context);
+    }
+  }
+
+  @Test
+  void findsTheVisibleBoundsOfAnArea() {
+    int stride = 40;
+    int[] pixels = new int[stride * 30];
+    assertNull(BEST.visibleBounds(pixels, 0, stride, 30, stride));
+
+    pixels[5 * stride + 31] = 0x01000000;
+    pixels[12 * stride + 3] = 0xFF000000;
+    pixels[20 * stride + 35] = 0x00FFFFFF;
+    assertEquals(new Rectangle(3, 5, 29, 8), BEST.visibleBounds(pixels, 0, stride, 30, stride));
+    assertEquals(new Rectangle(0, 0, 1, 1), BEST.visibleBounds(pixels, 12 * stride + 3, 30, 10, stride));
+  }
+
+  private static int[] sparsePixels(Random random, int length) {
+    int[] pixels = new int[length];
+    for (int index = 0; index < length; index++) {
+      int kind = random.nextInt(10);
+      pixels[index] = kind == 0 ? random.nextInt() : kind == 1 ? random.nextInt() & 0x00FFFFFF : 0;
+    }
+    return pixels;
+  }
+}
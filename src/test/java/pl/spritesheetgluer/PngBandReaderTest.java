@@ -0,0 +1,182 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.PngBandReader;
+import pl.spritesheetgluer.image.PngColorType;
+import pl.spritesheetgluer.image.PngEncoder;
+import pl.spritesheetgluer.image.RasterBlitter;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PngBandReaderTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void decodesEncoderOutputLikeFrameIngest() throws Exception {
+    BufferedImage[] images = {
+        PngEncoderTest.spriteLikeImage(97, 70, 5L),
+        PngEncoderTest.paletteImage(2, 0x00),
+        PngEncoderTest.paletteImage(5, 0xFF),
+        PngEncoderTest.paletteImage(200, 0x80),
+        PngEncoderTest.grayImage(false),
+        PngEncoderTest.grayImage(true)
+    };
+    for (int index = 0; index < images.length; index++) {
+      for (PngEncoder.ColorMode colorMode : PngEncoder.ColorMode.values()) {
+        Path path = tempDir.resolve("encoded-" + index + "-" + colorMode + ".png");
+        try (OutputStream out = Files.newOutputStream(path)) {
+          new PngEncoder(PngEncoder.CompressionLevel.DEFAULT, 2, colorMode).write(images[index], out);
+        }
+        assertDecodesLikeFrameIngest(path);
+      }
+    }
+  }
+
+  @Test
+  void decodesImageIoOutputLikeFrameIngest() throws Exception {
+    Random random = new Random(17L);
+    ColorSpace srgb = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+    ComponentColorModel rgba16 = new ComponentColorModel(srgb, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+    ComponentColorModel rgb16 = new ComponentColorModel(srgb, false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+    ColorSpace gray = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+    ComponentColorModel grayAlpha16 = new ComponentColorModel(gray, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+    ComponentColorModel gray16 = new ComponentColorModel(gray, false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+    ComponentColorModel grayAlpha8 = new ComponentColorModel(gray, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    BufferedImage[] images = {
+        randomSamples(new BufferedImage(rgba16, rgba16.createCompatibleWritableRaster(41, 29), false, null), 65_535, random),
+        randomSamples(new BufferedImage(rgb16, rgb16.createCompatibleWritableRaster(41, 29), false, null), 65_535, random),
+        randomSamples(new BufferedImage(41, 29, BufferedImage.TYPE_BYTE_GRAY), 255, random),
+        randomSamples(new BufferedImage(grayAlpha16, grayAlpha16.createCompatibleWritableRaster(41, 29), false, null), 65_535, random),
+        randomSamples(new BufferedImage(gray16, gray16.createCompatibleWritableRaster(41, 29), false, null), 65_535, random),
+        randomSamples(new BufferedImage(grayAlpha8, grayAlpha8.createCompatibleWritableRaster(41, 29), false, null), 255, random),
+        converted(PngEncoderTest.spriteLikeImage(64, 48, 9L), BufferedImage.TYPE_3BYTE_BGR),
+        PngEncoderTest.spriteLikeImage(64, 48, 9L)
+    };
+    for (int index = 0; index < images.length; index++) {
+      Path path = tempDir.resolve("imageio-" + index + ".png");
+      ImageIO.write(images[index], "png", path.toFile());
+      assertDecodesLikeFrameIngest(path);
+    }
+  }
+
+  @Test
+  void skipsRowsAndRejectsCorruptData() throws Exception {
+    BufferedImage image = PngEncoderTest.spriteLikeImage(40, 30, 2L);
+    Path path = tempDir.resolve("skip.png");
+    ImageIO.write(image, "png", path.toFile());
+
+    int[] row = new int[40];
+    try (PngBandReader reader = PngBandReader.open(path)) {
+      assertEquals(25, reader.skip(25));
+      assertEquals(1, reader.read(row, 0, 1));
+      assertEquals(image.getRGB(7, 25), row[7]);
+      assertEquals(4, reader.skip(10));
+      assertEquals(0, reader.read(row, 0, 1));
+    }
+
+    byte[] bytes = Files.readAllBytes(path);
+    bytes[bytes.length / 2] ^= 0x55;
+    Path corrupt = tempDir.resolve("corrupt.png");
+    Files.write(corrupt, bytes);
+    assertThrows(IOException.class, () -> {
+      try (PngBandReader reader = PngBandReader.open(corrupt)) {
+        reader.skip(reader.height());
+      }
+    });
+  }
+
+  @Test
+  void readsGraySamplesAsStoredWhenAsked() throws Exception {
+    for (boolean translucent : new boolean[] {false, true}) {
+      BufferedImage image = PngEncoderTest.grayImage(translucent);
+      Path path = tempDir.resolve("gray-" + translucent + ".png");
+      try (OutputStream out = Files.newOutputStream(path)) {
+        new PngEncoder(PngEncoder.CompressionLevel.DEFAULT, 2, PngEncoder.ColorMode.MINIMIZED).write(image, out);
+      }
+      int width = image.getWidth();
+      int[] row = new int[width];
+      try (PngBandReader reader = PngBandReader.open(path, PngBandReader.Gray.AS_STORED)) {
+        assertEquals(translucent ? PngColorType.GRAYSCALE_ALPHA : PngColorType.GRAYSCALE, reader.colorType());
+        for (int y = 0; y < image.getHeight(); y++) {
+          reader.read(row, 0, 1);
+          for (int x = 0; x < width; x++) {
+            // The encoder may write any gray under a fully transparent pixel.
+            int expected = image.getRGB(x, y) >>> 24 == 0 ? 0 : image.getRGB(x, y);
+            int actual = row[x] >>> 24 == 0 ? 0 : row[x];
+            assertEquals(expected, actual, "pixel (" + x + ", " + y + ")");
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that the rows {@code path} decodes to are drawn exactly as the image
+   * {@link FrameIngest} reads.
+   */
+  private static void assertDecodesLikeFrameIngest(Path path) throws IOException {
+    BufferedImage expected = new FrameIngest().read(path);
+    int width = expected.getWidth();
+    RasterBlitter blitter = new RasterBlitter();
+    int[] expectedRow = new int[width];
+    int[] actualRow = new int[width];
+    try (PngBandReader reader = PngBandReader.open(path)) {
+      assertEquals(width, reader.width());
+      assertEquals(expected.getHeight(), reader.height());
+      int[] band = new int[width * 7];
+      int y = 0;
+      int rows;
+      while ((rows = reader.read(band, 0, 7)) > 0) {
+        for (int row = 0; row < rows; row++, y++) {
+          blitter.blitRow(expected, 0, y, width, expectedRow, 0);
+          RasterBlitter.blitArgb(band, row * width, width, actualRow, 0);
+          for (int x = 0; x < width; x++) {
+            assertEquals(expectedRow[x], actualRow[x], path.getFileName() + " pixel (" + x + ", " + y + ")");
+          }
+        }
+      }
+      assertEquals(expected.getHeight(), y);
+    }
+  }
+
+  private static BufferedImage randomSamples(BufferedImage image, int maxSample, Random random) {
+    WritableRaster raster = image.getRaster();
+    for (int y = 0; y < raster.getHeight(); y++) {
+      for (int x = 0; x < raster.getWidth(); x++) {
+        for (int band = 0; band < raster.getNumBands(); band++) {
+          raster.setSample(x, y, band, random.nextInt(maxSample + 1));
+        }
+      }
+    }
+    return image;
+  }
+
+  private static BufferedImage converted(BufferedImage image, int type) {
+    BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+    Graphics2D graphics = copy.createGraphics();
+    try {
+      graphics.drawImage(image, 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,99 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.image.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the built-in parallel PNG encoder against ImageIO on a synthetic sprite atlas.
+ * Not part of the test suite; run it from the IDE or with
+ * {@code java -cp target/classes:target/test-classes pl.spritesheetgluer.PngEncoderBenchmark 8192}.
+ */
+public final class PngEncoderBenchmark {
+  private static final int WARMUP_ROUNDS = 2;
+  private static final int MEASURED_ROUNDS = 5;
+
+  private PngEncoderBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+    BufferedImage atlas = PngEncoderTest.spriteLikeImage(size, size, 1L);
+    System.out.printf(Locale.ROOT, "Atlas %dx%d, %d cores%n", size, size, Runtime.getRuntime().availableProcessors());
+
+    report("ImageIO", () -> {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ImageIO.write(atlas, "png", out);
+      return out.size();
+    });
+    for (PngEncoder.CompressionLevel level : PngEncoder.CompressionLevel.values()) {
+      PngEncoder encoder = new PngEncoder(level);
+      report("PngEncoder " + level, () -> {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(atlas, out);
+        return out.size();
+      });
+    }
+
+    BufferedImage pixelArt = pixelArtImage(size, size);
+    for (PngEncoder.ColorMode colorMode : PngEncoder.ColorMode.values()) {
+      PngEncoder encoder = new PngEncoder(
+          PngEncoder.CompressionLevel.DEFAULT,
+          Runtime.getRuntime().availableProcessors(),
+          colorMode
+      );
+      report("Pixel art " + colorMode, () -> {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(pixelArt, out);
+        return out.size();
+      });
+    }
+  }
+
+  /**
+   * 48-color atlas of 32x32 cells with transparent gaps, closer to real pixel-art sheets
+   * than the noisy image used for the raw encoder numbers.
+   */
+  private static BufferedImage pixelArtImage(int width, int height) {
+    Random random = new Random(5L);
+    int[] palette = new int[48];
+    for (int index = 0; index < palette.length; index++) {
+      palette[index] = 0xFF000000 | random.nextInt(0x1000000);
+    }
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int cellX = x % 32;
+        int cellY = y % 32;
+        boolean inside = cellX >= 4 && cellX < 28 && cellY >= 2 && cellY < 30;
+        int shade = (cellX / 3 + cellY / 4 + x / 32 * 7 + y / 32 * 13) % palette.length;
+        image.setRGB(x, y, inside ? palette[shade] : 0);
+      }
+    }
+    return image;
+  }
+
+  private static void report(String name, Encoding encoding) throws IOException {
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      encoding.run();
+    }
+    long bestNanos = Long.MAX_VALUE;
+    int bytes = 0;
+    for (int round = 0; round < MEASURED_ROUNDS; round++) {
+      long start = System.nanoTime();
+      bytes = encoding.run();
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+    }
+    System.out.printf(Locale.ROOT, "%-24s %8.1f ms %12d bytes%n", name, bestNanos / 1e6, bytes);
+  }
+
+  @FunctionalInterface
+  private interface Encoding {
+    int run() throws IOException;
+  }
+}
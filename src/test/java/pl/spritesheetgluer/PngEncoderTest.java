@@ -0,0 +1,184 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.spritesheetgluer.image.PngBandReader;
+import pl.spritesheetgluer.image.PngColorType;
+import pl.spritesheetgluer.image.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class PngEncoderTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void roundTripsThroughImageIoAtEveryLevel() throws Exception {
+    BufferedImage image = spriteLikeImage(301, 777, 42L);
+
+    for (PngEncoder.CompressionLevel level : PngEncoder.CompressionLevel.values()) {
+      for (int parallelism : new int[]{1, 4}) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngEncoder(level, parallelism).write(image, out);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(decoded, level + " / " + parallelism);
+        assertSamePixels(image, decoded);
+      }
+    }
+  }
+
+  @Test
+  void producesIdenticalBytesRegardlessOfParallelism() throws Exception {
+    BufferedImage image = spriteLikeImage(512, 900, 7L);
+    ByteArrayOutputStream serial = new ByteArrayOutputStream();
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+
+    PngEncoder serialEncoder = new PngEncoder(PngEncoder.CompressionLevel.DEFAULT, 1);
+    PngEncoder parallelEncoder = new PngEncoder(PngEncoder.CompressionLevel.DEFAULT, 8);
+    serialEncoder.write(image, serial);
+    parallelEncoder.write(image, parallel);
+    parallelEncoder.write(image, new ByteArrayOutputStream());
+
+    assertArrayEquals(serial.toByteArray(), parallel.toByteArray());
+  }
+
+  @Test
+  void encodesImagesThatAreNotIntArgb() throws Exception {
+    BufferedImage image = new BufferedImage(17, 9, BufferedImage.TYPE_3BYTE_BGR);
+    image.setRGB(3, 4, 0xFF123456);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new PngEncoder().write(image, out);
+
+    assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  @Test
+  void bandedWriteRoundTripsForAnyBandHeight() throws Exception {
+    BufferedImage image = spriteLikeImage(200, 333, 11L);
+    PngEncoder encoder = new PngEncoder(PngEncoder.CompressionLevel.DEFAULT, 4);
+
+    for (int bandHeight : new int[]{1, 7, 64, 1000}) {
+      ByteArrayOutputStream banded = new ByteArrayOutputStream();
+      encoder.write(image.getWidth(), image.getHeight(), bandHeight,
+          (y, rows, target) -> image.getRGB(0, y, image.getWidth(), rows, target, 0, image.getWidth()),
+          banded);
+
+      assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(banded.toByteArray())));
+    }
+  }
+
+  @Test
+  void minimizedModeWritesTheSmallestLosslessColorType() throws Exception {
+    assertMinimized(paletteImage(5, 0xFF), PngColorType.INDEXED, 4);
+    assertMinimized(paletteImage(200, 0x80), PngColorType.INDEXED, 8);
+    assertMinimized(paletteImage(2, 0x00), PngColorType.INDEXED, 1);
+    assertMinimized(grayImage(false), PngColorType.GRAYSCALE, 8);
+    assertMinimized(grayImage(true), PngColorType.GRAYSCALE_ALPHA, 8);
+    assertMinimized(opaque(spriteLikeImage(96, 80, 3L)), PngColorType.RGB, 8);
+    assertMinimized(spriteLikeImage(96, 80, 3L), PngColorType.RGBA, 8);
+  }
+
+  private void assertMinimized(BufferedImage image, PngColorType expectedType, int expectedBitDepth)
+      throws Exception {
+    for (int parallelism : new int[]{1, 3}) {
+      Path path = tempDir.resolve(expectedType + "-" + expectedBitDepth + "-" + parallelism + ".png");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new PngEncoder(PngEncoder.CompressionLevel.DEFAULT, parallelism, PngEncoder.ColorMode.MINIMIZED)
+          .write(image, out);
+      byte[] png = out.toByteArray();
+      Files.write(path, png);
+
+      assertEquals(expectedBitDepth, png[24], path.getFileName().toString());
+      assertEquals(expectedType.code(), png[25], path.getFileName().toString());
+      int width = image.getWidth();
+      int[] decoded = new int[width * image.getHeight()];
+      try (PngBandReader reader = PngBandReader.open(path, PngBandReader.Gray.AS_STORED)) {
+        reader.read(decoded, 0, image.getHeight());
+      }
+      for (int y = 0; y < image.getHeight(); y++) {
+        for (int x = 0; x < width; x++) {
+          int expected = image.getRGB(x, y);
+          int actual = decoded[y * width + x];
+          if (expected >>> 24 == 0) {
+            assertEquals(0, actual >>> 24, "alpha at (" + x + ", " + y + ")");
+          } else {
+            assertEquals(expected, actual, "pixel (" + x + ", " + y + ")");
+          }
+        }
+      }
+    }
+  }
+
+  static BufferedImage paletteImage(int colors, int alpha) {
+    BufferedImage image = new BufferedImage(37, 23, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int color = (x * 7 + y * 3) % colors;
+        int pixelAlpha = color == 0 ? alpha : 0xFF;
+        image.setRGB(x, y, pixelAlpha << 24 | color * 0x010305 & 0xFFFFFF);
+      }
+    }
+    return image;
+  }
+
+  static BufferedImage grayImage(boolean translucent) {
+    BufferedImage image = new BufferedImage(64, 40, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int gray = (x * 4 + y) & 0xFF;
+        int alpha = translucent ? (y * 6) & 0xFF : 0xFF;
+        image.setRGB(x, y, alpha << 24 | gray * 0x010101);
+      }
+    }
+    return image;
+  }
+
+  private static BufferedImage opaque(BufferedImage image) {
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        image.setRGB(x, y, image.getRGB(x, y) | 0xFF000000);
+      }
+    }
+    return image;
+  }
+
+  static BufferedImage spriteLikeImage(int width, int height, long seed) {
+    Random random = new Random(seed);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int cell = (x / 32 + y / 32) % 4;
+        int argb = switch (cell) {
+          case 0 -> 0;
+          case 1 -> 0xFF000000 | (x * 3 << 16) | (y * 5 & 0xFF) << 8 | 0x40;
+          case 2 -> random.nextInt();
+          default -> (random.nextInt(256) << 24) | 0x00336699;
+        };
+        image.setRGB(x, y, argb);
+      }
+    }
+    return image;
+  }
+
+  private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.sprite.PrefixTrie;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Times grouping a synthetic listing of 200k frame names by hundreds of configured
+ * prefixes, checking every prefix longest first against walking a {@link PrefixTrie},
+ * and filtering out sheet outputs with {@link String#matches} against a precompiled
+ * pattern. Not part of the test suite.
+ */
+public final class PrefixTrieBenchmark {
+  private static final int FILES = 200_000;
+  private static final int PREFIXES = 400;
+  private static final int ROUNDS = 5;
+  private static final Pattern SHEET_OUTPUT_NAME = Pattern.compile(".*-sheet(?:-\\d+)?", Pattern.CASE_INSENSITIVE);
+
+  private PrefixTrieBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(200L);
+    List<String> prefixes = new ArrayList<>();
+    for (int index = 0; index < PREFIXES; index++) {
+      prefixes.add(String.format(Locale.ROOT, "%sTile%03d", index % 2 == 0 ? "grass" : "stone", index));
+    }
+    List<String> names = new ArrayList<>(FILES);
+    for (int index = 0; index < FILES; index++) {
+      String prefix = prefixes.get(random.nextInt(PREFIXES));
+      names.add(random.nextInt(50) == 0
+          ? prefix + "-sheet-0" + random.nextInt(10)
+          : String.format(Locale.ROOT, "%s_%05d", prefix, index));
+    }
+    List<String> longestFirst = prefixes.stream()
+        .sorted(Comparator.comparingInt(String::length).reversed())
+        .toList();
+
+    report("linear prefixes", () -> {
+      int matched = 0;
+      for (String name : names) {
+        if (linearMatch(name, longestFirst) != null) {
+          matched++;
+        }
+      }
+      return matched;
+    });
+    report("prefix trie", () -> {
+      PrefixTrie trie = new PrefixTrie(prefixes);
+      int matched = 0;
+      for (String name : names) {
+        if (trie.match(name) != null) {
+          matched++;
+        }
+      }
+      return matched;
+    });
+    report("String.matches", () -> {
+      int outputs = 0;
+      for (String name : names) {
+        if (name.toLowerCase(Locale.ROOT).matches(".*-sheet(?:-\\d+)?")) {
+          outputs++;
+        }
+      }
+      return outputs;
+    });
+    report("compiled pattern", () -> {
+      int outputs = 0;
+      for (String name : names) {
+        if (SHEET_OUTPUT_NAME.matcher(name).matches()) {
+          outputs++;
+        }
+      }
+      return outputs;
+    });
+  }
+
+  private static String linearMatch(String baseName, List<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (baseName.length() < prefix.length()
+          || !baseName.regionMatches(true, 0, prefix, 0, prefix.length())) {
+        continue;
+      }
+      if (baseName.length() == prefix.length()) {
+        return prefix;
+      }
+      char next = baseName.charAt(prefix.length());
+      if (Character.isWhitespace(next) || next == '_' || next == '-' || Character.isDigit(next)
+          || Character.isUpperCase(next) && Character.isLowerCase(prefix.charAt(prefix.length() - 1))) {
+        return prefix;
+      }
+    }
+    return null;
+  }
+
+  private static void report(String label, Task task) {
+    int result = task.run();
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      result = task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf(Locale.ROOT, "%-18s %8.1f ms for %d names (%d hits)%n", label, best / 1e6, FILES, result);
+  }
+
+  private interface Task {
+    int run();
+  }
+}
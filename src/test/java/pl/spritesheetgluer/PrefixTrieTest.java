@@ -0,0 +1,84 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import pl.spritesheetgluer.sprite.PrefixTrie;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PrefixTrieTest {
+  @Test
+  void matchesTheLongestPrefixEndingOnABoundary() {
+    PrefixTrie trie = new PrefixTrie(List.of("tree", "treeOak", "Rock", "wall"));
+
+    assertEquals("tree", trie.match("tree"));
+    assertEquals("tree", trie.match("TREE_01"));
+    assertEquals("tree", trie.match("tree 3"));
+    assertEquals("tree", trie.match("tree-a"));
+    assertEquals("tree", trie.match("tree7"));
+    assertEquals("treeOak", trie.match("treeoak_01"));
+    assertEquals("tree", trie.match("treeOakland"));
+    assertEquals("tree", trie.match("treeBig"));
+    assertNull(trie.match("trees"));
+    assertEquals("Rock", trie.match("ROCKSmall"));
+    assertNull(trie.match("rocky"));
+    assertEquals("Rock", trie.match("rock_small"));
+    assertEquals("wall", trie.match("wallDoor"));
+    assertNull(trie.match("tre"));
+    assertNull(trie.match(""));
+  }
+
+  @Test
+  void agreesWithCheckingEveryPrefixLongestFirst() {
+    Random random = new Random(19L);
+    String alphabet = "aAbBcC_- 1";
+    for (int round = 0; round < 300; round++) {
+      List<String> prefixes = new ArrayList<>();
+      for (int count = 1 + random.nextInt(6); count > 0; count--) {
+        String prefix = randomString(random, "aAbBcC", 1 + random.nextInt(4));
+        if (prefixes.stream().noneMatch(prefix::equalsIgnoreCase)) {
+          prefixes.add(prefix);
+        }
+      }
+      PrefixTrie trie = new PrefixTrie(prefixes);
+      for (int name = 0; name < 20; name++) {
+        String baseName = randomString(random, alphabet, random.nextInt(9));
+        assertEquals(linearMatch(baseName, prefixes), trie.match(baseName), prefixes + " / '" + baseName + "'");
+      }
+    }
+  }
+
+  private static String linearMatch(String baseName, List<String> prefixes) {
+    List<String> longestFirst = prefixes.stream()
+        .sorted(Comparator.comparingInt(String::length).reversed())
+        .toList();
+    for (String prefix : longestFirst) {
+      if (baseName.length() < prefix.length()
+          || !baseName.regionMatches(true, 0, prefix, 0, prefix.length())) {
+        continue;
+      }
+      if (baseName.length() == prefix.length()) {
+        return prefix;
+      }
+      char next = baseName.charAt(prefix.length());
+      if (Character.isWhitespace(next) || next == '_' || next == '-' || Character.isDigit(next)
+          || Character.isUpperCase(next) && Character.isLowerCase(prefix.charAt(prefix.length() - 1))) {
+        return prefix;
+      }
+    }
+    return null;
+  }
+
+  private static String randomString(Random random, String alphabet, int length) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int index = 0; index < length; index++) {
+      builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,79 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.image.RasterBlitter;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares {@code Graphics2D.drawImage}, {@code getRGB} and {@link RasterBlitter} when
+ * copying frames of each common decoded image type into a transparent atlas. Not part of the test suite.
+ */
+public final class RasterBlitterBenchmark {
+  private static final int FRAME_SIZE = 128;
+  private static final int FRAMES = 64;
+  private static final int ROUNDS = 200;
+  private static final int[] TYPES = {
+      BufferedImage.TYPE_INT_ARGB,
+      BufferedImage.TYPE_INT_RGB,
+      BufferedImage.TYPE_4BYTE_ABGR,
+      BufferedImage.TYPE_3BYTE_BGR,
+      BufferedImage.TYPE_BYTE_GRAY,
+      BufferedImage.TYPE_BYTE_INDEXED
+  };
+
+  private RasterBlitterBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    for (int type : TYPES) {
+      BufferedImage[] frames = new BufferedImage[FRAMES];
+      for (int index = 0; index < frames.length; index++) {
+        BufferedImage argb = PngEncoderTest.spriteLikeImage(FRAME_SIZE, FRAME_SIZE, index);
+        frames[index] = new BufferedImage(FRAME_SIZE, FRAME_SIZE, type);
+        Graphics2D graphics = frames[index].createGraphics();
+        graphics.drawImage(argb, 0, 0, null);
+        graphics.dispose();
+      }
+      BufferedImage atlas = new BufferedImage(FRAME_SIZE * 8, FRAME_SIZE * (FRAMES / 8), BufferedImage.TYPE_INT_ARGB);
+      int[] pixels = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+
+      long drawBest = Long.MAX_VALUE;
+      long blitBest = Long.MAX_VALUE;
+      long getRgbBest = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        Arrays.fill(pixels, 0);
+        long start = System.nanoTime();
+        Graphics2D graphics = atlas.createGraphics();
+        for (int index = 0; index < FRAMES; index++) {
+          graphics.drawImage(frames[index], index % 8 * FRAME_SIZE, index / 8 * FRAME_SIZE, null);
+        }
+        graphics.dispose();
+        drawBest = Math.min(drawBest, System.nanoTime() - start);
+
+        Arrays.fill(pixels, 0);
+        start = System.nanoTime();
+        RasterBlitter blitter = new RasterBlitter();
+        for (int index = 0; index < FRAMES; index++) {
+          int x = index % 8 * FRAME_SIZE;
+          int y = index / 8 * FRAME_SIZE;
+          blitter.blit(frames[index], 0, 0, FRAME_SIZE, FRAME_SIZE, pixels, y * atlas.getWidth() + x, atlas.getWidth());
+        }
+        blitBest = Math.min(blitBest, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int index = 0; index < FRAMES; index++) {
+          int x = index % 8 * FRAME_SIZE;
+          int y = index / 8 * FRAME_SIZE;
+          frames[index].getRGB(0, 0, FRAME_SIZE, FRAME_SIZE, pixels, y * atlas.getWidth() + x, atlas.getWidth());
+        }
+        getRgbBest = Math.min(getRgbBest, System.nanoTime() - start);
+      }
+      System.out.printf(Locale.ROOT, "type %2d  drawImage %7.2f ms  getRGB %7.2f ms  blitter %7.2f ms%n",
+          type, drawBest / 1e6, getRgbBest / 1e6, blitBest / 1e6);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import pl.spritesheetgluer.image.RasterBlitter;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RasterBlitterTest {
+  private static final int WIDTH = 67;
+  private static final int HEIGHT = 41;
+
+  @Test
+  void matchesDrawImageForEverySourceType() {
+    for (Map.Entry<String, BufferedImage> entry : sourceImages().entrySet()) {
+      assertBlitMatchesDrawImage(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Test
+  void matchesDrawImageForEveryAlphaAndChannelValue() {
+    BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+    for (int alpha = 0; alpha < 256; alpha++) {
+      for (int channel = 0; channel < 256; channel++) {
+        image.setRGB(channel, alpha, alpha << 24 | channel << 16 | (255 - channel) << 8 | channel / 2);
+      }
+    }
+    assertBlitMatchesDrawImage("all alpha/channel pairs", image);
+  }
+
+  @Test
+  void blitsSubimagesAndPartialRows() {
+    BufferedImage image = randomImage(BufferedImage.TYPE_4BYTE_ABGR, new Random(9L));
+    BufferedImage subimage = image.getSubimage(5, 7, 30, 20);
+    assertBlitMatchesDrawImage("subimage", subimage);
+
+    int[] row = new int[10];
+    new RasterBlitter().blitRow(subimage, 3, 4, 10, row, 0);
+    int[] expected = drawn(subimage);
+    assertEquals(
+        Arrays.toString(Arrays.copyOfRange(expected, 4 * 30 + 3, 4 * 30 + 13)),
+        Arrays.toString(row)
+    );
+  }
+
+  private static void assertBlitMatchesDrawImage(String name, BufferedImage source) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int[] expected = drawn(source);
+    int[] actual = new int[width * height];
+    RasterBlitter blitter = new RasterBlitter();
+    for (int y = 0; y < height; y++) {
+      blitter.blitRow(source, 0, y, width, actual, y * width);
+    }
+    for (int index = 0; index < expected.length; index++) {
+      assertEquals(expected[index], actual[index],
+          name + " pixel (" + index % width + ", " + index / width + ")");
+    }
+  }
+
+  private static int[] drawn(BufferedImage source) {
+    BufferedImage target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = target.createGraphics();
+    try {
+      graphics.drawImage(source, 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    return target.getRGB(0, 0, source.getWidth(), source.getHeight(), null, 0, source.getWidth());
+  }
+
+  private static Map<String, BufferedImage> sourceImages() {
+    Random random = new Random(3L);
+    Map<String, BufferedImage> images = new LinkedHashMap<>();
+    images.put("INT_ARGB", randomImage(BufferedImage.TYPE_INT_ARGB, random));
+    images.put("INT_RGB", randomImage(BufferedImage.TYPE_INT_RGB, random));
+    images.put("INT_ARGB_PRE", randomImage(BufferedImage.TYPE_INT_ARGB_PRE, random));
+    images.put("4BYTE_ABGR", randomImage(BufferedImage.TYPE_4BYTE_ABGR, random));
+    images.put("3BYTE_BGR", randomImage(BufferedImage.TYPE_3BYTE_BGR, random));
+
+    BufferedImage gray = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+    fillSamples(gray.getRaster(), 255, random);
+    images.put("BYTE_GRAY", gray);
+
+    BufferedImage wideGray = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY);
+    fillSamples(wideGray.getRaster(), 65_535, random);
+    images.put("USHORT_GRAY", wideGray);
+
+    int[] colors = new int[256];
+    for (int index = 0; index < colors.length; index++) {
+      colors[index] = random.nextInt();
+    }
+    IndexColorModel palette = new IndexColorModel(8, 256, colors, 0, true, -1, DataBuffer.TYPE_BYTE);
+    BufferedImage indexed = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED, palette);
+    fillSamples(indexed.getRaster(), 255, random);
+    images.put("BYTE_INDEXED", indexed);
+
+    IndexColorModel smallPalette = new IndexColorModel(4, 16, colors, 0, true, -1, DataBuffer.TYPE_BYTE);
+    BufferedImage binary = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY, smallPalette);
+    fillSamples(binary.getRaster(), 15, random);
+    images.put("BYTE_BINARY", binary);
+
+    ColorSpace srgb = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+    ComponentColorModel rgba8 = new ComponentColorModel(srgb, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    WritableRaster rgba8Raster = rgba8.createCompatibleWritableRaster(WIDTH, HEIGHT);
+    fillSamples(rgba8Raster, 255, random);
+    images.put("CUSTOM 8-bit RGBA", new BufferedImage(rgba8, rgba8Raster, false, null));
+
+    ComponentColorModel rgba16 = new ComponentColorModel(srgb, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+    WritableRaster rgba16Raster = rgba16.createCompatibleWritableRaster(WIDTH, HEIGHT);
+    fillSamples(rgba16Raster, 65_535, random);
+    images.put("CUSTOM 16-bit RGBA", new BufferedImage(rgba16, rgba16Raster, false, null));
+
+    ComponentColorModel rgb16 = new ComponentColorModel(srgb, false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+    WritableRaster rgb16Raster = rgb16.createCompatibleWritableRaster(WIDTH, HEIGHT);
+    fillSamples(rgb16Raster, 65_535, random);
+    images.put("CUSTOM 16-bit RGB", new BufferedImage(rgb16, rgb16Raster, false, null));
+
+    ColorSpace linearGray = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+    ComponentColorModel grayAlpha8 = new ComponentColorModel(linearGray, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    WritableRaster grayAlpha8Raster = grayAlpha8.createCompatibleWritableRaster(WIDTH, HEIGHT);
+    fillSamples(grayAlpha8Raster, 255, random);
+    images.put("CUSTOM 8-bit gray+alpha", new BufferedImage(grayAlpha8, grayAlpha8Raster, false, null));
+
+    ComponentColorModel grayAlpha16 = new ComponentColorModel(linearGray, true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+    WritableRaster grayAlpha16Raster = grayAlpha16.createCompatibleWritableRaster(WIDTH, HEIGHT);
+    fillSamples(grayAlpha16Raster, 65_535, random);
+    images.put("CUSTOM 16-bit gray+alpha", new BufferedImage(grayAlpha16, grayAlpha16Raster, false, null));
+    return images;
+  }
+
+  private static BufferedImage randomImage(int type, Random random) {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    return image;
+  }
+
+  private static void fillSamples(WritableRaster raster, int maxSample, Random random) {
+    for (int y = 0; y < raster.getHeight(); y++) {
+      for (int x = 0; x < raster.getWidth(); x++) {
+        for (int band = 0; band < raster.getNumBands(); band++) {
+          raster.setSample(x, y, band, random.nextInt(maxSample + 1));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.sprite.SheetPacker;
+import pl.spritesheetgluer.sprite.SheetPacking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Packs randomized sets of tall and short sheets, the mixes that overflow shelf packing,
+ * into a 16384-pixel atlas at a 64x64 cell with every packing, and reports the time, the
+ * summed atlas area, the mean fill ratio and how many sets did not fit. Then times the
+ * shelf layout search over thousands of sheets at a 16x16 cell, where 1024 bin widths are
+ * candidates, trying every width against {@link SheetPacker#packBest}. Not part of the
+ * test suite.
+ */
+public final class SheetPackerBenchmark {
+  private static final int SETS = 20;
+  private static final int SHEETS = 200;
+  private static final int CELL = 64;
+  private static final int MAX_CELLS = 16_384 / CELL;
+  private static final int ROUNDS = 3;
+  private static final int SEARCH_SHEETS = 4_000;
+  private static final int SEARCH_CELL = 16;
+
+  private SheetPackerBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(24L);
+    List<List<SheetPacker.Size>> sets = new ArrayList<>();
+    for (int set = 0; set < SETS; set++) {
+      List<SheetPacker.Size> sheets = new ArrayList<>();
+      for (int index = 0; index < SHEETS; index++) {
+        boolean tall = random.nextBoolean();
+        sheets.add(new SheetPacker.Size(
+            2 + random.nextInt(10),
+            tall ? 8 + random.nextInt(9) : 1 + random.nextInt(3)
+        ));
+      }
+      sets.add(sheets);
+    }
+
+    report("shelf, source order", SheetPacking.shelf(), sets);
+    report("shelf, by height", new SheetPacking(SheetPacking.Heuristic.SHELF, SheetPacking.Order.HEIGHT), sets);
+    for (SheetPacking.Heuristic heuristic : SheetPacking.Heuristic.values()) {
+      if (heuristic == SheetPacking.Heuristic.SHELF) {
+        continue;
+      }
+      for (SheetPacking.Order order : SheetPacking.Order.values()) {
+        report(
+            heuristic.name().toLowerCase(Locale.ROOT) + ", " + order.name().toLowerCase(Locale.ROOT),
+            SheetPacking.maxRects(heuristic, order),
+            sets
+        );
+      }
+    }
+
+    List<SheetPacker.Size> many = new ArrayList<>();
+    for (int index = 0; index < SEARCH_SHEETS; index++) {
+      many.add(new SheetPacker.Size(1 + random.nextInt(8), 1 + random.nextInt(random.nextBoolean() ? 8 : 2)));
+    }
+    SheetPacker shelves = new SheetPacker(SheetPacking.shelf());
+    int maxCells = 16_384 / SEARCH_CELL;
+    reportSearch("every width", () -> {
+      SheetPacker.Packing best = null;
+      int minColumns = many.stream().mapToInt(SheetPacker.Size::columns).max().orElse(0);
+      for (int columns = minColumns; columns <= maxCells; columns++) {
+        SheetPacker.Packing candidate = shelves.pack(many, columns, maxCells);
+        if (candidate != null && (best == null || SheetPacker.isBetter(candidate, best, SEARCH_CELL, SEARCH_CELL))) {
+          best = candidate;
+        }
+      }
+      return best;
+    });
+    reportSearch("pruned search", () -> shelves.packBest(many, maxCells, maxCells, SEARCH_CELL, SEARCH_CELL));
+  }
+
+  private static void reportSearch(String label, Search search) {
+    SheetPacker.Packing result = search.run();
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      result = search.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf(
+        Locale.ROOT,
+        "%-32s %9.1f ms  %d sheets -> %dx%d cells%n",
+        label,
+        best / 1e6,
+        SEARCH_SHEETS,
+        result.columns(),
+        result.rows()
+    );
+  }
+
+  private static void report(String label, SheetPacking packing, List<List<SheetPacker.Size>> sets) {
+    SheetPacker packer = new SheetPacker(packing);
+    long area = 0;
+    double fill = 0;
+    int packed = 0;
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round <= ROUNDS; round++) {
+      long start = System.nanoTime();
+      area = 0;
+      fill = 0;
+      packed = 0;
+      for (List<SheetPacker.Size> sheets : sets) {
+        SheetPacker.Packing result = packer.packBest(sheets, MAX_CELLS, MAX_CELLS, CELL, CELL);
+        if (result != null) {
+          area += (long) result.columns() * result.rows();
+          fill += result.fillRatio();
+          packed++;
+        }
+      }
+      if (round > 0) {
+        best = Math.min(best, System.nanoTime() - start);
+      }
+    }
+    System.out.printf(
+        Locale.ROOT,
+        "%-32s %9.1f ms  area %7d cells  fill %5.1f%%  %d/%d fit%n",
+        label,
+        best / 1e6,
+        area,
+        packed == 0 ? 0 : fill / packed * 100,
+        packed,
+        sets.size()
+    );
+  }
+
+  private interface Search {
+    SheetPacker.Packing run();
+  }
+}
@@ -0,0 +1,191 @@
+package pl.spritesheetgluer;
+
+import org.junit.jupiter.api.Test;
+import pl.spritesheetgluer.sprite.SheetPacker;
+import pl.spritesheetgluer.sprite.SheetPacking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SheetPackerTest {
+  @Test
+  void packsShelvesInSourceOrder() {
+    List<SheetPacker.Size> sheets = List.of(size(2, 2), size(2, 1), size(3, 1));
+
+    SheetPacker.Packing packing = new SheetPacker(SheetPacking.shelf()).pack(sheets, 4, 10);
+
+    assertEquals(List.of(position(0, 0), position(2, 0), position(0, 2)), packing.positions());
+    assertEquals(4, packing.columns());
+    assertEquals(3, packing.rows());
+    assertEquals(9.0 / 12.0, packing.fillRatio(), 1e-9);
+    assertNull(new SheetPacker(SheetPacking.shelf()).pack(sheets, 4, 2));
+  }
+
+  @Test
+  void maxRectsFillsTheGapsShelvesLeaveNextToTallSheets() {
+    List<SheetPacker.Size> sheets = List.of(
+        size(2, 4), size(2, 1), size(2, 4), size(2, 1), size(2, 1), size(2, 1)
+    );
+
+    SheetPacker.Packing shelves = new SheetPacker(SheetPacking.shelf()).packBest(sheets, 16, 16, 4, 4);
+    SheetPacker.Packing maxRects = new SheetPacker(
+        SheetPacking.maxRects(SheetPacking.Heuristic.BEST_SHORT_SIDE_FIT, SheetPacking.Order.AREA)
+    ).packBest(sheets, 16, 16, 4, 4);
+
+    assertEquals(1.0, maxRects.fillRatio(), 1e-9);
+    assertTrue(maxRects.fillRatio() > shelves.fillRatio());
+    assertTrue(SheetPacker.isBetter(maxRects, shelves, 4, 4));
+  }
+
+  @Test
+  void maxRectsPlacesEverySheetInsideTheBinWithoutOverlaps() {
+    Random random = new Random(24L);
+    for (int round = 0; round < 200; round++) {
+      List<SheetPacker.Size> sheets = new ArrayList<>();
+      int count = 1 + random.nextInt(30);
+      for (int index = 0; index < count; index++) {
+        sheets.add(size(1 + random.nextInt(6), 1 + random.nextInt(8)));
+      }
+      int columns = 6 + random.nextInt(20);
+      int maxRows = 8 + random.nextInt(40);
+      for (SheetPacking.Heuristic heuristic : SheetPacking.Heuristic.values()) {
+        for (SheetPacking.Order order : SheetPacking.Order.values()) {
+          SheetPacker.Packing packing = new SheetPacker(new SheetPacking(heuristic, order)).pack(sheets, columns, maxRows);
+          if (packing == null) {
+            continue;
+          }
+          assertValidPacking(sheets, packing, columns, maxRows);
+        }
+      }
+    }
+  }
+
+  @Test
+  void sortedOrdersKeepPositionsInSourceOrder() {
+    List<SheetPacker.Size> sheets = List.of(size(1, 1), size(1, 3), size(2, 2));
+
+    SheetPacker.Packing packing = new SheetPacker(
+        new SheetPacking(SheetPacking.Heuristic.SHELF, SheetPacking.Order.HEIGHT)
+    ).pack(sheets, 4, 10);
+
+    assertNotNull(packing);
+    assertEquals(List.of(position(3, 0), position(0, 0), position(1, 0)), packing.positions());
+  }
+
+  @Test
+  void prunedShelfSearchPicksTheLayoutOfTheExhaustiveSearch() {
+    Random random = new Random(25L);
+    for (int round = 0; round < 400; round++) {
+      List<SheetPacker.Size> sheets = randomSheets(random, 1 + random.nextInt(round < 300 ? 40 : 400));
+      int cellWidth = 1 + random.nextInt(64);
+      int cellHeight = 1 + random.nextInt(64);
+      int maxColumns = 1 + random.nextInt(300);
+      int maxRows = 1 + random.nextInt(300);
+      for (SheetPacking.Order order : SheetPacking.Order.values()) {
+        SheetPacker packer = new SheetPacker(new SheetPacking(SheetPacking.Heuristic.SHELF, order));
+
+        assertEquals(
+            exhaustiveSearch(packer, sheets, maxColumns, maxRows, cellWidth, cellHeight),
+            packer.packBest(sheets, maxColumns, maxRows, cellWidth, cellHeight),
+            "round " + round + ", " + order
+        );
+      }
+    }
+  }
+
+  @Test
+  void parallelMaxRectsSearchPicksTheLayoutOfTheSequentialSearch() {
+    Random random = new Random(26L);
+    for (int round = 0; round < 40; round++) {
+      List<SheetPacker.Size> sheets = randomSheets(random, 1 + random.nextInt(30));
+      SheetPacker packer = new SheetPacker(
+          SheetPacking.maxRects(SheetPacking.Heuristic.BEST_AREA_FIT, SheetPacking.Order.HEIGHT)
+      );
+      int maxColumns = 1 + random.nextInt(40);
+      SheetPacker.Packing expected = exhaustiveSearch(packer, sheets, maxColumns, 60, 16, 16);
+
+      assertEquals(expected, packer.packBest(sheets, maxColumns, 60, 16, 16), "round " + round);
+    }
+  }
+
+  /**
+   * Every bin width from the widest sheet up, keeping the first of equally good packs.
+   * Narrow enough for MaxRects to try every width too.
+   */
+  private static SheetPacker.Packing exhaustiveSearch(
+      SheetPacker packer,
+      List<SheetPacker.Size> sheets,
+      int maxColumns,
+      int maxRows,
+      int cellWidth,
+      int cellHeight
+  ) {
+    int minColumns = sheets.stream().mapToInt(SheetPacker.Size::columns).max().orElse(0);
+    int sumColumns = sheets.stream().mapToInt(SheetPacker.Size::columns).sum();
+    SheetPacker.Packing best = null;
+    for (int columns = minColumns; columns <= Math.min(maxColumns, sumColumns); columns++) {
+      SheetPacker.Packing candidate = packer.pack(sheets, columns, maxRows);
+      if (candidate != null && (best == null || SheetPacker.isBetter(candidate, best, cellWidth, cellHeight))) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private static List<SheetPacker.Size> randomSheets(Random random, int count) {
+    List<SheetPacker.Size> sheets = new ArrayList<>();
+    for (int index = 0; index < count; index++) {
+      sheets.add(random.nextInt(3) == 0
+          ? size(1 + random.nextInt(4), 4 + random.nextInt(12))
+          : size(1 + random.nextInt(12), 1 + random.nextInt(3)));
+    }
+    return sheets;
+  }
+
+  private static void assertValidPacking(
+      List<SheetPacker.Size> sheets,
+      SheetPacker.Packing packing,
+      int columns,
+      int maxRows
+  ) {
+    assertEquals(sheets.size(), packing.positions().size());
+    assertTrue(packing.columns() <= columns);
+    assertTrue(packing.rows() <= maxRows);
+    boolean[] covered = new boolean[packing.columns() * packing.rows()];
+    int usedColumns = 0;
+    int usedRows = 0;
+    for (int index = 0; index < sheets.size(); index++) {
+      SheetPacker.Size sheet = sheets.get(index);
+      SheetPacker.Position position = packing.positions().get(index);
+      assertTrue(position.column() >= 0 && position.row() >= 0);
+      assertTrue(position.column() + sheet.columns() <= packing.columns());
+      assertTrue(position.row() + sheet.rows() <= packing.rows());
+      usedColumns = Math.max(usedColumns, position.column() + sheet.columns());
+      usedRows = Math.max(usedRows, position.row() + sheet.rows());
+      for (int row = 0; row < sheet.rows(); row++) {
+        for (int column = 0; column < sheet.columns(); column++) {
+          int cell = (position.row() + row) * packing.columns() + position.column() + column;
+          assertFalse(covered[cell], "sheet " + index + " overlaps another sheet");
+          covered[cell] = true;
+        }
+      }
+    }
+    assertEquals(usedColumns, packing.columns());
+    assertEquals(usedRows, packing.rows());
+  }
+
+  private static SheetPacker.Size size(int columns, int rows) {
+    return new SheetPacker.Size(columns, rows);
+  }
+
+  private static SheetPacker.Position position(int column, int row) {
+    return new SheetPacker.Position(column, row);
+  }
+}
@@ -0,0 +1,83 @@
+package pl.spritesheetgluer;
+
+import pl.spritesheetgluer.definition.CharacterDefinition;
+import pl.spritesheetgluer.sprite.SpriteSheetScanner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Times {@link SpriteSheetScanner#scan} over a tree of characters, animations and
+ * directions holding empty frame files; the scanner never reads them. Run it against a
+ * network share with {@code -Droot=...} to see the effect of per-call latency. Not part
+ * of the test suite.
+ */
+public final class SpriteSheetScannerBenchmark {
+  private static final int CHARACTERS = 40;
+  private static final int ANIMATIONS = 3;
+  private static final int DIRECTIONS = 8;
+  private static final int FRAMES = 40;
+  private static final int ROUNDS = 10;
+
+  private SpriteSheetScannerBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    String configuredRoot = System.getProperty("root");
+    Path root = configuredRoot == null ? Files.createTempDirectory("scanner") : Path.of(configuredRoot);
+    try {
+      if (configuredRoot == null) {
+        createTree(root);
+      }
+      SpriteSheetScanner scanner = new SpriteSheetScanner();
+      List<CharacterDefinition> characters = scanner.scan(root);
+      long frames = characters.stream()
+          .flatMap(character -> character.animations().stream())
+          .flatMap(animation -> animation.directions().stream())
+          .mapToLong(direction -> direction.frames().size())
+          .sum();
+      long best = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        long start = System.nanoTime();
+        scanner.scan(root);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.printf(
+          Locale.ROOT,
+          "%d characters, %d frames: best scan %.1f ms of %d%n",
+          characters.size(),
+          frames,
+          best / 1e6,
+          ROUNDS
+      );
+    } finally {
+      if (configuredRoot == null) {
+        try (Stream<Path> files = Files.walk(root)) {
+          for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+            Files.deleteIfExists(path);
+          }
+        }
+      }
+    }
+  }
+
+  private static void createTree(Path root) throws IOException {
+    for (int character = 0; character < CHARACTERS; character++) {
+      Path characterRoot = root.resolve(String.format(Locale.ROOT, "Character%02d", character));
+      for (int animation = 0; animation < ANIMATIONS; animation++) {
+        Path animationRoot = characterRoot.resolve("anim" + animation);
+        for (int direction = 0; direction < DIRECTIONS; direction++) {
+          Path directionRoot = Files.createDirectories(animationRoot.resolve("dir" + direction));
+          for (int frame = 0; frame < FRAMES; frame++) {
+            Files.createFile(directionRoot.resolve(String.format(Locale.ROOT, "Frame_%03d.png", frame)));
+          }
+        }
+      }
+    }
+  }
+}
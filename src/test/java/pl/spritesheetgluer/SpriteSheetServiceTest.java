@@ -3,16 +3,30 @@ package pl.spritesheetgluer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import pl.spritesheetgluer.definition.CharacterDefinition;
+import pl.spritesheetgluer.image.AtlasSurface;
+import pl.spritesheetgluer.image.FrameIngest;
+import pl.spritesheetgluer.image.MemoryBudget;
 import pl.spritesheetgluer.sprite.*;
 
 import javax.imageio.ImageIO;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -136,6 +150,387 @@ class SpriteSheetServiceTest {
     assertEquals(dropC, result.excludedFrames().get(0));
   }
 
+  @Test
+  void parallelDecodingMatchesSerialComposition() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("parallel"));
+    for (String animationName : List.of("idle", "walk", "run")) {
+      Path animation = Files.createDirectory(root.resolve(animationName));
+      for (int index = 0; index < 12; index++) {
+        int size = index % 5 == 4 ? 10 : 8;
+        Color color = new Color((index * 20) % 256, animationName.length() * 30, 255 - index * 10, 255);
+        writePng(animation.resolve(String.format("%02d.png", index)), size, size, color);
+      }
+    }
+    CharacterDefinition character = new SpriteSheetScanner().scan(root).get(0);
+
+    SpriteSheetComposition serial = new SpriteSheetComposer(FrameDecodingEngine.serial()).compose(character);
+    for (FrameDecodingEngine engine : List.of(
+        FrameDecodingEngine.forkJoin(4),
+        FrameDecodingEngine.virtualThreads(4)
+    )) {
+      SpriteSheetComposition parallel = new SpriteSheetComposer(engine).compose(character);
+      assertEquals(serial.directions(), parallel.directions());
+      assertEquals(serial.excludedFrames(), parallel.excludedFrames());
+      assertEquals(serial.render().columns(), parallel.render().columns());
+      assertEquals(serial.render().rows(), parallel.render().rows());
+      assertSamePixels(serial.render().image(), parallel.render().image());
+    }
+  }
+
+  @Test
+  void decodingEngineSharesItsThreadsBetweenConcurrentCalls() throws Exception {
+    for (FrameDecodingEngine engine : List.of(
+        FrameDecodingEngine.forkJoin(2),
+        FrameDecodingEngine.virtualThreads(2)
+    )) {
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger peak = new AtomicInteger();
+      List<Integer> inputs = List.of(0, 1, 2, 3, 4, 5, 6, 7);
+      FrameDecodingEngine.FrameTask<Integer, Integer> task = input -> {
+        peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException error) {
+          throw new IOException(error);
+        } finally {
+          running.decrementAndGet();
+        }
+        return input * 2;
+      };
+
+      try (ExecutorService callers = Executors.newFixedThreadPool(4)) {
+        List<Future<List<Integer>>> calls = new ArrayList<>();
+        for (int call = 0; call < 4; call++) {
+          calls.add(callers.submit(() -> engine.map(inputs, task)));
+        }
+        for (Future<List<Integer>> call : calls) {
+          assertEquals(List.of(0, 2, 4, 6, 8, 10, 12, 14), call.get());
+        }
+      }
+      assertTrue(peak.get() <= 2, engine.mode() + " ran " + peak.get() + " tasks at once");
+    }
+  }
+
+  @Test
+  void streamingCompositionKeepsOnlyTheDecodeWindowInMemory() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("streaming"));
+    Path animation = Files.createDirectory(root.resolve("walk"));
+    int frameTotal = 24;
+    for (int index = 0; index < frameTotal; index++) {
+      writePng(animation.resolve(String.format("%02d.png", index)), 16, 16, new Color(index * 10, 0, 0, 255));
+    }
+    CharacterDefinition character = new SpriteSheetScanner().scan(root).get(0);
+    long atlasBytes = (long) frameTotal * 16 * 16 * 4;
+    long frameBytes = 16 * 16 * 4;
+
+    SpriteSheetComposition buffered = new SpriteSheetComposer(
+        FrameDecodingEngine.forkJoin(4),
+        SpriteSheetComposer.UNBOUNDED_DECODE_WINDOW
+    ).compose(character);
+    SpriteSheetComposition streaming = new SpriteSheetComposer(FrameDecodingEngine.forkJoin(4), 3)
+        .compose(character);
+
+    assertTrue(streaming.peakPixelBytes() >= atlasBytes + frameBytes);
+    assertTrue(streaming.peakPixelBytes() <= atlasBytes + 3 * frameBytes);
+    assertTrue(buffered.peakPixelBytes() <= atlasBytes + frameTotal * frameBytes);
+    assertSamePixels(buffered.render().image(), streaming.render().image());
+  }
+
+  @Test
+  void composesOnEverySurfaceKind() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("surfaces"));
+    for (String animationName : List.of("idle", "walk")) {
+      Path animation = Files.createDirectory(root.resolve(animationName));
+      for (int index = 0; index < 5; index++) {
+        Color color = new Color(index * 50, animationName.length() * 40, 90, 100 + index * 30);
+        writePng(animation.resolve(String.format("%02d.png", index)), 12, 12, color);
+      }
+    }
+    CharacterDefinition character = new SpriteSheetScanner().scan(root).get(0);
+    SpriteSheetComposition heap = new SpriteSheetComposer().compose(character);
+
+    for (AtlasSurface.Kind kind : AtlasSurface.Kind.values()) {
+      SpriteSheetComposer composer = new SpriteSheetComposer(
+          FrameDecodingEngine.serial(),
+          1,
+          new FrameIngest(),
+          AtlasRenderOptions.defaults().withSurface(kind)
+      );
+      SpriteSheetComposition composition = composer.compose(character);
+      try (AtlasSurface surface = composition.render().surface()) {
+        assertSamePixels(heap.render().image(), surface.toImage());
+      }
+    }
+  }
+
+  @Test
+  void composesGrayFramesAsDrawImageDrawsThem() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("gray"));
+    Path south = Files.createDirectories(root.resolve("walk").resolve("south"));
+    List<Path> frames = List.of(
+        writeGrayPng(south.resolve("a.png"), 4, 4, DataBuffer.TYPE_BYTE, 0x40, 0xC0),
+        writeGrayPng(south.resolve("b.png"), 4, 4, DataBuffer.TYPE_USHORT, 0x4040, 0xC0C0),
+        writeGrayPng(south.resolve("c.png"), 4, 4, DataBuffer.TYPE_USHORT, 0x1234),
+        writeGrayPng(south.resolve("d.png"), 4, 4, DataBuffer.TYPE_BYTE, 0x40)
+    );
+
+    SpriteSheetResult result = new SpriteSheetService().generate(root).get(0);
+
+    BufferedImage sheet = ImageIO.read(result.outputPath().toFile());
+    for (int column = 0; column < frames.size(); column++) {
+      assertEquals(drawnPixel(frames.get(column)), sheet.getRGB(column * 4 + 1, 1), "frame " + column);
+    }
+  }
+
+  @Test
+  void skipsCharactersWhoseFramesAndSettingsAreUnchanged() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("knight"));
+    Path walk = Files.createDirectory(root.resolve("walk"));
+    writePng(walk.resolve("a.png"), 4, 4, Color.RED);
+    writePng(walk.resolve("b.png"), 4, 4, Color.GREEN);
+
+    SpriteSheetService service = new SpriteSheetService();
+    SpriteSheetResult first = service.generate(root).get(0);
+    SpriteSheetResult second = service.generate(root).get(0);
+
+    assertEquals(BuildStatus.REBUILT, first.status());
+    assertEquals(BuildStatus.SKIPPED, second.status());
+    assertEquals(first.columns(), second.columns());
+    assertEquals(first.frameCount(), second.frameCount());
+
+    // A touched but unchanged frame falls back to its content hash.
+    Files.setLastModifiedTime(walk.resolve("a.png"), FileTime.fromMillis(0));
+    assertEquals(BuildStatus.SKIPPED, service.generate(root).get(0).status());
+
+    writePng(walk.resolve("b.png"), 4, 4, Color.YELLOW);
+    SpriteSheetResult changed = service.generate(root).get(0);
+    assertEquals(BuildStatus.PATCHED, changed.status());
+    assertEquals(Color.YELLOW.getRGB(), ImageIO.read(changed.outputPath().toFile()).getRGB(4, 0));
+
+    Files.delete(changed.mappingPath());
+    assertEquals(BuildStatus.REBUILT, service.generate(root).get(0).status());
+    assertTrue(Files.exists(changed.mappingPath()));
+
+    SpriteSheetService forced = new SpriteSheetService(
+        new SpriteSheetScanner(),
+        new SpriteSheetComposer(),
+        new SpriteSheetWriter(),
+        new SpriteSheetMetadataWriter(),
+        IncrementalBuild.disabled()
+    );
+    assertEquals(BuildStatus.REBUILT, forced.generate(root).get(0).status());
+  }
+
+  @Test
+  void patchesOnlyTheCellsOfChangedFramesWhileTheLayoutHolds() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("knight"));
+    Path idle = Files.createDirectory(root.resolve("idle"));
+    Path walk = Files.createDirectory(root.resolve("walk"));
+    writePng(idle.resolve("a.png"), 4, 4, new Color(255, 0, 0, 128));
+    writePng(idle.resolve("b.png"), 4, 4, Color.GREEN);
+    writePng(walk.resolve("a.png"), 4, 4, Color.BLUE);
+    writePng(walk.resolve("b.png"), 4, 4, new Color(0, 0, 0, 0));
+    writePng(walk.resolve("c.png"), 4, 4, new Color(10, 200, 30, 77));
+
+    SpriteSheetService service = new SpriteSheetService();
+    assertEquals(BuildStatus.REBUILT, service.generate(root).get(0).status());
+
+    writePng(idle.resolve("b.png"), 4, 4, new Color(200, 100, 50, 99));
+    touchLater(idle.resolve("b.png"));
+    SpriteSheetResult patched = service.generate(root).get(0);
+    assertEquals(BuildStatus.PATCHED, patched.status());
+    assertEquals(1, patched.patchedCells());
+    CharacterDefinition character = new SpriteSheetScanner().scan(root).get(0);
+    try (AtlasSurface expected = new SpriteSheetComposer().compose(character).render().surface()) {
+      assertSamePixels(expected.toImage(), ImageIO.read(patched.outputPath().toFile()));
+    }
+
+    writePng(walk.resolve("d.png"), 4, 4, Color.MAGENTA);
+    SpriteSheetResult grown = service.generate(root).get(0);
+    assertEquals(BuildStatus.REBUILT, grown.status());
+    assertEquals(0, grown.patchedCells());
+    assertEquals(4, grown.columns());
+  }
+
+  @Test
+  void regeneratesOnlyCharactersContainingChangedPaths() throws Exception {
+    Path root = Files.createDirectory(tempDir.resolve("knight"));
+    Path walk = Files.createDirectory(root.resolve("walk"));
+    writePng(walk.resolve("a.png"), 4, 4, Color.RED);
+
+    SpriteSheetService service = new SpriteSheetService();
+    assertTrue(service.generate(root, List.of(tempDir.resolve("elsewhere.png"))).isEmpty());
+    assertFalse(Files.exists(root.resolve("knight.png")));
+
+    List<SpriteSheetResult> results = service.generate(root, List.of(walk.resolve("a.png")));
+    assertEquals(1, results.size());
+    assertEquals(BuildStatus.REBUILT, results.get(0).status());
+    assertEquals(1, service.generate(root, List.of(root)).size());
+  }
+
+  @Test
+  void buildsCharactersThroughThePipelineInScanOrderAndCollectsFailuresPerCharacter() throws Exception {
+    List<BuildPipelineOptions> pipelines = List.of(
+        BuildPipelineOptions.withParallelism(1),
+        BuildPipelineOptions.withParallelism(4),
+        new BuildPipelineOptions(new StageOptions(3, 1), new StageOptions(1, 1), new StageOptions(2, 1))
+    );
+    for (int run = 0; run < pipelines.size(); run++) {
+      Path root = writeCharactersWithOneBroken(tempDir.resolve("characters-" + run));
+      SpriteSheetService service = new SpriteSheetService(
+          new SpriteSheetScanner(),
+          new SpriteSheetComposer(),
+          new SpriteSheetWriter(),
+          new SpriteSheetMetadataWriter(),
+          IncrementalBuild.disabled(),
+          pipelines.get(run)
+      );
+      SpriteSheetBatchResult batch = service.generateBatch(root);
+
+      assertEquals(
+          List.of("archer", "knight", "mage", "rogue"),
+          batch.sheets().stream().map(SpriteSheetResult::characterName).toList()
+      );
+      assertEquals(1, batch.failures().size());
+      assertEquals("bard", batch.failures().get(0).characterName());
+      assertEquals(
+          List.of("compose", "encode", "write"),
+          batch.stages().stream().map(StageUtilization::name).toList()
+      );
+      assertEquals(
+          List.of(5, 4, 4),
+          batch.stages().stream().map(StageUtilization::jobs).toList()
+      );
+      for (SpriteSheetResult result : batch.sheets()) {
+        BufferedImage sheet = ImageIO.read(result.outputPath().toFile());
+        assertEquals(8, sheet.getWidth());
+        assertEquals(0xFF0000FF, sheet.getRGB(4, 0));
+      }
+    }
+
+    Path root = writeCharactersWithOneBroken(tempDir.resolve("characters"));
+    assertThrows(IOException.class, () -> new SpriteSheetService().generate(root));
+    assertTrue(Files.exists(root.resolve("rogue").resolve("rogue.png")));
+  }
+
+  @Test
+  void composesOnlyAsManyAtlasesAsTheMemoryBudgetHoldsAndReturnsEveryLease() throws Exception {
+    Path root = writeCharactersWithOneBroken(tempDir.resolve("characters"));
+    MemoryBudget budget = new MemoryBudget(8 * 4 * Integer.BYTES);
+    SpriteSheetService service = new SpriteSheetService(
+        new SpriteSheetScanner(),
+        new SpriteSheetComposer(),
+        new SpriteSheetWriter(),
+        new SpriteSheetMetadataWriter(),
+        IncrementalBuild.disabled(),
+        BuildPipelineOptions.withParallelism(4),
+        budget
+    );
+
+    SpriteSheetBatchResult batch = service.generateBatch(root);
+
+    assertEquals(4, batch.sheets().size());
+    assertEquals(1, batch.failures().size());
+    assertEquals(budget.totalBytes(), budget.availableBytes());
+  }
+
+  @Test
+  void writesCharacterSheetsThroughTheWriterAndLeavesNoTemporaryFiles() throws Exception {
+    Path root = writeCharactersWithOneBroken(tempDir.resolve("characters"));
+    AtomicInteger written = new AtomicInteger();
+    SpriteSheetWriter countingWriter = new SpriteSheetWriter() {
+      @Override
+      public void write(BufferedImage image, Path outputPath) throws IOException {
+        written.incrementAndGet();
+        super.write(image, outputPath);
+      }
+    };
+    SpriteSheetService service = new SpriteSheetService(
+        new SpriteSheetScanner(),
+        new SpriteSheetComposer(),
+        countingWriter,
+        new SpriteSheetMetadataWriter(),
+        IncrementalBuild.disabled(),
+        BuildPipelineOptions.withParallelism(4)
+    );
+
+    SpriteSheetBatchResult batch = service.generateBatch(root);
+
+    assertEquals(4, batch.sheets().size());
+    assertEquals(4, written.get());
+    for (SpriteSheetResult sheet : batch.sheets()) {
+      assertEquals(8, ImageIO.read(sheet.outputPath().toFile()).getWidth());
+    }
+    try (var files = Files.walk(root)) {
+      assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+    }
+  }
+
+  private static Path writeCharactersWithOneBroken(Path root) throws IOException {
+    for (String name : List.of("archer", "knight", "mage", "rogue")) {
+      Path south = Files.createDirectories(root.resolve(name).resolve("walk").resolve("south"));
+      writePng(south.resolve("a.png"), 4, 4, Color.RED);
+      writePng(south.resolve("b.png"), 4, 4, Color.BLUE);
+    }
+    Path broken = Files.createDirectories(root.resolve("bard").resolve("walk").resolve("south"));
+    Files.write(broken.resolve("a.png"), new byte[] {1, 2, 3});
+    return root;
+  }
+
+  /**
+   * Writes a PNG of 8-bit ({@link DataBuffer#TYPE_BYTE}) or 16-bit
+   * ({@link DataBuffer#TYPE_USHORT}) gray samples, with alpha when {@code samples} holds a
+   * gray and an alpha sample, and returns {@code path}.
+   */
+  static Path writeGrayPng(Path path, int width, int height, int dataType, int... samples) throws IOException {
+    boolean alpha = samples.length == 2;
+    ComponentColorModel colorModel = new ComponentColorModel(
+        ColorSpace.getInstance(ColorSpace.CS_GRAY),
+        alpha,
+        false,
+        alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE,
+        dataType
+    );
+    WritableRaster raster = colorModel.createCompatibleWritableRaster(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        raster.setPixel(x, y, samples);
+      }
+    }
+    ImageIO.write(new BufferedImage(colorModel, raster, false, null), "png", path.toFile());
+    return path;
+  }
+
+  /**
+   * The pixel at (1, 1) of {@code frame} as {@code Graphics2D.drawImage} draws the image
+   * ImageIO decodes onto transparent pixels.
+   */
+  static int drawnPixel(Path frame) throws IOException {
+    BufferedImage image = ImageIO.read(frame.toFile());
+    BufferedImage drawn = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = drawn.createGraphics();
+    try {
+      graphics.drawImage(image, 0, 0, null);
+    } finally {
+      graphics.dispose();
+    }
+    return drawn.getRGB(1, 1);
+  }
+
+  private static void touchLater(Path path) throws IOException {
+    Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2_000));
+  }
+
+  private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+      }
+    }
+  }
+
   private static void writePng(Path path, int width, int height, Color color) throws IOException {
     BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     Graphics2D graphics = image.createGraphics();